@@ -0,0 +1,246 @@
+package orm.loadtest;
+
+import orm.ConnectionPool;
+import orm.EntityManager;
+import orm.logging.LoggerObserver;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Test obciążeniowy ORM na modelach przykładowych i bazie z {@code docker-compose.yml}
+ * (adres w {@code Properties.yml} tego modułu). Przykład:
+ * <pre>
+ * LoadTest --threads 32 --rate 2000 --duration 60 --warmup 10 --mix find=50,query=15,save=15,update=15,delete=5
+ * </pre>
+ * Przy zadanym {@code --rate} każdy wątek wykonuje operacje według stałego harmonogramu, a opóźnienie
+ * liczone jest od zaplanowanego momentu startu, nie od faktycznego - operacje, które czekały na
+ * poprzednie, nie znikają z wyników (korekta coordinated omission). Osobno raportowany jest sam czas
+ * wykonania. {@code --rate 0} oznacza pętlę zamkniętą (maksymalna przepustowość, bez korekty).
+ */
+public class LoadTest {
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseOptions(args);
+        int threads = Integer.parseInt(options.getOrDefault("threads", "16"));
+        double rate = Double.parseDouble(options.getOrDefault("rate", "1000"));
+        long durationNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(options.getOrDefault("duration", "60")));
+        long warmUpNanos = TimeUnit.SECONDS.toNanos(Long.parseLong(options.getOrDefault("warmup", "10")));
+        Map<Workload.Operation, Integer> mix = parseMix(options.getOrDefault("mix", "find=50,query=15,save=15,update=15,delete=5"));
+
+        EntityManager entityManager = new EntityManager(new LoggerObserver() {
+            @Override
+            public void notify(String message) {
+                // przy tysiącach operacji na sekundę wypisujemy tylko ostrzeżenia
+                if (message.startsWith("[WARN]")) {
+                    super.notify(message);
+                }
+            }
+        });
+        Workload workload = new Workload(entityManager,
+                Integer.parseInt(options.getOrDefault("departments", "50")),
+                Integer.parseInt(options.getOrDefault("fanout", "20")),
+                Integer.parseInt(options.getOrDefault("students", "500")),
+                Integer.parseInt(options.getOrDefault("projects", "50")),
+                Integer.parseInt(options.getOrDefault("projects-per-student", "3")));
+        if (!"false".equals(options.get("seed"))) {
+            long seedStart = System.nanoTime();
+            workload.seed();
+            System.out.printf("Dane startowe gotowe w %d ms%n", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - seedStart));
+        }
+
+        ConnectionPool pool = ConnectionPool.getInstance();
+        LongAdder completed = new LongAdder();
+        List<Worker> workers = new ArrayList<>();
+        long start = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+        long measureFrom = start + warmUpNanos;
+        long end = measureFrom + durationNanos;
+        long periodNanos = rate > 0 ? (long) (1e9 * threads / rate) : 0;
+        for (int i = 0; i < threads; i++) {
+            // przesunięcie startów rozkłada operacje wątków równomiernie w czasie
+            long firstNanos = start + (periodNanos * i) / threads;
+            Worker worker = new Worker(workload, mix, firstNanos, periodNanos, measureFrom, end, completed);
+            Thread thread = new Thread(worker, "loadtest-" + i);
+            worker.thread = thread;
+            workers.add(worker);
+            thread.start();
+        }
+
+        long previous = 0;
+        long waitAtStart = 0;
+        long borrowsAtStart = 0;
+        boolean measuring = false;
+        while (System.nanoTime() < end) {
+            Thread.sleep(1000);
+            if (!measuring && System.nanoTime() >= measureFrom) {
+                measuring = true;
+                waitAtStart = pool.getTotalWaitNanos();
+                borrowsAtStart = pool.getBorrowCount();
+            }
+            long done = completed.sum();
+            System.out.printf("%s: %d ops/s%n", measuring ? "pomiar" : "rozgrzewka", done - previous);
+            previous = done;
+        }
+        for (Worker worker : workers) {
+            worker.thread.join();
+        }
+        long poolWaitNanos = pool.getTotalWaitNanos() - waitAtStart;
+        long borrows = pool.getBorrowCount() - borrowsAtStart;
+
+        report(workers, mix, durationNanos, rate, poolWaitNanos, borrows, pool.getLeakReport());
+        entityManager.flush();
+        System.exit(0);
+    }
+
+    private static void report(List<Worker> workers, Map<Workload.Operation, Integer> mix, long durationNanos,
+                               double rate, long poolWaitNanos, long borrows, String leaks) {
+        LatencyHistogram allLatency = new LatencyHistogram();
+        long allErrors = 0;
+        System.out.printf("%n%-8s %9s %7s %9s %9s %9s %9s %9s %12s%n",
+                "op", "count", "err%", "p50", "p90", "p99", "p99.9", "max", "service p99");
+        for (Workload.Operation operation : mix.keySet()) {
+            LatencyHistogram latency = new LatencyHistogram();
+            LatencyHistogram service = new LatencyHistogram();
+            long errors = 0;
+            for (Worker worker : workers) {
+                latency.add(worker.latency.get(operation));
+                service.add(worker.service.get(operation));
+                errors += worker.errors.get(operation)[0];
+            }
+            allLatency.add(latency);
+            allErrors += errors;
+            printRow(operation.name().toLowerCase(), latency, service.percentile(99), errors);
+        }
+        printRow("all", allLatency, -1, allErrors);
+
+        double seconds = durationNanos / 1e9;
+        System.out.printf("%nprzepustowość: %.0f ops/s (cel: %s)%n", allLatency.getCount() / seconds,
+                rate > 0 ? String.format("%.0f ops/s", rate) : "pętla zamknięta");
+        System.out.printf("oczekiwanie na połączenie: %.3f ms średnio na wypożyczenie, łącznie %.1f s w %d wypożyczeniach%n",
+                borrows == 0 ? 0 : poolWaitNanos / 1e6 / borrows, poolWaitNanos / 1e9, borrows);
+        if (!leaks.isEmpty()) {
+            System.out.printf("%nczasy wypożyczeń:%n%s", leaks);
+        }
+    }
+
+    private static void printRow(String name, LatencyHistogram latency, long serviceP99, long errors) {
+        long count = latency.getCount();
+        System.out.printf("%-8s %9d %6.2f%% %9s %9s %9s %9s %9s %12s%n", name, count,
+                count == 0 ? 0 : 100.0 * errors / count,
+                millis(latency.percentile(50)), millis(latency.percentile(90)), millis(latency.percentile(99)),
+                millis(latency.percentile(99.9)), millis(latency.getMax()), serviceP99 < 0 ? "" : millis(serviceP99));
+    }
+
+    private static String millis(long micros) {
+        return String.format("%.2fms", micros / 1000.0);
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--") || i + 1 >= args.length) {
+                throw new IllegalArgumentException("Oczekiwano --opcja wartość, otrzymano: " + args[i]);
+            }
+            options.put(args[i].substring(2), args[++i]);
+        }
+        return options;
+    }
+
+    private static Map<Workload.Operation, Integer> parseMix(String mix) {
+        Map<Workload.Operation, Integer> weights = new EnumMap<>(Workload.Operation.class);
+        for (String entry : mix.split(",")) {
+            String[] parts = entry.split("=");
+            weights.put(Workload.Operation.valueOf(parts[0].trim().toUpperCase()), Integer.parseInt(parts[1].trim()));
+        }
+        return weights;
+    }
+
+    /**
+     * Wątek obciążający z własnymi histogramami - bez współdzielonego stanu na ścieżce pomiaru.
+     */
+    private static class Worker implements Runnable {
+        private final Workload workload;
+        private final Workload.Operation[] operations;
+        private final int[] cumulativeWeights;
+        private final long firstNanos;
+        private final long periodNanos;
+        private final long measureFrom;
+        private final long end;
+        private final LongAdder completed;
+        private final Map<Workload.Operation, LatencyHistogram> latency = new EnumMap<>(Workload.Operation.class);
+        private final Map<Workload.Operation, LatencyHistogram> service = new EnumMap<>(Workload.Operation.class);
+        private final Map<Workload.Operation, long[]> errors = new EnumMap<>(Workload.Operation.class);
+        private Thread thread;
+
+        Worker(Workload workload, Map<Workload.Operation, Integer> mix, long firstNanos, long periodNanos,
+               long measureFrom, long end, LongAdder completed) {
+            this.workload = workload;
+            this.operations = mix.keySet().toArray(new Workload.Operation[0]);
+            this.cumulativeWeights = new int[operations.length];
+            int sum = 0;
+            for (int i = 0; i < operations.length; i++) {
+                sum += mix.get(operations[i]);
+                cumulativeWeights[i] = sum;
+                latency.put(operations[i], new LatencyHistogram());
+                service.put(operations[i], new LatencyHistogram());
+                errors.put(operations[i], new long[1]);
+            }
+            this.firstNanos = firstNanos;
+            this.periodNanos = periodNanos;
+            this.measureFrom = measureFrom;
+            this.end = end;
+            this.completed = completed;
+        }
+
+        @Override
+        public void run() {
+            long intended = firstNanos;
+            while (true) {
+                long now = System.nanoTime();
+                if (periodNanos == 0) {
+                    intended = now;
+                } else if (intended > now) {
+                    LockSupport.parkNanos(intended - now);
+                }
+                if (intended >= end) {
+                    return;
+                }
+                Workload.Operation operation = pick();
+                long started = System.nanoTime();
+                boolean failed = false;
+                try {
+                    workload.execute(operation);
+                } catch (RuntimeException e) {
+                    failed = true;
+                }
+                long finished = System.nanoTime();
+                completed.increment();
+                if (intended >= measureFrom) {
+                    latency.get(operation).record(TimeUnit.NANOSECONDS.toMicros(finished - Math.min(intended, started)));
+                    service.get(operation).record(TimeUnit.NANOSECONDS.toMicros(finished - started));
+                    if (failed) {
+                        errors.get(operation)[0]++;
+                    }
+                }
+                intended += periodNanos;
+            }
+        }
+
+        private Workload.Operation pick() {
+            int roll = ThreadLocalRandom.current().nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+            for (int i = 0; i < cumulativeWeights.length; i++) {
+                if (roll < cumulativeWeights[i]) {
+                    return operations[i];
+                }
+            }
+            return operations[operations.length - 1];
+        }
+    }
+}
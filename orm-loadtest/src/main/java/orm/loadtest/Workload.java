@@ -0,0 +1,152 @@
+package orm.loadtest;
+
+import orm.EntityManager;
+import orm.ConnectionPool;
+import orm.models.*;
+import orm.schema.SchemaGenerator;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Mieszane obciążenie na modelach przykładowych. Dane startowe odwzorowują typowe rozgałęzienie relacji:
+ * działy z {@code fanOut} pracownikami (co drugi z samochodem) oraz studenci zapisani do kilku projektów.
+ * Usuwane są wyłącznie encje wstawione w trakcie testu, więc dane startowe pozostają spójne.
+ */
+class Workload {
+
+    enum Operation { SAVE, FIND, UPDATE, DELETE, QUERY }
+
+    private static final Class<?>[] MODELS = {Department.class, Employee.class, Car.class, Student.class, Project.class};
+
+    private final EntityManager entityManager;
+    private final int departments;
+    private final int fanOut;
+    private final int students;
+    private final int projects;
+    private final int projectsPerStudent;
+    private final AtomicInteger nextEmployeeId = new AtomicInteger();
+    private final Queue<Employee> inserted = new ConcurrentLinkedQueue<>();
+
+    Workload(EntityManager entityManager, int departments, int fanOut, int students, int projects, int projectsPerStudent) {
+        this.entityManager = entityManager;
+        this.departments = departments;
+        this.fanOut = fanOut;
+        this.students = students;
+        this.projects = projects;
+        this.projectsPerStudent = Math.min(projectsPerStudent, projects);
+        this.nextEmployeeId.set(departments * fanOut + 1);
+    }
+
+    /**
+     * Tworzy schemat, czyści tabele modeli i wstawia dane startowe.
+     */
+    void seed() throws SQLException {
+        new SchemaGenerator(ConnectionPool.getInstance()).create(MODELS);
+        for (String table : new String[]{"students_projects", "cars", "employees", "departments", "students", "projects"}) {
+            entityManager.executeUpdate("DELETE FROM " + table);
+        }
+
+        for (int d = 1; d <= departments; d++) {
+            Department department = new Department();
+            department.setId(d);
+            department.setName("department-" + d);
+            entityManager.save(department);
+            for (int i = 1; i <= fanOut; i++) {
+                int id = (d - 1) * fanOut + i;
+                Employee employee = employee(id, department);
+                entityManager.save(employee);
+                if (id % 2 == 0) {
+                    entityManager.save(car(id, employee));
+                }
+            }
+        }
+
+        List<Project> projectList = new ArrayList<>();
+        for (int p = 1; p <= projects; p++) {
+            Project project = new Project();
+            project.setId(p);
+            project.setName("project-" + p);
+            entityManager.save(project);
+            projectList.add(project);
+        }
+        for (int s = 1; s <= students; s++) {
+            Student student = new Student();
+            student.setId(s);
+            student.setName("student-" + s);
+            for (int k = 0; k < projectsPerStudent; k++) {
+                student.getProjects().add(projectList.get((s + k) % projects));
+            }
+            entityManager.save(student);
+        }
+        entityManager.flush();
+    }
+
+    void execute(Operation operation) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        switch (operation) {
+            case SAVE -> {
+                int id = nextEmployeeId.getAndIncrement();
+                Department department = new Department();
+                department.setId(1 + random.nextInt(departments));
+                Employee employee = employee(id, department);
+                entityManager.save(employee);
+                if (random.nextBoolean()) {
+                    Car car = car(id, employee);
+                    entityManager.save(car);
+                    employee.setCar(car);
+                }
+                inserted.add(employee);
+            }
+            case FIND -> {
+                // relacje: @OneToMany (dział), @ManyToOne + @OneToOne (pracownik), @ManyToMany (student)
+                switch (random.nextInt(3)) {
+                    case 0 -> entityManager.find(Department.class, 1 + random.nextInt(departments));
+                    case 1 -> entityManager.find(Employee.class, 1 + random.nextInt(departments * fanOut));
+                    default -> entityManager.find(Student.class, 1 + random.nextInt(students));
+                }
+            }
+            case UPDATE -> {
+                Employee employee = entityManager.find(Employee.class, 1 + random.nextInt(departments * fanOut));
+                if (employee != null) {
+                    employee.setName("employee-" + random.nextInt(1_000_000));
+                    entityManager.update(employee);
+                }
+            }
+            case DELETE -> {
+                Employee employee = inserted.poll();
+                if (employee == null) {
+                    execute(Operation.SAVE);
+                    return;
+                }
+                if (employee.getCar() != null) {
+                    entityManager.delete(employee.getCar());
+                }
+                entityManager.delete(employee);
+            }
+            case QUERY -> entityManager.executeQuery("SELECT * FROM employees WHERE department_id = ?",
+                    Employee.class, 1 + random.nextInt(departments));
+        }
+    }
+
+    private static Employee employee(int id, Department department) {
+        Employee employee = new Employee();
+        employee.setId(id);
+        employee.setName("employee-" + id);
+        employee.setDepartment(department);
+        return employee;
+    }
+
+    private static Car car(int id, Employee employee) {
+        Car car = new Car();
+        car.setId(id);
+        car.setModel("model-" + id % 17);
+        car.setEmployee(employee);
+        return car;
+    }
+}
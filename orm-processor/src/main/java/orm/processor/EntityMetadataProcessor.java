@@ -0,0 +1,371 @@
+package orm.processor;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.*;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Procesor adnotacji generujący dla każdej klasy @Table klasę {@code <Encja>_Metadata}
+ * z listą kolumn, gotowym SQL oraz mapowaniem wiersza na encję bez refleksji.
+ * Nazwa klasy powstaje z nazwy binarnej encji, więc encja zagnieżdżona {@code Outer.Row} dostaje
+ * {@code Outer$Row_Metadata} - tak jak szuka jej EntityMetadataRegistry.
+ * Adnotacje są rozpoznawane po nazwie, więc moduł nie zależy od głównego artefaktu ORM.
+ */
+@SupportedAnnotationTypes(EntityMetadataProcessor.TABLE)
+public class EntityMetadataProcessor extends AbstractProcessor {
+
+    static final String TABLE = "orm.annotations.Table";
+    static final String COLUMN = "orm.annotations.Column";
+    static final String ID = "orm.annotations.Id";
+    static final String LOB = "orm.annotations.Lob";
+    static final String INTERNED = "orm.annotations.Interned";
+    static final String PARTITION_BY = "orm.annotations.PartitionBy";
+    /**
+     * Adnotacje pól, przy których zapis wymaga ścieżki refleksyjnej (klucze obce, kaskady, wersja).
+     */
+    static final List<String> REFLECTIVE_WRITE = List.of("orm.annotations.OneToOne", "orm.annotations.OneToMany",
+            "orm.annotations.ManyToOne", "orm.annotations.ManyToMany", "orm.annotations.Version");
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        for (TypeElement annotation : annotations) {
+            for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+                if (element.getKind() == ElementKind.CLASS) {
+                    generate((TypeElement) element);
+                }
+            }
+        }
+        return false;
+    }
+
+    private void generate(TypeElement entity) {
+        if (!isReachable(entity)) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE,
+                    "Skipping metadata for " + entity + ": private or non-static nested class", entity);
+            return;
+        }
+        if (!hasAccessibleNoArgConstructor(entity)) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE,
+                    "Skipping metadata for " + entity + ": no non-private no-arg constructor", entity);
+            return;
+        }
+
+        String tableName = (String) annotationValue(entity, TABLE, "name");
+        List<ColumnField> columns = new ArrayList<>();
+        ColumnField id = null;
+        boolean writable = annotationValue(entity, PARTITION_BY, null) == null;
+
+        for (VariableElement field : ElementFilter.fieldsIn(entity.getEnclosedElements())) {
+            for (String annotation : REFLECTIVE_WRITE) {
+                if (annotationValue(field, annotation, null) != null) {
+                    writable = false;
+                }
+            }
+            String columnName = (String) annotationValue(field, COLUMN, "name");
+            if (columnName == null) {
+                continue;
+            }
+            if (annotationValue(field, LOB, null) != null || annotationValue(field, INTERNED, null) != null) {
+                // kolumny @Lob dostają uchwyt, a @Interned przechodzą przez tablicę deduplikującą EntityManagera
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE,
+                        "Skipping metadata for " + entity + ": @Lob/@Interned field " + field.getSimpleName(), entity);
+                return;
+            }
+            ColumnField column = new ColumnField(field, columnName, entity);
+            columns.add(column);
+            if (annotationValue(field, ID, null) != null) {
+                id = column;
+            }
+        }
+
+        if (id == null) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE,
+                    "Skipping metadata for " + entity + ": no @Id @Column field", entity);
+            return;
+        }
+
+        String packageName = processingEnv.getElementUtils().getPackageOf(entity).getQualifiedName().toString();
+        String binaryName = processingEnv.getElementUtils().getBinaryName(entity).toString();
+        String className = (packageName.isEmpty() ? binaryName : binaryName.substring(packageName.length() + 1))
+                + "_Metadata";
+
+        try {
+            JavaFileObject file = processingEnv.getFiler().createSourceFile(
+                    packageName.isEmpty() ? className : packageName + "." + className, entity);
+            try (Writer out = file.openWriter()) {
+                out.write(source(packageName, entity.getQualifiedName().toString(), className, tableName, id,
+                        columns, writable));
+            }
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                    "Cannot generate metadata for " + entity + ": " + e.getMessage(), entity);
+        }
+    }
+
+    private String source(String packageName, String entity, String className, String tableName,
+                          ColumnField id, List<ColumnField> columns, boolean writable) {
+        StringBuilder src = new StringBuilder();
+        if (!packageName.isEmpty()) {
+            src.append("package ").append(packageName).append(";\n\n");
+        }
+        src.append("import java.lang.invoke.MethodHandles;\n")
+                .append("import java.lang.invoke.VarHandle;\n")
+                .append("import java.sql.PreparedStatement;\n")
+                .append("import java.sql.ResultSet;\n")
+                .append("import java.sql.SQLException;\n")
+                .append("import java.util.List;\n\n")
+                .append("@javax.annotation.processing.Generated(\"").append(getClass().getName()).append("\")\n")
+                .append("public final class ").append(className)
+                .append(" implements orm.metadata.EntityMetadata<").append(entity).append("> {\n\n");
+
+        StringBuilder columnList = new StringBuilder();
+        for (ColumnField column : columns) {
+            if (columnList.length() > 0) {
+                columnList.append(", ");
+            }
+            columnList.append('"').append(column.columnName).append('"');
+        }
+        src.append("    private static final List<String> COLUMNS = List.of(").append(columnList).append(");\n");
+        src.append("    private static final String SELECT_BY_ID = \"SELECT * FROM ").append(tableName)
+                .append(" WHERE ").append(id.columnName).append(" = ?\";\n");
+
+        List<ColumnField> updated = new ArrayList<>(columns);
+        updated.remove(id);
+        String insertSql = null;
+        String updateSql = null;
+        if (writable) {
+            StringBuilder names = new StringBuilder();
+            StringBuilder placeholders = new StringBuilder();
+            for (ColumnField column : columns) {
+                names.append(names.length() > 0 ? ", " : "").append(column.columnName);
+                placeholders.append(placeholders.length() > 0 ? ", ?" : "?");
+            }
+            insertSql = "INSERT INTO " + tableName + " (" + names + ") VALUES (" + placeholders + ")";
+            if (!updated.isEmpty()) {
+                StringBuilder assignments = new StringBuilder();
+                for (ColumnField column : updated) {
+                    assignments.append(assignments.length() > 0 ? ", " : "").append(column.columnName).append(" = ?");
+                }
+                updateSql = "UPDATE " + tableName + " SET " + assignments + " WHERE " + id.columnName + " = ?";
+            }
+        }
+        src.append("    private static final String INSERT = ")
+                .append(insertSql == null ? "null" : "\"" + insertSql + "\"").append(";\n");
+        src.append("    private static final String UPDATE = ")
+                .append(updateSql == null ? "null" : "\"" + updateSql + "\"").append(";\n");
+
+        for (ColumnField column : columns) {
+            if (column.needsVarHandle()) {
+                src.append("    private static final VarHandle ").append(column.handleName())
+                        .append(" = handle(\"").append(column.fieldName).append("\", ")
+                        .append(column.erasure()).append(".class);\n");
+            }
+        }
+
+        src.append("\n    @Override\n    public Class<").append(entity).append("> entityClass() {\n")
+                .append("        return ").append(entity).append(".class;\n    }\n");
+        src.append("\n    @Override\n    public String tableName() {\n")
+                .append("        return \"").append(tableName).append("\";\n    }\n");
+        src.append("\n    @Override\n    public String idColumn() {\n")
+                .append("        return \"").append(id.columnName).append("\";\n    }\n");
+        src.append("\n    @Override\n    public List<String> columns() {\n        return COLUMNS;\n    }\n");
+        src.append("\n    @Override\n    public String selectByIdSql() {\n        return SELECT_BY_ID;\n    }\n");
+
+        src.append("\n    @Override\n    public ").append(entity).append(" map(ResultSet resultSet) throws SQLException {\n")
+                .append("        ").append(entity).append(" entity = new ").append(entity).append("();\n");
+        for (ColumnField column : columns) {
+            src.append("        ").append(column.assign("entity", column.read("resultSet"))).append(";\n");
+        }
+        src.append("        return entity;\n    }\n");
+
+        src.append("\n    @Override\n    public Object getId(").append(entity).append(" entity) {\n")
+                .append("        return ").append(id.access("entity")).append(";\n    }\n");
+
+        src.append("\n    @Override\n    public String insertSql() {\n        return INSERT;\n    }\n");
+        src.append("\n    @Override\n    public void bindInsert(PreparedStatement statement, ").append(entity)
+                .append(" entity) throws SQLException {\n");
+        appendBindings(src, insertSql == null ? null : columns);
+        src.append("    }\n");
+
+        src.append("\n    @Override\n    public String updateSql() {\n        return UPDATE;\n    }\n");
+        src.append("\n    @Override\n    public void bindUpdate(PreparedStatement statement, ").append(entity)
+                .append(" entity) throws SQLException {\n");
+        if (updateSql != null) {
+            updated.add(id);
+        }
+        appendBindings(src, updateSql == null ? null : updated);
+        src.append("    }\n");
+
+        if (columns.stream().anyMatch(ColumnField::needsVarHandle)) {
+            src.append("\n    private static VarHandle handle(String name, Class<?> type) {\n")
+                    .append("        try {\n")
+                    .append("            return MethodHandles.privateLookupIn(").append(entity)
+                    .append(".class, MethodHandles.lookup()).findVarHandle(").append(entity).append(".class, name, type);\n")
+                    .append("        } catch (ReflectiveOperationException e) {\n")
+                    .append("            throw new ExceptionInInitializerError(e);\n")
+                    .append("        }\n    }\n");
+        }
+
+        src.append("}\n");
+        return src.toString();
+    }
+
+    /**
+     * Parametry kolejnych kolumn; {@code null} oznacza zapis obsługiwany tylko przez ścieżkę refleksyjną.
+     */
+    private void appendBindings(StringBuilder src, List<ColumnField> columns) {
+        if (columns == null) {
+            src.append("        throw new UnsupportedOperationException(\"Entity is written through reflection\");\n");
+            return;
+        }
+        for (int i = 0; i < columns.size(); i++) {
+            src.append("        statement.setObject(").append(i + 1).append(", ")
+                    .append(columns.get(i).access("entity")).append(");\n");
+        }
+    }
+
+    /**
+     * Czy wygenerowana klasa z tego samego pakietu może utworzyć encję: klasy zagnieżdżone muszą być statyczne,
+     * a żadna klasa w łańcuchu nie może być prywatna.
+     */
+    private boolean isReachable(TypeElement entity) {
+        for (Element element = entity; element instanceof TypeElement type; element = element.getEnclosingElement()) {
+            if (type.getModifiers().contains(Modifier.PRIVATE)) {
+                return false;
+            }
+            if (type.getNestingKind() == NestingKind.MEMBER && !type.getModifiers().contains(Modifier.STATIC)) {
+                return false;
+            }
+            if (type.getNestingKind() == NestingKind.LOCAL || type.getNestingKind() == NestingKind.ANONYMOUS) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean hasAccessibleNoArgConstructor(TypeElement entity) {
+        for (ExecutableElement constructor : ElementFilter.constructorsIn(entity.getEnclosedElements())) {
+            if (constructor.getParameters().isEmpty() && !constructor.getModifiers().contains(Modifier.PRIVATE)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Zwraca wartość atrybutu adnotacji o podanej nazwie typu; dla {@code attribute == null} zwraca samą adnotację.
+     */
+    private Object annotationValue(Element element, String annotationType, String attribute) {
+        for (AnnotationMirror mirror : element.getAnnotationMirrors()) {
+            if (!mirror.getAnnotationType().toString().equals(annotationType)) {
+                continue;
+            }
+            if (attribute == null) {
+                return mirror;
+            }
+            for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry
+                    : mirror.getElementValues().entrySet()) {
+                if (entry.getKey().getSimpleName().contentEquals(attribute)) {
+                    return entry.getValue().getValue();
+                }
+            }
+        }
+        return null;
+    }
+
+    private class ColumnField {
+        final String fieldName;
+        final String columnName;
+        final TypeMirror type;
+        final String setter;
+        final String getter;
+
+        ColumnField(VariableElement field, String columnName, TypeElement owner) {
+            this.fieldName = field.getSimpleName().toString();
+            this.columnName = columnName;
+            this.type = field.asType();
+
+            String capitalized = Character.toUpperCase(fieldName.charAt(0)) + fieldName.substring(1);
+            String foundSetter = null;
+            String foundGetter = null;
+            for (ExecutableElement method : ElementFilter.methodsIn(owner.getEnclosedElements())) {
+                if (method.getModifiers().contains(Modifier.PRIVATE)) {
+                    continue;
+                }
+                String name = method.getSimpleName().toString();
+                if (name.equals("set" + capitalized) && method.getParameters().size() == 1
+                        && processingEnv.getTypeUtils().isSameType(method.getParameters().get(0).asType(), type)) {
+                    foundSetter = name;
+                }
+                if ((name.equals("get" + capitalized) || name.equals("is" + capitalized))
+                        && method.getParameters().isEmpty()
+                        && processingEnv.getTypeUtils().isSameType(method.getReturnType(), type)) {
+                    foundGetter = name;
+                }
+            }
+            this.setter = foundSetter;
+            this.getter = foundGetter;
+        }
+
+        boolean needsVarHandle() {
+            return setter == null || getter == null;
+        }
+
+        String handleName() {
+            return "FIELD_" + fieldName.toUpperCase();
+        }
+
+        String erasure() {
+            return processingEnv.getTypeUtils().erasure(type).toString();
+        }
+
+        String read(String resultSet) {
+            String column = "\"" + columnName + "\"";
+            return switch (type.getKind()) {
+                case INT -> resultSet + ".getInt(" + column + ")";
+                case LONG -> resultSet + ".getLong(" + column + ")";
+                case DOUBLE -> resultSet + ".getDouble(" + column + ")";
+                case FLOAT -> resultSet + ".getFloat(" + column + ")";
+                case SHORT -> resultSet + ".getShort(" + column + ")";
+                case BYTE -> resultSet + ".getByte(" + column + ")";
+                case BOOLEAN -> resultSet + ".getBoolean(" + column + ")";
+                default -> erasure().equals("java.lang.String")
+                        ? resultSet + ".getString(" + column + ")"
+                        : resultSet + ".getObject(" + column + ", " + erasure() + ".class)";
+            };
+        }
+
+        String assign(String target, String value) {
+            if (setter != null) {
+                return target + "." + setter + "(" + value + ")";
+            }
+            return handleName() + ".set(" + target + ", " + value + ")";
+        }
+
+        String access(String target) {
+            if (getter != null) {
+                return target + "." + getter + "()";
+            }
+            String cast = type.getKind() == TypeKind.DECLARED ? "(" + erasure() + ") " : "(" + type + ") ";
+            return cast + handleName() + ".get(" + target + ")";
+        }
+    }
+}
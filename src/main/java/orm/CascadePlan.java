@@ -0,0 +1,185 @@
+package orm;
+
+import orm.annotations.CascadeType;
+import orm.annotations.ManyToMany;
+import orm.annotations.ManyToOne;
+import orm.annotations.OneToMany;
+import orm.annotations.OneToOne;
+
+import java.lang.reflect.Field;
+import java.util.*;
+
+/**
+ * Graf encji osiągalnych z korzenia przez relacje z danym {@link CascadeType}, podzielony na poziomy:
+ * encja trafia na poziom wyższy niż każda encja grafu, na którą wskazuje kluczem obcym. Wstawianie idzie
+ * od poziomu 0 (rodzice dostają klucze, zanim wstawione zostaną dzieci), usuwanie - od najwyższego.
+ * Dzieci @OneToMany i @OneToOne (klucz po drugiej stronie) pamiętają rodzica, aby klucz obcy dało się
+ * wypełnić także wtedy, gdy dziecko nie ma pola wskazującego rodzica.
+ */
+final class CascadePlan {
+
+    private final List<List<Object>> levels;
+    private final Map<Object, Map<String, Object>> parentKeys;
+
+    private CascadePlan(List<List<Object>> levels, Map<Object, Map<String, Object>> parentKeys) {
+        this.levels = levels;
+        this.parentKeys = parentKeys;
+    }
+
+    /**
+     * Czy którakolwiek relacja klasy przenosi operacje albo usuwa osierocone wiersze.
+     */
+    static boolean hasCascade(Class<?> clazz) {
+        for (Field field : clazz.getDeclaredFields()) {
+            if (cascade(field).length > 0) {
+                return true;
+            }
+            OneToMany oneToMany = field.getAnnotation(OneToMany.class);
+            OneToOne oneToOne = field.getAnnotation(OneToOne.class);
+            if ((oneToMany != null && oneToMany.orphanRemoval()) || (oneToOne != null && oneToOne.orphanRemoval())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Czy którakolwiek relacja klasy przenosi daną operację.
+     */
+    static boolean cascades(Class<?> clazz, CascadeType operation) {
+        for (Field field : clazz.getDeclaredFields()) {
+            if (cascades(field, operation)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static boolean cascades(Field field, CascadeType operation) {
+        for (CascadeType type : cascade(field)) {
+            if (type == operation || type == CascadeType.ALL) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static CascadePlan of(Object root, CascadeType operation) throws IllegalAccessException {
+        Set<Object> nodes = Collections.newSetFromMap(new IdentityHashMap<>());
+        Map<Object, Map<String, Object>> parentKeys = new IdentityHashMap<>();
+        Deque<Object> toVisit = new ArrayDeque<>(List.of(root));
+        List<Object> order = new ArrayList<>();
+        while (!toVisit.isEmpty()) {
+            Object entity = toVisit.poll();
+            if (!nodes.add(entity)) {
+                continue;
+            }
+            order.add(entity);
+            for (Field field : entity.getClass().getDeclaredFields()) {
+                if (!cascades(field, operation)) {
+                    continue;
+                }
+                field.setAccessible(true);
+                Object value = field.get(entity);
+                if (value == null) {
+                    continue;
+                }
+                OneToMany oneToMany = field.getAnnotation(OneToMany.class);
+                OneToOne oneToOne = field.getAnnotation(OneToOne.class);
+                Collection<?> related = value instanceof Collection<?> collection ? collection : List.of(value);
+                for (Object child : related) {
+                    if (oneToMany != null) {
+                        parentKeys.computeIfAbsent(child, k -> new LinkedHashMap<>()).put(oneToMany.mappedBy(), entity);
+                    } else if (oneToOne != null && !oneToOne.foreignKeyInThisTable()) {
+                        parentKeys.computeIfAbsent(child, k -> new LinkedHashMap<>()).put(oneToOne.column(), entity);
+                    }
+                    toVisit.add(child);
+                }
+            }
+        }
+
+        Map<Object, Integer> level = new IdentityHashMap<>();
+        Set<Object> visiting = Collections.newSetFromMap(new IdentityHashMap<>());
+        int depth = 0;
+        for (Object entity : order) {
+            depth = Math.max(depth, level(entity, nodes, parentKeys, level, visiting));
+        }
+        List<List<Object>> levels = new ArrayList<>();
+        for (int i = 0; i <= depth; i++) {
+            levels.add(new ArrayList<>());
+        }
+        for (Object entity : order) {
+            levels.get(level.get(entity)).add(entity);
+        }
+        return new CascadePlan(levels, parentKeys);
+    }
+
+    /**
+     * Poziomy w kolejności wstawiania.
+     */
+    List<List<Object>> levels() {
+        return levels;
+    }
+
+    /**
+     * Kolumny klucza obcego dziecka wskazujące rodzica w grafie (kolumna -> encja rodzica).
+     */
+    Map<String, Object> parentKeys(Object entity) {
+        return parentKeys.getOrDefault(entity, Map.of());
+    }
+
+    private static int level(Object entity, Set<Object> nodes, Map<Object, Map<String, Object>> parentKeys,
+                             Map<Object, Integer> level, Set<Object> visiting) {
+        Integer known = level.get(entity);
+        if (known != null) {
+            return known;
+        }
+        if (!visiting.add(entity)) {
+            throw new RuntimeException("Cascade Error: foreign keys of " + entity.getClass().getName() + " form a cycle");
+        }
+        int result = 0;
+        try {
+            for (Object referenced : references(entity, parentKeys)) {
+                if (referenced != entity && nodes.contains(referenced)) {
+                    result = Math.max(result, level(referenced, nodes, parentKeys, level, visiting) + 1);
+                }
+            }
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException("Cascade Error: " + e.getMessage(), e);
+        }
+        visiting.remove(entity);
+        level.put(entity, result);
+        return result;
+    }
+
+    /**
+     * Encje, na które wskazuje klucz obcy w wierszu encji: @ManyToOne, @OneToOne z kluczem w tej tabeli i rodzic z grafu.
+     */
+    private static List<Object> references(Object entity, Map<Object, Map<String, Object>> parentKeys) throws IllegalAccessException {
+        List<Object> references = new ArrayList<>(parentKeys.getOrDefault(entity, Map.of()).values());
+        for (Field field : entity.getClass().getDeclaredFields()) {
+            OneToOne oneToOne = field.getAnnotation(OneToOne.class);
+            if (field.isAnnotationPresent(ManyToOne.class) || (oneToOne != null && oneToOne.foreignKeyInThisTable())) {
+                field.setAccessible(true);
+                Object referenced = field.get(entity);
+                if (referenced != null) {
+                    references.add(referenced);
+                }
+            }
+        }
+        return references;
+    }
+
+    private static CascadeType[] cascade(Field field) {
+        OneToMany oneToMany = field.getAnnotation(OneToMany.class);
+        if (oneToMany != null) {
+            return oneToMany.cascade();
+        }
+        OneToOne oneToOne = field.getAnnotation(OneToOne.class);
+        if (oneToOne != null) {
+            return oneToOne.cascade();
+        }
+        ManyToMany manyToMany = field.getAnnotation(ManyToMany.class);
+        return manyToMany != null ? manyToMany.cascade() : new CascadeType[0];
+    }
+}
@@ -1,26 +1,85 @@
 package orm;
 
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+
+import orm.admission.OperationClass;
 import org.yaml.snakeyaml.Yaml;
 
 import static java.lang.Integer.parseInt;
+import static java.lang.Long.parseLong;
 
 public class Config {
+    /**
+     * Właściwość systemowa z nazwą zasobu konfiguracji na classpath (domyślnie Properties.yml).
+     */
+    public static final String RESOURCE_PROPERTY = "orm.config";
     private static Config instance;
 
     private String url;
     private String user;
     private String password;
     private int poolSize;
+    private List<DataSourceConfig> replicas = new ArrayList<>();
+    private List<DataSourceConfig> shards = new ArrayList<>();
+    private ReadRouting readRouting = ReadRouting.ROUND_ROBIN;
+    private long readYourWritesMillis = 1000;
+    private long replicaRetryMillis = 5000;
+    private int poolMinReady;
+    private int poolConnectThreads = 8;
+    private int poolMinSize;
+    private int poolMaxSize;
+    private long poolResizeIntervalMillis = 1000;
+    private double poolGrowWaitMillis = 2;
+    private long poolShrinkAfterMillis = 60_000;
+    private List<String> warmUpEntities = new ArrayList<>();
+    private List<String> validateSchemaEntities = new ArrayList<>();
+    private int entityCacheSize;
+    private boolean cacheInvalidation;
+    private String invalidationChannel = "orm_invalidation";
+    private String cacheSnapshotPath;
+    private int negativeCacheSize;
+    private long negativeCacheTtlMillis = 5000;
+    private List<String> bloomFilterEntities = new ArrayList<>();
+    private double bloomFilterFalsePositiveRate = 0.01;
+    private int cacheSnapshotIntervalSeconds = 60;
+    private int queryTimeoutSeconds;
+    private long leakThresholdMillis;
+    private long leakReclaimMillis;
+    private double leakStackTraceSampleRate;
+    private String recordingPath;
+    private boolean recordingRedacted;
+    private int recordingQueueCapacity = 65_536;
+    private boolean wireEnabled;
+    private int wireConnections = 4;
+    private int wireMaxPipelined = 1024;
+    private boolean admissionEnabled;
+    private long admissionMaxWaitMillis;
+    private Map<OperationClass, Integer> operationLimits = new EnumMap<>(OperationClass.class);
+    private Map<String, Integer> tableLimits = new HashMap<>();
+    private int adaptiveMinLimit = 1;
+    private int adaptiveMaxLimit;
+    private double latencyTolerance = 2.0;
+    private int hydrationThreads = 1;
+    private boolean writeBehindEnabled;
+    private int writeBehindBatchSize = 500;
+    private long writeBehindFlushMillis = 100;
+    private int writeBehindCapacity = 10_000;
+    private boolean writeBehindFlushOnShutdown = true;
+    private int hydrationChunkSize = 1000;
 
     private Config() {
         Yaml yaml = new Yaml();
+        String resource = System.getProperty(RESOURCE_PROPERTY, "Properties.yml");
         InputStream inputStream = this.getClass()
                 .getClassLoader()
-                .getResourceAsStream("Properties.yml");
+                .getResourceAsStream(resource);
         if (inputStream == null) {
-            throw new RuntimeException("Nie znaleziono pliku Properties.yml");
+            throw new RuntimeException("Nie znaleziono pliku " + resource);
         }
 
         Map<String, Object> obj = yaml.load(inputStream);
@@ -29,6 +88,185 @@ public class Config {
         this.user = obj.get("user").toString();
         this.password = obj.get("password").toString();
         this.poolSize = parseInt(obj.get("poolSize").toString());
+        this.poolMinReady = obj.containsKey("poolMinReady") ? parseInt(obj.get("poolMinReady").toString()) : poolSize;
+        this.poolMinSize = poolSize;
+        this.poolMaxSize = poolSize;
+        if (obj.get("poolSizing") instanceof Map<?, ?> poolSizing) {
+            parsePoolSizing(poolSizing);
+        }
+        if (obj.containsKey("poolConnectThreads")) {
+            this.poolConnectThreads = parseInt(obj.get("poolConnectThreads").toString());
+        }
+        if (obj.containsKey("entityCacheSize")) {
+            this.entityCacheSize = parseInt(obj.get("entityCacheSize").toString());
+        }
+        if (obj.containsKey("cacheInvalidation")) {
+            this.cacheInvalidation = Boolean.parseBoolean(obj.get("cacheInvalidation").toString());
+        }
+        if (obj.containsKey("invalidationChannel")) {
+            this.invalidationChannel = obj.get("invalidationChannel").toString();
+        }
+        if (obj.containsKey("negativeCacheSize")) {
+            this.negativeCacheSize = parseInt(obj.get("negativeCacheSize").toString());
+        }
+        if (obj.containsKey("negativeCacheTtlMillis")) {
+            this.negativeCacheTtlMillis = parseLong(obj.get("negativeCacheTtlMillis").toString());
+        }
+        if (obj.get("bloomFilterEntities") instanceof List<?> entities) {
+            for (Object entity : entities) {
+                this.bloomFilterEntities.add(entity.toString());
+            }
+        }
+        if (obj.containsKey("bloomFilterFalsePositiveRate")) {
+            this.bloomFilterFalsePositiveRate = Double.parseDouble(obj.get("bloomFilterFalsePositiveRate").toString());
+        }
+        if (obj.containsKey("cacheSnapshotPath")) {
+            this.cacheSnapshotPath = obj.get("cacheSnapshotPath").toString();
+        }
+        if (obj.containsKey("cacheSnapshotIntervalSeconds")) {
+            this.cacheSnapshotIntervalSeconds = parseInt(obj.get("cacheSnapshotIntervalSeconds").toString());
+        }
+        if (obj.containsKey("queryTimeoutSeconds")) {
+            this.queryTimeoutSeconds = parseInt(obj.get("queryTimeoutSeconds").toString());
+        }
+        if (obj.containsKey("hydrationThreads")) {
+            this.hydrationThreads = parseInt(obj.get("hydrationThreads").toString());
+        }
+        if (obj.containsKey("hydrationChunkSize")) {
+            this.hydrationChunkSize = parseInt(obj.get("hydrationChunkSize").toString());
+        }
+        if (obj.get("admission") instanceof Map<?, ?> admission) {
+            parseAdmission(admission);
+        }
+        if (obj.get("leakDetection") instanceof Map<?, ?> leakDetection) {
+            if (leakDetection.containsKey("thresholdMillis")) {
+                this.leakThresholdMillis = parseLong(leakDetection.get("thresholdMillis").toString());
+            }
+            if (leakDetection.containsKey("reclaimMillis")) {
+                this.leakReclaimMillis = parseLong(leakDetection.get("reclaimMillis").toString());
+            }
+            if (leakDetection.containsKey("stackTraceSampleRate")) {
+                this.leakStackTraceSampleRate = Double.parseDouble(leakDetection.get("stackTraceSampleRate").toString());
+            }
+        }
+        if (obj.get("recording") instanceof Map<?, ?> recording) {
+            if (recording.containsKey("path")) {
+                this.recordingPath = recording.get("path").toString();
+            }
+            if (recording.containsKey("redact")) {
+                this.recordingRedacted = Boolean.parseBoolean(recording.get("redact").toString());
+            }
+            if (recording.containsKey("queueCapacity")) {
+                this.recordingQueueCapacity = parseInt(recording.get("queueCapacity").toString());
+            }
+        }
+        if (obj.get("wire") instanceof Map<?, ?> wire) {
+            this.wireEnabled = !wire.containsKey("enabled") || Boolean.parseBoolean(wire.get("enabled").toString());
+            if (wire.containsKey("connections")) {
+                this.wireConnections = parseInt(wire.get("connections").toString());
+            }
+            if (wire.containsKey("maxPipelined")) {
+                this.wireMaxPipelined = parseInt(wire.get("maxPipelined").toString());
+            }
+        }
+        if (obj.get("writeBehind") instanceof Map<?, ?> writeBehind) {
+            parseWriteBehind(writeBehind);
+        }
+        if (obj.get("warmUpEntities") instanceof List<?> entities) {
+            for (Object entity : entities) {
+                this.warmUpEntities.add(entity.toString());
+            }
+        }
+        if (obj.get("validateSchemaEntities") instanceof List<?> entities) {
+            for (Object entity : entities) {
+                this.validateSchemaEntities.add(entity.toString());
+            }
+        }
+
+        this.replicas = parseDataSources(obj.get("replicas"));
+        this.shards = parseDataSources(obj.get("shards"));
+        if (obj.containsKey("readRouting")) {
+            this.readRouting = ReadRouting.fromString(obj.get("readRouting").toString());
+        }
+        if (obj.containsKey("readYourWritesMillis")) {
+            this.readYourWritesMillis = parseLong(obj.get("readYourWritesMillis").toString());
+        }
+        if (obj.containsKey("replicaRetryMillis")) {
+            this.replicaRetryMillis = parseLong(obj.get("replicaRetryMillis").toString());
+        }
+    }
+
+    private void parseAdmission(Map<?, ?> admission) {
+        this.admissionEnabled = !admission.containsKey("enabled")
+                || Boolean.parseBoolean(admission.get("enabled").toString());
+        if (admission.containsKey("maxWaitMillis")) {
+            this.admissionMaxWaitMillis = parseLong(admission.get("maxWaitMillis").toString());
+        }
+        if (admission.get("operations") instanceof Map<?, ?> operations) {
+            operations.forEach((operation, limit) -> this.operationLimits.put(
+                    OperationClass.valueOf(operation.toString().toUpperCase()), parseInt(limit.toString())));
+        }
+        if (admission.get("tables") instanceof Map<?, ?> tables) {
+            tables.forEach((table, limit) -> this.tableLimits.put(table.toString(), parseInt(limit.toString())));
+        }
+        if (admission.containsKey("adaptiveMin")) {
+            this.adaptiveMinLimit = parseInt(admission.get("adaptiveMin").toString());
+        }
+        if (admission.containsKey("adaptiveMax")) {
+            this.adaptiveMaxLimit = parseInt(admission.get("adaptiveMax").toString());
+        }
+        if (admission.containsKey("latencyTolerance")) {
+            this.latencyTolerance = Double.parseDouble(admission.get("latencyTolerance").toString());
+        }
+    }
+
+    private void parsePoolSizing(Map<?, ?> poolSizing) {
+        if (poolSizing.containsKey("minSize")) {
+            this.poolMinSize = parseInt(poolSizing.get("minSize").toString());
+        }
+        if (poolSizing.containsKey("maxSize")) {
+            this.poolMaxSize = parseInt(poolSizing.get("maxSize").toString());
+        }
+        if (poolSizing.containsKey("intervalMillis")) {
+            this.poolResizeIntervalMillis = parseLong(poolSizing.get("intervalMillis").toString());
+        }
+        if (poolSizing.containsKey("growWaitMillis")) {
+            this.poolGrowWaitMillis = Double.parseDouble(poolSizing.get("growWaitMillis").toString());
+        }
+        if (poolSizing.containsKey("shrinkAfterMillis")) {
+            this.poolShrinkAfterMillis = parseLong(poolSizing.get("shrinkAfterMillis").toString());
+        }
+    }
+
+    private void parseWriteBehind(Map<?, ?> writeBehind) {
+        this.writeBehindEnabled = !writeBehind.containsKey("enabled")
+                || Boolean.parseBoolean(writeBehind.get("enabled").toString());
+        if (writeBehind.containsKey("batchSize")) {
+            this.writeBehindBatchSize = parseInt(writeBehind.get("batchSize").toString());
+        }
+        if (writeBehind.containsKey("flushMillis")) {
+            this.writeBehindFlushMillis = parseLong(writeBehind.get("flushMillis").toString());
+        }
+        if (writeBehind.containsKey("capacity")) {
+            this.writeBehindCapacity = parseInt(writeBehind.get("capacity").toString());
+        }
+        if (writeBehind.containsKey("flushOnShutdown")) {
+            this.writeBehindFlushOnShutdown = Boolean.parseBoolean(writeBehind.get("flushOnShutdown").toString());
+        }
+    }
+
+    private List<DataSourceConfig> parseDataSources(Object value) {
+        List<DataSourceConfig> result = new ArrayList<>();
+        if (value instanceof List<?> list) {
+            for (Object item : list) {
+                Map<?, ?> dataSource = (Map<?, ?>) item;
+                result.add(new DataSourceConfig(
+                        dataSource.get("url").toString(),
+                        dataSource.containsKey("user") ? dataSource.get("user").toString() : user,
+                        dataSource.containsKey("password") ? dataSource.get("password").toString() : password));
+            }
+        }
+        return result;
     }
 
     public static synchronized Config getInstance() {
@@ -53,4 +291,267 @@ public class Config {
     public int getPoolSize() {
         return poolSize;
     }
+
+    /**
+     * Liczba połączeń, które muszą być otwarte, zanim pula zacznie wydawać połączenia.
+     */
+    public int getPoolMinReady() {
+        return poolMinReady;
+    }
+
+    public int getPoolConnectThreads() {
+        return poolConnectThreads;
+    }
+
+    /**
+     * Dolna granica rozmiaru puli przy zmniejszaniu (domyślnie poolSize).
+     */
+    public int getPoolMinSize() {
+        return poolMinSize;
+    }
+
+    /**
+     * Górna granica rozmiaru puli; gdy równa dolnej, pula ma stały rozmiar.
+     */
+    public int getPoolMaxSize() {
+        return poolMaxSize;
+    }
+
+    public long getPoolResizeIntervalMillis() {
+        return poolResizeIntervalMillis;
+    }
+
+    public double getPoolGrowWaitMillis() {
+        return poolGrowWaitMillis;
+    }
+
+    public long getPoolShrinkAfterMillis() {
+        return poolShrinkAfterMillis;
+    }
+
+    /**
+     * Pełne nazwy klas @Table, dla których każde nowe połączenie jest rozgrzewane.
+     */
+    public List<String> getWarmUpEntities() {
+        return warmUpEntities;
+    }
+
+    /**
+     * Pełne nazwy klas @Table, których schemat (tabele, kolumny, indeksy kolumn relacji) jest sprawdzany
+     * przy tworzeniu EntityManagera.
+     */
+    public List<String> getValidateSchemaEntities() {
+        return validateSchemaEntities;
+    }
+
+    /**
+     * Maksymalna liczba encji w lokalnej pamięci podręcznej każdego EntityManagera (0 - wyłączona).
+     */
+    public int getEntityCacheSize() {
+        return entityCacheSize;
+    }
+
+    /**
+     * Czy zapisy mają rozsyłać komunikaty unieważniające przez NOTIFY.
+     */
+    public boolean isCacheInvalidation() {
+        return cacheInvalidation;
+    }
+
+    public String getInvalidationChannel() {
+        return invalidationChannel;
+    }
+
+    /**
+     * Maksymalna liczba zapamiętanych chybień find (0 - pamięć chybień wyłączona).
+     */
+    public int getNegativeCacheSize() {
+        return negativeCacheSize;
+    }
+
+    public long getNegativeCacheTtlMillis() {
+        return negativeCacheTtlMillis;
+    }
+
+    /**
+     * Pełne nazwy klas encji, dla których przy starcie budowany jest filtr Blooma identyfikatorów
+     * (jeden na pulę połączeń, tylko przy włączonym cacheInvalidation).
+     */
+    public List<String> getBloomFilterEntities() {
+        return bloomFilterEntities;
+    }
+
+    public double getBloomFilterFalsePositiveRate() {
+        return bloomFilterFalsePositiveRate;
+    }
+
+    /**
+     * Plik zrzutu pamięci podręcznej encji albo null, gdy zrzuty są wyłączone.
+     */
+    public String getCacheSnapshotPath() {
+        return cacheSnapshotPath;
+    }
+
+    public int getCacheSnapshotIntervalSeconds() {
+        return cacheSnapshotIntervalSeconds;
+    }
+
+    /**
+     * Limit czasu każdej instrukcji w sekundach, ustawiany przez Statement.setQueryTimeout (0 - bez limitu).
+     */
+    public int getQueryTimeoutSeconds() {
+        return queryTimeoutSeconds;
+    }
+
+    /**
+     * Liczba wątków mapujących wyniki zapytań na encje (1 - mapowanie sekwencyjne).
+     */
+    public int getHydrationThreads() {
+        return hydrationThreads;
+    }
+
+    /**
+     * Liczba wierszy w porcji przekazywanej do równoległego mapowania; także rozmiar pobierania kursora.
+     */
+    public int getHydrationChunkSize() {
+        return hydrationChunkSize;
+    }
+
+    /**
+     * Czas wypożyczenia, po którym połączenie jest zgłaszane jako możliwy wyciek (0 - wykrywanie wyłączone).
+     */
+    public long getLeakThresholdMillis() {
+        return leakThresholdMillis;
+    }
+
+    /**
+     * Czas wypożyczenia, po którym połączenie jest odbierane siłą (0 - nigdy).
+     */
+    public long getLeakReclaimMillis() {
+        return leakReclaimMillis;
+    }
+
+    public double getLeakStackTraceSampleRate() {
+        return leakStackTraceSampleRate;
+    }
+
+    /**
+     * Plik dziennika nagrywanego obciążenia (null - nagrywanie wyłączone).
+     */
+    public String getRecordingPath() {
+        return recordingPath;
+    }
+
+    /**
+     * Czy wartości tekstowe i binarne mają być usuwane z dziennika obciążenia.
+     */
+    public boolean isRecordingRedacted() {
+        return recordingRedacted;
+    }
+
+    public int getRecordingQueueCapacity() {
+        return recordingQueueCapacity;
+    }
+
+    /**
+     * Czy find ma korzystać z potokowego klienta protokołu PostgreSQL zamiast puli JDBC.
+     */
+    public boolean isWireEnabled() {
+        return wireEnabled;
+    }
+
+    public int getWireConnections() {
+        return wireConnections;
+    }
+
+    /**
+     * Największa liczba zapytań w locie na jednym połączeniu klienta potokowego.
+     */
+    public int getWireMaxPipelined() {
+        return wireMaxPipelined;
+    }
+
+    public boolean isWriteBehindEnabled() {
+        return writeBehindEnabled;
+    }
+
+    /**
+     * Liczba oczekujących zapisów, po której bufor jest opróżniany bez czekania na flushMillis.
+     */
+    public int getWriteBehindBatchSize() {
+        return writeBehindBatchSize;
+    }
+
+    public long getWriteBehindFlushMillis() {
+        return writeBehindFlushMillis;
+    }
+
+    /**
+     * Maksymalna liczba oczekujących zapisów; po jej osiągnięciu save/update/delete czekają na opróżnienie bufora.
+     */
+    public int getWriteBehindCapacity() {
+        return writeBehindCapacity;
+    }
+
+    public boolean isWriteBehindFlushOnShutdown() {
+        return writeBehindFlushOnShutdown;
+    }
+
+    public boolean isAdmissionEnabled() {
+        return admissionEnabled;
+    }
+
+    public long getAdmissionMaxWaitMillis() {
+        return admissionMaxWaitMillis;
+    }
+
+    public Map<OperationClass, Integer> getOperationLimits() {
+        return operationLimits;
+    }
+
+    public Map<String, Integer> getTableLimits() {
+        return tableLimits;
+    }
+
+    public int getAdaptiveMinLimit() {
+        return adaptiveMinLimit;
+    }
+
+    /**
+     * Górna granica adaptacyjnego limitu współbieżności (0 - limit adaptacyjny wyłączony).
+     */
+    public int getAdaptiveMaxLimit() {
+        return adaptiveMaxLimit;
+    }
+
+    public double getLatencyTolerance() {
+        return latencyTolerance;
+    }
+
+    public DataSourceConfig getPrimary() {
+        return new DataSourceConfig(url, user, password);
+    }
+
+    public List<DataSourceConfig> getReplicas() {
+        return replicas;
+    }
+
+    /**
+     * Bazy shardów; kolejność na liście wyznacza numer sharda.
+     */
+    public List<DataSourceConfig> getShards() {
+        return shards;
+    }
+
+    public ReadRouting getReadRouting() {
+        return readRouting;
+    }
+
+    public long getReadYourWritesMillis() {
+        return readYourWritesMillis;
+    }
+
+    public long getReplicaRetryMillis() {
+        return replicaRetryMillis;
+    }
 }
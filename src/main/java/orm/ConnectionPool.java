@@ -1,32 +1,85 @@
 package orm;
 
+import orm.admission.AdmissionController;
 import orm.logging.Observer;
+import orm.wire.PgWireClient;
 
+import java.io.IOException;
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
 
 public class ConnectionPool {
 
     private static ConnectionPool instance;
-    private final BlockingQueue<Connection> connections;
-    private final List<Observer> observers = new ArrayList<>();
+    private final NodePool primary;
+    private final List<NodePool> replicas = new ArrayList<>();
+    private final List<NodePool> shards = new ArrayList<>();
+    private final ReadRouting readRouting;
+    private final AtomicInteger nextReplica = new AtomicInteger();
+    private final List<Observer> observers = new CopyOnWriteArrayList<>();
+    private NotificationListener notificationListener;
+    private final AdmissionController admissionController;
+    private final LeakDetector leakDetector;
+    private final PoolSizer poolSizer;
+    private final PgWireClient wireClient;
+    private ExistenceFilters existenceFilters;
+    private boolean existenceFiltersChecked;
 
 
     private ConnectionPool() throws SQLException {
 
         Config config = Config.getInstance();
-        int size = config.getPoolSize();
+        PoolSettings settings = PoolSettings.fromConfig(config);
+        leakDetector = config.getLeakThresholdMillis() > 0
+                ? new LeakDetector(config.getLeakThresholdMillis(), config.getLeakReclaimMillis(),
+                config.getLeakStackTraceSampleRate(), this::notifyObservers)
+                : null;
 
-        connections = new ArrayBlockingQueue<>(size);
+        primary = new NodePool("primary", config.getPrimary(), settings, leakDetector);
 
-        for (int i = 0; i < size; i++) {
-            connections.add(DriverManager.getConnection(config.getUrl(), config.getUser(), config.getPassword()));
+        List<DataSourceConfig> replicaConfigs = config.getReplicas();
+        for (int i = 0; i < replicaConfigs.size(); i++) {
+            try {
+                replicas.add(new NodePool("replica-" + i, replicaConfigs.get(i), settings, leakDetector));
+            } catch (SQLException e) {
+                // niedostępna replika nie blokuje startu: odczyty idą do pozostałych albo do primary
+                System.err.println("Replika replica-" + i + " niedostępna przy starcie: " + e.getMessage());
+                replicas.add(NodePool.unavailable("replica-" + i, replicaConfigs.get(i), settings, leakDetector));
+            }
+        }
+        List<DataSourceConfig> shardConfigs = config.getShards();
+        for (int i = 0; i < shardConfigs.size(); i++) {
+            shards.add(new NodePool("shard-" + i, shardConfigs.get(i), settings, leakDetector));
+        }
+        poolSizer = settings.isResizable() ? new PoolSizer(allNodes(), settings, this::notifyObservers) : null;
+        readRouting = config.getReadRouting();
+        if (config.isWireEnabled()) {
+            try {
+                wireClient = new PgWireClient(config.getUrl(), config.getUser(), config.getPassword(),
+                        config.getWireConnections(), config.getWireMaxPipelined());
+            } catch (IOException e) {
+                throw new SQLException("Wire client Error: " + e.getMessage(), "08001", e);
+            }
+        } else {
+            wireClient = null;
         }
+        admissionController = new AdmissionController(
+                config.isAdmissionEnabled(),
+                config.getAdmissionMaxWaitMillis(),
+                config.getOperationLimits(),
+                config.getTableLimits(),
+                config.getAdaptiveMinLimit(),
+                config.getAdaptiveMaxLimit(),
+                config.getLatencyTolerance());
     }
 
     public static synchronized ConnectionPool getInstance() throws SQLException {
@@ -36,26 +89,235 @@ public class ConnectionPool {
         return instance;
     }
 
-    public Connection getConnection() throws InterruptedException {
-        return connections.take();
+    /**
+     * Zwraca połączenie do bazy primary. Zamknięcie połączenia oddaje je do puli.
+     */
+    public Connection getConnection() throws SQLException, InterruptedException {
+        return primary.borrow();
+    }
+
+    /**
+     * Zwraca połączenie do repliki wybranej zgodnie z {@link ReadRouting}.
+     * Repliki oznaczone jako niedostępne są pomijane, a gdy żadna nie działa, używany jest primary.
+     */
+    public Connection getReadConnection() throws SQLException, InterruptedException {
+        for (NodePool replica : routeReplicas()) {
+            try {
+                return replica.borrow();
+            } catch (SQLException e) {
+                notifyObservers("Replika " + replica.getName() + " niedostępna, przełączanie: " + e.getMessage());
+            }
+        }
+        return primary.borrow();
+    }
+
+    /**
+     * Wykonuje odczyt na replice wybranej jak w {@link #getReadConnection()}. Gdy odczyt przerwie błąd połączenia,
+     * replika jest oznaczana jako niedostępna, a odczyt powtarzany raz na następnej zdrowej replice, a potem na primary.
+     *
+     * @param read     odczyt wykonywany na połączeniach z podanego źródła
+     * @param decorate opakowanie każdego wypożyczonego połączenia (np. nagrywanie)
+     */
+    <R> R readWithFailover(Function<ConnectionSource, R> read, UnaryOperator<Connection> decorate)
+            throws SQLException, InterruptedException {
+        int attempts = 0;
+        for (NodePool replica : routeReplicas()) {
+            if (attempts == 2) {
+                break;
+            }
+            attempts++;
+            try {
+                return read.apply(() -> decorate.apply(replica.borrow()));
+            } catch (RuntimeException e) {
+                SQLException cause = connectionFailure(e);
+                if (cause == null) {
+                    throw e;
+                }
+                replica.markUnhealthy();
+                notifyObservers("Replika " + replica.getName() + " przerwała odczyt, ponawianie: " + cause.getMessage());
+            }
+        }
+        return read.apply(() -> decorate.apply(primary.borrow()));
+    }
+
+    private static SQLException connectionFailure(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SQLException sqlException && NodePool.isConnectionFailure(sqlException)) {
+                return sqlException;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Zwraca połączenie do wskazanego sharda.
+     */
+    public Connection getShardConnection(int shard) throws SQLException, InterruptedException {
+        return shards.get(shard).borrow();
+    }
+
+    public int getShardCount() {
+        return shards.size();
+    }
+
+    /**
+     * Rejestruje odbiorcę komunikatów unieważniających pamięć podręczną.
+     * Pierwsza rejestracja uruchamia wątek nasłuchujący (LISTEN) z własnym połączeniem do primary.
+     */
+    public synchronized void addInvalidationListener(Consumer<String> listener) {
+        if (notificationListener == null) {
+            Config config = Config.getInstance();
+            notificationListener = new NotificationListener(config.getPrimary(), config.getInvalidationChannel());
+            Thread thread = new Thread(notificationListener, "orm-invalidation-listener");
+            thread.setDaemon(true);
+            thread.start();
+        }
+        notificationListener.addListener(listener);
+    }
+
+    public synchronized void removeInvalidationListener(Consumer<String> listener) {
+        if (notificationListener != null) {
+            notificationListener.removeListener(listener);
+        }
+    }
+
+    /**
+     * Filtry Blooma encji z bloomFilterEntities, budowane przy pierwszym wywołaniu i wspólne dla wszystkich
+     * EntityManagerów, albo null, gdy nie są skonfigurowane. Bez cacheInvalidation filtry są wyłączone,
+     * bo wstawienia z innych instancji nie byłyby widoczne.
+     */
+    synchronized ExistenceFilters getExistenceFilters() {
+        if (!existenceFiltersChecked) {
+            Config config = Config.getInstance();
+            if (!config.getBloomFilterEntities().isEmpty()) {
+                if (config.isCacheInvalidation()) {
+                    existenceFilters = new ExistenceFilters(this, config.getBloomFilterEntities(),
+                            config.getBloomFilterFalsePositiveRate());
+                } else {
+                    notifyObservers("[WARN] Filtry Blooma wymagają cacheInvalidation: true - pominięte");
+                }
+            }
+            existenceFiltersChecked = true;
+        }
+        return existenceFilters;
+    }
+
+    /**
+     * Potokowy klient protokołu PostgreSQL do primary albo null, gdy jest wyłączony.
+     */
+    public PgWireClient getWireClient() {
+        return wireClient;
+    }
+
+    /**
+     * Kontrola dopuszczenia wspólna dla wszystkich EntityManagerów korzystających z tej puli.
+     */
+    public AdmissionController getAdmissionController() {
+        return admissionController;
+    }
+
+    /**
+     * Histogramy czasu wypożyczenia połączeń per miejsce wywołania (przedział i: [2^(i-1), 2^i) ms)
+     * albo pusta mapa, gdy wykrywanie wycieków jest wyłączone.
+     */
+    public Map<String, long[]> getBorrowHistograms() {
+        return leakDetector == null ? Map.of() : leakDetector.histograms();
+    }
+
+    /**
+     * Podsumowanie czasów wypożyczeń i aktualnie trzymanych połączeń (pusty tekst przy wyłączonym wykrywaniu).
+     */
+    public String getLeakReport() {
+        return leakDetector == null ? "" : leakDetector.report();
+    }
+
+    /**
+     * Łączny czas oczekiwania na wolne połączenie (wszystkie bazy) od startu puli.
+     */
+    public long getTotalWaitNanos() {
+        return allNodes().stream().mapToLong(NodePool::getWaitNanos).sum();
+    }
+
+    /**
+     * Liczba wypożyczeń połączeń (wszystkie bazy) od startu puli.
+     */
+    public long getBorrowCount() {
+        return allNodes().stream().mapToLong(NodePool::getBorrows).sum();
+    }
+
+    /**
+     * Liczba przełączeń search_path między dzierżawcami (wszystkie bazy) od startu puli.
+     */
+    public long getTenantSwitchCount() {
+        return allNodes().stream().mapToLong(NodePool::getTenantSwitches).sum();
+    }
+
+    /**
+     * Bieżąca liczba połączeń każdej kolejki (primary, repliki, shardy).
+     */
+    public Map<String, Integer> getPoolSizes() {
+        Map<String, Integer> sizes = new LinkedHashMap<>();
+        for (NodePool node : allNodes()) {
+            sizes.put(node.getName(), node.getSize());
+        }
+        return sizes;
+    }
+
+    private List<NodePool> allNodes() {
+        List<NodePool> nodes = new ArrayList<>(replicas);
+        nodes.add(primary);
+        nodes.addAll(shards);
+        return nodes;
+    }
+
+    public boolean hasReplicas() {
+        return !replicas.isEmpty();
+    }
+
+    private List<NodePool> routeReplicas() {
+        List<NodePool> healthy = new ArrayList<>(replicas.size());
+        for (NodePool replica : replicas) {
+            if (replica.isHealthy()) {
+                healthy.add(replica);
+            }
+        }
+        if (healthy.size() > 1) {
+            if (readRouting == ReadRouting.LEAST_OUTSTANDING) {
+                healthy.sort((a, b) -> Integer.compare(a.getOutstanding(), b.getOutstanding()));
+            } else {
+                int start = Math.floorMod(nextReplica.getAndIncrement(), healthy.size());
+                List<NodePool> rotated = new ArrayList<>(healthy.subList(start, healthy.size()));
+                rotated.addAll(healthy.subList(0, start));
+                healthy = rotated;
+            }
+        }
+        return healthy;
     }
 
     public void releaseConnection(Connection connection) {
         try {
-            connections.put(connection);
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
+            connection.close();
+        } catch (SQLException e) {
             System.err.println("Błąd podczas zwalniania połączenia: " + e.getMessage());
         }
     }
 
     public void close() {
-        while (!connections.isEmpty()) {
-            try {
-                connections.poll().close();
-            } catch (SQLException e) {
-                e.printStackTrace();
-            }
+        if (poolSizer != null) {
+            poolSizer.stop();
+        }
+        if (notificationListener != null) {
+            notificationListener.stop();
+        }
+        if (wireClient != null) {
+            wireClient.close();
+        }
+        primary.close();
+        for (NodePool replica : replicas) {
+            replica.close();
+        }
+        for (NodePool shard : shards) {
+            shard.close();
         }
     }
 
@@ -65,9 +327,13 @@ public class ConnectionPool {
         observers.add(observer);
     }
 
+    public void removeObserver(Observer observer) {
+        observers.remove(observer);
+    }
+
     public void notifyObservers(String message) {
-        for (int i = 0; i < observers.size(); i++) {
-            observers.get(i).notify(message);
+        for (Observer observer : observers) {
+            observer.notify(message);
         }
     }
 }
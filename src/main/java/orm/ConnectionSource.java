@@ -0,0 +1,11 @@
+package orm;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Źródło połączenia dla pojedynczej operacji (replika, primary, shard albo połączenie transakcji).
+ */
+interface ConnectionSource {
+    Connection get() throws SQLException, InterruptedException;
+}
@@ -0,0 +1,28 @@
+package orm;
+
+/**
+ * Dane dostępowe pojedynczej bazy danych (primary lub repliki).
+ */
+public class DataSourceConfig {
+    private final String url;
+    private final String user;
+    private final String password;
+
+    public DataSourceConfig(String url, String user, String password) {
+        this.url = url;
+        this.user = user;
+        this.password = password;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public String getUser() {
+        return user;
+    }
+
+    public String getPassword() {
+        return password;
+    }
+}
@@ -1,175 +1,2228 @@
 package orm;
 
+import orm.admission.OperationClass;
+import orm.admission.Permit;
 import orm.annotations.*;
+import orm.cache.CacheSnapshot;
+import orm.cache.EntityCache;
+import orm.cache.ExistenceIndex;
+import orm.cache.InvalidationPayload;
+import orm.cache.NegativeCache;
+import orm.exceptions.OptimisticLockException;
+import orm.frame.ResultFrame;
 import orm.logging.LoggerObserver;
-
+import orm.metadata.EntityMetadata;
+import orm.metadata.EntityMetadataRegistry;
+import orm.replay.WorkloadRecorder;
+import orm.schema.PartitionMaintenance;
+import orm.schema.SchemaGenerator;
+import orm.wire.PgWireClient;
+import orm.wire.WireRow;
+
+import java.io.IOException;
+import java.io.InputStream;
 import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.nio.file.Path;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * Klasa EntityManager zarządzająca operacjami CRUD na encjach.
+ * Instancja ma własne wątki i odbiorców zdarzeń puli - po użyciu należy ją zamknąć ({@link #close()}).
  */
-public class EntityManager {
+public class EntityManager implements AutoCloseable {
+
+    private static final int FRAME_FETCH_SIZE = 10_000;
+    private static final Pattern MODIFIED_TABLE = Pattern.compile(
+            "^\\s*(?:UPDATE|DELETE\\s+FROM)\\s+([\\w.\"]+)", Pattern.CASE_INSENSITIVE);
+    private static final Pattern INSERTED_TABLE = Pattern.compile(
+            "^\\s*INSERT\\s+INTO\\s+([\\w.\"]+)", Pattern.CASE_INSENSITIVE);
+    private static final int UPSERT_CHUNK = 500;
+    private static final int MAX_BIND_PARAMETERS = 65_535;
 
     private final ConnectionPool connectionPool;
+    private final long readYourWritesNanos;
+    private volatile long lastWriteNanos;
+    private volatile boolean wrote;
+    /**
+     * Identyfikatory powiązań @ManyToMany wczytanych dla encji (klucz: obiekt encji, wartość: pole -> id),
+     * używane do wyliczania różnicy przy zapisie.
+     */
+    private final Map<Object, Map<String, Set<Object>>> loadedLinks = Collections.synchronizedMap(new WeakHashMap<>());
+    private final ShardRouter shardRouter;
+    private final ExecutorService shardExecutor;
+    private final EntityCache cache;
+    private final boolean publishInvalidations;
+    private final String invalidationChannel;
+    private final ThreadLocal<Transaction> transaction = new ThreadLocal<>();
+    private final int hydrationChunkSize;
+    private volatile ParallelHydrator hydrator;
+    private final PartitionMaintenance partitions;
+    private final Path cacheSnapshotPath;
+    private final WriteBehindBuffer writeBehind;
+    private final NegativeCache negativeCache;
+    private final ExistenceFilters existenceFilters;
+    private final ExistenceIndex existenceIndex;
+    private ExecutorService hydrationExecutor;
+    private final WorkloadRecorder recorder;
+    private final PgWireClient wire;
+    /**
+     * Wczytuje relacje encji pobranych przez {@link #wire} - wątek we/wy klienta nie może czekać na JDBC.
+     */
+    private final ExecutorService relationExecutor;
+    private final LoggerObserver loggerObserver;
+    /**
+     * Odbiorcy komunikatów unieważniających zarejestrowani w puli przez tę instancję, wyrejestrowywani w {@link #close()}.
+     */
+    private final List<Consumer<String>> invalidationListeners = new ArrayList<>();
+    private ScheduledExecutorService snapshotScheduler;
+    private Thread writeBehindShutdownHook;
 
     public EntityManager(LoggerObserver loggerObserver) throws SQLException {
         this.connectionPool = ConnectionPool.getInstance();
+        this.readYourWritesNanos = Config.getInstance().getReadYourWritesMillis() * 1_000_000L;
+        this.shardRouter = new ShardRouter(connectionPool.getShardCount());
+        this.shardExecutor = connectionPool.getShardCount() > 0
+                ? Executors.newFixedThreadPool(connectionPool.getShardCount(), runnable -> {
+                    Thread thread = new Thread(runnable, "orm-shard-query");
+                    thread.setDaemon(true);
+                    return thread;
+                })
+                : null;
+
+        Config config = Config.getInstance();
+        this.recorder = config.getRecordingPath() == null ? null
+                : WorkloadRecorder.open(config.getRecordingPath(), config.isRecordingRedacted(), config.getRecordingQueueCapacity());
+        this.cache = config.getEntityCacheSize() > 0 ? new EntityCache(config.getEntityCacheSize()) : null;
+        this.publishInvalidations = config.isCacheInvalidation();
+        this.invalidationChannel = config.getInvalidationChannel();
+        if (cache != null && publishInvalidations) {
+            listenForInvalidations(cache::apply);
+        }
+        this.negativeCache = config.getNegativeCacheSize() > 0
+                ? new NegativeCache(config.getNegativeCacheSize(), config.getNegativeCacheTtlMillis()) : null;
+        if (negativeCache != null && publishInvalidations) {
+            listenForInvalidations(negativeCache::apply);
+        }
+        this.existenceFilters = connectionPool.getExistenceFilters();
+        this.existenceIndex = existenceFilters == null ? null : existenceFilters.getIndex();
+        this.cacheSnapshotPath = cache != null && config.getCacheSnapshotPath() != null
+                ? Path.of(config.getCacheSnapshotPath()) : null;
+        if (cacheSnapshotPath != null) {
+            attachCacheSnapshot();
+            scheduleCacheSnapshots(config.getCacheSnapshotIntervalSeconds());
+        }
+        this.partitions = new PartitionMaintenance(connectionPool);
+        if (config.isWriteBehindEnabled()) {
+            this.writeBehind = new WriteBehindBuffer(this::applyWrites, config.getWriteBehindBatchSize(),
+                    config.getWriteBehindFlushMillis(), config.getWriteBehindCapacity());
+            if (config.isWriteBehindFlushOnShutdown()) {
+                writeBehindShutdownHook = new Thread(writeBehind::close, "orm-write-behind-shutdown");
+                Runtime.getRuntime().addShutdownHook(writeBehindShutdownHook);
+            }
+        } else {
+            this.writeBehind = null;
+        }
+        this.wire = connectionPool.getWireClient();
+        this.relationExecutor = wire == null ? null : Executors.newFixedThreadPool(config.getPoolSize(), runnable -> {
+            Thread thread = new Thread(runnable, "orm-wire-relations");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.hydrationChunkSize = config.getHydrationChunkSize();
+        setHydrationParallelism(config.getHydrationThreads());
+        this.loggerObserver = loggerObserver;
         connectionPool.addObserver(loggerObserver);
+        validateSchema(config.getValidateSchemaEntities());
     }
 
     /**
-     * Zapisuje nową encję w bazie danych.
-     *
-     * @param entity obiekt do zapisania
+     * Sprawdza schemat encji z konfiguracji; problemy (np. klucz obcy bez indeksu) trafiają do obserwatorów.
      */
-    public <T> void save(T entity) {
-        Class<?> clazz = entity.getClass();
-
-        Table table = clazz.getAnnotation(Table.class);
-        if (table == null) {
-            throw new RuntimeException("Class " + clazz.getName() + " is not mapped in DB");
+    private void validateSchema(List<String> classNames) {
+        if (classNames.isEmpty()) {
+            return;
+        }
+        Class<?>[] classes = new Class<?>[classNames.size()];
+        for (int i = 0; i < classes.length; i++) {
+            try {
+                classes[i] = Class.forName(classNames.get(i));
+            } catch (ClassNotFoundException e) {
+                throw new RuntimeException("Unknown schema validation entity: " + classNames.get(i), e);
+            }
         }
+        new SchemaGenerator(connectionPool).validate(classes);
+    }
 
-        String tableName = table.name();
-        StringBuilder columns = new StringBuilder();
-        StringBuilder values = new StringBuilder();
+    private void listenForInvalidations(Consumer<String> listener) {
+        invalidationListeners.add(listener);
+        connectionPool.addInvalidationListener(listener);
+    }
 
-        try {
-            for (Field field : clazz.getDeclaredFields()) {
-                field.setAccessible(true);
-                handleColumnField(field, entity, columns, values);
-                handleOneToOneField(field, entity, columns, values);
-                handleManyToOneField(field, entity, columns, values);
-                handleOneToManyField(field, entity);
-                handleManyToManyField(field, entity);
+    /**
+     * Zapisuje zbuforowane zmiany (zapis opóźniony), zatrzymuje wątki tej instancji (zapytania do shardów,
+     * mapowanie równoległe, relacje klienta potokowego, zrzuty pamięci podręcznej) i wyrejestrowuje jej
+     * odbiorców z puli. Wspólna pula połączeń pozostaje otwarta.
+     */
+    @Override
+    public synchronized void close() {
+        if (writeBehind != null) {
+            writeBehind.close();
+            if (writeBehindShutdownHook != null) {
+                try {
+                    Runtime.getRuntime().removeShutdownHook(writeBehindShutdownHook);
+                } catch (IllegalStateException e) {
+                    // maszyna wirtualna już się zamyka - hak i tak zostanie wykonany
+                }
+                writeBehindShutdownHook = null;
             }
+        }
+        if (snapshotScheduler != null) {
+            snapshotScheduler.shutdownNow();
+            snapshotScheduler = null;
+        }
+        if (shardExecutor != null) {
+            shardExecutor.shutdown();
+        }
+        if (relationExecutor != null) {
+            relationExecutor.shutdown();
+        }
+        setHydrationParallelism(1);
+        for (Consumer<String> listener : invalidationListeners) {
+            connectionPool.removeInvalidationListener(listener);
+        }
+        invalidationListeners.clear();
+        connectionPool.removeObserver(loggerObserver);
+    }
 
-            String columnsString = columns.substring(0, columns.length() - 1);
-            String valuesString = values.substring(0, values.length() - 1);
+    /**
+     * Czy encja na pewno nie istnieje według filtra Blooma albo pamięci chybień - bez zapytania do bazy.
+     */
+    private boolean isKnownAbsent(String tableName, Object id) {
+        tableName = cachedTable(tableName);
+        return (existenceIndex != null && existenceIndex.isDefinitelyAbsent(tableName, id))
+                || (negativeCache != null && negativeCache.isKnownMissing(tableName, id));
+    }
 
-            String query = String.format("INSERT INTO %s (%s) VALUES (%s)", tableName, columnsString, valuesString);
+    /**
+     * Odnotowuje, że baza nie znalazła encji o danym id.
+     */
+    private void rememberMissing(String tableName, Object id) {
+        tableName = cachedTable(tableName);
+        if (existenceIndex != null && existenceIndex.covers(tableName)) {
+            existenceIndex.recordFalsePositive(tableName);
+        }
+        if (negativeCache != null) {
+            negativeCache.put(tableName, id);
+        }
+    }
 
-            executeInsertQuery(query, clazz, entity, tableName);
+    /**
+     * Po wstawieniu encji: dopisuje id do filtra Blooma i usuwa zapamiętane chybienie - lokalnie
+     * oraz, przy włączonym unieważnianiu, w innych instancjach (filtry Blooma działają tylko z unieważnianiem).
+     */
+    private void rememberInserted(Connection connection, String tableName, Object id) throws SQLException, InterruptedException {
+        if (existenceIndex != null) {
+            existenceIndex.add(cachedTable(tableName), id);
+        }
+        if (negativeCache != null) {
+            negativeCache.evict(EntityCache.key(cachedTable(tableName), id));
+        }
+        if ((existenceIndex != null || negativeCache != null) && publishInvalidations) {
+            invalidate(connection, tableName, id);
+        }
+    }
 
-        } catch (Exception e) {
-            throw new RuntimeException("Entity save Error: " + e.getMessage());
+    private void rememberDeleted(String tableName) {
+        tableName = cachedTable(tableName);
+        if (existenceIndex != null && existenceIndex.recordDeletion(tableName)) {
+            existenceFilters.rebuild(tableName);
         }
     }
 
+    /**
+     * Statystyki filtrów Blooma (odsetek fałszywych trafień, zużycie pamięci) albo null, gdy filtry są wyłączone.
+     */
+    public ExistenceIndex getExistenceIndex() {
+        return existenceIndex;
+    }
+
+    /**
+     * Pamięć chybień find (liczba wpisów i trafień) albo null, gdy jest wyłączona.
+     */
+    public NegativeCache getNegativeCache() {
+        return negativeCache;
+    }
 
-    private void handleColumnField(Field field, Object entity, StringBuilder columns, StringBuilder values) throws IllegalAccessException {
-        Column column = field.getAnnotation(Column.class);
-        if (column != null) {
-            columns.append(column.name()).append(",");
-            values.append("'").append(field.get(entity)).append("',");
+    /**
+     * Mapuje zrzut pamięci podręcznej z poprzedniego uruchomienia. Tabele, które zmieniły się od zapisu,
+     * są pomijane; pozostałe encje są dekodowane dopiero przy pierwszym find.
+     */
+    private void attachCacheSnapshot() {
+        try {
+            CacheSnapshot snapshot = CacheSnapshot.open(cacheSnapshotPath);
+            if (snapshot == null) {
+                return;
+            }
+            try (Connection connection = connectionPool.getConnection()) {
+                Set<String> tables = snapshot.validate(connection);
+                cache.attach(snapshot);
+                connectionPool.notifyObservers("Wczytano zrzut pamięci podręcznej dla tabel: " + tables);
+            }
+        } catch (IOException | SQLException | InterruptedException e) {
+            connectionPool.notifyObservers("[WARN] Pominięto zrzut pamięci podręcznej: " + e.getMessage());
         }
     }
 
-    private void handleOneToOneField(Field field, Object entity, StringBuilder columns, StringBuilder values) throws IllegalAccessException {
-        if (field.isAnnotationPresent(OneToOne.class)) {
-            OneToOne oneToOne = field.getAnnotation(OneToOne.class);
-            Object relatedEntity = field.get(entity);
+    private void scheduleCacheSnapshots(int intervalSeconds) {
+        if (intervalSeconds <= 0) {
+            return;
+        }
+        snapshotScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "orm-cache-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+        snapshotScheduler.scheduleWithFixedDelay(() -> {
+            try {
+                saveCacheSnapshot();
+            } catch (RuntimeException e) {
+                connectionPool.notifyObservers("[WARN] " + e.getMessage());
+            }
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
 
-            if (relatedEntity != null) {
-                Field relatedIdField = getIdField(relatedEntity.getClass());
-                relatedIdField.setAccessible(true);
+    /**
+     * Zapisuje bieżącą zawartość pamięci podręcznej encji do pliku zrzutu (np. przed zamknięciem aplikacji).
+     * Nic nie robi, gdy zrzuty nie są skonfigurowane.
+     */
+    public void saveCacheSnapshot() {
+        if (cacheSnapshotPath == null) {
+            return;
+        }
+        try (Connection connection = connectionPool.getConnection()) {
+            int written = CacheSnapshot.write(cacheSnapshotPath, cache::contents, connection);
+            connectionPool.notifyObservers("Zapisano zrzut pamięci podręcznej: " + written + " encji");
+        } catch (IOException | SQLException | InterruptedException e) {
+            throw new RuntimeException("Cache snapshot Error: " + e.getMessage(), e);
+        }
+    }
 
-                Object relatedIdValue = relatedIdField.get(relatedEntity);
+    /**
+     * Ustawia liczbę wątków mapujących wyniki executeQuery na encje.
+     * Wartość 1 (domyślna) oznacza mapowanie sekwencyjne w wątku wywołującym.
+     *
+     * @param threads liczba wątków mapujących
+     */
+    public synchronized void setHydrationParallelism(int threads) {
+        if (hydrationExecutor != null) {
+            hydrationExecutor.shutdown();
+        }
+        if (threads > 1) {
+            hydrationExecutor = new ForkJoinPool(threads);
+            hydrator = new ParallelHydrator(hydrationExecutor, hydrationChunkSize, this::attachLobs);
+        } else {
+            hydrationExecutor = null;
+            hydrator = null;
+        }
+    }
 
-                columns.append(oneToOne.column()).append(",");
-                values.append("'").append(relatedIdValue).append("',");
+    /**
+     * Wykonuje operację publiczną po uzyskaniu zezwolenia z kontroli dopuszczenia puli.
+     *
+     * @param name        nazwa operacji w dzienniku obciążenia
+     * @param entityClass klasa encji operacji albo null
+     */
+    private <R> R admitted(OperationClass operation, String name, Class<?> entityClass, String table, Supplier<R> action) {
+        WorkloadRecorder.Scope scope = recorder == null ? null : recorder.enter(name, entityClass);
+        try (Permit permit = connectionPool.getAdmissionController().acquire(operation, table)) {
+            try {
+                return action.get();
+            } catch (RuntimeException e) {
+                permit.fail();
+                throw e;
+            }
+        } finally {
+            if (scope != null) {
+                scope.close();
             }
         }
     }
 
-    private void handleManyToOneField(Field field, Object entity, StringBuilder columns, StringBuilder values) throws IllegalAccessException {
-        if (field.isAnnotationPresent(ManyToOne.class)) {
-            ManyToOne manyToOne = field.getAnnotation(ManyToOne.class);
-            Object relatedEntity = field.get(entity);
+    /**
+     * Jak {@link #admitted}, ale zezwolenie jest zwalniane dopiero po zakończeniu zwróconego CompletableFuture.
+     * Odmowa dopuszczenia kończy wynik wyjątkiem zamiast go rzucać.
+     */
+    private <R> CompletableFuture<R> admittedAsync(OperationClass operation, String table,
+                                                   Supplier<CompletableFuture<R>> action) {
+        Permit permit;
+        try {
+            permit = connectionPool.getAdmissionController().acquire(operation, table);
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        CompletableFuture<R> result;
+        try {
+            result = action.get();
+        } catch (RuntimeException e) {
+            permit.fail();
+            permit.close();
+            return CompletableFuture.failedFuture(e);
+        }
+        return result.whenComplete((value, error) -> {
+            if (error != null) {
+                permit.fail();
+            }
+            permit.close();
+        });
+    }
 
-            if (relatedEntity != null) {
-                Field relatedIdField = getIdField(relatedEntity.getClass());
-                relatedIdField.setAccessible(true);
+    private static String tableName(Class<?> clazz) {
+        Table table = clazz.getAnnotation(Table.class);
+        return table == null ? null : table.name();
+    }
 
-                Object relatedIdValue = relatedIdField.get(relatedEntity);
+    private static String modifiedTable(String query) {
+        Matcher matcher = MODIFIED_TABLE.matcher(query);
+        return matcher.find() ? matcher.group(1).replace("\"", "") : null;
+    }
 
-                columns.append(manyToOne.column()).append(",");
-                values.append("'").append(relatedIdValue).append("',");
-            }
+    /**
+     * Predykat na kolumnie partycjonowania dopisywany do zapytań po id, aby planista mógł przyciąć partycje.
+     */
+    private static String partitionPredicate(Class<?> clazz) {
+        String partitionColumn = PartitionMaintenance.partitionColumn(clazz);
+        return partitionColumn == null ? "" : " AND " + partitionColumn + " = ?";
+    }
+
+    private static void setPartitionParameter(PreparedStatement statement, int index, Object entity)
+            throws SQLException, IllegalAccessException {
+        if (entity.getClass().isAnnotationPresent(PartitionBy.class)) {
+            statement.setObject(index, PartitionMaintenance.partitionValue(entity));
         }
     }
 
-    private void handleOneToManyField(Field field, Object entity) throws IllegalAccessException {
-        if (field.isAnnotationPresent(OneToMany.class)) {
-            Collection<?> relatedEntities = (Collection<?>) field.get(entity);
+    /**
+     * Parametry warunku {@code id = ?} z {@link #partitionPredicate}: samo id albo id i wartość partycji encji.
+     */
+    private static Object[] idParameters(Object entity, Object id) throws IllegalAccessException {
+        return entity.getClass().isAnnotationPresent(PartitionBy.class)
+                ? new Object[]{id, PartitionMaintenance.partitionValue(entity)} : new Object[]{id};
+    }
 
-            if (relatedEntities != null && !relatedEntities.isEmpty()) {
-                for (Object relatedEntity : relatedEntities) {
+    /**
+     * Id w kluczu pamięci podręcznej. W tabeli partycjonowanej to samo id może wystąpić w kilku partycjach,
+     * więc klucz zawiera też wartość kolumny partycjonowania.
+     */
+    static Object cacheId(Object id, Object partitionValue) {
+        Object normalized = normalizeId(id);
+        if (partitionValue instanceof java.sql.Date date) {
+            partitionValue = date.toLocalDate();
+        } else if (partitionValue instanceof Timestamp timestamp) {
+            partitionValue = timestamp.toLocalDateTime();
+        }
+        return partitionValue == null ? normalized : normalized + "@" + normalizeId(partitionValue);
+    }
+
+    private static Object cacheId(Object entity) throws IllegalAccessException {
+        Field idField = Arrays.stream(entity.getClass().getDeclaredFields())
+                .filter(f -> f.isAnnotationPresent(Id.class))
+                .findFirst()
+                .orElseThrow(() -> new RuntimeException("Entity " + entity.getClass().getName() + " must have @Id"));
+        idField.setAccessible(true);
+        return cacheId(idField.get(entity), entity.getClass().isAnnotationPresent(PartitionBy.class)
+                ? PartitionMaintenance.partitionValue(entity) : null);
+    }
+
+    /**
+     * Przekazuje zapis do bufora zapisu opóźnionego, jeśli jest włączony. Zapisy wewnątrz inTransaction
+     * i zapisy encji shardowanych są wykonywane od razu.
+     *
+     * @return true, jeśli zapis został zbuforowany
+     */
+    private boolean deferred(WriteBehindBuffer.Operation operation, Object entity) {
+        if (writeBehind == null || transaction.get() != null || shardRouter.isSharded(entity.getClass())
+                || CascadePlan.hasCascade(entity.getClass()) || hasLobs(entity.getClass())
+                || TenantContext.current() != null) {
+            // zapisy kaskadowe obejmują inne encje, więc nie mogą być scalane w buforze jak pojedyncze wiersze;
+            // strumienia @Lob nie można trzymać w buforze do późniejszego zapisu;
+            // bufor jest opróżniany w innym wątku, bez kontekstu dzierżawcy
+            return false;
+        }
+        try {
+            Field idField = getIdField(entity.getClass());
+            idField.setAccessible(true);
+            Object id = idField.get(entity);
+            // encja bez nadanego id jest rozpoznawana po tożsamości obiektu
+            boolean unassigned = id == null || (id instanceof Number number && number.longValue() == 0);
+            String key = unassigned ? null : entity.getClass().getName() + InvalidationPayload.SEPARATOR + cacheId(entity);
+            writeBehind.enqueue(key, operation, entity);
+            return true;
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException("Write-behind Error: " + e.getMessage(), e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Write-behind Error: interrupted while waiting for buffer space", e);
+        }
+    }
+
+    /**
+     * Zapisuje w bazie wszystkie zbuforowane zapisy i czeka na zakończenie. Przy wyłączonym zapisie
+     * opóźnionym nic nie robi. Wywoływać, gdy kolejny odczyt musi zobaczyć wcześniejsze zapisy.
+     *
+     * @throws RuntimeException błąd któregoś z zapisów od poprzedniego wywołania
+     */
+    public void flush() {
+        if (writeBehind != null) {
+            writeBehind.flush();
+        }
+    }
+
+    /**
+     * Wykonuje porcję zbuforowanych zapisów w jednej transakcji: najpierw usunięcia poprzedzające ponowne
+     * wstawienie, potem INSERT w kolejności zgłoszenia, UPDATE jako wsadowe instrukcje sparametryzowane
+     * i na końcu DELETE ... ANY(?) dla każdej tabeli.
+     */
+    private void applyWrites(List<WriteBehindBuffer.PendingWrite> writes) {
+        admitted(OperationClass.WRITE, "writeBehind", null, null, () -> {
+            inTransaction(() -> {
+                try {
+                    List<Object> saves = new ArrayList<>();
+                    List<Object> updates = new ArrayList<>();
+                    List<Object> deletes = new ArrayList<>();
+                    List<Object> replaced = new ArrayList<>();
+                    for (WriteBehindBuffer.PendingWrite write : writes) {
+                        if (write.deleteFirst) {
+                            replaced.add(write.entity);
+                        }
+                        switch (write.operation) {
+                            case SAVE -> saves.add(write.entity);
+                            case UPDATE -> updates.add(write.entity);
+                            case DELETE -> deletes.add(write.entity);
+                        }
+                    }
+                    deleteBatch(replaced);
+                    for (Object entity : saves) {
+                        doSave(entity);
+                    }
+                    updateBatch(updates);
+                    deleteBatch(deletes);
+                } catch (RuntimeException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new RuntimeException("Write-behind flush Error: " + e.getMessage(), e);
+                }
+            });
+            connectionPool.notifyObservers("Zapis opóźniony: wykonano " + writes.size() + " zapisów");
+            return null;
+        });
+    }
+
+    private void updateBatch(List<Object> entities) throws Exception {
+        if (entities.isEmpty()) {
+            return;
+        }
+        Map<String, List<Object[]>> byQuery = new LinkedHashMap<>();
+        Map<String, List<Object>> byQueryEntities = new HashMap<>();
+        List<Object[]> invalidations = new ArrayList<>();
+        for (Object entity : entities) {
+            Class<?> clazz = entity.getClass();
+            shardRouter.rejectShardedManyToMany(clazz);
+            List<String> assignments = new ArrayList<>();
+            List<Object> values = new ArrayList<>();
+            String idColumn = null;
+            Object idValue = null;
+
+            for (Field field : clazz.getDeclaredFields()) {
+                field.setAccessible(true);
+                Column column = field.getAnnotation(Column.class);
+                if (column != null && field.isAnnotationPresent(Id.class)) {
+                    idColumn = column.name();
+                    idValue = field.get(entity);
+                } else if (column != null && field.isAnnotationPresent(Version.class)) {
+                    assignments.add(column.name() + " = " + column.name() + " + 1");
+                } else if (column != null) {
+                    assignments.add(column.name() + " = ?");
+                    values.add(field.get(entity));
+                }
+
+                String foreignKey = field.isAnnotationPresent(ManyToOne.class)
+                        ? field.getAnnotation(ManyToOne.class).column()
+                        : field.isAnnotationPresent(OneToOne.class) && field.getAnnotation(OneToOne.class).foreignKeyInThisTable()
+                        ? field.getAnnotation(OneToOne.class).column() : null;
+                Object relatedEntity = foreignKey != null ? field.get(entity) : null;
+                if (relatedEntity != null) {
                     Field relatedIdField = getIdField(relatedEntity.getClass());
                     relatedIdField.setAccessible(true);
-                    Object relatedIdValue = relatedIdField.get(relatedEntity);
-                    // Handle related entities as needed (e.g., saving to another table)
+                    assignments.add(foreignKey + " = ?");
+                    values.add(relatedIdField.get(relatedEntity));
+                }
+            }
+            if (idColumn == null || idValue == null) {
+                throw new RuntimeException("Encja " + clazz.getName() + " nie zawiera poprawnego klucza głównego");
+            }
+
+            values.add(idValue);
+            Field versionField = getVersionField(clazz);
+            if (versionField != null) {
+                values.add(versionField.get(entity));
+            }
+            if (clazz.isAnnotationPresent(PartitionBy.class)) {
+                values.add(PartitionMaintenance.partitionValue(entity));
+            }
+            String query = String.format("UPDATE %s SET %s WHERE %s = ?", tableName(clazz),
+                    String.join(", ", assignments), idColumn) + versionPredicate(versionField) + partitionPredicate(clazz);
+            byQuery.computeIfAbsent(query, k -> new ArrayList<>()).add(values.toArray());
+            byQueryEntities.computeIfAbsent(query, k -> new ArrayList<>()).add(entity);
+            invalidations.add(new Object[]{tableName(clazz), cacheId(entity)});
+        }
+
+        try (Connection connection = writeConnection()) {
+            for (Map.Entry<String, List<Object[]>> entry : byQuery.entrySet()) {
+                List<Object> batchEntities = byQueryEntities.get(entry.getKey());
+                try (PreparedStatement statement = connection.prepareStatement(entry.getKey())) {
+                    for (Object[] values : entry.getValue()) {
+                        for (int i = 0; i < values.length; i++) {
+                            statement.setObject(i + 1, values[i]);
+                        }
+                        statement.addBatch();
+                    }
+                    int[] counts = statement.executeBatch();
+                    Field versionField = getVersionField(batchEntities.get(0).getClass());
+                    if (versionField != null) {
+                        for (int i = 0; i < counts.length; i++) {
+                            // SUCCESS_NO_INFO (-2) oznacza, że sterownik nie zna liczby wierszy - nie uznajemy tego za konflikt
+                            if (counts[i] == 0) {
+                                Object stale = batchEntities.get(i);
+                                Field idField = getIdField(stale.getClass());
+                                idField.setAccessible(true);
+                                throw staleEntity(stale, idField.get(stale), versionField);
+                            }
+                        }
+                    }
+                }
+            }
+            for (Object[] invalidation : invalidations) {
+                invalidate(connection, (String) invalidation[0], invalidation[1]);
+            }
+        }
+        for (Object entity : entities) {
+            Field versionField = getVersionField(entity.getClass());
+            if (versionField != null) {
+                incrementVersion(entity, versionField);
+            }
+            syncManyToMany(entity);
+        }
+    }
+
+    /**
+     * Usuwa encje wsadowo: jedno DELETE ... ANY(?) na klasę, a dla tabel partycjonowanych na wartość kolumny
+     * partycjonowania, aby planista przyciął partycje.
+     */
+    private void deleteBatch(List<Object> entities) throws Exception {
+        if (entities.isEmpty()) {
+            return;
+        }
+        Map<Class<?>, Map<Object, List<Object>>> byClass = new LinkedHashMap<>();
+        for (Object entity : entities) {
+            Object partitionValue = entity.getClass().isAnnotationPresent(PartitionBy.class)
+                    ? PartitionMaintenance.partitionValue(entity) : null;
+            byClass.computeIfAbsent(entity.getClass(), k -> new LinkedHashMap<>())
+                    .computeIfAbsent(partitionValue, k -> new ArrayList<>()).add(entity);
+        }
+
+        try (Connection connection = writeConnection()) {
+            for (Map.Entry<Class<?>, Map<Object, List<Object>>> entry : byClass.entrySet()) {
+                for (Map.Entry<Object, List<Object>> partition : entry.getValue().entrySet()) {
+                    deleteGroup(connection, entry.getKey(), partition.getKey(), partition.getValue());
                 }
             }
         }
     }
 
-    private void handleManyToManyField(Field field, Object entity) throws IllegalAccessException {
-        if (field.isAnnotationPresent(ManyToMany.class)) {
-            ManyToMany manyToMany = field.getAnnotation(ManyToMany.class);
-            Collection<?> relatedEntities = (Collection<?>) field.get(entity);
+    private void deleteGroup(Connection connection, Class<?> clazz, Object partitionValue, List<Object> group)
+            throws Exception {
+        Field idField = getIdField(clazz);
+        idField.setAccessible(true);
+        Column column = idField.getAnnotation(Column.class);
+        String tableName = tableName(clazz);
+        String partition = partitionPredicate(clazz);
+        boolean partitioned = !partition.isEmpty();
+
+        List<Object> ids = new ArrayList<>();
+        for (Object entity : group) {
+            ids.add(normalizeId(idField.get(entity)));
+        }
+        List<Field> largeObjects = largeObjectFields(clazz);
+        if (!largeObjects.isEmpty()) {
+            java.sql.Array idArray = idArray(connection, ids);
+            unlinkLargeObjects(connection, clazz, largeObjects, column.name() + " = ANY(?)" + partition,
+                    partitioned ? new Object[]{idArray, partitionValue} : new Object[]{idArray});
+        }
+        Field versionField = getVersionField(clazz);
+        if (versionField != null) {
+            // para (id, wersja) z dwóch równoległych tablic; każda para musi trafić w dokładnie jeden wiersz
+            List<Object> versions = new ArrayList<>();
+            for (Object entity : group) {
+                versions.add(((Number) versionField.get(entity)).longValue());
+            }
+            String query = String.format("DELETE FROM %s WHERE (%s, %s) IN (SELECT * FROM unnest(?, ?))", tableName,
+                    column.name(), versionField.getAnnotation(Column.class).name()) + partition;
+            try (PreparedStatement statement = connection.prepareStatement(query)) {
+                statement.setArray(1, idArray(connection, ids));
+                statement.setArray(2, idArray(connection, versions));
+                setPartitionParameter(statement, 3, group.get(0));
+                if (statement.executeUpdate() != ids.size()) {
+                    throw new OptimisticLockException(String.format("Entities %s %s were modified or deleted concurrently",
+                            clazz.getName(), ids));
+                }
+            }
+        } else {
+            String query = String.format("DELETE FROM %s WHERE %s = ANY(?)", tableName, column.name()) + partition;
+            try (PreparedStatement statement = connection.prepareStatement(query)) {
+                statement.setArray(1, idArray(connection, ids));
+                setPartitionParameter(statement, 2, group.get(0));
+                statement.executeUpdate();
+            }
+        }
+        for (Object entity : group) {
+            loadedLinks.remove(entity);
+            invalidate(connection, tableName, cacheId(entity));
+            rememberDeleted(tableName);
+        }
+    }
 
-            if (relatedEntities != null && !relatedEntities.isEmpty()) {
-                String joinTable = manyToMany.joinTable();
-                String joinColumn = manyToMany.joinColumn();
-                String inverseJoinColumn = manyToMany.inverseJoinColumn();
+    /**
+     * Otwarta transakcja bieżącego wątku: połączenie primary i klucze do unieważnienia przy zatwierdzeniu.
+     */
+    private static class Transaction {
+        final Connection connection;
+        final Set<String> pendingInvalidations = new LinkedHashSet<>();
 
-                Field idField = getIdField(entity.getClass());
-                idField.setAccessible(true);
-                Object entityId = idField.get(entity);
+        Transaction(Connection connection) {
+            this.connection = connection;
+        }
+    }
 
-                for (Object relatedEntity : relatedEntities) {
-                    Field relatedIdField = getIdField(relatedEntity.getClass());
-                    relatedIdField.setAccessible(true);
-                    Object relatedId = relatedIdField.get(relatedEntity);
+    /**
+     * Wykonuje operacje w schemacie dzierżawcy: połączenia z puli (współdzielonej przez dzierżawców) mają
+     * wtedy search_path ustawiony na ten schemat, a wpisy pamięci podręcznej są rozróżniane po dzierżawcy.
+     * Filtry Blooma, zapis opóźniony i klient potokowy nie są używane. Wywołania można zagnieżdżać,
+     * ale nie można zmienić dzierżawcy wewnątrz transakcji.
+     *
+     * @param tenant nazwa schematu (małe litery, cyfry, _ i $) albo null dla domyślnego search_path
+     */
+    public <R> R inTenant(String tenant, Supplier<R> work) {
+        if (transaction.get() != null && !Objects.equals(tenant, TenantContext.current())) {
+            throw new RuntimeException("Tenant Error: cannot switch tenant inside a transaction");
+        }
+        return TenantContext.call(tenant, work);
+    }
+
+    public void inTenant(String tenant, Runnable work) {
+        inTenant(tenant, () -> {
+            work.run();
+            return null;
+        });
+    }
+
+    /**
+     * Nazwa tabeli w kluczach pamięci podręcznych: w kontekście dzierżawcy poprzedzona jego schematem.
+     */
+    private static String cachedTable(String tableName) {
+        String tenant = TenantContext.current();
+        return tenant == null || tableName == null ? tableName : tenant + "." + tableName;
+    }
+
+    /**
+     * Wykonuje operacje w jednej transakcji na jednym połączeniu primary. Komunikaty unieważniające
+     * zebrane w trakcie są wysyłane razem tuż przed COMMIT, więc inne instancje dostają je dopiero
+     * po zatwierdzeniu zmian. Wywołanie zagnieżdżone dołącza do trwającej transakcji.
+     * Zapisy encji shardowanych nie należą do transakcji.
+     *
+     * @param work operacje do wykonania
+     */
+    public void inTransaction(Runnable work) {
+        if (transaction.get() != null) {
+            work.run();
+            return;
+        }
+        try (Connection connection = writeConnection()) {
+            Transaction current = new Transaction(connection);
+            connection.setAutoCommit(false);
+            transaction.set(current);
+            try {
+                work.run();
+                publishInvalidations(connection, current.pendingInvalidations);
+                connection.commit();
+            } catch (RuntimeException | SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                transaction.remove();
+                connection.setAutoCommit(true);
+            }
+            if (cache != null) {
+                // wpisy mogły zostać ponownie wczytane przez inne wątki przed zatwierdzeniem
+                cache.apply(String.join(";", current.pendingInvalidations));
+            }
+        } catch (SQLException | InterruptedException e) {
+            throw new RuntimeException("Transaction Error: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Wykonuje operację ponownie po konflikcie wersji ({@link OptimisticLockException}), łącznie najwyżej
+     * {@code maxAttempts} razy, z krótką losową przerwą między próbami. Operacja musi być idempotentna
+     * i przy każdej próbie wczytywać encję od nowa - inaczej każda próba trafi w ten sam konflikt.
+     * Wewnątrz {@link #inTransaction} nie ponawia: konflikt musi wycofać całą transakcję.
+     */
+    public <R> R retryOnConflict(int maxAttempts, Supplier<R> operation) {
+        if (transaction.get() != null) {
+            return operation.get();
+        }
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return operation.get();
+            } catch (OptimisticLockException e) {
+                if (attempt >= maxAttempts) {
+                    throw e;
+                }
+                connectionPool.notifyObservers("Konflikt wersji, ponowienie " + attempt + "/" + (maxAttempts - 1) + ": " + e.getMessage());
+                try {
+                    Thread.sleep(ThreadLocalRandom.current().nextLong(1, Math.min(100, 1L << attempt) + 1));
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private static Connection nonClosing(Connection connection) {
+        return (Connection) Proxy.newProxyInstance(
+                Connection.class.getClassLoader(),
+                new Class<?>[]{Connection.class},
+                (proxy, method, args) -> {
+                    if (method.getName().equals("close")) {
+                        return null;
+                    }
+                    try {
+                        return method.invoke(connection, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+    }
+
+    /**
+     * Usuwa wpis z lokalnej pamięci podręcznej i rozsyła unieważnienie - od razu albo przy zatwierdzeniu transakcji.
+     *
+     * @param connection połączenie primary, na którym wysłać NOTIFY, lub null, aby pobrać nowe
+     * @param id         identyfikator encji albo {@link InvalidationPayload#ALL} dla całej tabeli
+     */
+    private void invalidate(Connection connection, String tableName, Object id) throws SQLException, InterruptedException {
+        String key = tableName == null
+                ? InvalidationPayload.ALL
+                : EntityCache.key(cachedTable(tableName), InvalidationPayload.ALL.equals(id) ? id : normalizeId(id));
+        if (cache != null) {
+            cache.apply(key);
+        }
+        if (!publishInvalidations) {
+            return;
+        }
+        Transaction current = transaction.get();
+        if (current != null) {
+            current.pendingInvalidations.add(key);
+        } else if (connection != null) {
+            publishInvalidations(connection, List.of(key));
+        } else {
+            try (Connection primary = writeConnection()) {
+                publishInvalidations(primary, List.of(key));
+            }
+        }
+    }
+
+    private void publishInvalidations(Connection connection, Collection<String> keys) throws SQLException {
+        if (!publishInvalidations || keys.isEmpty()) {
+            return;
+        }
+        try (PreparedStatement statement = connection.prepareStatement("SELECT pg_notify(?, ?)")) {
+            for (String payload : InvalidationPayload.encode(keys)) {
+                statement.setString(1, invalidationChannel);
+                statement.setString(2, payload);
+                statement.executeQuery().close();
+            }
+        }
+    }
+
+    /**
+     * Połączenie do odczytu: replika, chyba że ta sesja niedawno zapisywała dane
+     * (read-your-writes) - wtedy primary, aby nie czytać nieaktualnej repliki.
+     */
+    private Connection readConnection() throws SQLException, InterruptedException {
+        Transaction current = transaction.get();
+        if (current != null) {
+            return nonClosing(current.connection);
+        }
+        if (wrote && System.nanoTime() - lastWriteNanos < readYourWritesNanos) {
+            return recorded(connectionPool.getConnection());
+        }
+        return recorded(connectionPool.getReadConnection());
+    }
+
+    /**
+     * Odczyt z połączeń jak w {@link #readConnection()}; odczyt z repliki przerwany błędem połączenia jest
+     * powtarzany na następnej replice, a potem na primary.
+     */
+    private <R> R read(Function<ConnectionSource, R> work) {
+        if (transaction.get() != null || !connectionPool.hasReplicas()
+                || (wrote && System.nanoTime() - lastWriteNanos < readYourWritesNanos)) {
+            return work.apply(this::readConnection);
+        }
+        try {
+            return connectionPool.readWithFailover(work, this::recorded);
+        } catch (SQLException | InterruptedException e) {
+            throw new RuntimeException("Read Connection Error: " + e.getMessage(), e);
+        }
+    }
+
+    private Connection writeConnection() throws SQLException, InterruptedException {
+        lastWriteNanos = System.nanoTime();
+        wrote = true;
+        Transaction current = transaction.get();
+        if (current != null) {
+            return nonClosing(current.connection);
+        }
+        return recorded(connectionPool.getConnection());
+    }
+
+    /**
+     * Połączenie do zapisu encji: shard wyznaczony z klucza shardingu albo primary.
+     */
+    private Connection writeConnection(Object entity) throws SQLException, InterruptedException, IllegalAccessException {
+        if (shardRouter.isSharded(entity.getClass())) {
+            return shardConnection(shardRouter.shardForEntity(entity));
+        }
+        return writeConnection();
+    }
+
+    private Connection shardConnection(int shard) throws SQLException, InterruptedException {
+        return recorded(connectionPool.getShardConnection(shard));
+    }
+
+    private Connection recorded(Connection connection) {
+        return recorder == null ? connection : recorder.wrap(connection);
+    }
+
+    private List<ConnectionSource> shardSources() {
+        List<ConnectionSource> sources = new ArrayList<>();
+        for (int i = 0; i < connectionPool.getShardCount(); i++) {
+            int shard = i;
+            sources.add(() -> shardConnection(shard));
+        }
+        return sources;
+    }
+
+    /**
+     * Wykonuje zadanie równolegle na wszystkich shardach i zwraca wyniki w kolejności shardów.
+     */
+    private <R> List<R> scatter(List<ConnectionSource> sources, java.util.function.Function<ConnectionSource, R> task) {
+        List<CompletableFuture<R>> futures = new ArrayList<>();
+        String tenant = TenantContext.current();
+        for (ConnectionSource source : sources) {
+            futures.add(CompletableFuture.supplyAsync(() -> TenantContext.call(tenant, () -> task.apply(source)), shardExecutor));
+        }
+        List<R> results = new ArrayList<>();
+        for (CompletableFuture<R> future : futures) {
+            results.add(future.join());
+        }
+        return results;
+    }
+
+    /**
+     * Zapisuje nową encję w bazie danych.
+     *
+     * @param entity obiekt do zapisania
+     */
+    public <T> void save(T entity) {
+        if (deferred(WriteBehindBuffer.Operation.SAVE, entity)) {
+            return;
+        }
+        admitted(OperationClass.WRITE, "save", entity.getClass(), tableName(entity.getClass()), () -> {
+            doSave(entity);
+            return null;
+        });
+    }
+
+    private <T> void doSave(T entity) {
+        Class<?> clazz = entity.getClass();
+
+        Table table = clazz.getAnnotation(Table.class);
+        if (table == null) {
+            throw new RuntimeException("Class " + clazz.getName() + " is not mapped in DB");
+        }
+        shardRouter.rejectShardedManyToMany(clazz);
+
+        if (needsLobTransaction(clazz)) {
+            inTransaction(() -> doSave(entity));
+            return;
+        }
+        if (CascadePlan.cascades(clazz, CascadeType.PERSIST)) {
+            persistGraph(entity);
+            return;
+        }
+
+        String tableName = table.name();
+        StringBuilder columns = new StringBuilder();
+        StringBuilder values = new StringBuilder();
+        List<Field> lobFields = new ArrayList<>();
+
+        try {
+            EntityMetadata<T> metadata = metadataOf(entity);
+            if (metadata != null && metadata.insertSql() != null) {
+                rememberBeforeInsert(clazz, tableName, entity);
+                executeInsertQuery(metadata.insertSql(), clazz, entity, tableName, List.of(),
+                        statement -> metadata.bindInsert(statement, entity));
+                return;
+            }
+            if (clazz.isAnnotationPresent(PartitionBy.class)) {
+                Object partitionValue = PartitionMaintenance.partitionValue(entity);
+                if (partitionValue == null) {
+                    throw new RuntimeException("Partition column " + PartitionMaintenance.partitionColumn(clazz) + " cannot be null");
+                }
+                partitions.ensurePartition(clazz, partitionValue);
+            }
+            Field versionField = getVersionField(clazz);
+            if (versionField != null && versionField.get(entity) == null) {
+                versionField.set(entity, versionField.getType() == Long.class ? (Object) 0L : (Object) 0);
+            }
+            for (Field field : clazz.getDeclaredFields()) {
+                field.setAccessible(true);
+                handleColumnField(field, entity, columns, values, lobFields);
+                handleOneToOneField(field, entity, columns, values);
+                handleManyToOneField(field, entity, columns, values);
+            }
+
+            String columnsString = columns.substring(0, columns.length() - 1);
+            String valuesString = values.substring(0, values.length() - 1);
+
+            String query = String.format("INSERT INTO %s (%s) VALUES (%s)", tableName, columnsString, valuesString);
+
+            rememberBeforeInsert(clazz, tableName, entity);
+            executeInsertQuery(query, clazz, entity, tableName, lobFields, null);
+            syncManyToMany(entity);
+
+        } catch (Exception e) {
+            throw new RuntimeException("Entity save Error: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Metadane wygenerowane dla klasy encji albo null (brak procesora adnotacji w kompilacji).
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> EntityMetadata<T> metadataOf(T entity) {
+        return (EntityMetadata<T>) EntityMetadataRegistry.lookup(entity.getClass());
+    }
+
+    /**
+     * Id dopisujemy do filtra Blooma już przed INSERT, aby równoległy find nie uznał świeżo wstawionej encji
+     * za nieistniejącą.
+     */
+    private void rememberBeforeInsert(Class<?> clazz, String tableName, Object entity) throws IllegalAccessException {
+        if (existenceIndex != null) {
+            Field idField = getIdField(clazz);
+            idField.setAccessible(true);
+            Object id = idField.get(entity);
+            if (id != null) {
+                existenceIndex.add(cachedTable(tableName), normalizeId(id));
+            }
+        }
+    }
+
+
+    private void handleColumnField(Field field, Object entity, StringBuilder columns, StringBuilder values,
+                                   List<Field> lobFields) throws IllegalAccessException {
+        Column column = field.getAnnotation(Column.class);
+        if (column != null) {
+            columns.append(column.name()).append(",");
+            if (field.isAnnotationPresent(Lob.class)) {
+                // zawartość idzie parametrem strumieniowym, a nie literałem w treści zapytania
+                values.append("?,");
+                lobFields.add(field);
+            } else {
+                values.append("'").append(field.get(entity)).append("',");
+            }
+        }
+    }
+
+    private void handleOneToOneField(Field field, Object entity, StringBuilder columns, StringBuilder values) throws IllegalAccessException {
+        if (field.isAnnotationPresent(OneToOne.class)) {
+            OneToOne oneToOne = field.getAnnotation(OneToOne.class);
+            Object relatedEntity = field.get(entity);
+
+            if (relatedEntity != null) {
+                Field relatedIdField = getIdField(relatedEntity.getClass());
+                relatedIdField.setAccessible(true);
+
+                Object relatedIdValue = relatedIdField.get(relatedEntity);
+
+                columns.append(oneToOne.column()).append(",");
+                values.append("'").append(relatedIdValue).append("',");
+            }
+        }
+    }
+
+    private void handleManyToOneField(Field field, Object entity, StringBuilder columns, StringBuilder values) throws IllegalAccessException {
+        if (field.isAnnotationPresent(ManyToOne.class)) {
+            ManyToOne manyToOne = field.getAnnotation(ManyToOne.class);
+            Object relatedEntity = field.get(entity);
+
+            if (relatedEntity != null) {
+                Field relatedIdField = getIdField(relatedEntity.getClass());
+                relatedIdField.setAccessible(true);
+
+                Object relatedIdValue = relatedIdField.get(relatedEntity);
+
+                columns.append(manyToOne.column()).append(",");
+                values.append("'").append(relatedIdValue).append("',");
+            }
+        }
+    }
+
+    /**
+     * save encji z relacjami {@code cascade = PERSIST}: cały graf w jednej transakcji, poziom po poziomie
+     * (zob. {@link CascadePlan}), encje jednej klasy na poziomie jednym wsadem. Klucze wygenerowane dla rodziców
+     * trafiają do kolumn kluczy obcych dzieci; na końcu zapisywane są powiązania @ManyToMany.
+     */
+    private void persistGraph(Object root) {
+        try {
+            CascadePlan plan = CascadePlan.of(root, CascadeType.PERSIST);
+            for (List<Object> level : plan.levels()) {
+                for (Object entity : level) {
+                    if (shardRouter.isSharded(entity.getClass())) {
+                        throw new RuntimeException("Cascade is not supported for sharded entity " + entity.getClass().getName());
+                    }
+                    shardRouter.rejectShardedManyToMany(entity.getClass());
+                }
+            }
+            inTransaction(() -> {
+                try {
+                    for (List<Object> level : plan.levels()) {
+                        insertLevel(level, plan);
+                    }
+                    for (List<Object> level : plan.levels()) {
+                        for (Object entity : level) {
+                            syncManyToMany(entity);
+                        }
+                    }
+                } catch (RuntimeException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new RuntimeException(e.getMessage(), e);
+                }
+            });
+        } catch (Exception e) {
+            throw new RuntimeException("Entity save Error: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Wstawia jeden poziom grafu: wiersze o tej samej tabeli i liście kolumn jednym wsadem.
+     * Encja bez nadanego id (null albo 0) pomija kolumnę id, a wartość nadaje baza.
+     */
+    private void insertLevel(List<Object> level, CascadePlan plan) throws Exception {
+        Map<String, List<Object>> byQuery = new LinkedHashMap<>();
+        Map<Object, List<Object>> rows = new IdentityHashMap<>();
+        for (Object entity : level) {
+            Class<?> clazz = entity.getClass();
+            if (clazz.isAnnotationPresent(PartitionBy.class)) {
+                Object partitionValue = PartitionMaintenance.partitionValue(entity);
+                if (partitionValue == null) {
+                    throw new RuntimeException("Partition column " + PartitionMaintenance.partitionColumn(clazz) + " cannot be null");
+                }
+                partitions.ensurePartition(clazz, partitionValue);
+            }
+            Field versionField = getVersionField(clazz);
+            if (versionField != null && versionField.get(entity) == null) {
+                versionField.set(entity, versionField.getType() == Long.class ? (Object) 0L : (Object) 0);
+            }
+
+            Map<String, Object> row = new LinkedHashMap<>();
+            for (Field field : clazz.getDeclaredFields()) {
+                field.setAccessible(true);
+                Column column = field.getAnnotation(Column.class);
+                OneToOne oneToOne = field.getAnnotation(OneToOne.class);
+                ManyToOne manyToOne = field.getAnnotation(ManyToOne.class);
+                if (column != null) {
+                    Object value = field.get(entity);
+                    if (field.isAnnotationPresent(Lob.class)) {
+                        row.put(column.name(), new LobParameter(field.getAnnotation(Lob.class), (LobHandle) value));
+                    } else if (!field.isAnnotationPresent(Id.class) || !unassigned(value)) {
+                        row.put(column.name(), value);
+                    }
+                } else if (manyToOne != null || (oneToOne != null && oneToOne.foreignKeyInThisTable())) {
+                    Object related = field.get(entity);
+                    row.put(manyToOne != null ? manyToOne.column() : oneToOne.column(), related == null ? null : idOf(related));
+                }
+            }
+            for (Map.Entry<String, Object> parentKey : plan.parentKeys(entity).entrySet()) {
+                row.put(parentKey.getKey(), idOf(parentKey.getValue()));
+            }
+
+            String query = String.format("INSERT INTO %s (%s) VALUES (%s)", tableName(clazz),
+                    String.join(", ", row.keySet()), String.join(", ", Collections.nCopies(row.size(), "?")));
+            byQuery.computeIfAbsent(query, k -> new ArrayList<>()).add(entity);
+            rows.put(entity, new ArrayList<>(row.values()));
+        }
+
+        try (Connection connection = writeConnection()) {
+            for (Map.Entry<String, List<Object>> entry : byQuery.entrySet()) {
+                List<Object> entities = entry.getValue();
+                Class<?> clazz = entities.get(0).getClass();
+                String tableName = tableName(clazz);
+                Field idField = getIdField(clazz);
+                idField.setAccessible(true);
+                String idColumn = idField.getAnnotation(Column.class) != null
+                        ? idField.getAnnotation(Column.class).name() : idField.getName();
+
+                List<InputStream> lobStreams = new ArrayList<>();
+                try (PreparedStatement statement = connection.prepareStatement(entry.getKey(), new String[]{idColumn})) {
+                    for (Object entity : entities) {
+                        List<Object> values = rows.get(entity);
+                        for (int i = 0; i < values.size(); i++) {
+                            if (values.get(i) instanceof LobParameter lob) {
+                                lobStreams.add(setLobParameter(connection, statement, i + 1, lob.lob(), lob.handle()));
+                            } else {
+                                statement.setObject(i + 1, values.get(i));
+                            }
+                        }
+                        statement.addBatch();
+                        if (existenceIndex != null && !unassigned(idField.get(entity))) {
+                            existenceIndex.add(cachedTable(tableName), normalizeId(idField.get(entity)));
+                        }
+                    }
+                    statement.executeBatch();
+                    try (ResultSet generatedKeys = statement.getGeneratedKeys()) {
+                        for (Object entity : entities) {
+                            if (!generatedKeys.next()) {
+                                break;
+                            }
+                            idField.set(entity, generatedKeys.getObject(1));
+                        }
+                    }
+                } finally {
+                    closeLobStreams(lobStreams);
+                }
+                for (Object entity : entities) {
+                    rememberInserted(connection, tableName, normalizeId(idField.get(entity)));
+                    bindLobs(entity);
+                }
+                connectionPool.notifyObservers(String.format("Zapis kaskadowy: %d encji w tabeli %s", entities.size(), tableName));
+            }
+        }
+    }
+
+    /**
+     * delete encji z relacjami {@code cascade = REMOVE}: graf od najwyższego poziomu, w jednej transakcji.
+     * Przed usunięciem rodziców usuwane są też dzieci @OneToMany, których nie ma w pamięci, oraz wiersze
+     * tabel łączących @ManyToMany usuwanych encji.
+     */
+    private void removeGraph(Object root) {
+        try {
+            CascadePlan plan = CascadePlan.of(root, CascadeType.REMOVE);
+            for (List<Object> level : plan.levels()) {
+                for (Object entity : level) {
+                    if (shardRouter.isSharded(entity.getClass())) {
+                        throw new RuntimeException("Cascade is not supported for sharded entity " + entity.getClass().getName());
+                    }
+                    shardRouter.rejectShardedManyToMany(entity.getClass());
+                }
+            }
+            inTransaction(() -> {
+                try {
+                    List<List<Object>> levels = plan.levels();
+                    for (int i = levels.size() - 1; i >= 0; i--) {
+                        try (Connection connection = writeConnection()) {
+                            for (Object entity : levels.get(i)) {
+                                removeDependents(connection, entity);
+                            }
+                        }
+                        deleteBatch(levels.get(i));
+                    }
+                } catch (RuntimeException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new RuntimeException(e.getMessage(), e);
+                }
+            });
+        } catch (OptimisticLockException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException("Błąd podczas usuwania encji: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Usuwa wiersze zależne od encji, które nie są częścią grafu w pamięci: pozostałe dzieci @OneToMany
+     * i @OneToOne z {@code cascade = REMOVE} (razem z ich własnymi zależnymi, w głąb) oraz jej wiersze
+     * we wszystkich tabelach łączących @ManyToMany.
+     */
+    private void removeDependents(Connection connection, Object entity) throws Exception {
+        removeDependents(connection, entity.getClass(), idOf(entity));
+    }
+
+    private void removeDependents(Connection connection, Class<?> clazz, Object id) throws Exception {
+        for (Field field : clazz.getDeclaredFields()) {
+            ManyToMany manyToMany = field.getAnnotation(ManyToMany.class);
+            if (manyToMany != null) {
+                try (PreparedStatement statement = connection.prepareStatement(String.format(
+                        "DELETE FROM %s WHERE %s = ?", manyToMany.joinTable(), manyToMany.joinColumn()))) {
+                    statement.setObject(1, id);
+                    statement.executeUpdate();
+                }
+                continue;
+            }
+            if (!CascadePlan.cascades(field, CascadeType.REMOVE)) {
+                continue;
+            }
+            OneToMany oneToMany = field.getAnnotation(OneToMany.class);
+            OneToOne oneToOne = field.getAnnotation(OneToOne.class);
+            if (oneToMany != null) {
+                ParameterizedType collectionType = (ParameterizedType) field.getGenericType();
+                deleteByForeignKey(connection, (Class<?>) collectionType.getActualTypeArguments()[0], oneToMany.mappedBy(), id, List.of());
+            } else if (oneToOne != null && !oneToOne.foreignKeyInThisTable()) {
+                deleteByForeignKey(connection, field.getType(), oneToOne.column(), id, List.of());
+            }
+        }
+    }
+
+    /**
+     * Po update: usuwa wiersze dzieci relacji z {@code orphanRemoval}, których nie ma już w encji.
+     */
+    private void removeOrphans(Connection connection, Object entity) throws Exception {
+        Object id = null;
+        for (Field field : entity.getClass().getDeclaredFields()) {
+            OneToMany oneToMany = field.getAnnotation(OneToMany.class);
+            OneToOne oneToOne = field.getAnnotation(OneToOne.class);
+            boolean orphans = (oneToMany != null && oneToMany.orphanRemoval())
+                    || (oneToOne != null && oneToOne.orphanRemoval() && !oneToOne.foreignKeyInThisTable());
+            if (!orphans) {
+                continue;
+            }
+            if (id == null) {
+                id = idOf(entity);
+            }
+            field.setAccessible(true);
+            Object value = field.get(entity);
+            Collection<?> children = value == null ? List.of()
+                    : oneToMany != null ? (Collection<?>) value : List.of(value);
+            List<Object> kept = new ArrayList<>();
+            for (Object child : children) {
+                Object childId = idOf(child);
+                if (childId != null) {
+                    kept.add(normalizeId(childId));
+                }
+            }
+            if (oneToMany != null) {
+                ParameterizedType collectionType = (ParameterizedType) field.getGenericType();
+                deleteByForeignKey(connection, (Class<?>) collectionType.getActualTypeArguments()[0], oneToMany.mappedBy(), id, kept);
+            } else {
+                deleteByForeignKey(connection, field.getType(), oneToOne.column(), id, kept);
+            }
+        }
+    }
+
+    /**
+     * Usuwa wiersze tabeli encji {@code clazz} wskazujące kluczem obcym na {@code parentId}, z wyjątkiem {@code kept}.
+     */
+    private void deleteByForeignKey(Connection connection, Class<?> clazz, String column, Object parentId, List<Object> kept) throws Exception {
+        Field idField = getIdField(clazz);
+        String idColumn = idField.getAnnotation(Column.class) != null ? idField.getAnnotation(Column.class).name() : idField.getName();
+        String tableName = tableName(clazz);
+        if (hasDependents(clazz)) {
+            // zależne wiersze dzieci usuwamy najpierw, bo po usunięciu dziecka nie da się ich już odnaleźć
+            String select = String.format("SELECT %s FROM %s WHERE %s = ?%s", idColumn, tableName, column,
+                    kept.isEmpty() ? "" : " AND NOT (" + idColumn + " = ANY(?))");
+            List<Object> childIds = new ArrayList<>();
+            try (PreparedStatement statement = connection.prepareStatement(select)) {
+                statement.setObject(1, parentId);
+                if (!kept.isEmpty()) {
+                    statement.setArray(2, idArray(connection, kept));
+                }
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        childIds.add(resultSet.getObject(1));
+                    }
+                }
+            }
+            for (Object childId : childIds) {
+                removeDependents(connection, clazz, childId);
+            }
+        }
+        String partitionColumn = PartitionMaintenance.partitionColumn(clazz);
+        String query = String.format("DELETE FROM %s WHERE %s = ?%s RETURNING %s", tableName, column,
+                kept.isEmpty() ? "" : " AND NOT (" + idColumn + " = ANY(?))",
+                partitionColumn == null ? idColumn : idColumn + ", " + partitionColumn);
+        List<Field> largeObjects = largeObjectFields(clazz);
+        if (!largeObjects.isEmpty() && kept.isEmpty()) {
+            unlinkLargeObjects(connection, clazz, largeObjects, column + " = ?", parentId);
+        } else if (!largeObjects.isEmpty()) {
+            unlinkLargeObjects(connection, clazz, largeObjects, column + " = ? AND NOT (" + idColumn + " = ANY(?))",
+                    parentId, idArray(connection, kept));
+        }
+        List<Object> deleted = new ArrayList<>();
+        try (PreparedStatement statement = connection.prepareStatement(query)) {
+            statement.setObject(1, parentId);
+            if (!kept.isEmpty()) {
+                statement.setArray(2, idArray(connection, kept));
+            }
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    deleted.add(cacheId(resultSet.getObject(1), partitionColumn == null ? null : resultSet.getObject(2)));
+                }
+            }
+        }
+        for (Object id : deleted) {
+            invalidate(connection, tableName, id);
+            rememberDeleted(tableName);
+        }
+        if (!deleted.isEmpty()) {
+            connectionPool.notifyObservers(String.format("Usunięto %d powiązanych wierszy z tabeli %s", deleted.size(), tableName));
+        }
+    }
+
+    /**
+     * Czy usunięcie wiersza encji wymaga wcześniejszego usunięcia innych wierszy (kaskada REMOVE albo tabele łączące).
+     */
+    private static boolean hasDependents(Class<?> clazz) {
+        for (Field field : clazz.getDeclaredFields()) {
+            if (field.isAnnotationPresent(ManyToMany.class) || CascadePlan.cascades(field, CascadeType.REMOVE)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean unassigned(Object id) {
+        return id == null || (id instanceof Number number && number.longValue() == 0);
+    }
+
+    private Object idOf(Object entity) throws IllegalAccessException {
+        Field idField = getIdField(entity.getClass());
+        idField.setAccessible(true);
+        return idField.get(entity);
+    }
+
+    /**
+     * Wstawia encję albo nadpisuje istniejący wiersz o tym samym kluczu głównym - jednym zapytaniem
+     * INSERT ... ON CONFLICT ... DO UPDATE, bez wcześniejszego find.
+     *
+     * @return true, jeśli wiersz został wstawiony, false - jeśli zaktualizowany
+     */
+    public <T> boolean upsert(T entity) {
+        return upsertAll(List.of(entity)).get(0);
+    }
+
+    /**
+     * Jak {@link #upsert(Object)}, z własnym celem konfliktu i listą nadpisywanych kolumn
+     * (zob. {@link #upsertAll(Collection, List, List)}).
+     */
+    public <T> boolean upsert(T entity, List<String> conflictColumns, List<String> updateColumns) {
+        return upsertAll(List.of(entity), conflictColumns, updateColumns).get(0);
+    }
+
+    public <T> List<Boolean> upsertAll(Collection<T> entities) {
+        return upsertAll(entities, List.of(), List.of());
+    }
+
+    /**
+     * Upsert wielu encji: jedno wielowierszowe INSERT ... ON CONFLICT ... DO UPDATE ... RETURNING (xmax = 0)
+     * na klasę (i shard), w porcjach do {@value #UPSERT_CHUNK} wierszy. Encja, której klucz już wystąpił w porcji,
+     * trafia do następnej, bo jedno zapytanie nie może zmienić tego samego wiersza dwa razy.
+     * Encje z @Version dostają przy aktualizacji wersję zwiększoną o 1, bez sprawdzania poprzedniej.
+     *
+     * @param conflictColumns kolumny ograniczenia unikalności; pusta lista - klucz główny (z kolumną partycjonowania)
+     * @param updateColumns   kolumny nadpisywane przy konflikcie; pusta lista - wszystkie poza celem konfliktu
+     * @return dla każdej encji, w kolejności kolekcji: true - wstawiona, false - zaktualizowana
+     */
+    public <T> List<Boolean> upsertAll(Collection<T> entities, List<String> conflictColumns, List<String> updateColumns) {
+        if (entities.isEmpty()) {
+            return List.of();
+        }
+        if (writeBehind != null && transaction.get() == null) {
+            // zbuforowane zapisy tych samych encji muszą trafić do bazy przed upsertem
+            writeBehind.flush();
+        }
+        Class<?> clazz = entities.iterator().next().getClass();
+        return admitted(OperationClass.WRITE, "upsert", clazz, tableName(clazz),
+                () -> doUpsertAll(new ArrayList<>(entities), conflictColumns, updateColumns));
+    }
+
+    private List<Boolean> doUpsertAll(List<?> entities, List<String> conflictColumns, List<String> updateColumns) {
+        Boolean[] inserted = new Boolean[entities.size()];
+        try {
+            Map<List<Object>, List<Integer>> groups = new LinkedHashMap<>();
+            for (int i = 0; i < entities.size(); i++) {
+                Object entity = entities.get(i);
+                Class<?> clazz = entity.getClass();
+                if (!clazz.isAnnotationPresent(Table.class)) {
+                    throw new RuntimeException("Class " + clazz.getName() + " is not mapped in DB");
+                }
+                if (clazz.isAnnotationPresent(PartitionBy.class)) {
+                    Object partitionValue = PartitionMaintenance.partitionValue(entity);
+                    if (partitionValue == null) {
+                        throw new RuntimeException("Partition column " + PartitionMaintenance.partitionColumn(clazz) + " cannot be null");
+                    }
+                    partitions.ensurePartition(clazz, partitionValue);
+                }
+                Field versionField = getVersionField(clazz);
+                if (versionField != null && versionField.get(entity) == null) {
+                    versionField.set(entity, versionField.getType() == Long.class ? (Object) 0L : (Object) 0);
+                }
+                int shard = shardRouter.isSharded(clazz) ? shardRouter.shardForEntity(entity) : -1;
+                groups.computeIfAbsent(List.of(clazz, shard), k -> new ArrayList<>()).add(i);
+            }
+            for (Map.Entry<List<Object>, List<Integer>> group : groups.entrySet()) {
+                upsertGroup((Class<?>) group.getKey().get(0), (Integer) group.getKey().get(1), entities, group.getValue(),
+                        conflictColumns, updateColumns, inserted);
+            }
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException("Entity upsert Error: " + e.getMessage(), e);
+        }
+        return Arrays.asList(inserted);
+    }
+
+    private void upsertGroup(Class<?> clazz, int shard, List<?> entities, List<Integer> indexes,
+                             List<String> conflictColumns, List<String> updateColumns, Boolean[] inserted) throws Exception {
+        if (hasLobs(clazz)) {
+            throw new RuntimeException("Upsert Error: " + clazz.getName() + " has @Lob columns, use save/update");
+        }
+        shardRouter.rejectShardedManyToMany(clazz);
+        String tableName = tableName(clazz);
+        Field idField = getIdField(clazz);
+        idField.setAccessible(true);
+        Field versionField = getVersionField(clazz);
+
+        // kolumny jak w updateBatch: pola @Column oraz klucze obce @ManyToOne i @OneToOne po tej stronie relacji
+        List<String> columns = new ArrayList<>();
+        List<Field> fields = new ArrayList<>();
+        List<Boolean> foreign = new ArrayList<>();
+        for (Field field : clazz.getDeclaredFields()) {
+            field.setAccessible(true);
+            String foreignKey = field.isAnnotationPresent(ManyToOne.class)
+                    ? field.getAnnotation(ManyToOne.class).column()
+                    : field.isAnnotationPresent(OneToOne.class) && field.getAnnotation(OneToOne.class).foreignKeyInThisTable()
+                    ? field.getAnnotation(OneToOne.class).column() : null;
+            if (field.isAnnotationPresent(Column.class) || foreignKey != null) {
+                columns.add(foreignKey != null ? foreignKey : field.getAnnotation(Column.class).name());
+                fields.add(field);
+                foreign.add(foreignKey != null);
+            }
+        }
+
+        List<String> conflict = new ArrayList<>(conflictColumns);
+        if (conflict.isEmpty()) {
+            conflict.add(idField.getAnnotation(Column.class).name());
+            String partitionColumn = PartitionMaintenance.partitionColumn(clazz);
+            if (partitionColumn != null && !conflict.contains(partitionColumn)) {
+                conflict.add(partitionColumn);
+            }
+        }
+        int[] conflictPositions = new int[conflict.size()];
+        for (int i = 0; i < conflict.size(); i++) {
+            conflictPositions[i] = columns.indexOf(conflict.get(i));
+            if (conflictPositions[i] < 0) {
+                throw new RuntimeException("Conflict column " + conflict.get(i) + " is not mapped in " + clazz.getName());
+            }
+        }
+        String versionColumn = versionField == null ? null : versionField.getAnnotation(Column.class).name();
+        List<String> assignments = new ArrayList<>();
+        for (String column : updateColumns.isEmpty() ? columns : updateColumns) {
+            if (!conflict.contains(column) && !column.equals(versionColumn)) {
+                assignments.add(column + " = EXCLUDED." + column);
+            }
+        }
+        if (versionColumn != null) {
+            assignments.add(versionColumn + " = " + tableName + "." + versionColumn + " + 1");
+        }
+        if (assignments.isEmpty()) {
+            // DO NOTHING nie zwróciłoby wiersza w RETURNING - pusta aktualizacja celu konfliktu zwraca
+            assignments.add(conflict.get(0) + " = EXCLUDED." + conflict.get(0));
+        }
+        String suffix = String.format(" ON CONFLICT (%s) DO UPDATE SET %s RETURNING %s, (xmax = 0)%s",
+                String.join(", ", conflict), String.join(", ", assignments), String.join(", ", conflict),
+                versionColumn == null ? "" : ", " + versionColumn);
+        String row = "(" + String.join(", ", Collections.nCopies(columns.size(), "?")) + ")";
+        int chunkSize = Math.max(1, Math.min(UPSERT_CHUNK, MAX_BIND_PARAMETERS / columns.size()));
+
+        List<List<Integer>> chunks = new ArrayList<>();
+        List<Integer> chunk = new ArrayList<>();
+        Set<List<String>> chunkKeys = new HashSet<>();
+        List<Object[]> rows = new ArrayList<>(Collections.nCopies(entities.size(), null));
+        for (int index : indexes) {
+            Object entity = entities.get(index);
+            Object[] values = new Object[columns.size()];
+            for (int c = 0; c < values.length; c++) {
+                Object value = fields.get(c).get(entity);
+                if (foreign.get(c) && value != null) {
+                    Field relatedIdField = getIdField(value.getClass());
+                    relatedIdField.setAccessible(true);
+                    value = relatedIdField.get(value);
+                }
+                values[c] = value;
+            }
+            rows.set(index, values);
+            List<String> key = upsertKey(values, conflictPositions);
+            if (chunk.size() >= chunkSize || chunkKeys.contains(key)) {
+                chunks.add(chunk);
+                chunk = new ArrayList<>();
+                chunkKeys.clear();
+            }
+            chunk.add(index);
+            chunkKeys.add(key);
+        }
+        chunks.add(chunk);
+
+        int insertedCount = 0;
+        try (Connection connection = shard >= 0 ? shardConnection(shard) : writeConnection()) {
+            Connection notifyConnection = shard >= 0 ? null : connection;
+            for (List<Integer> part : chunks) {
+                String query = "INSERT INTO " + tableName + " (" + String.join(", ", columns) + ") VALUES "
+                        + String.join(", ", Collections.nCopies(part.size(), row)) + suffix;
+                Map<List<String>, Object[]> results = new HashMap<>();
+                try (PreparedStatement statement = connection.prepareStatement(query)) {
+                    int parameter = 1;
+                    for (int index : part) {
+                        for (Object value : rows.get(index)) {
+                            statement.setObject(parameter++, value);
+                        }
+                    }
+                    try (ResultSet resultSet = statement.executeQuery()) {
+                        while (resultSet.next()) {
+                            List<String> key = new ArrayList<>();
+                            for (int c = 1; c <= conflict.size(); c++) {
+                                key.add(upsertKeyPart(resultSet.getObject(c)));
+                            }
+                            results.put(key, new Object[]{resultSet.getBoolean(conflict.size() + 1),
+                                    versionColumn == null ? null : resultSet.getObject(conflict.size() + 2)});
+                        }
+                    }
+                }
+                for (int index : part) {
+                    Object entity = entities.get(index);
+                    Object[] result = results.get(upsertKey(rows.get(index), conflictPositions));
+                    if (result == null) {
+                        throw new RuntimeException("Upsert returned no row for " + clazz.getName() + " " + rows.get(index)[conflictPositions[0]]);
+                    }
+                    inserted[index] = (Boolean) result[0];
+                    if (versionField != null) {
+                        Number version = (Number) result[1];
+                        Class<?> type = versionField.getType();
+                        versionField.set(entity, type == long.class || type == Long.class ? (Object) version.longValue() : (Object) version.intValue());
+                    }
+                    Object id = normalizeId(idField.get(entity));
+                    if (inserted[index]) {
+                        insertedCount++;
+                        rememberInserted(notifyConnection, tableName, id);
+                    } else {
+                        invalidate(notifyConnection, tableName, cacheId(entity));
+                    }
+                }
+            }
+        }
+        for (int index : indexes) {
+            syncManyToMany(entities.get(index));
+        }
+        connectionPool.notifyObservers(String.format("Upsert w tabeli %s: %d wstawionych, %d zaktualizowanych",
+                tableName, insertedCount, indexes.size() - insertedCount));
+    }
+
+    private static List<String> upsertKey(Object[] values, int[] positions) {
+        List<String> key = new ArrayList<>(positions.length);
+        for (int position : positions) {
+            key.add(upsertKeyPart(values[position]));
+        }
+        return key;
+    }
+
+    /**
+     * Postać tekstowa wartości klucza niezależna od tego, czy pochodzi z encji, czy z ResultSet.
+     */
+    private static String upsertKeyPart(Object value) {
+        if (value instanceof Timestamp timestamp) {
+            return timestamp.toLocalDateTime().toString();
+        }
+        if (value instanceof java.sql.Date date) {
+            return date.toLocalDate().toString();
+        }
+        if (value instanceof BigDecimal decimal) {
+            return decimal.stripTrailingZeros().toPlainString();
+        }
+        return String.valueOf(normalizeId(value));
+    }
+
+    /**
+     * Synchronizuje tabele łączące @ManyToMany z bieżącą zawartością kolekcji encji.
+     * Porównuje ją ze stanem wczytanym przez find/executeQuery (albo odczytanym z bazy, gdy encja
+     * nie była wczytana) i wykonuje najwyżej jeden INSERT i jeden DELETE na relację.
+     */
+    private void syncManyToMany(Object entity) throws Exception {
+        Object ownerId = null;
+
+        for (Field field : entity.getClass().getDeclaredFields()) {
+            ManyToMany manyToMany = field.getAnnotation(ManyToMany.class);
+            if (manyToMany == null) {
+                continue;
+            }
+            field.setAccessible(true);
+            if (ownerId == null) {
+                Field idField = getIdField(entity.getClass());
+                idField.setAccessible(true);
+                ownerId = idField.get(entity);
+            }
+
+            Set<Object> current = new LinkedHashSet<>();
+            Collection<?> relatedEntities = (Collection<?>) field.get(entity);
+            if (relatedEntities != null) {
+                for (Object relatedEntity : relatedEntities) {
+                    Field relatedIdField = getIdField(relatedEntity.getClass());
+                    relatedIdField.setAccessible(true);
+                    current.add(normalizeId(relatedIdField.get(relatedEntity)));
+                }
+            }
+
+            Set<Object> loaded = loadedLinks(entity, field.getName());
+            if (loaded == null) {
+                loaded = selectLinkedIds(manyToMany, ownerId);
+            }
+
+            Set<Object> toInsert = new LinkedHashSet<>(current);
+            toInsert.removeAll(loaded);
+            Set<Object> toDelete = new LinkedHashSet<>(loaded);
+            toDelete.removeAll(current);
+
+            if (!toInsert.isEmpty() || !toDelete.isEmpty()) {
+                writeLinks(manyToMany, ownerId, toInsert, toDelete);
+            }
+            rememberLinks(entity, field.getName(), current);
+        }
+    }
+
+    private void writeLinks(ManyToMany manyToMany, Object ownerId, Set<Object> toInsert, Set<Object> toDelete) {
+        String insert = String.format(
+                "INSERT INTO %s (%s, %s) SELECT ?, UNNEST(?) ON CONFLICT DO NOTHING",
+                manyToMany.joinTable(), manyToMany.joinColumn(), manyToMany.inverseJoinColumn());
+        String delete = String.format(
+                "DELETE FROM %s WHERE %s = ? AND %s = ANY(?)",
+                manyToMany.joinTable(), manyToMany.joinColumn(), manyToMany.inverseJoinColumn());
+
+        try (Connection connection = writeConnection()) {
+            boolean ownTransaction = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try {
+                if (!toInsert.isEmpty()) {
+                    try (PreparedStatement statement = connection.prepareStatement(insert)) {
+                        statement.setObject(1, ownerId);
+                        statement.setArray(2, idArray(connection, toInsert));
+                        statement.executeUpdate();
+                    }
+                }
+                if (!toDelete.isEmpty()) {
+                    try (PreparedStatement statement = connection.prepareStatement(delete)) {
+                        statement.setObject(1, ownerId);
+                        statement.setArray(2, idArray(connection, toDelete));
+                        statement.executeUpdate();
+                    }
+                }
+                if (ownTransaction) {
+                    connection.commit();
+                }
+            } catch (SQLException e) {
+                if (ownTransaction) {
+                    connection.rollback();
+                }
+                throw e;
+            } finally {
+                if (ownTransaction) {
+                    connection.setAutoCommit(true);
+                }
+            }
+        } catch (SQLException | InterruptedException e) {
+            throw new RuntimeException("Failed to save ManyToMany relationship: " + e.getMessage(), e);
+        }
+    }
+
+    private Set<Object> selectLinkedIds(ManyToMany manyToMany, Object ownerId) throws SQLException, InterruptedException {
+        String query = String.format("SELECT %s FROM %s WHERE %s = ?",
+                manyToMany.inverseJoinColumn(), manyToMany.joinTable(), manyToMany.joinColumn());
+
+        Set<Object> ids = new LinkedHashSet<>();
+        try (Connection connection = writeConnection();
+             PreparedStatement statement = connection.prepareStatement(query)) {
+            statement.setObject(1, ownerId);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    ids.add(normalizeId(resultSet.getObject(1)));
+                }
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Wczytuje relacje @ManyToMany dla wielu encji naraz: jedno zapytanie z {@code ANY(?)} na relację.
+     */
+    private void loadManyToMany(Class<?> clazz, List<?> owners) throws Exception {
+        if (owners.isEmpty()) {
+            return;
+        }
+        shardRouter.rejectShardedManyToMany(clazz);
+        Field ownerIdField = null;
+
+        for (Field field : clazz.getDeclaredFields()) {
+            ManyToMany manyToMany = field.getAnnotation(ManyToMany.class);
+            if (manyToMany == null) {
+                continue;
+            }
+            field.setAccessible(true);
+            if (ownerIdField == null) {
+                ownerIdField = getIdField(clazz);
+                ownerIdField.setAccessible(true);
+            }
+
+            IdMap<List<Object>> ownersById = new IdMap<>(owners.size());
+            for (Object owner : owners) {
+                Object ownerId = normalizeId(ownerIdField.get(owner));
+                List<Object> sameId = ownersById.get(ownerId);
+                if (sameId == null) {
+                    sameId = new ArrayList<>(1);
+                    ownersById.put(ownerId, sameId);
+                }
+                sameId.add(owner);
+            }
+            List<Object> ownerIds = ownersById.keys();
+
+            ParameterizedType collectionType = (ParameterizedType) field.getGenericType();
+            Class<?> relatedClass = (Class<?>) collectionType.getActualTypeArguments()[0];
+            Table relatedTable = relatedClass.getAnnotation(Table.class);
+            if (relatedTable == null) {
+                throw new RuntimeException("Class " + relatedClass.getName() + " is not mapped in DB");
+            }
+            Field relatedIdField = getIdField(relatedClass);
+            Column relatedIdColumn = relatedIdField.getAnnotation(Column.class);
+
+            String query = String.format(
+                    "SELECT r.*, j.%s AS orm_owner_id FROM %s r JOIN %s j ON r.%s = j.%s WHERE j.%s = ANY(?)",
+                    manyToMany.joinColumn(), relatedTable.name(), manyToMany.joinTable(),
+                    relatedIdColumn != null ? relatedIdColumn.name() : relatedIdField.getName(),
+                    manyToMany.inverseJoinColumn(), manyToMany.joinColumn());
+
+            IdMap<Collection<Object>> collections = new IdMap<>(ownerIds.size());
+            for (Object ownerId : ownerIds) {
+                collections.put(ownerId, newCollection(field.getType()));
+            }
+
+            try (Connection connection = readConnection();
+                 PreparedStatement statement = connection.prepareStatement(query)) {
+                statement.setArray(1, idArray(connection, ownerIds));
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    int ownerColumn = resultSet.findColumn("orm_owner_id");
+                    boolean integralOwner = isIntegral(resultSet.getMetaData().getColumnType(ownerColumn));
+                    while (resultSet.next()) {
+                        Object related = hydrateColumns(relatedClass, resultSet);
+                        // klucz całkowity czytany bez opakowania, prosto do IdMap
+                        Collection<Object> collection = integralOwner
+                                ? collections.get(resultSet.getLong(ownerColumn))
+                                : collections.get(normalizeId(resultSet.getObject(ownerColumn)));
+                        collection.add(related);
+                    }
+                }
+            }
+
+            relatedIdField.setAccessible(true);
+            for (Object ownerId : ownerIds) {
+                Collection<Object> related = collections.get(ownerId);
+                List<Object> sameId = ownersById.get(ownerId);
+                Set<Object> ids = new LinkedHashSet<>();
+                for (Object relatedEntity : related) {
+                    ids.add(normalizeId(relatedIdField.get(relatedEntity)));
+                }
+                for (Object owner : sameId) {
+                    field.set(owner, sameId.size() == 1 ? related : copyCollection(field.getType(), related));
+                    rememberLinks(owner, field.getName(), ids);
+                }
+            }
+        }
+    }
+
+    private <T> T hydrateColumns(Class<T> clazz, ResultSet resultSet) throws Exception {
+        EntityMetadata<T> metadata = EntityMetadataRegistry.lookup(clazz);
+        T entity = newEntity(clazz, metadata, resultSet);
+        if (metadata == null) {
+            for (Field field : clazz.getDeclaredFields()) {
+                Column column = field.getAnnotation(Column.class);
+                if (column != null && !field.isAnnotationPresent(Lob.class)) {
+                    field.setAccessible(true);
+                    setColumn(entity, field, resultSet, column.name());
+                }
+            }
+            attachLobs(entity);
+        }
+        return entity;
+    }
+
+    static boolean hasLobs(Class<?> clazz) {
+        for (Field field : clazz.getDeclaredFields()) {
+            if (field.isAnnotationPresent(Lob.class)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static List<Field> largeObjectFields(Class<?> clazz) {
+        List<Field> fields = new ArrayList<>();
+        for (Field field : clazz.getDeclaredFields()) {
+            Lob lob = field.getAnnotation(Lob.class);
+            if (lob != null && lob.storage() == Lob.Storage.LARGE_OBJECT) {
+                fields.add(field);
+            }
+        }
+        return fields;
+    }
+
+    /**
+     * Lista kolumn zapytań po encję: {@code *}, a dla encji z polami @Lob wszystkie kolumny poza nimi,
+     * aby zawartość nie przychodziła z każdym wierszem.
+     */
+    static String selectList(Class<?> clazz) {
+        if (!hasLobs(clazz)) {
+            return "*";
+        }
+        List<String> columns = new ArrayList<>();
+        for (Field field : clazz.getDeclaredFields()) {
+            Column column = field.getAnnotation(Column.class);
+            ManyToOne manyToOne = field.getAnnotation(ManyToOne.class);
+            OneToOne oneToOne = field.getAnnotation(OneToOne.class);
+            if (column != null && !field.isAnnotationPresent(Lob.class)) {
+                columns.add(column.name());
+            } else if (manyToOne != null) {
+                columns.add(manyToOne.column());
+            } else if (oneToOne != null && oneToOne.foreignKeyInThisTable()) {
+                columns.add(oneToOne.column());
+            }
+        }
+        return String.join(", ", columns);
+    }
+
+    /**
+     * Duże obiekty można zapisywać tylko w transakcji, więc zapisy encji z @Lob LARGE_OBJECT poza nią
+     * otwierają własną (obejmującą też lo_unlink zastępowanych obiektów).
+     */
+    private boolean needsLobTransaction(Class<?> clazz) {
+        if (largeObjectFields(clazz).isEmpty()) {
+            return false;
+        }
+        if (shardRouter.isSharded(clazz)) {
+            throw new RuntimeException("Lob Error: @Lob(storage = LARGE_OBJECT) is not supported for sharded entity " + clazz.getName());
+        }
+        return transaction.get() == null;
+    }
+
+    /**
+     * Ustawia w polach @Lob wczytanej encji uchwyty wskazujące jej wiersz; zawartość nie jest pobierana.
+     */
+    private void attachLobs(Object entity) throws IllegalAccessException {
+        for (Field field : entity.getClass().getDeclaredFields()) {
+            if (field.isAnnotationPresent(Lob.class)) {
+                field.setAccessible(true);
+                field.set(entity, LobHandle.stored(lobLocation(entity, field)));
+            }
+        }
+    }
+
+    /**
+     * Po zapisie encji: uchwyty, których zawartość właśnie zapisano, wskazują odtąd jej wiersz.
+     */
+    private void bindLobs(Object entity) throws IllegalAccessException {
+        for (Field field : entity.getClass().getDeclaredFields()) {
+            if (field.isAnnotationPresent(Lob.class)) {
+                field.setAccessible(true);
+                LobHandle handle = (LobHandle) field.get(entity);
+                if (handle != null && !handle.isStored()) {
+                    handle.bind(lobLocation(entity, field));
+                }
+            }
+        }
+    }
+
+    private LobHandle.Location lobLocation(Object entity, Field field) throws IllegalAccessException {
+        Class<?> clazz = entity.getClass();
+        Field idField = getIdField(clazz);
+        idField.setAccessible(true);
+        Object id = idField.get(entity);
+        ConnectionSource source;
+        if (shardRouter.isSharded(clazz)) {
+            int shard = shardRouter.shardForEntity(entity);
+            source = () -> {
+                Transaction current = transaction.get();
+                return current != null ? nonClosing(current.connection) : shardConnection(shard);
+            };
+        } else {
+            // readConnection: poza transakcją replika (albo primary po niedawnym zapisie tej sesji)
+            source = this::readConnection;
+        }
+        String tenant = TenantContext.current();
+        if (tenant != null) {
+            // uchwyt może być czytany poza kontekstem dzierżawcy, w którym wczytano encję
+            ConnectionSource base = source;
+            source = () -> TenantContext.borrow(tenant, base);
+        }
+        return new LobHandle.Location(source, tableName(clazz), idField.getAnnotation(Column.class).name(), id,
+                field.getAnnotation(Column.class).name(), field.getAnnotation(Lob.class).storage());
+    }
+
+    /**
+     * Ustawia parametr kolumny @Lob: zawartość nowego uchwytu idzie strumieniem do bytea albo do nowego
+     * dużego obiektu (parametrem jest wtedy jego oid), a null zapisuje NULL. Zwraca strumień do zamknięcia
+     * po wykonaniu instrukcji albo null.
+     */
+    private static InputStream setLobParameter(Connection connection, PreparedStatement statement, int index, Lob lob,
+                                               LobHandle handle) throws SQLException, IOException {
+        InputStream content = handle == null ? null : handle.takeContent();
+        if (content == null) {
+            if (handle != null) {
+                throw new SQLException("Lob Error: handle " + handle + " is already stored; save a new LobHandle.of(...) instead");
+            }
+            statement.setNull(index, lob.storage() == Lob.Storage.LARGE_OBJECT ? Types.BIGINT : Types.BINARY);
+            return null;
+        }
+        if (lob.storage() == Lob.Storage.LARGE_OBJECT) {
+            try (content) {
+                statement.setLong(index, LobHandle.writeLargeObject(connection, content));
+            }
+            return null;
+        }
+        if (handle.pendingLength() >= 0) {
+            statement.setBinaryStream(index, content, handle.pendingLength());
+        } else {
+            statement.setBinaryStream(index, content);
+        }
+        return content;
+    }
+
+    private static void closeLobStreams(List<InputStream> streams) {
+        for (InputStream stream : streams) {
+            if (stream != null) {
+                try {
+                    stream.close();
+                } catch (IOException e) {
+                    System.err.println("Błąd podczas zamykania strumienia LOB: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Zwalnia (lo_unlink) duże obiekty z podanych kolumn wierszy spełniających warunek - przed usunięciem
+     * albo zastąpieniem tych wierszy, aby nie zostawały osierocone obiekty.
+     */
+    private static void unlinkLargeObjects(Connection connection, Class<?> clazz, List<Field> fields, String where,
+                                           Object... params) throws SQLException {
+        for (Field field : fields) {
+            Lob lob = field.getAnnotation(Lob.class);
+            if (lob == null || lob.storage() != Lob.Storage.LARGE_OBJECT) {
+                continue;
+            }
+            String column = field.getAnnotation(Column.class).name();
+            try (PreparedStatement statement = connection.prepareStatement(String.format(
+                    "SELECT lo_unlink(%s) FROM %s WHERE %s IS NOT NULL AND %s", column, tableName(clazz), column, where))) {
+                for (int i = 0; i < params.length; i++) {
+                    statement.setObject(i + 1, params[i]);
+                }
+                statement.executeQuery().close();
+            }
+        }
+    }
+
+    /**
+     * Wartość kolumny @Lob w wierszu zapisu kaskadowego.
+     */
+    private record LobParameter(Lob lob, LobHandle handle) {
+    }
+
+    private Collection<Object> newCollection(Class<?> type) {
+        return Set.class.isAssignableFrom(type) ? new LinkedHashSet<>() : new ArrayList<>();
+    }
+
+    private Collection<Object> copyCollection(Class<?> type, Collection<Object> source) {
+        Collection<Object> copy = newCollection(type);
+        copy.addAll(source);
+        return copy;
+    }
+
+    private Set<Object> loadedLinks(Object entity, String fieldName) {
+        Map<String, Set<Object>> links = loadedLinks.get(entity);
+        return links == null ? null : links.get(fieldName);
+    }
+
+    private void rememberLinks(Object entity, String fieldName, Set<Object> ids) {
+        loadedLinks.computeIfAbsent(entity, k -> new HashMap<>()).put(fieldName, ids);
+    }
+
+    /**
+     * Sprowadza identyfikatory do wspólnej postaci, aby np. Integer z bazy i long z pola były równe.
+     */
+    static Object normalizeId(Object id) {
+        if (id instanceof Integer || id instanceof Long || id instanceof Short) {
+            return ((Number) id).longValue();
+        }
+        return id;
+    }
+
+    static boolean isIntegral(int sqlType) {
+        return sqlType == Types.INTEGER || sqlType == Types.BIGINT || sqlType == Types.SMALLINT;
+    }
+
+    /**
+     * Ustawia pole @Column z bieżącego wiersza. Pola prymitywne są czytane bez pośredniego obiektu
+     * (NULL zostawia wartość domyślną), teksty kolumn @Interned przechodzą przez {@link InternTable}.
+     */
+    static void setColumn(Object entity, Field field, ResultSet resultSet, String column) throws SQLException, IllegalAccessException {
+        Class<?> type = field.getType();
+        if (type == int.class) {
+            int value = resultSet.getInt(column);
+            if (!resultSet.wasNull()) {
+                field.setInt(entity, value);
+            }
+        } else if (type == long.class) {
+            long value = resultSet.getLong(column);
+            if (!resultSet.wasNull()) {
+                field.setLong(entity, value);
+            }
+        } else if (type == double.class) {
+            double value = resultSet.getDouble(column);
+            if (!resultSet.wasNull()) {
+                field.setDouble(entity, value);
+            }
+        } else if (type == boolean.class) {
+            boolean value = resultSet.getBoolean(column);
+            if (!resultSet.wasNull()) {
+                field.setBoolean(entity, value);
+            }
+        } else {
+            field.set(entity, InternTable.intern(field, resultSet.getObject(column)));
+        }
+    }
+
+    static java.sql.Array idArray(Connection connection, Collection<Object> ids) throws SQLException {
+        boolean numeric = ids.stream().allMatch(id -> id instanceof Long);
+        Object[] values = numeric ? ids.toArray() : ids.stream().map(String::valueOf).toArray();
+        return connection.createArrayOf(numeric ? "int8" : "varchar", values);
+    }
+
+    private Field getIdField(Class<?> clazz) {
+        return Arrays.stream(clazz.getDeclaredFields())
+                .filter(f -> f.isAnnotationPresent(Id.class))
+                .findFirst()
+                .orElseThrow(() -> new RuntimeException("Entity " + clazz.getName() + " must have @Id"));
+    }
+
+    /**
+     * Pole @Version encji albo null, gdy encja nie używa blokowania optymistycznego.
+     */
+    private static Field getVersionField(Class<?> clazz) {
+        for (Field field : clazz.getDeclaredFields()) {
+            if (field.isAnnotationPresent(Version.class)) {
+                if (!field.isAnnotationPresent(Column.class)) {
+                    throw new RuntimeException("@Version field " + clazz.getName() + "." + field.getName() + " must have @Column");
+                }
+                field.setAccessible(true);
+                return field;
+            }
+        }
+        return null;
+    }
+
+    private static String versionPredicate(Field versionField) {
+        return versionField == null ? "" : " AND " + versionField.getAnnotation(Column.class).name() + " = ?";
+    }
+
+    /**
+     * DELETE po id z warunkami wersji i partycji - ta sama treść w delete i przy rozgrzewaniu połączeń ({@link WarmUp}).
+     */
+    static String deleteQuery(Class<?> clazz, String tableName, String idColumn) {
+        return String.format("DELETE FROM %s WHERE %s = ?", tableName, idColumn)
+                + versionPredicate(getVersionField(clazz)) + partitionPredicate(clazz);
+    }
 
-                    String query = String.format(
-                            "INSERT INTO %s (%s, %s) VALUES (?, ?) ON CONFLICT DO NOTHING",
-                            joinTable, joinColumn, inverseJoinColumn
-                    );
+    /**
+     * Warunek wersji i partycji dopisywany do UPDATE po id (pusty, gdy encja nie ma żadnego z nich).
+     */
+    static String updatePredicates(Class<?> clazz) {
+        return versionPredicate(getVersionField(clazz)) + partitionPredicate(clazz);
+    }
 
-                    try (Connection connection = connectionPool.getConnection();
-                         PreparedStatement statement = connection.prepareStatement(query)) {
-                        statement.setObject(1, entityId);
-                        statement.setObject(2, relatedId);
-                        statement.executeUpdate();
-                    } catch (SQLException | InterruptedException e) {
-                        throw new RuntimeException("Failed to save ManyToMany relationship: " + e.getMessage(), e);
-                    }
-                }
-            }
-        }
+    private static void incrementVersion(Object entity, Field versionField) throws IllegalAccessException {
+        Number version = (Number) versionField.get(entity);
+        Class<?> type = versionField.getType();
+        versionField.set(entity, type == long.class || type == Long.class ? (Object) (version.longValue() + 1) : (Object) (version.intValue() + 1));
     }
 
+    private static OptimisticLockException staleEntity(Object entity, Object id, Field versionField) throws IllegalAccessException {
+        return new OptimisticLockException(String.format("Entity %s with id %s was modified or deleted concurrently (expected version %s)",
+                entity.getClass().getName(), id, versionField.get(entity)));
+    }
 
 
-    private Field getIdField(Class<?> clazz) {
-        return Arrays.stream(clazz.getDeclaredFields())
-                .filter(f -> f.isAnnotationPresent(Id.class))
-                .findFirst()
-                .orElseThrow(() -> new RuntimeException("Entity " + clazz.getName() + " must have @Id"));
+    /**
+     * Parametry zapytania ustawiane przez wygenerowane metadane encji.
+     */
+    interface StatementBinder {
+        void bind(PreparedStatement statement) throws SQLException;
     }
 
-
-    private <T> void executeInsertQuery(String query, Class<?> clazz, T entity, String tableName) {
-        try (Connection connection = connectionPool.getConnection();
-             PreparedStatement statement = connection.prepareStatement(query, PreparedStatement.RETURN_GENERATED_KEYS)) {
+    private <T> void executeInsertQuery(String query, Class<?> clazz, T entity, String tableName, List<Field> lobFields,
+                                        StatementBinder binder) {
+        List<InputStream> lobStreams = new ArrayList<>();
+        try (Connection connection = writeConnection(entity);
+             // RETURN_GENERATED_KEYS zwraca cały wiersz (RETURNING *), razem z właśnie zapisaną zawartością @Lob
+             PreparedStatement statement = lobFields.isEmpty()
+                     ? connection.prepareStatement(query, PreparedStatement.RETURN_GENERATED_KEYS)
+                     : connection.prepareStatement(query, new String[]{getIdField(clazz).getAnnotation(Column.class).name()})) {
+            for (int i = 0; i < lobFields.size(); i++) {
+                Field field = lobFields.get(i);
+                lobStreams.add(setLobParameter(connection, statement, i + 1, field.getAnnotation(Lob.class), (LobHandle) field.get(entity)));
+            }
+            if (binder != null) {
+                binder.bind(statement);
+            }
             statement.executeUpdate();
 
             try (ResultSet generatedKeys = statement.getGeneratedKeys()) {
@@ -179,15 +2232,25 @@ public class EntityManager {
                     idField.set(entity, generatedKeys.getObject(1));
                 }
             }
+            Field idField = getIdField(clazz);
+            idField.setAccessible(true);
+            Object id = idField.get(entity);
+            if (id != null) {
+                rememberInserted(shardRouter.isSharded(clazz) ? null : connection, tableName, normalizeId(id));
+            }
+            bindLobs(entity);
             connectionPool.notifyObservers("Encja zapisana w tabeli " + tableName + ": " + entity.toString());
         } catch (Exception e) {
             throw new RuntimeException("Insert Query Execution Error: " + e.getMessage());
+        } finally {
+            closeLobStreams(lobStreams);
         }
     }
 
 
     /**
-     * Wyszukuje encję w bazie danych po identyfikatorze.
+     * Wyszukuje encję w bazie danych po identyfikatorze. Dla encji @PartitionBy zgłasza błąd -
+     * należy użyć {@link #find(Class, Object, Object)} z wartością kolumny partycjonowania.
      *
      * @param clazz klasa encji
      * @param id    identyfikator
@@ -195,14 +2258,202 @@ public class EntityManager {
      * @return encja lub null, jeśli nie znaleziono
      */
     public <T> T find(Class<T> clazz, Object id) {
+        rejectUnpartitionedFind(clazz);
+        return admitted(OperationClass.READ, "find", clazz, tableName(clazz), () -> doFind(clazz, id));
+    }
+
+    /**
+     * Wyszukuje encję tabeli partycjonowanej po identyfikatorze i wartości kolumny partycjonowania,
+     * dzięki czemu planista przeszukuje tylko jedną partycję.
+     *
+     * @param clazz klasa encji oznaczona @PartitionBy
+     * @param id identyfikator
+     * @param partitionKey wartość kolumny partycjonowania
+     * @param <T> typ encji
+     * @return encja lub null, jeśli nie znaleziono
+     */
+    public <T> T find(Class<T> clazz, Object id, Object partitionKey) {
+        String partitionColumn = PartitionMaintenance.partitionColumn(clazz);
+        if (partitionColumn == null) {
+            throw new RuntimeException("Class " + clazz.getName() + " is not partitioned");
+        }
+        return admitted(OperationClass.READ, "find", clazz, tableName(clazz), () -> {
+            Table table = clazz.getAnnotation(Table.class);
+            Object cacheId = cacheId(id, partitionKey);
+            if (cache != null) {
+                Object cached = cache.get(cachedTable(table.name()), cacheId);
+                if (cached != null) {
+                    return clazz.cast(cached);
+                }
+            }
+            String query = findQuery(clazz, table) + " AND " + partitionColumn + " = ?";
+            T found = findRouted(clazz, query, id, partitionKey);
+            if (cache != null && found != null) {
+                cache.put(cachedTable(table.name()), cacheId, found);
+            }
+            return found;
+        });
+    }
+
+    /**
+     * find po samym id w tabeli partycjonowanej przeszukałby wszystkie partycje - wymagana jest wartość
+     * kolumny partycjonowania ({@link #find(Class, Object, Object)}).
+     */
+    private static void rejectUnpartitionedFind(Class<?> clazz) {
+        String partitionColumn = PartitionMaintenance.partitionColumn(clazz);
+        if (partitionColumn != null) {
+            throw new RuntimeException("Find Error: " + clazz.getName() + " is partitioned by " + partitionColumn
+                    + ", use find(clazz, id, partitionKey)");
+        }
+    }
+
+    private <T> T doFind(Class<T> clazz, Object id) {
         Table table = clazz.getAnnotation(Table.class);
         if (table == null) {
             throw new RuntimeException("Class " + clazz.getName() + " is not mapped in DB");
         }
 
+        if (cache != null) {
+            Object cached = cache.get(cachedTable(table.name()), normalizeId(id));
+            if (cached != null) {
+                return clazz.cast(cached);
+            }
+        }
+
+        if (isKnownAbsent(table.name(), normalizeId(id))) {
+            return null;
+        }
+
+        T found = findRouted(clazz, findQuery(clazz, table), id);
+        if (found == null) {
+            rememberMissing(table.name(), normalizeId(id));
+        }
+        if (cache != null && found != null) {
+            cache.put(cachedTable(table.name()), normalizeId(id), found);
+        }
+        return found;
+    }
+
+    /**
+     * Asynchroniczny find. Przy włączonym kliencie potokowym ({@code wire} w konfiguracji) zapytanie trafia do
+     * wspólnego potoku i wątek wywołujący nie czeka na bazę; przyszłość może zakończyć się w wątku we/wy klienta,
+     * więc zależne etapy nie powinny blokować. Bez klienta, dla encji shardowanych, wewnątrz transakcji i dzierżawcy
+     * działa jak zwykły {@link #find(Class, Object)} i zwraca gotową przyszłość. Zapytanie potokowe podlega tej samej
+     * kontroli dopuszczenia co find, a zezwolenie jest zwalniane po nadejściu odpowiedzi.
+     *
+     * @param clazz klasa encji
+     * @param id    identyfikator
+     * @param <T>   typ encji
+     * @return przyszłość z encją lub null, jeśli nie znaleziono
+     */
+    public <T> CompletableFuture<T> findAsync(Class<T> clazz, Object id) {
+        rejectUnpartitionedFind(clazz);
+        Table table = clazz.getAnnotation(Table.class);
+        if (wire == null || table == null || shardRouter.isSharded(clazz) || transaction.get() != null
+                || TenantContext.current() != null) {
+            try {
+                return CompletableFuture.completedFuture(find(clazz, id));
+            } catch (RuntimeException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+        return admittedAsync(OperationClass.READ, table.name(), () -> {
+            if (cache != null) {
+                Object cached = cache.get(cachedTable(table.name()), normalizeId(id));
+                if (cached != null) {
+                    return CompletableFuture.completedFuture(clazz.cast(cached));
+                }
+            }
+            if (isKnownAbsent(table.name(), normalizeId(id))) {
+                return CompletableFuture.completedFuture(null);
+            }
+            return findWire(clazz, findQuery(clazz, table), id).thenApply(found -> {
+                if (found == null) {
+                    rememberMissing(table.name(), normalizeId(id));
+                } else if (cache != null) {
+                    cache.put(cachedTable(table.name()), normalizeId(id), found);
+                }
+                return found;
+            });
+        });
+    }
+
+    /**
+     * Sprawdza, czy encja o podanym id istnieje. Odpowiedź "nie" może paść bez zapytania do bazy,
+     * jeśli id odrzuca filtr Blooma tabeli albo było niedawno szukane bez skutku.
+     *
+     * @param clazz klasa encji
+     * @param id    identyfikator
+     * @return true, jeśli wiersz istnieje
+     */
+    public boolean exists(Class<?> clazz, Object id) {
+        return admitted(OperationClass.READ, "exists", clazz, tableName(clazz), () -> doExists(clazz, id));
+    }
+
+    private boolean doExists(Class<?> clazz, Object id) {
+        String tableName = tableName(clazz);
+        if (tableName == null) {
+            throw new RuntimeException("Class " + clazz.getName() + " is not mapped in DB");
+        }
+        if (cache != null && cache.get(cachedTable(tableName), normalizeId(id)) != null) {
+            return true;
+        }
+        if (isKnownAbsent(tableName, normalizeId(id))) {
+            return false;
+        }
+        Field idField = getIdField(clazz);
+        Column idColumn = idField.getAnnotation(Column.class);
+        String query = String.format("SELECT 1 FROM %s WHERE %s = ?", tableName,
+                idColumn != null ? idColumn.name() : idField.getName());
+
+        List<ConnectionSource> sources = shardRouter.isShardedById(clazz)
+                ? List.of(() -> shardConnection(shardRouter.shardFor(id)))
+                : shardRouter.isSharded(clazz) ? shardSources() : List.of(this::readConnection);
+        for (ConnectionSource source : sources) {
+            try (Connection connection = source.get();
+                 PreparedStatement statement = connection.prepareStatement(query)) {
+                statement.setObject(1, id);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    if (resultSet.next()) {
+                        return true;
+                    }
+                }
+            } catch (SQLException | InterruptedException e) {
+                throw new RuntimeException("Exists Query Execution Error: " + e.getMessage(), e);
+            }
+        }
+        rememberMissing(tableName, normalizeId(id));
+        return false;
+    }
+
+    private <T> T findRouted(Class<T> clazz, String query, Object idValue, Object... extraParams) {
+        if (shardRouter.isShardedById(clazz)) {
+            int shard = shardRouter.shardFor(idValue);
+            return findIn(() -> shardConnection(shard), query, clazz, idValue, extraParams);
+        }
+        if (shardRouter.isSharded(clazz)) {
+            for (T found : scatter(shardSources(), source -> findIn(source, query, clazz, idValue, extraParams))) {
+                if (found != null) {
+                    return found;
+                }
+            }
+            return null;
+        }
+        if (wire != null && transaction.get() == null && TenantContext.current() == null) {
+            // klient potokowy ma własne połączenia z domyślnym search_path
+            return joinWire(findWire(clazz, query, idValue, extraParams));
+        }
+        return read(source -> findIn(source, query, clazz, idValue, extraParams));
+    }
+
+    static String findQuery(Class<?> clazz, Table table) {
+        EntityMetadata<?> metadata = EntityMetadataRegistry.lookup(clazz);
+        if (metadata != null) {
+            return metadata.selectByIdSql();
+        }
+
         String tableName = table.name();
         String idColumn = null;
-        Object idValue = id;
 
         for (Field field : clazz.getDeclaredFields()) {
             field.setAccessible(true); // Ustaw dostęp do pola
@@ -217,57 +2468,156 @@ public class EntityManager {
             throw new RuntimeException("Class " + clazz.getName() + " has no @Id field");
         }
 
-        String query = String.format("SELECT * FROM %s WHERE %s = ?", tableName, idColumn);
+        return String.format("SELECT %s FROM %s WHERE %s = ?", selectList(clazz), tableName, idColumn);
+    }
+
+    /**
+     * Tworzy encję dla bieżącego wiersza. Gdy istnieją wygenerowane metadane, wypełniają one od razu pola @Column;
+     * w przeciwnym razie zwracany jest pusty obiekt, a kolumny ustawia refleksja.
+     */
+    private <T> T newEntity(Class<T> clazz, EntityMetadata<T> metadata, ResultSet resultSet) throws Exception {
+        if (metadata != null) {
+            return metadata.map(resultSet);
+        }
+        return clazz.getDeclaredConstructor().newInstance();
+    }
 
-        try (Connection connection = connectionPool.getConnection();
+    private <T> T findIn(ConnectionSource source, String query, Class<T> clazz, Object id, Object... extraParams) {
+        EntityMetadata<T> metadata = EntityMetadataRegistry.lookup(clazz);
+        try (Connection connection = source.get();
              PreparedStatement statement = connection.prepareStatement(query)) {
 
-            statement.setObject(1, idValue);
+            statement.setObject(1, id);
+            for (int i = 0; i < extraParams.length; i++) {
+                statement.setObject(i + 2, extraParams[i]);
+            }
             ResultSet resultSet = statement.executeQuery();
 
             if (resultSet.next()) {
-                T entity = clazz.getDeclaredConstructor().newInstance();
+                T entity = newEntity(clazz, metadata, resultSet);
+
+                if (metadata == null) {
+                    for (Field field : clazz.getDeclaredFields()) {
+                        if (field.isAnnotationPresent(Column.class) && !field.isAnnotationPresent(Lob.class)) {
+                            Column column = field.getAnnotation(Column.class);
+                            field.setAccessible(true);
+                            setColumn(entity, field, resultSet, column.name());
+                        }
+                    }
+                    attachLobs(entity);
+                }
+                loadRelations(clazz, entity, id);
+                return entity;
+            }
 
-                for (Field field : clazz.getDeclaredFields()) {
-                    field.setAccessible(true);
+        } catch (Exception e) {
+            throw new RuntimeException("Find Query Execution Error: " + e.getMessage(), e);
+        }
 
-                    if (field.isAnnotationPresent(Column.class)) {
-                        Column column = field.getAnnotation(Column.class);
-                        field.set(entity, resultSet.getObject(column.name()));
-                    }
+        return null;
+    }
 
-                    if(field.isAnnotationPresent(OneToOne.class)) {
-                        OneToOne oneToOne = field.getAnnotation(OneToOne.class);
-                        if(!oneToOne.foreignKeyInThisTable()) {
-                            var found = findOneToOne(field.getType(), id, oneToOne.column());
-                            field.set(entity, found);
-                        }
-                    }
+    /**
+     * Wczytuje relacje encji pobranej przez find: @OneToOne (klucz po drugiej stronie), @OneToMany, @ManyToOne
+     * i @ManyToMany.
+     */
+    private <T> void loadRelations(Class<T> clazz, T entity, Object id) throws Exception {
+        for (Field field : clazz.getDeclaredFields()) {
+            field.setAccessible(true);
 
-                    if(field.isAnnotationPresent(OneToMany.class)) {
-                        OneToMany oneToMany = field.getAnnotation(OneToMany.class);
+            if(field.isAnnotationPresent(OneToOne.class)) {
+                OneToOne oneToOne = field.getAnnotation(OneToOne.class);
+                if(!oneToOne.foreignKeyInThisTable()) {
+                    var found = findOneToOne(field.getType(), id, oneToOne.column());
+                    field.set(entity, found);
+                }
+            }
 
-                        ParameterizedType stringListType = (ParameterizedType) field.getGenericType();
-                        Class<?> listClass = (Class<?>) stringListType.getActualTypeArguments()[0];
+            if(field.isAnnotationPresent(OneToMany.class)) {
+                OneToMany oneToMany = field.getAnnotation(OneToMany.class);
 
-                        var found = findOneToMany(listClass, id, oneToMany.mappedBy());
-                        field.set(entity, found);
-                    }
+                ParameterizedType stringListType = (ParameterizedType) field.getGenericType();
+                Class<?> listClass = (Class<?>) stringListType.getActualTypeArguments()[0];
 
-                    if(field.isAnnotationPresent(ManyToOne.class)) {
-                        ManyToOne manyToOne = field.getAnnotation(ManyToOne.class);
-                        var found = findManyToOne(field.getType(), id);
-                        field.set(entity, found);
-                    }
+                var found = findOneToMany(listClass, id, oneToMany.mappedBy());
+                field.set(entity, found);
+            }
+
+            if(field.isAnnotationPresent(ManyToOne.class)) {
+                ManyToOne manyToOne = field.getAnnotation(ManyToOne.class);
+                var found = findManyToOne(field.getType(), id);
+                field.set(entity, found);
+            }
+        }
+        loadManyToMany(clazz, List.of(entity));
+    }
+
+    private static boolean hasRelations(Class<?> clazz) {
+        for (Field field : clazz.getDeclaredFields()) {
+            OneToOne oneToOne = field.getAnnotation(OneToOne.class);
+            if ((oneToOne != null && !oneToOne.foreignKeyInThisTable()) || field.isAnnotationPresent(OneToMany.class)
+                    || field.isAnnotationPresent(ManyToOne.class) || field.isAnnotationPresent(ManyToMany.class)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * find przez potokowego klienta protokołu: kolumny są ustawiane w wątku we/wy, relacje (przez JDBC)
+     * w {@link #relationExecutor}.
+     */
+    private <T> CompletableFuture<T> findWire(Class<T> clazz, String query, Object id, Object... extraParams) {
+        Object[] params = new Object[1 + extraParams.length];
+        params[0] = id;
+        System.arraycopy(extraParams, 0, params, 1, extraParams.length);
+        CompletableFuture<T> found = wire.query(query, params)
+                .thenApply(rows -> rows.isEmpty() ? null : hydrateWire(clazz, rows.get(0)));
+        if (!hasRelations(clazz)) {
+            return found;
+        }
+        return found.thenApplyAsync(entity -> {
+            if (entity != null) {
+                try {
+                    loadRelations(clazz, entity, id);
+                } catch (Exception e) {
+                    throw new RuntimeException("Find Query Execution Error: " + e.getMessage(), e);
                 }
-                return entity;
             }
+            return entity;
+        }, relationExecutor);
+    }
 
-        } catch (Exception e) {
-            throw new RuntimeException("Find Query Execution Error: " + e.getMessage());
+    private <T> T hydrateWire(Class<T> clazz, WireRow row) {
+        try {
+            T entity = clazz.getDeclaredConstructor().newInstance();
+            for (Field field : clazz.getDeclaredFields()) {
+                Column column = field.getAnnotation(Column.class);
+                if (column != null && !field.isAnnotationPresent(Lob.class)) {
+                    field.setAccessible(true);
+                    ParallelHydrator.set(field, entity, row.get(column.name()));
+                }
+            }
+            attachLobs(entity);
+            return entity;
+        } catch (ReflectiveOperationException | IllegalArgumentException e) {
+            throw new RuntimeException("Find Query Execution Error: " + e.getMessage(), e);
         }
+    }
 
-        return null;
+    /**
+     * Czeka na wynik klienta potokowego, zamieniając błąd bazy na wyjątek jak w ścieżce JDBC.
+     */
+    private static <T> T joinWire(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            throw new RuntimeException("Find Query Execution Error: " + cause.getMessage(), cause);
+        }
     }
 
     private  <T> T findOneToOne(Class<T> clazz, Object id, String columnName) {
@@ -296,25 +2646,27 @@ public class EntityManager {
             throw new RuntimeException("Class " + clazz.getName() + " has no @Id field");
         }
 
-        String query = String.format("SELECT * FROM %s WHERE %s = ?", tableName, idColumn);
+        String query = String.format("SELECT %s FROM %s WHERE %s = ?", selectList(clazz), tableName, idColumn);
 
-        try (Connection connection = connectionPool.getConnection();
+        EntityMetadata<T> metadata = EntityMetadataRegistry.lookup(clazz);
+        try (Connection connection = readConnection();
              PreparedStatement statement = connection.prepareStatement(query)) {
 
             statement.setObject(1, idValue);
             ResultSet resultSet = statement.executeQuery();
 
             if (resultSet.next()) {
-                T entity = clazz.getDeclaredConstructor().newInstance();
+                T entity = newEntity(clazz, metadata, resultSet);
 
                 for (Field field : clazz.getDeclaredFields()) {
                     field.setAccessible(true);
 
-                    if (field.isAnnotationPresent(Column.class)) {
+                    if (metadata == null && field.isAnnotationPresent(Column.class) && !field.isAnnotationPresent(Lob.class)) {
                         Column column = field.getAnnotation(Column.class);
-                        field.set(entity, resultSet.getObject(column.name()));
+                        setColumn(entity, field, resultSet, column.name());
                     }
                 }
+                attachLobs(entity);
                 return entity;
             }
 
@@ -350,9 +2702,10 @@ public class EntityManager {
             throw new RuntimeException("Class " + clazz.getName() + " has no @Id field");
         }
 
-        String query = String.format("SELECT * FROM %s WHERE %s = ?", tableName, idColumn);
+        String query = String.format("SELECT %s FROM %s WHERE %s = ?", selectList(clazz), tableName, idColumn);
 
-        try (Connection connection = connectionPool.getConnection();
+        EntityMetadata<T> metadata = EntityMetadataRegistry.lookup(clazz);
+        try (Connection connection = readConnection();
              PreparedStatement statement = connection.prepareStatement(query)) {
 
             statement.setObject(1, id);
@@ -360,15 +2713,16 @@ public class EntityManager {
 
             List<T> entities = new ArrayList<>();
             if (resultSet.next()) {
-                T entity = clazz.getDeclaredConstructor().newInstance();
+                T entity = newEntity(clazz, metadata, resultSet);
                 for (Field field : clazz.getDeclaredFields()) {
                     field.setAccessible(true);
 
-                    if (field.isAnnotationPresent(Column.class)) {
+                    if (metadata == null && field.isAnnotationPresent(Column.class) && !field.isAnnotationPresent(Lob.class)) {
                         Column column = field.getAnnotation(Column.class);
-                        field.set(entity, resultSet.getObject(column.name()));
+                        setColumn(entity, field, resultSet, column.name());
                     }
                 }
+                attachLobs(entity);
                 entities.add(entity);
                 return entities;
             }
@@ -404,26 +2758,27 @@ public class EntityManager {
             throw new RuntimeException("Class " + clazz.getName() + " has no @Id field");
         }
 
-        System.out.println(tableName);
-        String query = String.format("SELECT * FROM %s WHERE %s = ?", tableName, idColumn);
+        String query = String.format("SELECT %s FROM %s WHERE %s = ?", selectList(clazz), tableName, idColumn);
 
-        try (Connection connection = connectionPool.getConnection();
+        EntityMetadata<T> metadata = EntityMetadataRegistry.lookup(clazz);
+        try (Connection connection = readConnection();
              PreparedStatement statement = connection.prepareStatement(query)) {
 
             statement.setObject(1, id);
             ResultSet resultSet = statement.executeQuery();
 
             if (resultSet.next()) {
-                T entity = clazz.getDeclaredConstructor().newInstance();
+                T entity = newEntity(clazz, metadata, resultSet);
 
                 for (Field field : clazz.getDeclaredFields()) {
                     field.setAccessible(true);
 
-                    if (field.isAnnotationPresent(Column.class)) {
+                    if (metadata == null && field.isAnnotationPresent(Column.class) && !field.isAnnotationPresent(Lob.class)) {
                         Column column = field.getAnnotation(Column.class);
-                        field.set(entity, resultSet.getObject(column.name()));
+                        setColumn(entity, field, resultSet, column.name());
                     }
                 }
+                attachLobs(entity);
                 return entity;
             }
 
@@ -443,18 +2798,39 @@ public class EntityManager {
      * @param entity encja do aktualizacji
      */
     public <T> void update(T entity) {
+        if (deferred(WriteBehindBuffer.Operation.UPDATE, entity)) {
+            return;
+        }
+        admitted(OperationClass.WRITE, "update", entity.getClass(), tableName(entity.getClass()), () -> {
+            doUpdate(entity);
+            return null;
+        });
+    }
+
+    private <T> void doUpdate(T entity) {
         Class<?> clazz = entity.getClass();
         Table table = clazz.getAnnotation(Table.class);
         if (table == null) {
             throw new RuntimeException("Klasa " + clazz.getName() + " nie jest oznaczona jako @Table");
         }
+        shardRouter.rejectShardedManyToMany(clazz);
+        if (needsLobTransaction(clazz)) {
+            inTransaction(() -> doUpdate(entity));
+            return;
+        }
 
         String tableName = table.name();
         StringBuilder setClause = new StringBuilder();
+        List<Field> lobFields = new ArrayList<>();
         String idColumn = null;
         Object idValue = null;
 
         try {
+            EntityMetadata<T> metadata = metadataOf(entity);
+            if (metadata != null && metadata.updateSql() != null) {
+                updateGenerated(metadata, entity, tableName);
+                return;
+            }
             for (Field field : clazz.getDeclaredFields()) {
                 field.setAccessible(true);
                 Column column = field.getAnnotation(Column.class);
@@ -462,6 +2838,15 @@ public class EntityManager {
                     if (field.isAnnotationPresent(Id.class)) {
                         idColumn = column.name();
                         idValue = field.get(entity);
+                    } else if (field.isAnnotationPresent(Version.class)) {
+                        setClause.append(column.name()).append(" = ").append(column.name()).append(" + 1,");
+                    } else if (field.isAnnotationPresent(Lob.class)) {
+                        // zapisany uchwyt oznacza niezmienioną zawartość; kolumnę nadpisuje tylko nowy uchwyt albo null
+                        LobHandle handle = (LobHandle) field.get(entity);
+                        if (handle == null || handle.isPending()) {
+                            setClause.append(column.name()).append(" = ?,");
+                            lobFields.add(field);
+                        }
                     } else {
                         setClause.append(column.name()).append(" = '").append(field.get(entity)).append("',");
                     }
@@ -500,33 +2885,94 @@ public class EntityManager {
                 throw new RuntimeException("Encja " + clazz.getName() + " nie zawiera poprawnego klucza głównego");
             }
 
+            Field versionField = getVersionField(clazz);
             String query = String.format("UPDATE %s SET %s WHERE %s = ?",
                     tableName,
                     setClause.substring(0, setClause.length() - 1),
-                    idColumn);
+                    idColumn) + versionPredicate(versionField) + partitionPredicate(clazz);
 
-            try (Connection connection = connectionPool.getConnection();
+            List<InputStream> lobStreams = new ArrayList<>();
+            try (Connection connection = writeConnection(entity);
                  PreparedStatement statement = connection.prepareStatement(query)) {
-                statement.setObject(1, idValue);
-                statement.executeUpdate();
+                unlinkLargeObjects(connection, clazz, lobFields, idColumn + " = ?" + partitionPredicate(clazz),
+                        idParameters(entity, idValue));
+                int next = 1;
+                for (Field field : lobFields) {
+                    lobStreams.add(setLobParameter(connection, statement, next++, field.getAnnotation(Lob.class), (LobHandle) field.get(entity)));
+                }
+                statement.setObject(next++, idValue);
+                if (versionField != null) {
+                    statement.setObject(next++, versionField.get(entity));
+                }
+                setPartitionParameter(statement, next, entity);
+                int updated = statement.executeUpdate();
+                if (versionField != null && updated == 0) {
+                    throw staleEntity(entity, idValue, versionField);
+                }
+                invalidate(shardRouter.isSharded(clazz) ? null : connection, tableName, cacheId(entity));
+                removeOrphans(connection, entity);
+            } finally {
+                closeLobStreams(lobStreams);
+            }
+            bindLobs(entity);
+            if (versionField != null) {
+                incrementVersion(entity, versionField);
             }
+            syncManyToMany(entity);
             connectionPool.notifyObservers("Zaktualizowano encję w tabeli " + tableName);
+        } catch (OptimisticLockException e) {
+            throw e;
         } catch (Exception e) {
             throw new RuntimeException("Błąd podczas aktualizacji encji: " + e.getMessage());
         }
     }
 
+    /**
+     * update encji bez relacji, @Version i @PartitionBy: SQL i parametry z wygenerowanych metadanych.
+     */
+    private <T> void updateGenerated(EntityMetadata<T> metadata, T entity, String tableName) throws Exception {
+        Object idValue = metadata.getId(entity);
+        if (idValue == null) {
+            throw new RuntimeException("Encja " + entity.getClass().getName() + " nie zawiera poprawnego klucza głównego");
+        }
+        try (Connection connection = writeConnection(entity);
+             PreparedStatement statement = connection.prepareStatement(metadata.updateSql())) {
+            metadata.bindUpdate(statement, entity);
+            statement.executeUpdate();
+            invalidate(shardRouter.isSharded(entity.getClass()) ? null : connection, tableName, idValue);
+        }
+        connectionPool.notifyObservers("Zaktualizowano encję w tabeli " + tableName);
+    }
+
     /**
      * Usuwa encję z bazy danych.
      *
      * @param entity encja do usunięcia
      */
     public <T> void delete(T entity) {
+        if (deferred(WriteBehindBuffer.Operation.DELETE, entity)) {
+            return;
+        }
+        admitted(OperationClass.WRITE, "delete", entity.getClass(), tableName(entity.getClass()), () -> {
+            doDelete(entity);
+            return null;
+        });
+    }
+
+    private <T> void doDelete(T entity) {
         Class<?> clazz = entity.getClass();
         Table table = clazz.getAnnotation(Table.class);
         if (table == null) {
             throw new RuntimeException("Klasa " + clazz.getName() + " nie jest oznaczona jako @Table");
         }
+        if (needsLobTransaction(clazz)) {
+            inTransaction(() -> doDelete(entity));
+            return;
+        }
+        if (CascadePlan.cascades(clazz, CascadeType.REMOVE)) {
+            removeGraph(entity);
+            return;
+        }
 
         String tableName = table.name();
         String idColumn = null;
@@ -547,14 +2993,30 @@ public class EntityManager {
                 throw new RuntimeException("Encja " + clazz.getName() + " nie zawiera poprawnego klucza głównego");
             }
 
-            String query = String.format("DELETE FROM %s WHERE %s = ?", tableName, idColumn);
+            Field versionField = getVersionField(clazz);
+            String query = deleteQuery(clazz, tableName, idColumn);
 
-            try (Connection connection = connectionPool.getConnection();
+            try (Connection connection = writeConnection(entity);
                  PreparedStatement statement = connection.prepareStatement(query)) {
+                unlinkLargeObjects(connection, clazz, largeObjectFields(clazz), idColumn + " = ?" + partitionPredicate(clazz),
+                        idParameters(entity, idValue));
                 statement.setObject(1, idValue);
-                statement.executeUpdate();
+                int next = 2;
+                if (versionField != null) {
+                    statement.setObject(next++, versionField.get(entity));
+                }
+                setPartitionParameter(statement, next, entity);
+                int deleted = statement.executeUpdate();
+                if (versionField != null && deleted == 0) {
+                    throw staleEntity(entity, idValue, versionField);
+                }
+                invalidate(shardRouter.isSharded(clazz) ? null : connection, tableName, cacheId(entity));
             }
+            loadedLinks.remove(entity);
+            rememberDeleted(tableName);
             connectionPool.notifyObservers("Usunięto encję z tabeli " + tableName + " o id: " + idValue);
+        } catch (OptimisticLockException e) {
+            throw e;
         } catch (Exception e) {
             throw new RuntimeException("Błąd podczas usuwania encji: " + e.getMessage());
         }
@@ -562,7 +3024,8 @@ public class EntityManager {
 
 
     /**
-     * Wykonuje customowe zapytanie SELECT i mapuje wyniki na encje.
+     * Wykonuje customowe zapytanie SELECT i mapuje wyniki na encje. Zapytanie do encji @PartitionBy
+     * musi mieć w klauzuli WHERE kolumnę partycjonowania - inaczej zgłaszany jest błąd.
      *
      * @param query zapytanie SQL do wykonania
      * @param clazz klasa encji, na którą ma być mapowany wynik
@@ -571,19 +3034,73 @@ public class EntityManager {
      * @return lista obiektów encji lub pusta lista, jeśli brak wyników
      */
     public <T> List<T> executeQuery(String query, Class<T> clazz, Object... params) {
+        return admitted(OperationClass.QUERY, "executeQuery", clazz, tableName(clazz), () -> doExecuteQuery(query, clazz, params));
+    }
+
+    private <T> List<T> doExecuteQuery(String query, Class<T> clazz, Object... params) {
+        String partitionColumn = PartitionMaintenance.partitionColumn(clazz);
+        if (partitionColumn != null && !Pattern.compile("\\bWHERE\\b.*\\b" + Pattern.quote(partitionColumn) + "\\b",
+                Pattern.CASE_INSENSITIVE | Pattern.DOTALL).matcher(query).find()) {
+            throw new RuntimeException("Query Error: query on partitioned table " + tableName(clazz)
+                    + " has no predicate on partition column " + partitionColumn + " and would scan every partition");
+        }
+        if (shardRouter.isSharded(clazz)) {
+            return doExecuteShardedQuery(query, clazz, null, -1, params);
+        }
+        return read(source -> executeQueryIn(source, query, clazz, params));
+    }
+
+    /**
+     * Wykonuje zapytanie SELECT równolegle na wszystkich shardach (scatter-gather),
+     * a następnie scala wyniki, sortuje je i obcina po stronie klienta.
+     *
+     * @param query zapytanie SQL wykonywane na każdym shardzie
+     * @param clazz klasa encji
+     * @param order kolejność scalonych wyników lub null, aby zachować kolejność shardów
+     * @param limit maksymalna liczba wyników lub wartość ujemna dla braku limitu
+     * @param params opcjonalne parametry zapytania
+     * @param <T> typ encji
+     * @return scalona lista encji
+     */
+    public <T> List<T> executeShardedQuery(String query, Class<T> clazz, Comparator<? super T> order, int limit, Object... params) {
+        return admitted(OperationClass.QUERY, "executeShardedQuery", clazz, tableName(clazz), () -> doExecuteShardedQuery(query, clazz, order, limit, params));
+    }
+
+    private <T> List<T> doExecuteShardedQuery(String query, Class<T> clazz, Comparator<? super T> order, int limit, Object... params) {
+        if (!shardRouter.isSharded(clazz)) {
+            throw new RuntimeException("Class " + clazz.getName() + " is not sharded");
+        }
+        List<T> results = new ArrayList<>();
+        for (List<T> shardResults : scatter(shardSources(), source -> executeQueryIn(source, query, clazz, params))) {
+            results.addAll(shardResults);
+        }
+        if (order != null) {
+            results.sort(order);
+        }
+        if (limit >= 0 && results.size() > limit) {
+            return new ArrayList<>(results.subList(0, limit));
+        }
+        return results;
+    }
+
+    private <T> List<T> executeQueryIn(ConnectionSource source, String query, Class<T> clazz, Object... params) {
+        ParallelHydrator parallel = hydrator;
+        if (parallel != null) {
+            return executeQueryParallel(parallel, source, query, clazz, params);
+        }
+        EntityMetadata<T> metadata = EntityMetadataRegistry.lookup(clazz);
         List<T> results = new ArrayList<>();
 
-        try (Connection connection = connectionPool.getConnection();
+        try (Connection connection = source.get();
              PreparedStatement statement = connection.prepareStatement(query)) {
             for (int i = 0; i < params.length; i++) {
                 statement.setObject(i + 1, params[i]);
             }
-            System.out.println(statement);
             ResultSet resultSet = statement.executeQuery();
 
 
             while (resultSet.next()) {
-                T entity = clazz.getDeclaredConstructor().newInstance();
+                T entity = newEntity(clazz, metadata, resultSet);
                 Object idValue = null;
                 for (Field field : clazz.getDeclaredFields()) {
                     field.setAccessible(true);
@@ -596,16 +3113,14 @@ public class EntityManager {
                         throw new RuntimeException("Class " + clazz.getName() + " has no @Id field");
                     }
 
-                    if (field.isAnnotationPresent(Column.class)) {
+                    if (metadata == null && field.isAnnotationPresent(Column.class) && !field.isAnnotationPresent(Lob.class)) {
                         Column column = field.getAnnotation(Column.class);
-                        field.set(entity, resultSet.getObject(column.name()));
-                        System.out.println(resultSet.getObject(column.name()));
+                        setColumn(entity, field, resultSet, column.name());
                     }
 
                     if (field.isAnnotationPresent(OneToOne.class)) {
                         OneToOne oneToOne = field.getAnnotation(OneToOne.class);
                         var found = findOneToOne(field.getType(), idValue, oneToOne.column());
-                        System.out.println(idValue);
                         field.set(entity, found);
                     }
                     if (field.isAnnotationPresent(ManyToOne.class)) {
@@ -615,9 +3130,11 @@ public class EntityManager {
                         field.set(entity, relatedEntity);
                     }
                 }
+                attachLobs(entity);
 
                 results.add(entity);
             }
+            loadManyToMany(clazz, results);
 
         } catch (Exception e) {
             throw new RuntimeException("Custom Query Execution Error: " + e.getMessage(), e);
@@ -626,6 +3143,118 @@ public class EntityManager {
         return results;
     }
 
+    /**
+     * Wariant executeQueryIn dla dużych wyników: wiersze są pobierane kursorem w porcjach
+     * i mapowane na encje równolegle, a relacje wczytywane zbiorczo dla każdej porcji.
+     */
+    private <T> List<T> executeQueryParallel(ParallelHydrator parallel, ConnectionSource source, String query,
+                                             Class<T> clazz, Object... params) {
+        try (Connection connection = source.get()) {
+            boolean ownTransaction = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            List<T> results;
+            try (PreparedStatement statement = connection.prepareStatement(query)) {
+                statement.setFetchSize(hydrationChunkSize);
+                for (int i = 0; i < params.length; i++) {
+                    statement.setObject(i + 1, params[i]);
+                }
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    results = parallel.hydrate(clazz, resultSet, connection);
+                }
+            } finally {
+                if (ownTransaction) {
+                    connection.commit();
+                    connection.setAutoCommit(true);
+                }
+            }
+            loadManyToMany(clazz, results);
+            return results;
+        } catch (Exception e) {
+            throw new RuntimeException("Custom Query Execution Error: " + e.getMessage(), e);
+        }
+    }
+
+
+    /**
+     * Wykonuje zapytanie analityczne i dekoduje wynik do kolumnowej ramki zamiast listy encji.
+     * Wiersze są pobierane kursorem w porcjach, więc sterownik nie buforuje całego wyniku w pamięci.
+     *
+     * @param query zapytanie SQL do wykonania
+     * @param params opcjonalne parametry zapytania
+     * @return ramka z kolumnami prymitywnymi i słownikowymi
+     */
+    public ResultFrame queryFrame(String query, Object... params) {
+        return admitted(OperationClass.QUERY, "queryFrame", null, null, () -> doQueryFrame(query, params));
+    }
+
+    private ResultFrame doQueryFrame(String query, Object... params) {
+        try (Connection connection = readConnection()) {
+            boolean ownTransaction = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try (PreparedStatement statement = connection.prepareStatement(query)) {
+                statement.setFetchSize(FRAME_FETCH_SIZE);
+                for (int i = 0; i < params.length; i++) {
+                    statement.setObject(i + 1, params[i]);
+                }
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    return ResultFrame.from(resultSet);
+                }
+            } finally {
+                if (ownTransaction) {
+                    connection.commit();
+                    connection.setAutoCommit(true);
+                }
+            }
+        } catch (SQLException | InterruptedException e) {
+            throw new RuntimeException("Frame Query Execution Error: " + e.getMessage(), e);
+        }
+    }
+
+
+    /**
+     * Unieważnia całą tabelę zmienioną przez UPDATE/DELETE; dla innych instrukcji poza INSERT - całą pamięć podręczną.
+     */
+    private void invalidateModified(Connection connection, String query) throws SQLException, InterruptedException {
+        if (cache == null && !publishInvalidations) {
+            return;
+        }
+        String table = modifiedTable(query);
+        if (table != null) {
+            invalidate(connection, table, InvalidationPayload.ALL);
+        } else if (!query.stripLeading().regionMatches(true, 0, "INSERT", 0, 6)) {
+            invalidate(connection, null, InvalidationPayload.ALL);
+        }
+    }
+
+    /**
+     * INSERT z pominięciem save dodaje id nieznane filtrom Blooma i pamięci chybień - filtr tabeli jest wyłączany,
+     * a chybienia tabeli zapominane. Komunikat "tabela:+" robi to samo w innych instancjach, a odebrany także
+     * tutaj (po zatwierdzeniu) uruchamia przebudowę filtra. Inne instrukcje poza UPDATE/DELETE dotyczą wszystkich tabel.
+     */
+    private void forgetMissing(Connection connection, String query) throws SQLException, InterruptedException {
+        Matcher matcher = INSERTED_TABLE.matcher(query);
+        String table = matcher.find() ? matcher.group(1).replace("\"", "") : null;
+        if (table == null && modifiedTable(query) != null) {
+            return;
+        }
+        Collection<String> tables = table != null ? List.of(table)
+                : existenceFilters != null ? existenceFilters.tables() : List.of();
+        for (String name : tables) {
+            if (existenceIndex != null && existenceIndex.covers(cachedTable(name))) {
+                existenceIndex.suspend(cachedTable(name));
+            }
+            if (publishInvalidations) {
+                invalidate(connection, name, InvalidationPayload.INSERTED);
+            }
+        }
+        if (negativeCache != null) {
+            if (table != null) {
+                negativeCache.evictTable(cachedTable(table));
+            } else {
+                negativeCache.clear();
+            }
+        }
+    }
 
     /**
      * Wykonuje customowe zapytanie modyfikujące dane (INSERT, UPDATE, DELETE).
@@ -635,7 +3264,11 @@ public class EntityManager {
      * @return liczba zmodyfikowanych wierszy
      */
     public int executeUpdate(String query, Object... params) {
-        try (Connection connection = connectionPool.getConnection();
+        return admitted(OperationClass.WRITE, "executeUpdate", null, modifiedTable(query), () -> doExecuteUpdate(query, params));
+    }
+
+    private int doExecuteUpdate(String query, Object... params) {
+        try (Connection connection = writeConnection();
              PreparedStatement statement = connection.prepareStatement(query)) {
 
             // Ustawianie parametrów do zapytania
@@ -643,7 +3276,12 @@ public class EntityManager {
                 statement.setObject(i + 1, params[i]);
             }
 
-            return statement.executeUpdate();
+            int updated = statement.executeUpdate();
+            invalidateModified(connection, query);
+            if (existenceIndex != null || negativeCache != null) {
+                forgetMissing(connection, query);
+            }
+            return updated;
 
         } catch (SQLException | InterruptedException e) {
             throw new RuntimeException("Custom Update Query Execution Error: " + e.getMessage(), e);
@@ -0,0 +1,175 @@
+package orm;
+
+import orm.annotations.Column;
+import orm.annotations.Id;
+import orm.annotations.Table;
+import orm.cache.BloomFilter;
+import orm.cache.ExistenceIndex;
+import orm.cache.InvalidationPayload;
+
+import java.lang.reflect.Field;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Filtry Blooma identyfikatorów wspólne dla wszystkich EntityManagerów jednej {@link ConnectionPool}.
+ * Każda tabela jest skanowana raz na proces, a wstawienia z innych instancji docierają przez LISTEN/NOTIFY:
+ * klucz "tabela:id" dopisuje id do filtra, "tabela:+" (INSERT z pominięciem save) oraz "*" (np. utrata
+ * połączenia nasłuchującego) wyłączają filtr do czasu przebudowy.
+ */
+final class ExistenceFilters {
+
+    private static final double REBUILD_RATIO = 0.2;
+    private static final int FETCH_SIZE = 10_000;
+
+    private final ConnectionPool connectionPool;
+    private final ExistenceIndex index;
+    private final Map<String, Class<?>> classes = new ConcurrentHashMap<>();
+
+    /**
+     * Rejestruje odbiorcę unieważnień przed pierwszym skanem, aby nie zgubić wstawień wykonanych w trakcie.
+     */
+    ExistenceFilters(ConnectionPool connectionPool, List<String> entityClassNames, double falsePositiveRate) {
+        this.connectionPool = connectionPool;
+        this.index = new ExistenceIndex(falsePositiveRate, REBUILD_RATIO);
+        ShardRouter shardRouter = new ShardRouter(connectionPool.getShardCount());
+        for (String className : entityClassNames) {
+            try {
+                Class<?> clazz = Class.forName(className);
+                if (shardRouter.isSharded(clazz)) {
+                    connectionPool.notifyObservers("[WARN] Filtr Blooma pominięty dla encji shardowanej " + className);
+                    continue;
+                }
+                Table table = clazz.getAnnotation(Table.class);
+                if (table == null) {
+                    throw new RuntimeException("Class " + className + " is not mapped in DB");
+                }
+                classes.put(table.name(), clazz);
+            } catch (ClassNotFoundException e) {
+                throw new RuntimeException("Unknown bloom filter entity: " + className, e);
+            }
+        }
+        Consumer<String> listener = this::apply;
+        connectionPool.addInvalidationListener(listener);
+        try {
+            for (String table : classes.keySet()) {
+                build(table);
+            }
+        } catch (RuntimeException e) {
+            connectionPool.removeInvalidationListener(listener);
+            throw e;
+        }
+    }
+
+    ExistenceIndex getIndex() {
+        return index;
+    }
+
+    List<String> tables() {
+        return new ArrayList<>(classes.keySet());
+    }
+
+    /**
+     * Przebudowuje filtr tabeli w tle; do tego czasu odpowiada on tak jak dotąd (albo "może istnieć", gdy wyłączony).
+     */
+    void rebuild(String table) {
+        if (!classes.containsKey(table)) {
+            return;
+        }
+        CompletableFuture.runAsync(() -> build(table)).exceptionally(e -> {
+            connectionPool.notifyObservers("[WARN] " + e.getMessage());
+            return null;
+        });
+    }
+
+    void apply(String payload) {
+        for (String key : InvalidationPayload.decode(payload)) {
+            if (key.equals(InvalidationPayload.ALL)) {
+                for (String table : classes.keySet()) {
+                    index.suspend(table);
+                    rebuild(table);
+                }
+                continue;
+            }
+            int separator = key.lastIndexOf(InvalidationPayload.SEPARATOR);
+            if (separator <= 0) {
+                continue;
+            }
+            String table = key.substring(0, separator);
+            String id = key.substring(separator + 1);
+            if (!index.covers(table) || id.equals(InvalidationPayload.ALL)) {
+                continue;
+            }
+            if (id.equals(InvalidationPayload.INSERTED)) {
+                index.suspend(table);
+                rebuild(table);
+                continue;
+            }
+            // w komunikacie id jest tekstem - dopisujemy też postać liczbową, jak po normalizeId
+            index.add(table, id);
+            try {
+                index.add(table, Long.parseLong(id));
+            } catch (NumberFormatException ignored) {
+                // id tekstowe
+            }
+        }
+    }
+
+    /**
+     * Buduje filtr tabeli, strumieniując kolumnę id kursorem. Zapisy wykonane w trakcie
+     * trafiają także do budowanego filtra.
+     */
+    private void build(String table) {
+        String column = idColumn(classes.get(table));
+        try (Connection connection = connectionPool.getConnection()) {
+            long estimate = 0;
+            try (PreparedStatement statement = connection.prepareStatement(
+                    "SELECT GREATEST(reltuples, 0)::bigint FROM pg_class WHERE relname = ?")) {
+                statement.setString(1, table);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    if (resultSet.next()) {
+                        estimate = resultSet.getLong(1);
+                    }
+                }
+            }
+            BloomFilter filter = index.startBuild(table, estimate);
+
+            connection.setAutoCommit(false);
+            try (PreparedStatement statement = connection.prepareStatement(
+                    String.format("SELECT %s FROM %s", column, table))) {
+                statement.setFetchSize(FETCH_SIZE);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        filter.add(EntityManager.normalizeId(resultSet.getObject(1)));
+                    }
+                }
+            } finally {
+                connection.commit();
+                connection.setAutoCommit(true);
+            }
+            index.finishBuild(table, filter);
+            connectionPool.notifyObservers(String.format("Filtr Blooma dla %s: %d id, %d B",
+                    table, filter.getInsertions(), filter.memoryBytes()));
+        } catch (SQLException | InterruptedException e) {
+            throw new RuntimeException("Bloom filter build Error: " + e.getMessage(), e);
+        }
+    }
+
+    private static String idColumn(Class<?> clazz) {
+        for (Field field : clazz.getDeclaredFields()) {
+            if (field.isAnnotationPresent(Id.class)) {
+                Column column = field.getAnnotation(Column.class);
+                return column != null ? column.name() : field.getName();
+            }
+        }
+        throw new RuntimeException("Entity " + clazz.getName() + " must have @Id");
+    }
+}
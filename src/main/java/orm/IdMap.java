@@ -0,0 +1,134 @@
+package orm;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * Mapa identyfikatorów encji do łączenia relacji: klucze całkowite (Integer, Long, Short) trzymane są
+ * bez opakowania w tablicy {@code long[]} z adresowaniem otwartym (próbkowanie liniowe), pozostałe
+ * (np. tekstowe) w zwykłej {@link HashMap}. Wartości nie mogą być null. Nie jest bezpieczna wątkowo.
+ */
+final class IdMap<V> {
+
+    private long[] keys;
+    private Object[] values;
+    private int size;
+    private Map<Object, V> others;
+
+    IdMap() {
+        this(16);
+    }
+
+    IdMap(int expected) {
+        int capacity = Integer.highestOneBit(Math.max(4, expected * 2 - 1)) << 1;
+        keys = new long[capacity];
+        values = new Object[capacity];
+    }
+
+    V get(long key) {
+        int mask = keys.length - 1;
+        for (int i = mix(key) & mask; values[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                @SuppressWarnings("unchecked")
+                V value = (V) values[i];
+                return value;
+            }
+        }
+        return null;
+    }
+
+    V get(Object key) {
+        if (key instanceof Long || key instanceof Integer || key instanceof Short) {
+            return get(((Number) key).longValue());
+        }
+        return others == null ? null : others.get(key);
+    }
+
+    void put(long key, V value) {
+        if (value == null) {
+            throw new IllegalArgumentException("IdMap value cannot be null");
+        }
+        int mask = keys.length - 1;
+        int i = mix(key) & mask;
+        for (; values[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                values[i] = value;
+                return;
+            }
+        }
+        keys[i] = key;
+        values[i] = value;
+        if (++size * 2 > keys.length) {
+            grow();
+        }
+    }
+
+    void put(Object key, V value) {
+        if (key instanceof Long || key instanceof Integer || key instanceof Short) {
+            put(((Number) key).longValue(), value);
+        } else {
+            if (others == null) {
+                others = new HashMap<>();
+            }
+            others.put(key, value);
+        }
+    }
+
+    int size() {
+        return size + (others == null ? 0 : others.size());
+    }
+
+    boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Klucze w postaci jak po {@link EntityManager#normalizeId}: całkowite jako Long.
+     */
+    List<Object> keys() {
+        List<Object> result = new ArrayList<>(size());
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != null) {
+                result.add(keys[i]);
+            }
+        }
+        if (others != null) {
+            result.addAll(others.keySet());
+        }
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    void forEach(BiConsumer<Object, V> action) {
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != null) {
+                action.accept(keys[i], (V) values[i]);
+            }
+        }
+        if (others != null) {
+            others.forEach(action);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void grow() {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = new long[oldKeys.length * 2];
+        values = new Object[oldValues.length * 2];
+        size = 0;
+        for (int i = 0; i < oldValues.length; i++) {
+            if (oldValues[i] != null) {
+                put(oldKeys[i], (V) oldValues[i]);
+            }
+        }
+    }
+
+    private static int mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
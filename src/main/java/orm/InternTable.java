@@ -0,0 +1,57 @@
+package orm;
+
+import orm.annotations.Interned;
+
+import java.lang.reflect.Field;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Ograniczona tablica deduplikująca wartości kolumny @{@link Interned}, osobna dla każdego pola.
+ * Dwudrożna, bez blokad: wartość trafia do jednego z dwóch miejsc wyznaczonych przez hash, a przy kolizji
+ * zastępuje poprzednią. Wyścigi mogą najwyżej zostawić dwie równe instancje - String jest niezmienny,
+ * więc współdzielenie go między wątkami bez synchronizacji jest bezpieczne.
+ */
+final class InternTable {
+
+    private static final Map<Field, InternTable> TABLES = new ConcurrentHashMap<>();
+
+    private final String[] slots;
+    private final int mask;
+
+    private InternTable(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.slots = new String[size];
+        this.mask = size - 1;
+    }
+
+    /**
+     * Dla pola @Interned zwraca współdzieloną instancję równego tekstu; pozostałe wartości bez zmian.
+     */
+    static Object intern(Field field, Object value) {
+        if (!(value instanceof String string)) {
+            return value;
+        }
+        Interned interned = field.getAnnotation(Interned.class);
+        if (interned == null) {
+            return value;
+        }
+        return TABLES.computeIfAbsent(field, f -> new InternTable(interned.capacity())).intern(string);
+    }
+
+    String intern(String value) {
+        int hash = value.hashCode();
+        int first = (hash ^ (hash >>> 16)) & mask;
+        int second = first ^ 1;
+        String cached = slots[first];
+        if (value.equals(cached)) {
+            return cached;
+        }
+        String other = slots[second];
+        if (value.equals(other)) {
+            return other;
+        }
+        slots[cached == null ? first : second] = value;
+        return value;
+    }
+}
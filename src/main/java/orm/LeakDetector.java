@@ -0,0 +1,221 @@
+package orm;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+/**
+ * Wykrywanie wycieków połączeń. Każde wypożyczenie zapamiętuje czas, wątek i miejsce wywołania
+ * (pierwsza ramka stosu spoza pakietów ORM i JDK, czyli kod aplikacji); pełny stos jest zapisywany tylko dla próbki wypożyczeń.
+ * Wątek w tle zgłasza połączenia trzymane dłużej niż {@code thresholdMillis}, a po {@code reclaimMillis}
+ * zamyka je siłą i oddaje do puli. Czasy wypożyczeń trafiają do histogramów per miejsce wywołania.
+ * Przy wyłączonym wykrywaniu pula nie tworzy tego obiektu, więc koszt jest zerowy.
+ */
+class LeakDetector {
+
+    private static final StackWalker WALKER = StackWalker.getInstance();
+    private static final Set<String> POOL_CLASSES = Set.of(
+            NodePool.class.getName(), ConnectionPool.class.getName(), LeakDetector.class.getName());
+    /**
+     * Pakiety biblioteki; orm.models, orm.benchmark i orm.replay są jej klientami i liczą się jako kod aplikacji.
+     */
+    private static final Set<String> LIBRARY_PACKAGES = Set.of("orm", "orm.admission", "orm.cache", "orm.frame",
+            "orm.iterator", "orm.logging", "orm.metadata", "orm.schema", "orm.wire");
+    private static final int BUCKETS = 20;
+
+    private final long thresholdNanos;
+    private final long reclaimNanos;
+    private final double stackTraceSampleRate;
+    private final Consumer<String> reporter;
+    private final Set<Lease> active = ConcurrentHashMap.newKeySet();
+    private final Map<String, LongAdder[]> histograms = new ConcurrentHashMap<>();
+
+    /**
+     * @param thresholdMillis      czas, po którym wypożyczenie jest zgłaszane jako podejrzane
+     * @param reclaimMillis        czas, po którym połączenie jest odbierane siłą (0 - nigdy)
+     * @param stackTraceSampleRate odsetek wypożyczeń (0..1), dla których zapisywany jest pełny stos
+     * @param reporter             odbiorca komunikatów (obserwatorzy puli)
+     */
+    LeakDetector(long thresholdMillis, long reclaimMillis, double stackTraceSampleRate, Consumer<String> reporter) {
+        this.thresholdNanos = TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+        this.reclaimNanos = TimeUnit.MILLISECONDS.toNanos(reclaimMillis);
+        this.stackTraceSampleRate = stackTraceSampleRate;
+        this.reporter = reporter;
+
+        long checkMillis = Math.max(50, (reclaimMillis > 0 ? Math.min(thresholdMillis, reclaimMillis) : thresholdMillis) / 2);
+        ScheduledExecutorService scanner = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "orm-leak-detector");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scanner.scheduleWithFixedDelay(this::scan, checkMillis, checkMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Rejestruje wypożyczenie.
+     *
+     * @param reclaim odbiera połączenie siłą; zwraca false, jeśli zostało już oddane
+     */
+    Lease borrowed(String pool, BooleanSupplier reclaim) {
+        Throwable stack = stackTraceSampleRate > 0 && ThreadLocalRandom.current().nextDouble() < stackTraceSampleRate
+                ? new Throwable("Połączenie wypożyczone tutaj") : null;
+        Lease lease = new Lease(pool, callSite(), Thread.currentThread().getName(), stack, reclaim);
+        active.add(lease);
+        return lease;
+    }
+
+    void returned(Lease lease) {
+        active.remove(lease);
+        long heldMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lease.startNanos);
+        LongAdder[] buckets = histograms.computeIfAbsent(lease.callSite, k -> {
+            LongAdder[] created = new LongAdder[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                created[i] = new LongAdder();
+            }
+            return created;
+        });
+        buckets[bucket(heldMillis)].increment();
+    }
+
+    /**
+     * Histogramy czasu wypożyczenia per miejsce wywołania. Przedział i obejmuje [2^(i-1), 2^i) ms,
+     * przedział 0 - poniżej 1 ms, ostatni - wszystko dłuższe.
+     */
+    Map<String, long[]> histograms() {
+        Map<String, long[]> result = new TreeMap<>();
+        histograms.forEach((callSite, buckets) ->
+                result.put(callSite, Arrays.stream(buckets).mapToLong(LongAdder::sum).toArray()));
+        return result;
+    }
+
+    /**
+     * Czytelne podsumowanie: liczba wypożyczeń i górne granice p50/p99/max per miejsce wywołania
+     * oraz aktualnie trzymane połączenia.
+     */
+    String report() {
+        StringBuilder report = new StringBuilder();
+        histograms().forEach((callSite, buckets) -> {
+            long count = Arrays.stream(buckets).sum();
+            report.append(String.format("%s: count=%d p50<=%dms p99<=%dms max<=%dms%n", callSite, count,
+                    upperBound(buckets, count * 0.5), upperBound(buckets, count * 0.99), upperBound(buckets, count)));
+        });
+        long now = System.nanoTime();
+        for (Lease lease : active) {
+            report.append(String.format("held: %s by %s at %s for %dms%n", lease.pool, lease.thread, lease.callSite,
+                    TimeUnit.NANOSECONDS.toMillis(now - lease.startNanos)));
+        }
+        return report.toString();
+    }
+
+    private void scan() {
+        long now = System.nanoTime();
+        for (Lease lease : active) {
+            long held = now - lease.startNanos;
+            if (reclaimNanos > 0 && held > reclaimNanos) {
+                active.remove(lease);
+                lease.reclaimed = true;
+                if (lease.reclaim.getAsBoolean()) {
+                    reporter.accept(describe("[WARN] Odebrano siłą połączenie", lease, held));
+                }
+            } else if (held > thresholdNanos && !lease.warned) {
+                lease.warned = true;
+                reporter.accept(describe("[WARN] Możliwy wyciek połączenia", lease, held));
+            }
+        }
+    }
+
+    private static String describe(String prefix, Lease lease, long heldNanos) {
+        StringBuilder message = new StringBuilder(String.format("%s %s: wątek %s, %s, trzymane %d ms", prefix,
+                lease.pool, lease.thread, lease.callSite, TimeUnit.NANOSECONDS.toMillis(heldNanos)));
+        if (lease.stack != null) {
+            for (StackTraceElement element : lease.stack.getStackTrace()) {
+                message.append(System.lineSeparator()).append("\tat ").append(element);
+            }
+        }
+        return message.toString();
+    }
+
+    /**
+     * Pierwsza ramka kodu aplikacji; gdy wypożyczenie nie ma jej na stosie (np. wątek roboczy findAsync),
+     * pierwsza ramka spoza puli.
+     */
+    private static String callSite() {
+        return WALKER.walk(frames -> {
+            StackWalker.StackFrame internal = null;
+            for (Iterator<StackWalker.StackFrame> iterator = frames.iterator(); iterator.hasNext(); ) {
+                StackWalker.StackFrame frame = iterator.next();
+                String className = frame.getClassName();
+                if (POOL_CLASSES.contains(className) || className.startsWith("jdk.proxy")) {
+                    continue;
+                }
+                if (!isLibraryOrJdk(className)) {
+                    return describe(frame);
+                }
+                if (internal == null) {
+                    internal = frame;
+                }
+            }
+            return internal == null ? "unknown" : describe(internal);
+        });
+    }
+
+    private static boolean isLibraryOrJdk(String className) {
+        int lastDot = className.lastIndexOf('.');
+        return (lastDot > 0 && LIBRARY_PACKAGES.contains(className.substring(0, lastDot)))
+                || className.startsWith("java.") || className.startsWith("jdk.") || className.startsWith("sun.");
+    }
+
+    private static String describe(StackWalker.StackFrame frame) {
+        return frame.getClassName() + "." + frame.getMethodName() + ":" + frame.getLineNumber();
+    }
+
+    private static int bucket(long millis) {
+        if (millis < 1) {
+            return 0;
+        }
+        return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(millis));
+    }
+
+    private static long upperBound(long[] buckets, double rank) {
+        long seen = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            seen += buckets[i];
+            if (seen >= rank && buckets[i] > 0) {
+                return 1L << i;
+            }
+        }
+        return 1L << (buckets.length - 1);
+    }
+
+    /**
+     * Jedno wypożyczenie połączenia.
+     */
+    static class Lease {
+        final String pool;
+        final String callSite;
+        final String thread;
+        final Throwable stack;
+        final BooleanSupplier reclaim;
+        final long startNanos = System.nanoTime();
+        volatile boolean warned;
+        volatile boolean reclaimed;
+
+        Lease(String pool, String callSite, String thread, Throwable stack, BooleanSupplier reclaim) {
+            this.pool = pool;
+            this.callSite = callSite;
+            this.thread = thread;
+            this.stack = stack;
+            this.reclaim = reclaim;
+        }
+
+        boolean isReclaimed() {
+            return reclaimed;
+        }
+    }
+}
@@ -0,0 +1,505 @@
+package orm;
+
+import orm.annotations.Lob;
+import org.postgresql.PGConnection;
+import org.postgresql.largeobject.BlobInputStream;
+import org.postgresql.largeobject.BlobOutputStream;
+import org.postgresql.largeobject.LargeObject;
+import org.postgresql.largeobject.LargeObjectManager;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Zawartość kolumny @{@link Lob}. Uchwyt utworzony przez {@code of(...)} niesie strumień do zapisania
+ * przy save/update; uchwyt wczytanej encji wskazuje tylko wiersz i kolumnę, a dane są pobierane
+ * porcjami dopiero w {@link #openStream()}, więc dokument dowolnej wielkości nie trafia w całości na stertę.
+ * find i relacje pomijają kolumny @Lob w zapytaniu; w executeQuery lepiej wymienić kolumny zamiast {@code SELECT *}.
+ * <p>
+ * Otwarty strumień trzyma połączenie z puli (i transakcję tylko do odczytu), dopóki nie zostanie zamknięty.
+ * Wewnątrz {@link EntityManager#inTransaction} czyta na połączeniu transakcji, więc widzi jej niezatwierdzone zmiany.
+ */
+public final class LobHandle {
+
+    static final int CHUNK_SIZE = 1 << 20;
+
+    private InputStream content;
+    private final long length;
+    private volatile Location location;
+
+    private LobHandle(InputStream content, long length) {
+        this.content = content;
+        this.length = length;
+    }
+
+    /**
+     * Zawartość do zapisania o nieznanej długości. Sterownik buforuje ją w pliku tymczasowym, nie w pamięci.
+     */
+    public static LobHandle of(InputStream content) {
+        return new LobHandle(content, -1);
+    }
+
+    public static LobHandle of(InputStream content, long length) {
+        return new LobHandle(content, length);
+    }
+
+    public static LobHandle of(byte[] content) {
+        return new LobHandle(new ByteArrayInputStream(content), content.length);
+    }
+
+    public static LobHandle of(Path file) throws IOException {
+        return new LobHandle(Files.newInputStream(file), Files.size(file));
+    }
+
+    /**
+     * Tekst do zapisania, kodowany w UTF-8 w trakcie przesyłania.
+     */
+    public static LobHandle of(Reader content) {
+        return new LobHandle(new EncodingInputStream(content), -1);
+    }
+
+    static LobHandle stored(Location location) {
+        LobHandle handle = new LobHandle(null, -1);
+        handle.location = location;
+        return handle;
+    }
+
+    /**
+     * Czy uchwyt wskazuje zapisaną kolumnę (a nie zawartość czekającą na save/update).
+     */
+    public boolean isStored() {
+        return location != null;
+    }
+
+    /**
+     * Otwiera strumień zawartości kolumny albo zwraca null, gdy kolumna jest NULL. Strumień trzeba zamknąć.
+     */
+    public InputStream openStream() throws SQLException {
+        Location stored = stored();
+        Connection connection;
+        try {
+            connection = stored.source.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Lob Error: interrupted while waiting for a connection", "57014", e);
+        }
+        ReadScope scope = null;
+        try {
+            scope = new ReadScope(connection);
+            InputStream stream = stored.storage == Lob.Storage.LARGE_OBJECT
+                    ? openLargeObject(stored, scope)
+                    : openBytea(stored, scope);
+            if (stream == null) {
+                scope.close();
+            }
+            return stream;
+        } catch (SQLException | RuntimeException e) {
+            if (scope != null) {
+                scope.abandon();
+            } else {
+                connection.close();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Otwiera zawartość jako tekst UTF-8 albo zwraca null, gdy kolumna jest NULL.
+     */
+    public Reader openReader() throws SQLException {
+        InputStream stream = openStream();
+        return stream == null ? null : new InputStreamReader(stream, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Długość zawartości w bajtach albo -1, gdy kolumna jest NULL.
+     */
+    public long length() throws SQLException {
+        Location stored = stored();
+        if (stored.storage == Lob.Storage.LARGE_OBJECT) {
+            try (InputStream stream = openStream()) {
+                return stream == null ? -1 : ((LargeObjectStream) stream).size();
+            } catch (IOException e) {
+                throw new SQLException("Lob Error: " + e.getMessage(), e);
+            }
+        }
+        try (Connection connection = stored.source.get();
+             PreparedStatement statement = connection.prepareStatement(String.format(
+                     "SELECT octet_length(%s) FROM %s WHERE %s = ?", stored.column, stored.table, stored.idColumn))) {
+            statement.setObject(1, stored.id);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                if (!resultSet.next()) {
+                    throw missingRow(stored);
+                }
+                long size = resultSet.getLong(1);
+                return resultSet.wasNull() ? -1 : size;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Lob Error: interrupted while waiting for a connection", "57014", e);
+        }
+    }
+
+    /**
+     * Przepisuje zawartość do strumienia (np. odpowiedzi HTTP) i zwraca liczbę bajtów; dla NULL zwraca -1.
+     */
+    public long transferTo(OutputStream out) throws SQLException, IOException {
+        try (InputStream stream = openStream()) {
+            return stream == null ? -1 : stream.transferTo(out);
+        }
+    }
+
+    @Override
+    public String toString() {
+        Location stored = location;
+        return stored == null ? "LobHandle[pending]" : "LobHandle[" + stored.table + "." + stored.column + " id=" + stored.id + "]";
+    }
+
+    /**
+     * Zawartość czekająca na zapis; po pobraniu uchwyt nie niesie już danych.
+     */
+    synchronized InputStream takeContent() {
+        InputStream taken = content;
+        content = null;
+        return taken;
+    }
+
+    long pendingLength() {
+        return length;
+    }
+
+    boolean isPending() {
+        return content != null;
+    }
+
+    void bind(Location location) {
+        this.location = location;
+    }
+
+    /**
+     * Zapisuje zawartość w nowym dużym obiekcie porcjami po 64 KB i zwraca jego oid. Wymaga otwartej transakcji.
+     */
+    static long writeLargeObject(Connection connection, InputStream content) throws SQLException, IOException {
+        LargeObjectManager manager = connection.unwrap(PGConnection.class).getLargeObjectAPI();
+        long oid = manager.createLO(LargeObjectManager.READWRITE);
+        LargeObject largeObject = manager.open(oid, LargeObjectManager.WRITE);
+        // BlobOutputStream zamyka też sam obiekt
+        try (OutputStream out = new BlobOutputStream(largeObject, 64 * 1024)) {
+            content.transferTo(out);
+        }
+        return oid;
+    }
+
+    private Location stored() throws SQLException {
+        Location stored = location;
+        if (stored == null) {
+            throw new SQLException("Lob Error: content has not been saved yet");
+        }
+        return stored;
+    }
+
+    private static SQLException missingRow(Location location) {
+        return new SQLException(String.format("Lob Error: row %s = %s no longer exists in %s",
+                location.idColumn, location.id, location.table), "02000");
+    }
+
+    private static InputStream openBytea(Location location, ReadScope scope) throws SQLException {
+        long size;
+        try (PreparedStatement statement = scope.connection.prepareStatement(String.format(
+                "SELECT octet_length(%s) FROM %s WHERE %s = ?", location.column, location.table, location.idColumn))) {
+            statement.setObject(1, location.id);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                if (!resultSet.next()) {
+                    throw missingRow(location);
+                }
+                size = resultSet.getLong(1);
+                if (resultSet.wasNull()) {
+                    return null;
+                }
+            }
+        }
+        return new ByteaStream(location, scope, size);
+    }
+
+    private static InputStream openLargeObject(Location location, ReadScope scope) throws SQLException {
+        long oid;
+        try (PreparedStatement statement = scope.connection.prepareStatement(String.format(
+                "SELECT %s FROM %s WHERE %s = ?", location.column, location.table, location.idColumn))) {
+            statement.setObject(1, location.id);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                if (!resultSet.next()) {
+                    throw missingRow(location);
+                }
+                oid = resultSet.getLong(1);
+                if (resultSet.wasNull()) {
+                    return null;
+                }
+            }
+        }
+        LargeObjectManager manager = scope.connection.unwrap(PGConnection.class).getLargeObjectAPI();
+        LargeObject largeObject = manager.open(oid, LargeObjectManager.READ);
+        return new LargeObjectStream(largeObject, scope);
+    }
+
+    /**
+     * Miejsce zapisanej zawartości: wiersz, kolumna i źródło połączenia do jej odczytu.
+     */
+    record Location(ConnectionSource source, String table, String idColumn, Object id, String column, Lob.Storage storage) {
+    }
+
+    /**
+     * Transakcja odczytu na czas życia strumienia. Gdy połączenie nie należy do trwającej transakcji,
+     * otwiera własną REPEATABLE READ, aby wszystkie porcje pochodziły z jednej wersji wiersza.
+     */
+    private static final class ReadScope {
+        final Connection connection;
+        final boolean own;
+        final int isolation;
+
+        ReadScope(Connection connection) throws SQLException {
+            this.connection = connection;
+            this.own = connection.getAutoCommit();
+            this.isolation = connection.getTransactionIsolation();
+            if (own) {
+                connection.setAutoCommit(false);
+                connection.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+                connection.setReadOnly(true);
+            }
+        }
+
+        void close() throws SQLException {
+            try {
+                if (own) {
+                    connection.commit();
+                    connection.setReadOnly(false);
+                    connection.setTransactionIsolation(isolation);
+                    connection.setAutoCommit(true);
+                }
+            } finally {
+                connection.close();
+            }
+        }
+
+        void abandon() {
+            try {
+                if (own) {
+                    connection.rollback();
+                    connection.setReadOnly(false);
+                    connection.setTransactionIsolation(isolation);
+                    connection.setAutoCommit(true);
+                }
+            } catch (SQLException e) {
+                System.err.println("Błąd podczas zamykania odczytu LOB: " + e.getMessage());
+            } finally {
+                try {
+                    connection.close();
+                } catch (SQLException ignored) {
+                    // połączenie i tak jest oddawane
+                }
+            }
+        }
+    }
+
+    /**
+     * Kolumna bytea czytana porcjami po {@link #CHUNK_SIZE} bajtów: sterownik trzyma w pamięci jedną porcję, nie cały wiersz.
+     */
+    private static final class ByteaStream extends InputStream {
+        private final ReadScope scope;
+        private final PreparedStatement statement;
+        private final long size;
+        private long position;
+        private byte[] chunk = new byte[0];
+        private int offset;
+        private boolean closed;
+
+        ByteaStream(Location location, ReadScope scope, long size) throws SQLException {
+            this.scope = scope;
+            this.size = size;
+            this.statement = scope.connection.prepareStatement(String.format(
+                    "SELECT substring(%s FROM ? FOR ?) FROM %s WHERE %s = ?", location.column, location.table, location.idColumn));
+            statement.setObject(3, location.id);
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!fill()) {
+                return -1;
+            }
+            return chunk[offset++] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] buffer, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!fill()) {
+                return -1;
+            }
+            int count = Math.min(len, chunk.length - offset);
+            System.arraycopy(chunk, offset, buffer, off, count);
+            offset += count;
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return chunk.length - offset;
+        }
+
+        private boolean fill() throws IOException {
+            if (closed) {
+                throw new IOException("Lob Error: stream closed");
+            }
+            if (offset < chunk.length) {
+                return true;
+            }
+            if (position >= size) {
+                return false;
+            }
+            try {
+                // bytea ma najwyżej 1 GB, więc pozycja mieści się w int
+                statement.setInt(1, (int) position + 1);
+                statement.setInt(2, CHUNK_SIZE);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    chunk = resultSet.next() ? resultSet.getBytes(1) : null;
+                }
+            } catch (SQLException e) {
+                throw new IOException("Lob Error: " + e.getMessage(), e);
+            }
+            if (chunk == null || chunk.length == 0) {
+                throw new IOException("Lob Error: content changed while reading");
+            }
+            position += chunk.length;
+            offset = 0;
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            chunk = new byte[0];
+            try {
+                statement.close();
+                scope.close();
+            } catch (SQLException e) {
+                throw new IOException("Lob Error: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Duży obiekt czytany przez lo_read porcjami po 64 KB.
+     */
+    private static final class LargeObjectStream extends FilterInputStream {
+        private final LargeObject largeObject;
+        private final ReadScope scope;
+        private boolean closed;
+
+        LargeObjectStream(LargeObject largeObject, ReadScope scope) {
+            super(new BlobInputStream(largeObject, 64 * 1024));
+            this.largeObject = largeObject;
+            this.scope = scope;
+        }
+
+        long size() throws SQLException {
+            return largeObject.size64();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                // BlobInputStream zamyka też sam obiekt
+                super.close();
+                scope.close();
+            } catch (SQLException e) {
+                throw new IOException("Lob Error: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Koduje znaki z {@link Reader} do UTF-8 porcjami, bez wczytywania całego tekstu.
+     */
+    private static final class EncodingInputStream extends InputStream {
+        private final Reader reader;
+        private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+        private final CharBuffer chars = CharBuffer.allocate(8192).flip();
+        private final ByteBuffer bytes = ByteBuffer.allocate(3 * 8192 + 4).flip();
+        private boolean endOfInput;
+        private boolean flushed;
+
+        EncodingInputStream(Reader reader) {
+            this.reader = reader;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] buffer, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            while (!bytes.hasRemaining()) {
+                if (flushed) {
+                    return -1;
+                }
+                encode();
+            }
+            int count = Math.min(len, bytes.remaining());
+            bytes.get(buffer, off, count);
+            return count;
+        }
+
+        private void encode() throws IOException {
+            if (!endOfInput) {
+                chars.compact();
+                int read = reader.read(chars);
+                chars.flip();
+                endOfInput = read < 0;
+            }
+            bytes.clear();
+            CoderResult result = encoder.encode(chars, bytes, endOfInput);
+            if (result.isError()) {
+                result.throwException();
+            }
+            if (endOfInput && !chars.hasRemaining()) {
+                encoder.flush(bytes);
+                flushed = true;
+            }
+            bytes.flip();
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+}
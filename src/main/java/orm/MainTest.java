@@ -2,6 +2,7 @@ package orm;
 
 import orm.logging.LoggerObserver;
 import orm.models.*;
+import orm.schema.SchemaGenerator;
 
 import java.sql.SQLException;
 
@@ -10,6 +11,9 @@ public class MainTest {
         try {
             EntityManager entityManager = new EntityManager(new LoggerObserver());
 
+            SchemaGenerator schema = new SchemaGenerator(ConnectionPool.getInstance());
+            schema.create(Department.class, Employee.class, Car.class, Student.class, Project.class);
+
             Department d1 = new Department();
             d1.setId(10);
             d1.setName("Pakowanie");
@@ -0,0 +1,457 @@
+package orm;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Kolejka połączeń do jednej bazy danych (primary albo repliki).
+ * Wydawane połączenia są opakowane tak, aby close() oddawało je do kolejki.
+ * Połączenia są wspólne dla wszystkich dzierżawców ({@link TenantContext}): przy wypożyczeniu
+ * {@code search_path} jest przełączany tylko wtedy, gdy poprzednio połączenie służyło innemu dzierżawcy.
+ */
+class NodePool {
+
+    private final String name;
+    private final DataSourceConfig dataSource;
+    private final BlockingQueue<Connection> connections;
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private final AtomicInteger peakOutstanding = new AtomicInteger();
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final LongAdder waitNanos = new LongAdder();
+    private final LongAdder borrows = new LongAdder();
+    private final LongAdder tenantSwitches = new LongAdder();
+    private final Map<Connection, String> tenants = new ConcurrentHashMap<>();
+    private final long retryMillis;
+    private final int initialSize;
+    private final List<String> warmUpQueries;
+    private final int queryTimeoutSeconds;
+    private final LeakDetector leakDetector;
+    private volatile long unhealthyUntil;
+    private ExecutorService grower;
+
+    private static final String HEADROOM_QUERY = "SELECT current_setting('max_connections')::int"
+            + " - current_setting('superuser_reserved_connections')::int"
+            + " - (SELECT count(*) FROM pg_stat_activity WHERE backend_type = 'client backend')";
+
+    NodePool(String name, DataSourceConfig dataSource, PoolSettings settings) throws SQLException {
+        this(name, dataSource, settings, null);
+    }
+
+    /**
+     * Otwiera połączenia równolegle. Konstruktor czeka tylko na {@code minReady} gotowych połączeń,
+     * pozostałe są otwierane w tle i dołączają do kolejki, gdy będą gotowe.
+     */
+    NodePool(String name, DataSourceConfig dataSource, PoolSettings settings, LeakDetector leakDetector) throws SQLException {
+        this(name, dataSource, settings, leakDetector, settings.size);
+
+        ExecutorService opener = Executors.newFixedThreadPool(settings.connectThreads, runnable -> {
+            Thread thread = new Thread(runnable, "orm-connect-" + name);
+            thread.setDaemon(true);
+            return thread;
+        });
+        CompletionService<Connection> completion = new ExecutorCompletionService<>(opener);
+        for (int i = 0; i < settings.size; i++) {
+            completion.submit(this::open);
+        }
+        opener.shutdown();
+
+        int ready = 0;
+        int failed = 0;
+        try {
+            while (ready < settings.minReady) {
+                try {
+                    connections.add(completion.take().get());
+                    ready++;
+                } catch (ExecutionException e) {
+                    size.decrementAndGet();
+                    if (++failed > settings.size - settings.minReady) {
+                        opener.shutdownNow();
+                        close();
+                        throw e.getCause() instanceof SQLException sqlException
+                                ? sqlException : new SQLException(e.getCause());
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            opener.shutdownNow();
+            throw new SQLException("Interrupted while opening connections for " + name, e);
+        }
+
+        int remaining = settings.size - ready - failed;
+        if (remaining > 0) {
+            Thread grower = new Thread(() -> growInBackground(completion, remaining), "orm-grow-" + name);
+            grower.setDaemon(true);
+            grower.start();
+        }
+    }
+
+    private NodePool(String name, DataSourceConfig dataSource, PoolSettings settings, LeakDetector leakDetector, int size) {
+        this.name = name;
+        this.leakDetector = leakDetector;
+        this.dataSource = dataSource;
+        this.retryMillis = settings.retryMillis;
+        this.initialSize = settings.size;
+        this.warmUpQueries = settings.warmUpQueries;
+        this.queryTimeoutSeconds = settings.queryTimeoutSeconds;
+        this.connections = new LinkedBlockingQueue<>();
+        this.size.set(size);
+    }
+
+    /**
+     * Kolejka bez połączeń dla bazy, z którą nie udało się połączyć przy starcie. Jest oznaczona jako niedostępna,
+     * a po {@code retryMillis} pierwsze wypożyczenie próbuje otworzyć połączenie (zob. {@link #reconnect()}).
+     */
+    static NodePool unavailable(String name, DataSourceConfig dataSource, PoolSettings settings, LeakDetector leakDetector) {
+        NodePool pool = new NodePool(name, dataSource, settings, leakDetector, 0);
+        pool.markUnhealthy();
+        return pool;
+    }
+
+    private void growInBackground(CompletionService<Connection> completion, int remaining) {
+        for (int i = 0; i < remaining; i++) {
+            try {
+                connections.add(completion.take().get());
+            } catch (ExecutionException e) {
+                size.decrementAndGet();
+                System.err.println("Nie udało się otworzyć połączenia w tle (" + name + "): " + e.getCause().getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    String getName() {
+        return name;
+    }
+
+    int getOutstanding() {
+        return outstanding.get();
+    }
+
+    int getAvailable() {
+        return connections.size();
+    }
+
+    /**
+     * Łączny czas oczekiwania na wolne połączenie we wszystkich wypożyczeniach.
+     */
+    long getWaitNanos() {
+        return waitNanos.sum();
+    }
+
+    long getBorrows() {
+        return borrows.sum();
+    }
+
+    /**
+     * Liczba zmian search_path przy wypożyczeniach (wypożyczenie dla tego samego dzierżawcy co ostatnio jej nie wymaga).
+     */
+    long getTenantSwitches() {
+        return tenantSwitches.sum();
+    }
+
+    /**
+     * Liczba połączeń należących do kolejki: wolnych, wypożyczonych i właśnie otwieranych.
+     */
+    int getSize() {
+        return size.get();
+    }
+
+    /**
+     * Liczba wątków czekających teraz na wolne połączenie.
+     */
+    int getWaiting() {
+        return waiting.get();
+    }
+
+    /**
+     * Najwięcej jednocześnie wypożyczonych połączeń od poprzedniego wywołania.
+     */
+    int takePeakOutstanding() {
+        return peakOutstanding.getAndSet(outstanding.get());
+    }
+
+    /**
+     * Otwiera w tle {@code count} dodatkowych połączeń.
+     */
+    synchronized void grow(int count) {
+        if (grower == null) {
+            grower = Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "orm-grow-" + name);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        size.addAndGet(count);
+        for (int i = 0; i < count; i++) {
+            grower.execute(() -> {
+                try {
+                    connections.add(open());
+                } catch (SQLException e) {
+                    size.decrementAndGet();
+                    System.err.println("Nie udało się otworzyć połączenia (" + name + "): " + e.getMessage());
+                }
+            });
+        }
+    }
+
+    /**
+     * Zamyka jedno wolne połączenie.
+     *
+     * @return false, jeśli żadne połączenie nie było wolne
+     */
+    boolean shrink() {
+        Connection idle = connections.poll();
+        if (idle == null) {
+            return false;
+        }
+        size.decrementAndGet();
+        tenants.remove(idle);
+        try {
+            idle.close();
+        } catch (SQLException e) {
+            System.err.println("Błąd podczas zamykania połączenia: " + e.getMessage());
+        }
+        return true;
+    }
+
+    /**
+     * Ile połączeń klienckich baza może jeszcze przyjąć (max_connections minus zarezerwowane i otwarte).
+     * Sprawdzane na wolnym połączeniu; -1, gdy żadne nie jest wolne albo zapytanie się nie powiodło.
+     */
+    int databaseHeadroom() {
+        Connection raw = connections.poll();
+        if (raw == null) {
+            return -1;
+        }
+        try (Statement statement = raw.createStatement();
+             ResultSet resultSet = statement.executeQuery(HEADROOM_QUERY)) {
+            return resultSet.next() ? resultSet.getInt(1) : -1;
+        } catch (SQLException e) {
+            return -1;
+        } finally {
+            connections.add(raw);
+        }
+    }
+
+    boolean isHealthy() {
+        return System.currentTimeMillis() >= unhealthyUntil;
+    }
+
+    void markUnhealthy() {
+        unhealthyUntil = System.currentTimeMillis() + retryMillis;
+    }
+
+    /**
+     * Kolejka bez żadnego połączenia (baza niedostępna przy starcie albo wszystkie próby otwarcia się nie powiodły):
+     * otwiera jedno połączenie od razu, a pozostałe do rozmiaru startowego w tle. Przy błędzie oznacza kolejkę
+     * jako niedostępną, aby odczyty przeszły na inną bazę zamiast czekać na połączenie, które nie powstanie.
+     */
+    private synchronized void reconnect() throws SQLException {
+        if (size.get() > 0) {
+            return;
+        }
+        try {
+            connections.add(open());
+        } catch (SQLException e) {
+            markUnhealthy();
+            throw e;
+        }
+        size.incrementAndGet();
+        if (initialSize > 1) {
+            grow(initialSize - 1);
+        }
+    }
+
+    Connection borrow() throws SQLException, InterruptedException {
+        if (size.get() == 0) {
+            reconnect();
+        }
+        long start = System.nanoTime();
+        waiting.incrementAndGet();
+        Connection raw;
+        try {
+            raw = connections.take();
+        } finally {
+            waiting.decrementAndGet();
+        }
+        waitNanos.add(System.nanoTime() - start);
+        borrows.increment();
+        try {
+            if (raw.isClosed()) {
+                tenants.remove(raw);
+                raw = open();
+            }
+        } catch (SQLException e) {
+            connections.put(raw);
+            markUnhealthy();
+            throw e;
+        }
+        String tenant = TenantContext.current();
+        try {
+            switchTenant(raw, tenant);
+        } catch (SQLException e) {
+            connections.put(raw);
+            throw e;
+        }
+        peakOutstanding.accumulateAndGet(outstanding.incrementAndGet(), Math::max);
+        return wrap(raw, tenant);
+    }
+
+    /**
+     * Ustawia search_path na schemat dzierżawcy (albo przywraca domyślny), o ile połączenie nie ma go już
+     * z poprzedniego wypożyczenia. Zakłada, że kod korzystający z puli sam nie zmienia search_path.
+     */
+    private void switchTenant(Connection raw, String tenant) throws SQLException {
+        if (Objects.equals(tenants.get(raw), tenant)) {
+            return;
+        }
+        try (Statement statement = raw.createStatement()) {
+            // nazwa schematu jest sprawdzona w TenantContext (małe litery, cyfry, _ i $), więc nie wymaga cudzysłowów
+            statement.execute(tenant == null ? "RESET search_path" : "SET search_path TO " + tenant);
+        }
+        if (tenant == null) {
+            tenants.remove(raw);
+        } else {
+            tenants.put(raw, tenant);
+        }
+        tenantSwitches.increment();
+    }
+
+    void release(Connection raw) {
+        outstanding.decrementAndGet();
+        try {
+            connections.put(raw);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.err.println("Błąd podczas zwalniania połączenia: " + e.getMessage());
+        }
+    }
+
+    void close() {
+        synchronized (this) {
+            if (grower != null) {
+                grower.shutdownNow();
+            }
+        }
+        tenants.clear();
+        while (!connections.isEmpty()) {
+            try {
+                connections.poll().close();
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private Connection open() throws SQLException {
+        Connection connection = DriverManager.getConnection(dataSource.getUrl(), dataSource.getUser(), dataSource.getPassword());
+        if (!warmUpQueries.isEmpty()) {
+            try {
+                WarmUp.run(connection, warmUpQueries);
+            } catch (SQLException e) {
+                connection.close();
+                throw e;
+            }
+        }
+        return connection;
+    }
+
+    /**
+     * Zapytania przygotowywane dla dzierżawcy dostają komentarz z jego nazwą: pamięć instrukcji przygotowanych
+     * sterownika rozróżnia je po treści SQL, więc plan i opis wyniku z jednego schematu nie są używane w innym.
+     */
+    private Connection wrap(Connection raw, String tenant) {
+        AtomicBoolean returned = new AtomicBoolean();
+        LeakDetector.Lease lease = leakDetector == null ? null : leakDetector.borrowed(name, () -> {
+            if (!returned.compareAndSet(false, true)) {
+                return false;
+            }
+            try {
+                raw.close();
+            } catch (SQLException ignored) {
+                // połączenie i tak jest porzucane; borrow() otworzy nowe
+            }
+            release(raw);
+            return true;
+        });
+        return (Connection) Proxy.newProxyInstance(
+                Connection.class.getClassLoader(),
+                new Class<?>[]{Connection.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "close":
+                            if (returned.compareAndSet(false, true)) {
+                                if (lease != null) {
+                                    leakDetector.returned(lease);
+                                }
+                                release(raw);
+                            }
+                            return null;
+                        case "isClosed":
+                            return returned.get() || raw.isClosed();
+                        case "unwrap":
+                            if (args[0] == Connection.class) {
+                                return raw;
+                            }
+                            break;
+                        case "prepareStatement":
+                        case "prepareCall":
+                            if (tenant != null) {
+                                args = args.clone();
+                                args[0] = "/* tenant " + tenant + " */ " + args[0];
+                            }
+                            break;
+                        default:
+                            break;
+                    }
+                    if (lease != null && lease.isReclaimed()) {
+                        throw new SQLException("Connection was reclaimed by the leak detector after being held too long", "08003");
+                    }
+                    try {
+                        Object result = method.invoke(raw, args);
+                        if (queryTimeoutSeconds > 0 && result instanceof Statement statement) {
+                            statement.setQueryTimeout(queryTimeoutSeconds);
+                        }
+                        return result;
+                    } catch (InvocationTargetException e) {
+                        Throwable cause = e.getCause();
+                        if (cause instanceof SQLException sqlException && isConnectionFailure(sqlException)) {
+                            markUnhealthy();
+                        }
+                        throw cause;
+                    }
+                });
+    }
+
+    /**
+     * Błąd połączenia (klasa 08) albo zakończenie sesji przez serwer (57P01-57P03) - nie błąd samego zapytania.
+     */
+    static boolean isConnectionFailure(SQLException e) {
+        String state = e.getSQLState();
+        return state != null && (state.startsWith("08") || state.equals("57P01") || state.equals("57P02")
+                || state.equals("57P03"));
+    }
+}
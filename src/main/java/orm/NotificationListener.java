@@ -0,0 +1,85 @@
+package orm;
+
+import orm.cache.InvalidationPayload;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Wątek w tle z osobnym połączeniem (spoza puli) wykonującym LISTEN na kanale unieważnień.
+ * Po zerwaniu połączenia komunikaty mogły przepaść, dlatego po ponownym połączeniu odbiorcy dostają "*".
+ */
+class NotificationListener implements Runnable {
+
+    private static final int POLL_MILLIS = 500;
+    private static final long RECONNECT_MILLIS = 1000;
+
+    private final DataSourceConfig dataSource;
+    private final String channel;
+    private final List<Consumer<String>> listeners = new CopyOnWriteArrayList<>();
+    private volatile boolean running = true;
+
+    NotificationListener(DataSourceConfig dataSource, String channel) {
+        this.dataSource = dataSource;
+        this.channel = channel;
+    }
+
+    void addListener(Consumer<String> listener) {
+        listeners.add(listener);
+    }
+
+    void removeListener(Consumer<String> listener) {
+        listeners.remove(listener);
+    }
+
+    void stop() {
+        running = false;
+    }
+
+    @Override
+    public void run() {
+        boolean reconnecting = false;
+        while (running) {
+            try (Connection connection = DriverManager.getConnection(
+                    dataSource.getUrl(), dataSource.getUser(), dataSource.getPassword())) {
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("LISTEN " + channel);
+                }
+                if (reconnecting) {
+                    dispatch(InvalidationPayload.ALL);
+                }
+                PGConnection pgConnection = connection.unwrap(PGConnection.class);
+                while (running) {
+                    PGNotification[] notifications = pgConnection.getNotifications(POLL_MILLIS);
+                    if (notifications != null) {
+                        for (PGNotification notification : notifications) {
+                            dispatch(notification.getParameter());
+                        }
+                    }
+                }
+            } catch (SQLException e) {
+                System.err.println("Błąd nasłuchu na kanale " + channel + ": " + e.getMessage());
+                reconnecting = true;
+                try {
+                    Thread.sleep(RECONNECT_MILLIS);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    private void dispatch(String payload) {
+        for (Consumer<String> listener : listeners) {
+            listener.accept(payload);
+        }
+    }
+}
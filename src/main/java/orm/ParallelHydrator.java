@@ -0,0 +1,254 @@
+package orm;
+
+import orm.annotations.*;
+
+import java.lang.reflect.Field;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Równoległe mapowanie dużych wyników zapytań. Wątek wywołujący czyta surowe wiersze z ResultSet
+ * w porcjach, a pula wątków zamienia gotowe porcje na encje, podczas gdy kolejne są jeszcze pobierane.
+ * Relacje @ManyToOne i @OneToOne są wczytywane jednym zapytaniem {@code ANY(?)} na porcję - po odczytaniu
+ * całego wyniku, na połączeniu wywołującego: wątki robocze nie pożyczają połączeń (wywołujący już jedno trzyma,
+ * więc przy wyczerpanej puli czekałyby na siebie nawzajem) i widzą niezatwierdzone zmiany trwającej transakcji.
+ * Kolejność wyników odpowiada kolejności wierszy.
+ */
+class ParallelHydrator {
+
+    private final ExecutorService executor;
+    private final int chunkSize;
+    private final LobBinder lobBinder;
+
+    ParallelHydrator(ExecutorService executor, int chunkSize, LobBinder lobBinder) {
+        this.executor = executor;
+        this.chunkSize = chunkSize;
+        this.lobBinder = lobBinder;
+    }
+
+    /**
+     * Ustawia uchwyty pól @Lob zmapowanej encji (zawartość tych kolumn nie jest mapowana z wiersza).
+     */
+    interface LobBinder {
+        void attach(Object entity) throws IllegalAccessException;
+    }
+
+    /**
+     * @param connection połączenie, z którego pochodzi {@code resultSet}; po odczytaniu wyniku wczytuje relacje
+     */
+    <T> List<T> hydrate(Class<T> clazz, ResultSet resultSet, Connection connection) throws Exception {
+        Plan plan = new Plan(clazz, resultSet.getMetaData());
+        int columnCount = resultSet.getMetaData().getColumnCount();
+
+        List<CompletableFuture<List<T>>> chunks = new ArrayList<>();
+        // surowe wiersze porcji są potrzebne po mapowaniu tylko dla kluczy relacji
+        List<List<Object[]>> chunkRows = new ArrayList<>();
+        List<Object[]> rows = new ArrayList<>(chunkSize);
+        while (resultSet.next()) {
+            Object[] row = new Object[columnCount];
+            for (int i = 0; i < columnCount; i++) {
+                row[i] = resultSet.getObject(i + 1);
+            }
+            rows.add(row);
+            if (rows.size() == chunkSize) {
+                chunks.add(submit(clazz, plan, rows));
+                chunkRows.add(plan.relations.isEmpty() ? null : rows);
+                rows = new ArrayList<>(chunkSize);
+            }
+        }
+
+        if (chunks.isEmpty()) {
+            // jedna niepełna porcja - szybciej zmapować ją od razu w tym wątku
+            List<T> entities = mapChunk(clazz, plan, rows);
+            loadRelations(plan, rows, entities, connection);
+            return entities;
+        }
+        if (!rows.isEmpty()) {
+            chunks.add(submit(clazz, plan, rows));
+            chunkRows.add(plan.relations.isEmpty() ? null : rows);
+        }
+
+        List<T> results = new ArrayList<>();
+        for (int i = 0; i < chunks.size(); i++) {
+            List<T> entities = chunks.get(i).join();
+            if (!plan.relations.isEmpty()) {
+                loadRelations(plan, chunkRows.get(i), entities, connection);
+                chunkRows.set(i, null);
+            }
+            results.addAll(entities);
+        }
+        return results;
+    }
+
+    private <T> CompletableFuture<List<T>> submit(Class<T> clazz, Plan plan, List<Object[]> rows) {
+        // uchwyty @Lob zapamiętują dzierżawcę wątku, w którym powstały
+        String tenant = TenantContext.current();
+        return CompletableFuture.supplyAsync(() -> TenantContext.call(tenant, () -> {
+            try {
+                return mapChunk(clazz, plan, rows);
+            } catch (Exception e) {
+                throw new RuntimeException("Hydration Error: " + e.getMessage(), e);
+            }
+        }), executor);
+    }
+
+    private <T> List<T> mapChunk(Class<T> clazz, Plan plan, List<Object[]> rows) throws Exception {
+        List<T> entities = new ArrayList<>(rows.size());
+        for (Object[] row : rows) {
+            T entity = clazz.getDeclaredConstructor().newInstance();
+            for (int i = 0; i < plan.columnFields.size(); i++) {
+                set(plan.columnFields.get(i), entity, row[plan.columnIndexes[i]]);
+            }
+            if (plan.hasLobs) {
+                lobBinder.attach(entity);
+            }
+            entities.add(entity);
+        }
+        return entities;
+    }
+
+    private <T> void loadRelations(Plan plan, List<Object[]> rows, List<T> entities, Connection connection) throws Exception {
+        for (Relation relation : plan.relations) {
+            Set<Object> keys = new LinkedHashSet<>();
+            for (Object[] row : rows) {
+                Object key = row[relation.keyIndex];
+                if (key != null) {
+                    keys.add(EntityManager.normalizeId(key));
+                }
+            }
+            IdMap<Object> related = keys.isEmpty() ? new IdMap<>(0) : loadRelated(relation, keys, connection);
+            for (int i = 0; i < rows.size(); i++) {
+                Object key = rows.get(i)[relation.keyIndex];
+                if (key != null) {
+                    relation.field.set(entities.get(i), related.get(EntityManager.normalizeId(key)));
+                }
+            }
+        }
+    }
+
+    private IdMap<Object> loadRelated(Relation relation, Set<Object> keys, Connection connection) throws Exception {
+        String query = String.format("SELECT %s FROM %s WHERE %s = ANY(?)",
+                EntityManager.selectList(relation.type), relation.table, relation.lookupColumn);
+        IdMap<Object> result = new IdMap<>(keys.size());
+
+        try (PreparedStatement statement = connection.prepareStatement(query)) {
+            statement.setArray(1, EntityManager.idArray(connection, keys));
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    Object entity = relation.type.getDeclaredConstructor().newInstance();
+                    for (Field field : relation.type.getDeclaredFields()) {
+                        Column column = field.getAnnotation(Column.class);
+                        if (column != null && !field.isAnnotationPresent(Lob.class)) {
+                            field.setAccessible(true);
+                            EntityManager.setColumn(entity, field, resultSet, column.name());
+                        }
+                    }
+                    if (EntityManager.hasLobs(relation.type)) {
+                        lobBinder.attach(entity);
+                    }
+                    result.put(EntityManager.normalizeId(resultSet.getObject(relation.lookupColumn)), entity);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Ustawia pole @Column wartością z wiersza; NULL w polu prymitywnym zostawia wartość domyślną.
+     * Używane także przez ścieżkę potokową find (wiersze {@link orm.wire.WireRow}).
+     */
+    static void set(Field field, Object entity, Object value) throws IllegalAccessException {
+        if (value == null && field.getType().isPrimitive()) {
+            return;
+        }
+        field.set(entity, InternTable.intern(field, value));
+    }
+
+    /**
+     * Przygotowane raz na zapytanie powiązanie pól encji z indeksami kolumn wyniku.
+     */
+    private static class Plan {
+        final List<Field> columnFields = new ArrayList<>();
+        final int[] columnIndexes;
+        final List<Relation> relations = new ArrayList<>();
+        final boolean hasLobs;
+
+        Plan(Class<?> clazz, ResultSetMetaData metaData) throws SQLException {
+            Map<String, Integer> indexes = new HashMap<>();
+            for (int i = metaData.getColumnCount(); i >= 1; i--) {
+                indexes.put(metaData.getColumnLabel(i).toLowerCase(), i - 1);
+            }
+
+            List<Integer> columnIndexList = new ArrayList<>();
+            Integer idIndex = null;
+            for (Field field : clazz.getDeclaredFields()) {
+                Column column = field.getAnnotation(Column.class);
+                if (column != null && !field.isAnnotationPresent(Lob.class)) {
+                    Integer index = indexes.get(column.name().toLowerCase());
+                    if (index != null) {
+                        field.setAccessible(true);
+                        columnFields.add(field);
+                        columnIndexList.add(index);
+                        if (field.isAnnotationPresent(Id.class)) {
+                            idIndex = index;
+                        }
+                    }
+                }
+            }
+            columnIndexes = columnIndexList.stream().mapToInt(Integer::intValue).toArray();
+            hasLobs = EntityManager.hasLobs(clazz);
+
+            for (Field field : clazz.getDeclaredFields()) {
+                ManyToOne manyToOne = field.getAnnotation(ManyToOne.class);
+                OneToOne oneToOne = field.getAnnotation(OneToOne.class);
+                if (manyToOne != null) {
+                    addByRelatedId(field, indexes.get(manyToOne.column().toLowerCase()));
+                } else if (oneToOne != null && oneToOne.foreignKeyInThisTable()) {
+                    addByRelatedId(field, indexes.get(oneToOne.column().toLowerCase()));
+                } else if (oneToOne != null && idIndex != null) {
+                    // klucz obcy leży w tabeli powiązanej i wskazuje na id tej encji
+                    relations.add(new Relation(field, idIndex, oneToOne.column()));
+                }
+            }
+        }
+
+        private void addByRelatedId(Field field, Integer keyIndex) {
+            if (keyIndex == null) {
+                return;
+            }
+            Field relatedId = Arrays.stream(field.getType().getDeclaredFields())
+                    .filter(f -> f.isAnnotationPresent(Id.class))
+                    .findFirst()
+                    .orElseThrow(() -> new RuntimeException("Entity " + field.getType().getName() + " must have @Id"));
+            Column column = relatedId.getAnnotation(Column.class);
+            relations.add(new Relation(field, keyIndex, column != null ? column.name() : relatedId.getName()));
+        }
+    }
+
+    private static class Relation {
+        final Field field;
+        final Class<?> type;
+        final String table;
+        final int keyIndex;
+        final String lookupColumn;
+
+        Relation(Field field, int keyIndex, String lookupColumn) {
+            field.setAccessible(true);
+            this.field = field;
+            this.type = field.getType();
+            Table table = type.getAnnotation(Table.class);
+            if (table == null) {
+                throw new RuntimeException("Class " + type.getName() + " is not mapped in DB");
+            }
+            this.table = table.name();
+            this.keyIndex = keyIndex;
+            this.lookupColumn = lookupColumn;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package orm;
+
+import java.util.List;
+
+/**
+ * Ustawienia pojedynczej kolejki połączeń ({@link NodePool}).
+ */
+class PoolSettings {
+    final int size;
+    final int minReady;
+    final int connectThreads;
+    final long retryMillis;
+    final List<String> warmUpQueries;
+    final int queryTimeoutSeconds;
+    final int minSize;
+    final int maxSize;
+    final long resizeIntervalMillis;
+    final double growWaitMillis;
+    final long shrinkAfterMillis;
+
+    PoolSettings(int size, int minReady, int connectThreads, long retryMillis, List<String> warmUpQueries,
+                 int queryTimeoutSeconds) {
+        this(size, minReady, connectThreads, retryMillis, warmUpQueries, queryTimeoutSeconds, size, size, 1000, 2, 60_000);
+    }
+
+    /**
+     * @param minSize              najmniejsza liczba połączeń przy zmniejszaniu puli
+     * @param maxSize              największa liczba połączeń (równa minSize - stały rozmiar)
+     * @param resizeIntervalMillis co ile sprawdzać, czy zmienić rozmiar
+     * @param growWaitMillis       średni czas oczekiwania na połączenie, powyżej którego pula rośnie
+     * @param shrinkAfterMillis    jak długo część połączeń musi być bezczynna, zanim zaczną być zamykane
+     */
+    PoolSettings(int size, int minReady, int connectThreads, long retryMillis, List<String> warmUpQueries,
+                 int queryTimeoutSeconds, int minSize, int maxSize, long resizeIntervalMillis, double growWaitMillis,
+                 long shrinkAfterMillis) {
+        this.minSize = Math.max(1, Math.min(minSize, size));
+        this.maxSize = Math.max(maxSize, size);
+        this.resizeIntervalMillis = resizeIntervalMillis;
+        this.growWaitMillis = growWaitMillis;
+        this.shrinkAfterMillis = shrinkAfterMillis;
+        this.size = size;
+        this.minReady = Math.max(1, Math.min(minReady, size));
+        this.connectThreads = Math.max(1, Math.min(connectThreads, size));
+        this.retryMillis = retryMillis;
+        this.warmUpQueries = warmUpQueries;
+        this.queryTimeoutSeconds = queryTimeoutSeconds;
+    }
+
+    static PoolSettings fromConfig(Config config) {
+        return new PoolSettings(
+                config.getPoolSize(),
+                config.getPoolMinReady(),
+                config.getPoolConnectThreads(),
+                config.getReplicaRetryMillis(),
+                WarmUp.queries(config.getWarmUpEntities()),
+                config.getQueryTimeoutSeconds(),
+                config.getPoolMinSize(),
+                config.getPoolMaxSize(),
+                config.getPoolResizeIntervalMillis(),
+                config.getPoolGrowWaitMillis(),
+                config.getPoolShrinkAfterMillis());
+    }
+
+    boolean isResizable() {
+        return maxSize > minSize;
+    }
+}
@@ -0,0 +1,116 @@
+package orm;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Zmienia rozmiar kolejek połączeń w granicach {@code minSize..maxSize}. Co {@code resizeIntervalMillis}
+ * porównuje średni czas oczekiwania na połączenie z progiem {@code growWaitMillis}: przy przekroczeniu kolejka
+ * rośnie od razu o połowę (ograniczoną wolnymi miejscami w max_connections bazy). Gdy przez {@code shrinkAfterMillis}
+ * część połączeń nie była ani razu potrzebna, zamykane jest jedno połączenie na interwał, aż zostanie jedno
+ * ponad szczytowe wykorzystanie. Każda decyzja jest zgłaszana obserwatorom puli.
+ */
+class PoolSizer {
+
+    private final List<NodePool> nodes;
+    private final PoolSettings settings;
+    private final Consumer<String> reporter;
+    private final Map<NodePool, State> states = new HashMap<>();
+    private final ScheduledExecutorService scheduler;
+
+    PoolSizer(List<NodePool> nodes, PoolSettings settings, Consumer<String> reporter) {
+        this.nodes = nodes;
+        this.settings = settings;
+        this.reporter = reporter;
+        for (NodePool node : nodes) {
+            states.put(node, new State(node));
+        }
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "orm-pool-sizer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::resizeAll, settings.resizeIntervalMillis,
+                settings.resizeIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    void stop() {
+        scheduler.shutdownNow();
+    }
+
+    private void resizeAll() {
+        for (NodePool node : nodes) {
+            try {
+                resize(node, states.get(node));
+            } catch (RuntimeException e) {
+                System.err.println("Błąd zmiany rozmiaru puli " + node.getName() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private void resize(NodePool node, State state) {
+        long waitNanos = node.getWaitNanos();
+        long borrows = node.getBorrows();
+        long intervalBorrows = borrows - state.borrows;
+        double averageWaitMillis = intervalBorrows == 0 ? 0 : (waitNanos - state.waitNanos) / 1e6 / intervalBorrows;
+        state.waitNanos = waitNanos;
+        state.borrows = borrows;
+
+        int size = node.getSize();
+        int peak = node.takePeakOutstanding();
+        int headroom = node.databaseHeadroom();
+        if (headroom >= 0) {
+            state.headroom = headroom;
+        }
+
+        // bez zakończonych wypożyczeń średnia nic nie mówi - czekające wątki oznaczają całkowite zablokowanie
+        boolean starved = intervalBorrows == 0 && node.getWaiting() > 0;
+        if ((averageWaitMillis > settings.growWaitMillis || starved) && size < settings.maxSize) {
+            state.idleMillis = 0;
+            int wanted = Math.min(settings.maxSize - size, Math.max(1, size / 2));
+            int added = state.headroom >= 0 ? Math.min(wanted, state.headroom) : wanted;
+            if (added <= 0) {
+                reporter.accept(String.format("[WARN] Pula %s: brak wolnych połączeń w bazie (max_connections), rozmiar %d, oczekiwanie %.1f ms",
+                        node.getName(), size, averageWaitMillis));
+                return;
+            }
+            node.grow(added);
+            if (state.headroom >= 0) {
+                state.headroom -= added;
+            }
+            reporter.accept(String.format("[POOL] %s: %d -> %d (średnie oczekiwanie %.1f ms, wykorzystanie %d/%d)",
+                    node.getName(), size, size + added, averageWaitMillis, peak, size));
+            return;
+        }
+
+        if (peak + 1 < size && size > settings.minSize && averageWaitMillis <= settings.growWaitMillis) {
+            state.idleMillis += settings.resizeIntervalMillis;
+            if (state.idleMillis >= settings.shrinkAfterMillis && node.shrink()) {
+                reporter.accept(String.format("[POOL] %s: %d -> %d (wykorzystanie %d/%d przez %d s)",
+                        node.getName(), size, size - 1, peak, size, state.idleMillis / 1000));
+            }
+        } else {
+            state.idleMillis = 0;
+        }
+    }
+
+    /**
+     * Stan z poprzedniego interwału dla jednej kolejki.
+     */
+    private static class State {
+        long waitNanos;
+        long borrows;
+        long idleMillis;
+        int headroom = -1;
+
+        State(NodePool node) {
+            this.waitNanos = node.getWaitNanos();
+            this.borrows = node.getBorrows();
+        }
+    }
+}
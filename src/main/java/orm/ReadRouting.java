@@ -0,0 +1,17 @@
+package orm;
+
+/**
+ * Strategia wyboru repliki dla zapytań tylko do odczytu.
+ */
+public enum ReadRouting {
+    ROUND_ROBIN,
+    LEAST_OUTSTANDING;
+
+    public static ReadRouting fromString(String value) {
+        return switch (value.trim().toLowerCase().replace('_', '-')) {
+            case "round-robin" -> ROUND_ROBIN;
+            case "least-outstanding", "least-outstanding-requests" -> LEAST_OUTSTANDING;
+            default -> throw new IllegalArgumentException("Unknown read routing strategy: " + value);
+        };
+    }
+}
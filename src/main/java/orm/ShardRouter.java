@@ -0,0 +1,116 @@
+package orm;
+
+import orm.annotations.*;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.ParameterizedType;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+/**
+ * Wyznacza shard dla encji na podstawie {@link Table#shardKey()}.
+ * Shard = hash(wartość klucza) mod liczba shardów z konfiguracji.
+ */
+class ShardRouter {
+
+    private final int shardCount;
+
+    ShardRouter(int shardCount) {
+        this.shardCount = shardCount;
+    }
+
+    boolean isSharded(Class<?> clazz) {
+        Table table = clazz.getAnnotation(Table.class);
+        return shardCount > 0 && table != null && !table.shardKey().isEmpty();
+    }
+
+    boolean isShardedById(Class<?> clazz) {
+        if (!isSharded(clazz)) {
+            return false;
+        }
+        String shardKey = clazz.getAnnotation(Table.class).shardKey();
+        for (Field field : clazz.getDeclaredFields()) {
+            Column column = field.getAnnotation(Column.class);
+            if (field.isAnnotationPresent(Id.class) && column != null && column.name().equals(shardKey)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Tabela łącząca @ManyToMany jest czytana razem z tabelą encji powiązanej jednym zapytaniem na primary,
+     * więc żadna ze stron relacji nie może być rozłożona na shardy.
+     */
+    void rejectShardedManyToMany(Class<?> clazz) {
+        for (Field field : clazz.getDeclaredFields()) {
+            if (!field.isAnnotationPresent(ManyToMany.class)) {
+                continue;
+            }
+            Class<?> related = (Class<?>) ((ParameterizedType) field.getGenericType()).getActualTypeArguments()[0];
+            if (isSharded(clazz) || isSharded(related)) {
+                throw new RuntimeException("ManyToMany Error: " + clazz.getSimpleName() + "." + field.getName()
+                        + " links sharded entities; @ManyToMany is not supported on sharded entities");
+            }
+        }
+    }
+
+    /**
+     * Shard dla wartości klucza. Hash liczony jest z postaci tekstowej klucza, więc 1, 1L i "1" (np. parametr
+     * zapytania podany jako tekst) trafiają na ten sam shard.
+     */
+    int shardFor(Object keyValue) {
+        if (keyValue == null) {
+            throw new RuntimeException("Shard key value cannot be null");
+        }
+        return Math.floorMod(canonicalKey(keyValue).hashCode(), shardCount);
+    }
+
+    static String canonicalKey(Object keyValue) {
+        if (keyValue instanceof Byte || keyValue instanceof Short || keyValue instanceof Integer
+                || keyValue instanceof Long || keyValue instanceof BigInteger) {
+            return keyValue.toString();
+        }
+        if (keyValue instanceof BigDecimal decimal) {
+            return decimal.stripTrailingZeros().toPlainString();
+        }
+        return keyValue.toString();
+    }
+
+    int shardForEntity(Object entity) throws IllegalAccessException {
+        return shardFor(shardKeyValue(entity));
+    }
+
+    Object shardKeyValue(Object entity) throws IllegalAccessException {
+        Class<?> clazz = entity.getClass();
+        String shardKey = clazz.getAnnotation(Table.class).shardKey();
+
+        for (Field field : clazz.getDeclaredFields()) {
+            field.setAccessible(true);
+            Column column = field.getAnnotation(Column.class);
+            if (column != null && column.name().equals(shardKey)) {
+                return field.get(entity);
+            }
+
+            ManyToOne manyToOne = field.getAnnotation(ManyToOne.class);
+            OneToOne oneToOne = field.getAnnotation(OneToOne.class);
+            boolean foreignKey = (manyToOne != null && manyToOne.column().equals(shardKey))
+                    || (oneToOne != null && oneToOne.foreignKeyInThisTable() && oneToOne.column().equals(shardKey));
+            if (foreignKey) {
+                Object related = field.get(entity);
+                return related == null ? null : idOf(related);
+            }
+        }
+        throw new RuntimeException("Class " + clazz.getName() + " has no field mapped to shard key " + shardKey);
+    }
+
+    private Object idOf(Object entity) throws IllegalAccessException {
+        for (Field field : entity.getClass().getDeclaredFields()) {
+            if (field.isAnnotationPresent(Id.class)) {
+                field.setAccessible(true);
+                return field.get(entity);
+            }
+        }
+        throw new RuntimeException("Entity " + entity.getClass().getName() + " must have @Id");
+    }
+}
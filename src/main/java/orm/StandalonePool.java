@@ -0,0 +1,77 @@
+package orm;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Pojedyncza kolejka połączeń do jednej bazy poza singletonem {@link ConnectionPool}, z ustawieniami podanymi
+ * wprost zamiast z Properties.yml. Pozwala porównać kilka konfiguracji puli w jednym procesie (orm.benchmark).
+ */
+public class StandalonePool implements AutoCloseable {
+
+    private final NodePool pool;
+    private final PoolSettings settings;
+    private final PoolSizer sizer;
+
+    /**
+     * Pula o stałym rozmiarze.
+     *
+     * @param warmUpEntities nazwy klas encji, których instrukcje CRUD są rozgrzewane na każdym nowym połączeniu
+     */
+    public StandalonePool(DataSourceConfig dataSource, int size, int minReady, int connectThreads,
+                          List<String> warmUpEntities) throws SQLException {
+        this(dataSource, new PoolSettings(size, minReady, connectThreads, 5000, WarmUp.queries(warmUpEntities), 0), null);
+    }
+
+    /**
+     * Pula zmieniająca rozmiar w granicach {@code minSize..maxSize} (jak {@code poolSizing} w konfiguracji).
+     *
+     * @param reporter odbiorca komunikatów o zmianie rozmiaru
+     */
+    public StandalonePool(DataSourceConfig dataSource, int size, int minSize, int maxSize, long resizeIntervalMillis,
+                          double growWaitMillis, long shrinkAfterMillis, Consumer<String> reporter) throws SQLException {
+        this(dataSource, new PoolSettings(size, size, size, 5000, List.of(), 0, minSize, maxSize, resizeIntervalMillis,
+                growWaitMillis, shrinkAfterMillis), reporter);
+    }
+
+    private StandalonePool(DataSourceConfig dataSource, PoolSettings settings, Consumer<String> reporter) throws SQLException {
+        this.settings = settings;
+        this.pool = new NodePool("standalone", dataSource, settings);
+        this.sizer = settings.isResizable() ? new PoolSizer(List.of(pool), settings, reporter) : null;
+    }
+
+    /**
+     * Wypożycza połączenie; zamknięcie oddaje je do puli.
+     */
+    public Connection getConnection() throws SQLException, InterruptedException {
+        return pool.borrow();
+    }
+
+    /**
+     * Liczba połączeń puli: wolnych, wypożyczonych i otwieranych w tle.
+     */
+    public int getSize() {
+        return pool.getSize();
+    }
+
+    public int getAvailable() {
+        return pool.getAvailable();
+    }
+
+    /**
+     * Ile połączeń konstruktor otworzył przed powrotem (pozostałe dochodzą w tle).
+     */
+    public int getMinReady() {
+        return settings.minReady;
+    }
+
+    @Override
+    public void close() {
+        if (sizer != null) {
+            sizer.stop();
+        }
+        pool.close();
+    }
+}
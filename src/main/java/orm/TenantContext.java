@@ -0,0 +1,78 @@
+package orm;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+/**
+ * Dzierżawca (schemat PostgreSQL) bieżącego wątku. Połączenie wypożyczone z puli w jego kontekście
+ * ma {@code search_path} ustawiony na ten schemat; poza kontekstem - domyślny {@code search_path} bazy.
+ * Zwykle ustawiany przez {@link EntityManager#inTenant}.
+ */
+public final class TenantContext {
+
+    private static final Pattern SCHEMA_NAME = Pattern.compile("[a-z_][a-z0-9_$]{0,62}");
+    private static final ThreadLocal<String> current = new ThreadLocal<>();
+
+    private TenantContext() {
+    }
+
+    /**
+     * Schemat dzierżawcy bieżącego wątku albo null.
+     */
+    public static String current() {
+        return current.get();
+    }
+
+    /**
+     * Wykonuje pracę w kontekście dzierżawcy i przywraca poprzedni kontekst (wywołania można zagnieżdżać).
+     *
+     * @param tenant nazwa schematu (małe litery, cyfry, _ i $) albo null dla domyślnego search_path
+     */
+    public static <R> R call(String tenant, Supplier<R> work) {
+        validate(tenant);
+        String previous = current.get();
+        set(tenant);
+        try {
+            return work.get();
+        } finally {
+            set(previous);
+        }
+    }
+
+    public static void run(String tenant, Runnable work) {
+        call(tenant, () -> {
+            work.run();
+            return null;
+        });
+    }
+
+    /**
+     * Wypożycza połączenie ze źródła w kontekście wskazanego dzierżawcy - dla pracy wykonywanej
+     * w innym wątku albo później niż operacja, która ją zleciła.
+     */
+    static Connection borrow(String tenant, ConnectionSource source) throws SQLException, InterruptedException {
+        String previous = current.get();
+        set(tenant);
+        try {
+            return source.get();
+        } finally {
+            set(previous);
+        }
+    }
+
+    static void validate(String tenant) {
+        if (tenant != null && !SCHEMA_NAME.matcher(tenant).matches()) {
+            throw new IllegalArgumentException("Tenant Error: invalid schema name '" + tenant + "'");
+        }
+    }
+
+    private static void set(String tenant) {
+        if (tenant == null) {
+            current.remove();
+        } else {
+            current.set(tenant);
+        }
+    }
+}
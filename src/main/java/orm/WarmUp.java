@@ -0,0 +1,94 @@
+package orm;
+
+import orm.annotations.Column;
+import orm.annotations.Id;
+import orm.annotations.ManyToOne;
+import orm.annotations.OneToOne;
+import orm.annotations.Table;
+
+import java.lang.reflect.Field;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Rozgrzewanie nowych połączeń instrukcjami CRUD zarejestrowanych encji, zanim połączenie trafi do puli.
+ * Zapytanie find() jest wykonywane z pustym parametrem, więc backend ładuje katalog i indeksy tabeli,
+ * a sterownik poznaje typy kolumn. INSERT, UPDATE i DELETE są tylko przygotowywane i opisywane
+ * przez serwer (bez wykonania, więc nie uruchamiają też wyzwalaczy). DELETE ma tę samą treść co w delete();
+ * save() i update() wstawiają wartości literałami, więc dla nich rozgrzewany jest katalog kolumn
+ * na postaci z parametrami, a nie konkretna instrukcja.
+ */
+final class WarmUp {
+
+    private WarmUp() {
+    }
+
+    static List<String> queries(List<String> entityClassNames) {
+        List<String> queries = new ArrayList<>();
+        for (String className : entityClassNames) {
+            try {
+                Class<?> clazz = Class.forName(className);
+                Table table = clazz.getAnnotation(Table.class);
+                if (table == null) {
+                    throw new RuntimeException("Class " + clazz.getName() + " is not mapped in DB");
+                }
+                queries.add(EntityManager.findQuery(clazz, table));
+                queries.addAll(writeQueries(clazz, table.name()));
+            } catch (ClassNotFoundException e) {
+                throw new RuntimeException("Unknown warm-up entity " + className, e);
+            }
+        }
+        return queries;
+    }
+
+    private static List<String> writeQueries(Class<?> clazz, String tableName) {
+        String idColumn = null;
+        List<String> columns = new ArrayList<>();
+        for (Field field : clazz.getDeclaredFields()) {
+            Column column = field.getAnnotation(Column.class);
+            ManyToOne manyToOne = field.getAnnotation(ManyToOne.class);
+            OneToOne oneToOne = field.getAnnotation(OneToOne.class);
+            if (field.isAnnotationPresent(Id.class)) {
+                idColumn = column != null ? column.name() : field.getName();
+            } else if (column != null) {
+                columns.add(column.name());
+            } else if (manyToOne != null) {
+                columns.add(manyToOne.column());
+            } else if (oneToOne != null && oneToOne.foreignKeyInThisTable()) {
+                columns.add(oneToOne.column());
+            }
+        }
+        if (idColumn == null) {
+            throw new RuntimeException("Class " + clazz.getName() + " has no @Id field");
+        }
+
+        List<String> queries = new ArrayList<>();
+        if (!columns.isEmpty()) {
+            queries.add(String.format("INSERT INTO %s (%s, %s) VALUES (%s)", tableName, idColumn, String.join(", ", columns),
+                    String.join(", ", Collections.nCopies(columns.size() + 1, "?"))));
+            queries.add(String.format("UPDATE %s SET %s = ? WHERE %s = ?", tableName, String.join(" = ?, ", columns),
+                    idColumn) + EntityManager.updatePredicates(clazz));
+        }
+        queries.add(EntityManager.deleteQuery(clazz, tableName, idColumn));
+        return queries;
+    }
+
+    static void run(Connection connection, List<String> queries) throws SQLException {
+        for (String query : queries) {
+            try (PreparedStatement statement = connection.prepareStatement(query)) {
+                if (query.startsWith("SELECT")) {
+                    statement.setNull(1, Types.NULL);
+                    statement.executeQuery().close();
+                } else {
+                    // Parse/Describe bez wykonania
+                    statement.getParameterMetaData();
+                }
+            }
+        }
+    }
+}
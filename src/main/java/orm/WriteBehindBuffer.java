@@ -0,0 +1,201 @@
+package orm;
+
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Bufor zapisu opóźnionego. Kolejne zapisy tej samej encji (klasa + id) są scalane do jednego,
+ * z najnowszym stanem obiektu, a bufor jest opróżniany w tle porcjami - po uzbieraniu {@code batchSize}
+ * zapisów albo co {@code flushMillis}. Gdy oczekuje {@code capacity} zapisów, kolejne wywołania czekają.
+ * Nieudana porcja jest ponawiana zapis po zapisie; błędy pojedynczych zapisów zgłasza {@link #flush()}.
+ */
+class WriteBehindBuffer {
+
+    enum Operation { SAVE, UPDATE, DELETE }
+
+    /**
+     * Oczekujący zapis. {@code deleteFirst} oznacza SAVE po DELETE tej samej encji - wiersz trzeba najpierw usunąć.
+     */
+    static class PendingWrite {
+        final Operation operation;
+        final Object entity;
+        final boolean deleteFirst;
+
+        PendingWrite(Operation operation, Object entity, boolean deleteFirst) {
+            this.operation = operation;
+            this.entity = entity;
+            this.deleteFirst = deleteFirst;
+        }
+    }
+
+    private final Consumer<List<PendingWrite>> applier;
+    private final int batchSize;
+    private final long flushMillis;
+    private final int capacity;
+    private final LinkedHashMap<Object, PendingWrite> pending = new LinkedHashMap<>();
+    private final Object flushLock = new Object();
+    private final List<RuntimeException> failures = new ArrayList<>();
+    private final Thread flusher;
+    private volatile boolean running = true;
+
+    WriteBehindBuffer(Consumer<List<PendingWrite>> applier, int batchSize, long flushMillis, int capacity) {
+        this.applier = applier;
+        this.batchSize = batchSize;
+        this.flushMillis = flushMillis;
+        this.capacity = capacity;
+        this.flusher = new Thread(this::flushLoop, "orm-write-behind");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /**
+     * Dodaje zapis do bufora, scalając go z oczekującym zapisem tej samej encji.
+     *
+     * @param key klucz encji (klasa + id) albo null dla nowej encji bez id - wtedy kluczem jest sam obiekt
+     */
+    synchronized void enqueue(Object key, Operation operation, Object entity) throws InterruptedException {
+        Object entryKey = key != null ? key : new IdentityKey(entity);
+        while (pending.size() >= capacity && !pending.containsKey(entryKey)) {
+            notifyAll();
+            wait();
+        }
+
+        PendingWrite previous = pending.get(entryKey);
+        PendingWrite merged = previous == null ? new PendingWrite(operation, entity, false) : merge(previous, operation, entity);
+        if (merged == null) {
+            pending.remove(entryKey);
+        } else {
+            pending.put(entryKey, merged);
+        }
+        if (pending.size() >= batchSize) {
+            notifyAll();
+        }
+    }
+
+    private static PendingWrite merge(PendingWrite previous, Operation operation, Object entity) {
+        return switch (previous.operation) {
+            case SAVE -> switch (operation) {
+                // wiersz jeszcze nie istnieje w bazie - wystarczy wstawić najnowszy stan albo nic
+                case SAVE, UPDATE -> new PendingWrite(Operation.SAVE, entity, previous.deleteFirst);
+                case DELETE -> previous.deleteFirst ? new PendingWrite(Operation.DELETE, entity, false) : null;
+            };
+            case UPDATE -> new PendingWrite(operation, entity, false);
+            case DELETE -> switch (operation) {
+                case SAVE -> new PendingWrite(Operation.SAVE, entity, true);
+                // UPDATE usuniętego wiersza niczego nie zmienia
+                case UPDATE, DELETE -> previous;
+            };
+        };
+    }
+
+    /**
+     * Zapisuje w bazie wszystko, co trafiło do bufora przed wywołaniem, i czeka na zakończenie.
+     *
+     * @throws RuntimeException pierwszy błąd zapisu od poprzedniego flush (pozostałe jako suppressed)
+     */
+    void flush() {
+        synchronized (flushLock) {
+            drain();
+            synchronized (failures) {
+                if (!failures.isEmpty()) {
+                    RuntimeException first = failures.get(0);
+                    failures.subList(1, failures.size()).forEach(first::addSuppressed);
+                    failures.clear();
+                    throw first;
+                }
+            }
+        }
+    }
+
+    synchronized int size() {
+        return pending.size();
+    }
+
+    /**
+     * Zatrzymuje wątek opróżniający i zapisuje pozostałe zmiany.
+     */
+    void close() {
+        running = false;
+        flusher.interrupt();
+        flush();
+    }
+
+    private void flushLoop() {
+        while (running) {
+            try {
+                synchronized (this) {
+                    long deadline = System.currentTimeMillis() + flushMillis;
+                    long remaining = flushMillis;
+                    while (pending.size() < batchSize && remaining > 0) {
+                        wait(remaining);
+                        remaining = deadline - System.currentTimeMillis();
+                    }
+                }
+                synchronized (flushLock) {
+                    drain();
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (RuntimeException e) {
+                System.err.println("Błąd zapisu opóźnionego: " + e.getMessage());
+            }
+        }
+    }
+
+    private void drain() {
+        while (true) {
+            List<PendingWrite> batch = new ArrayList<>();
+            synchronized (this) {
+                Iterator<PendingWrite> iterator = pending.values().iterator();
+                while (iterator.hasNext() && batch.size() < batchSize) {
+                    batch.add(iterator.next());
+                    iterator.remove();
+                }
+                notifyAll();
+            }
+            if (batch.isEmpty()) {
+                return;
+            }
+            apply(batch);
+        }
+    }
+
+    private void apply(List<PendingWrite> batch) {
+        try {
+            applier.accept(batch);
+        } catch (RuntimeException batchFailure) {
+            // porcja wycofana w całości - ponawiamy pojedynczo, aby jeden błędny zapis nie blokował pozostałych
+            for (PendingWrite write : batch) {
+                try {
+                    applier.accept(List.of(write));
+                } catch (RuntimeException e) {
+                    System.err.println("Odrzucono zapis opóźniony " + write.operation + ": " + e.getMessage());
+                    synchronized (failures) {
+                        failures.add(e);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Klucz nowej encji bez id - porównywany przez tożsamość obiektu, nie equals().
+     */
+    private static final class IdentityKey {
+        private final Object entity;
+
+        IdentityKey(Object entity) {
+            this.entity = entity;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof IdentityKey key && key.entity == entity;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(entity);
+        }
+    }
+}
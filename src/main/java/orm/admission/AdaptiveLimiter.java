@@ -0,0 +1,73 @@
+package orm.admission;
+
+/**
+ * Adaptacyjny limit współbieżności w stylu AIMD/Vegas. Dopóki opóźnienia są bliskie najmniejszemu
+ * zaobserwowanemu, limit rośnie o 1 na każde pełne "okno" udanych operacji; gdy opóźnienie przekroczy
+ * minimum razy {@code tolerance} albo operacja się nie powiedzie, limit maleje multiplikatywnie.
+ * Nadmiarowe żądania są odrzucane od razu zamiast czekać w kolejce do puli połączeń.
+ */
+class AdaptiveLimiter {
+
+    private static final double BACKOFF = 0.9;
+    private static final int MIN_LATENCY_WINDOW = 1000;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double tolerance;
+
+    private double limit;
+    private int inFlight;
+    private long minLatencyNanos = Long.MAX_VALUE;
+    private long windowMinLatencyNanos = Long.MAX_VALUE;
+    private int samples;
+
+    AdaptiveLimiter(int initialLimit, int minLimit, int maxLimit, double tolerance) {
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.tolerance = tolerance;
+        this.limit = Math.max(minLimit, Math.min(initialLimit, maxLimit));
+    }
+
+    synchronized boolean tryAcquire() {
+        if (inFlight >= (int) limit) {
+            return false;
+        }
+        inFlight++;
+        return true;
+    }
+
+    /**
+     * Zwalnia miejsce operacji, która nie została wykonana (np. odrzuciła ją gródź) - bez próbki opóźnienia,
+     * bo zerowy czas zaniżyłby minimum i każda następna operacja wyglądałaby na przeciążenie.
+     */
+    synchronized void cancel() {
+        inFlight--;
+    }
+
+    synchronized void release(long latencyNanos, boolean success) {
+        inFlight--;
+
+        // minimum z okna zastępuje globalne, aby limit nadążał za trwałą zmianą warunków
+        windowMinLatencyNanos = Math.min(windowMinLatencyNanos, latencyNanos);
+        if (++samples >= MIN_LATENCY_WINDOW) {
+            minLatencyNanos = windowMinLatencyNanos;
+            windowMinLatencyNanos = Long.MAX_VALUE;
+            samples = 0;
+        }
+        minLatencyNanos = Math.min(minLatencyNanos, latencyNanos);
+
+        if (!success || latencyNanos > minLatencyNanos * tolerance) {
+            limit = Math.max(minLimit, limit * BACKOFF);
+        } else if (inFlight + 1 >= (int) limit / 2) {
+            limit = Math.min(maxLimit, limit + 1.0 / limit);
+        }
+    }
+
+    synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    synchronized int getInFlight() {
+        return inFlight;
+    }
+}
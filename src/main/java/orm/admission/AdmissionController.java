@@ -0,0 +1,124 @@
+package orm.admission;
+
+import orm.exceptions.AdmissionRejectedException;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Kontrola dopuszczenia przed pulą połączeń: adaptacyjny limit globalny oraz grodzie (bulkheads)
+ * dla klas operacji i pojedynczych tabel. Operacja, która nie dostanie zezwolenia w ciągu
+ * {@code maxWaitMillis}, kończy się od razu {@link AdmissionRejectedException}.
+ */
+public class AdmissionController {
+
+    private static final Permit NO_OP = () -> { };
+
+    private final boolean enabled;
+    private final long maxWaitMillis;
+    private final AdaptiveLimiter adaptiveLimiter;
+    private final Map<OperationClass, Bulkhead> operationBulkheads = new EnumMap<>(OperationClass.class);
+    private final Map<String, Bulkhead> tableBulkheads = new ConcurrentHashMap<>();
+
+    /**
+     * @param enabled         czy kontrola jest włączona; jeśli nie, {@link #acquire} nic nie kosztuje
+     * @param maxWaitMillis   maksymalny czas oczekiwania na miejsce w grodzi
+     * @param operationLimits limity dla klas operacji (brak wpisu - bez limitu)
+     * @param tableLimits     limity dla tabel (brak wpisu - bez limitu)
+     * @param adaptiveMax     górna granica limitu adaptacyjnego, 0 wyłącza limit adaptacyjny
+     * @param adaptiveMin     dolna granica limitu adaptacyjnego
+     * @param tolerance       dopuszczalna krotność minimalnego opóźnienia przed zmniejszeniem limitu
+     */
+    public AdmissionController(boolean enabled, long maxWaitMillis,
+                               Map<OperationClass, Integer> operationLimits, Map<String, Integer> tableLimits,
+                               int adaptiveMin, int adaptiveMax, double tolerance) {
+        this.enabled = enabled;
+        this.maxWaitMillis = maxWaitMillis;
+        this.adaptiveLimiter = adaptiveMax > 0
+                ? new AdaptiveLimiter(adaptiveMax, Math.max(1, adaptiveMin), adaptiveMax, tolerance)
+                : null;
+        operationLimits.forEach((operation, limit) -> operationBulkheads.put(operation, new Bulkhead(operation.name(), limit)));
+        tableLimits.forEach((table, limit) -> tableBulkheads.put(table, new Bulkhead(table, limit)));
+    }
+
+    public static AdmissionController disabled() {
+        return new AdmissionController(false, 0, Map.of(), Map.of(), 0, 0, 0);
+    }
+
+    /**
+     * Pobiera zezwolenie na operację; zamknięcie zezwolenia zwalnia miejsca i raportuje opóźnienie.
+     *
+     * @param operation klasa operacji
+     * @param table     nazwa tabeli lub null, gdy nieznana
+     */
+    public Permit acquire(OperationClass operation, String table) {
+        if (!enabled) {
+            return NO_OP;
+        }
+
+        List<Bulkhead> acquired = new ArrayList<>(2);
+        boolean adaptiveAcquired = false;
+        try {
+            if (adaptiveLimiter != null) {
+                if (!adaptiveLimiter.tryAcquire()) {
+                    throw new AdmissionRejectedException("concurrency limit " + adaptiveLimiter.getLimit() + " reached");
+                }
+                adaptiveAcquired = true;
+            }
+            acquireBulkhead(operationBulkheads.get(operation), acquired);
+            if (table != null) {
+                acquireBulkhead(tableBulkheads.get(table), acquired);
+            }
+        } catch (RuntimeException | InterruptedException e) {
+            for (Bulkhead bulkhead : acquired) {
+                bulkhead.release();
+            }
+            if (adaptiveAcquired) {
+                adaptiveLimiter.cancel();
+            }
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+                throw new AdmissionRejectedException("interrupted");
+            }
+            throw (RuntimeException) e;
+        }
+
+        long start = System.nanoTime();
+        boolean limited = adaptiveAcquired;
+        return new Permit() {
+            private boolean failed;
+
+            @Override
+            public void fail() {
+                failed = true;
+            }
+
+            @Override
+            public void close() {
+                for (Bulkhead bulkhead : acquired) {
+                    bulkhead.release();
+                }
+                if (limited) {
+                    adaptiveLimiter.release(System.nanoTime() - start, !failed);
+                }
+            }
+        };
+    }
+
+    private void acquireBulkhead(Bulkhead bulkhead, List<Bulkhead> acquired) throws InterruptedException {
+        if (bulkhead == null) {
+            return;
+        }
+        if (!bulkhead.tryAcquire(maxWaitMillis)) {
+            throw new AdmissionRejectedException("bulkhead " + bulkhead.getName() + " is full");
+        }
+        acquired.add(bulkhead);
+    }
+
+    public int getAdaptiveLimit() {
+        return adaptiveLimiter == null ? -1 : adaptiveLimiter.getLimit();
+    }
+}
@@ -0,0 +1,30 @@
+package orm.admission;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stały limit równoczesnych operacji (np. dla jednej tabeli). Czeka najwyżej maxWaitMillis.
+ */
+class Bulkhead {
+
+    private final String name;
+    private final Semaphore permits;
+
+    Bulkhead(String name, int limit) {
+        this.name = name;
+        this.permits = new Semaphore(limit);
+    }
+
+    String getName() {
+        return name;
+    }
+
+    boolean tryAcquire(long maxWaitMillis) throws InterruptedException {
+        return maxWaitMillis <= 0 ? permits.tryAcquire() : permits.tryAcquire(maxWaitMillis, TimeUnit.MILLISECONDS);
+    }
+
+    void release() {
+        permits.release();
+    }
+}
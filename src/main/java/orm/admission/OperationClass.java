@@ -0,0 +1,10 @@
+package orm.admission;
+
+/**
+ * Klasa operacji EntityManagera, dla której można ustawić osobny limit współbieżności.
+ */
+public enum OperationClass {
+    READ,
+    WRITE,
+    QUERY
+}
@@ -0,0 +1,16 @@
+package orm.admission;
+
+/**
+ * Zezwolenie na wykonanie operacji. Zamykane w try-with-resources.
+ */
+public interface Permit extends AutoCloseable {
+
+    /**
+     * Oznacza operację jako nieudaną, co zmniejsza limit adaptacyjny.
+     */
+    default void fail() {
+    }
+
+    @Override
+    void close();
+}
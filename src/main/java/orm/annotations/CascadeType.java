@@ -0,0 +1,19 @@
+package orm.annotations;
+
+/**
+ * Operacje przenoszone z encji na encje powiązane relacją z atrybutem {@code cascade}.
+ */
+public enum CascadeType {
+    /**
+     * save zapisuje także powiązane encje.
+     */
+    PERSIST,
+    /**
+     * delete usuwa także powiązane encje.
+     */
+    REMOVE,
+    /**
+     * save i delete przenoszone jak przy PERSIST i REMOVE razem.
+     */
+    ALL
+}
@@ -0,0 +1,13 @@
+package orm.annotations;
+
+import java.lang.annotation.Repeatable;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+@Retention(RetentionPolicy.RUNTIME)
+@Repeatable(Indexes.class)
+public @interface Index {
+    String name() default "";
+    String[] columns();
+    boolean unique() default false;
+}
@@ -0,0 +1,9 @@
+package orm.annotations;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Indexes {
+    Index[] value();
+}
@@ -0,0 +1,18 @@
+package orm.annotations;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+/**
+ * Kolumna tekstowa o niewielu różnych wartościach (statusy, nazwy działów): przy wczytywaniu encji jednakowe
+ * wartości są zastępowane jedną instancją z ograniczonej tablicy, zamiast osobnego Stringa w każdej encji.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Interned {
+
+    /**
+     * Liczba miejsc tablicy (zaokrąglana w górę do potęgi 2). Przy większej liczbie różnych wartości
+     * część z nich po prostu nie będzie współdzielona.
+     */
+    int capacity() default 1024;
+}
@@ -0,0 +1,28 @@
+package orm.annotations;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+/**
+ * Duża kolumna binarna (razem z @Column) mapowana na pole typu {@link orm.LobHandle}. Odczyt encji
+ * nie pobiera zawartości - uchwyt czyta ją strumieniowo dopiero przy otwarciu, a zapis przesyła
+ * ją strumieniem bez kopiowania całości do pamięci.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Lob {
+
+    Storage storage() default Storage.BYTEA;
+
+    enum Storage {
+        /**
+         * Kolumna {@code bytea}; odczyt porcjami przez {@code substring}, zapis przez {@code setBinaryStream}.
+         * SchemaGenerator ustawia jej {@code STORAGE EXTERNAL}, aby każda porcja nie rozpakowywała całej wartości.
+         */
+        BYTEA,
+        /**
+         * Kolumna {@code oid} wskazująca duży obiekt PostgreSQL (lo_*); odczyt i zapis wymagają transakcji,
+         * a zastąpiony lub usunięty obiekt jest zwalniany przez {@code lo_unlink}.
+         */
+        LARGE_OBJECT
+    }
+}
@@ -8,4 +8,6 @@ public @interface ManyToMany {
     String joinTable();
     String joinColumn();
     String inverseJoinColumn();
+
+    CascadeType[] cascade() default {};
 }
@@ -6,4 +6,11 @@ import java.lang.annotation.RetentionPolicy;
 @Retention(RetentionPolicy.RUNTIME)
 public @interface OneToMany {
     String mappedBy();
+
+    CascadeType[] cascade() default {};
+
+    /**
+     * update usuwa wiersze dzieci, których nie ma już w kolekcji.
+     */
+    boolean orphanRemoval() default false;
 }
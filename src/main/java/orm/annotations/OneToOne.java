@@ -7,4 +7,11 @@ import java.lang.annotation.RetentionPolicy;
 public @interface OneToOne {
     String column();
     boolean foreignKeyInThisTable();
+
+    CascadeType[] cascade() default {};
+
+    /**
+     * update usuwa poprzednio powiązany wiersz; tylko gdy klucz obcy jest w drugiej tabeli.
+     */
+    boolean orphanRemoval() default false;
 }
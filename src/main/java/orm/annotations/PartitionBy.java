@@ -0,0 +1,43 @@
+package orm.annotations;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+/**
+ * Partycjonowanie deklaratywne PostgreSQL dla tabeli encji.
+ * Kolumna partycjonowania musi być polem @Column encji; wchodzi do klucza głównego razem z @Id.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+public @interface PartitionBy {
+
+    enum Strategy { RANGE, LIST, HASH }
+
+    String column();
+
+    Strategy strategy() default Strategy.RANGE;
+
+    /**
+     * RANGE: długość jednej partycji - "day", "month" albo "year". Kolumna musi być datą lub znacznikiem czasu.
+     */
+    String interval() default "month";
+
+    /**
+     * RANGE: liczba przyszłych partycji tworzonych z wyprzedzeniem.
+     */
+    int premake() default 3;
+
+    /**
+     * RANGE: liczba minionych partycji zachowywanych obok bieżącej; starsze są odłączane. 0 - bez odłączania.
+     */
+    int retain() default 0;
+
+    /**
+     * LIST: wartości, z których każda dostaje własną partycję; pozostałe trafiają do partycji domyślnej.
+     */
+    String[] values() default {};
+
+    /**
+     * HASH: liczba partycji.
+     */
+    int modulus() default 4;
+}
@@ -6,4 +6,9 @@ import java.lang.annotation.RetentionPolicy;
 @Retention(RetentionPolicy.RUNTIME)
 public @interface Table {
     String name();
-}
\ No newline at end of file
+
+    /**
+     * Kolumna klucza shardingu (np. "id" albo "department_id"). Pusta wartość oznacza tabelę niepodzieloną.
+     */
+    String shardKey() default "";
+}
@@ -0,0 +1,12 @@
+package orm.annotations;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+/**
+ * Pole wersji encji (int/long, razem z @Column) do blokowania optymistycznego: update i delete
+ * dotyczą wiersza tylko wtedy, gdy jego wersja się nie zmieniła, a update zwiększa ją o 1.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Version {
+}
@@ -0,0 +1,78 @@
+package orm.benchmark;
+
+import orm.EntityManager;
+import orm.annotations.Column;
+import orm.annotations.Id;
+import orm.annotations.Table;
+import orm.frame.ResultFrame;
+import orm.logging.LoggerObserver;
+
+import java.util.List;
+
+/**
+ * Porównuje zużycie sterty i czas odczytu tabeli z milionem wierszy: lista encji kontra {@link ResultFrame}.
+ * Uruchamiać z dużą stertą, np. {@code -Xmx4g}: {@code java orm.benchmark.FrameBenchmark [wiersze]}.
+ */
+public class FrameBenchmark {
+
+    @Table(name = "frame_benchmark")
+    public static class Row {
+        @Id
+        @Column(name = "id")
+        private int id;
+
+        @Column(name = "status")
+        private String status;
+
+        @Column(name = "amount")
+        private Double amount;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        EntityManager entityManager = new EntityManager(new LoggerObserver());
+
+        entityManager.executeUpdate("DROP TABLE IF EXISTS frame_benchmark");
+        entityManager.executeUpdate("CREATE TABLE frame_benchmark (id INTEGER PRIMARY KEY, status VARCHAR(20), amount DOUBLE PRECISION)");
+        entityManager.executeUpdate("INSERT INTO frame_benchmark SELECT g, (ARRAY['NEW','PAID','SHIPPED','CANCELLED'])[1 + g % 4], g * 0.01 "
+                + "FROM generate_series(1, ?) g", rows);
+
+        String query = "SELECT id, status, amount FROM frame_benchmark";
+
+        long before = usedHeap();
+        long start = System.nanoTime();
+        List<Row> entities = entityManager.executeQuery(query, Row.class);
+        long entityTime = System.nanoTime() - start;
+        long entityHeap = usedHeap() - before;
+        System.out.printf("entities: %d rows, %.0f ms, %.1f bytes/row%n",
+                entities.size(), entityTime / 1e6, (double) entityHeap / entities.size());
+        entities = null;
+
+        before = usedHeap();
+        start = System.nanoTime();
+        ResultFrame frame = entityManager.queryFrame(query);
+        long frameTime = System.nanoTime() - start;
+        long frameHeap = usedHeap() - before;
+        System.out.printf("frame:    %d rows, %.0f ms, %.1f bytes/row%n",
+                frame.getRowCount(), frameTime / 1e6, (double) frameHeap / frame.getRowCount());
+
+        start = System.nanoTime();
+        double paid = frame.doubleColumn("amount").sum(frame.stringColumn("status").filterEquals("PAID", null));
+        System.out.printf("sum(amount) where status = 'PAID': %.2f in %.1f ms, by status: %s%n",
+                paid, (System.nanoTime() - start) / 1e6, frame.stringColumn("status").countBy(null));
+
+        frame.spillOffHeap();
+        System.out.printf("after spill: heap=%d B, off-heap=%d B%n", frame.heapBytes(), frame.offHeapBytes());
+
+        entityManager.executeUpdate("DROP TABLE frame_benchmark");
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
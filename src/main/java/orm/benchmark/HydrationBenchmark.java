@@ -0,0 +1,46 @@
+package orm.benchmark;
+
+import orm.EntityManager;
+import orm.logging.LoggerObserver;
+import orm.metadata.EntityMetadataRegistry;
+import orm.models.Department;
+
+import java.util.List;
+
+/**
+ * Porównuje ścieżkę refleksyjną z metadanymi wygenerowanymi przez orm-processor.
+ * Czas do pierwszego zapytania ma sens tylko w świeżej JVM, dlatego tryb wybiera się argumentem:
+ * {@code java orm.benchmark.HydrationBenchmark reflective|generated [iteracje]}.
+ * Tryb "generated" wymaga kompilacji z profilem codegen.
+ */
+public class HydrationBenchmark {
+    public static void main(String[] args) throws Exception {
+        boolean generated = args.length > 0 && args[0].equals("generated");
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        EntityMetadataRegistry.setEnabled(generated);
+
+        long start = System.nanoTime();
+        EntityManager entityManager = new EntityManager(new LoggerObserver());
+        entityManager.find(Department.class, 1);
+        long firstQuery = System.nanoTime() - start;
+
+        String query = "SELECT * FROM departments";
+        for (int i = 0; i < iterations / 10; i++) {
+            entityManager.executeQuery(query, Department.class);
+        }
+
+        long rows = 0;
+        start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            List<Department> result = entityManager.executeQuery(query, Department.class);
+            rows += result.size();
+        }
+        long steady = System.nanoTime() - start;
+
+        System.out.printf("mode=%s time-to-first-query=%.2f ms steady=%.1f ns/row (%d rows)%n",
+                generated ? "generated" : "reflective",
+                firstQuery / 1e6,
+                rows == 0 ? 0.0 : (double) steady / rows,
+                rows);
+    }
+}
@@ -0,0 +1,91 @@
+package orm.benchmark;
+
+import orm.EntityManager;
+import orm.annotations.Column;
+import orm.annotations.Id;
+import orm.annotations.Interned;
+import orm.annotations.Table;
+import orm.logging.LoggerObserver;
+
+import java.util.List;
+
+/**
+ * Porównuje zajętość sterty po wczytaniu dużej tabeli pracowników przez executeQuery: kolumny tekstowe
+ * o niewielu wartościach (dział, status) zwykłe i oznaczone {@link Interned}. Obie klasy czytają te same wiersze.
+ * Uruchamiać z dużą stertą, np. {@code -Xmx4g}: {@code java orm.benchmark.InternedHydrationBenchmark [wiersze]}.
+ */
+public class InternedHydrationBenchmark {
+
+    @Table(name = "intern_benchmark")
+    public static class PlainEmployee {
+        @Id
+        @Column(name = "id")
+        private int id;
+
+        @Column(name = "name")
+        private String name;
+
+        @Column(name = "department")
+        private String department;
+
+        @Column(name = "status")
+        private String status;
+    }
+
+    @Table(name = "intern_benchmark")
+    public static class InternedEmployee {
+        @Id
+        @Column(name = "id")
+        private int id;
+
+        @Column(name = "name")
+        private String name;
+
+        @Interned
+        @Column(name = "department")
+        private String department;
+
+        @Interned(capacity = 16)
+        @Column(name = "status")
+        private String status;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 500_000;
+        EntityManager entityManager = new EntityManager(new LoggerObserver());
+
+        entityManager.executeUpdate("DROP TABLE IF EXISTS intern_benchmark");
+        entityManager.executeUpdate("CREATE TABLE intern_benchmark (id INTEGER PRIMARY KEY, name VARCHAR(40), "
+                + "department VARCHAR(60), status VARCHAR(20))");
+        entityManager.executeUpdate("INSERT INTO intern_benchmark SELECT g, 'employee-' || g, 'Department of ' || (g % 40), "
+                + "(ARRAY['ACTIVE','ON_LEAVE','TERMINATED'])[1 + g % 3] FROM generate_series(1, ?) g", rows);
+
+        String query = "SELECT id, name, department, status FROM intern_benchmark";
+        measure("plain", entityManager, query, PlainEmployee.class);
+        measure("@Interned", entityManager, query, InternedEmployee.class);
+
+        entityManager.executeUpdate("DROP TABLE intern_benchmark");
+    }
+
+    private static void measure(String label, EntityManager entityManager, String query, Class<?> clazz) throws Exception {
+        // przebieg rozgrzewający, aby czas nie obejmował kompilacji JIT
+        entityManager.executeQuery(query, clazz);
+
+        long before = usedHeap();
+        long start = System.nanoTime();
+        List<?> entities = entityManager.executeQuery(query, clazz);
+        long time = System.nanoTime() - start;
+        long heap = usedHeap() - before;
+        System.out.printf("%-10s %d rows, %.0f ms, %.1f MB, %.1f bytes/row%n", label, entities.size(), time / 1e6,
+                heap / 1e6, (double) heap / entities.size());
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
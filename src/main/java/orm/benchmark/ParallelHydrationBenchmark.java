@@ -0,0 +1,79 @@
+package orm.benchmark;
+
+import orm.EntityManager;
+import orm.annotations.Column;
+import orm.annotations.Id;
+import orm.annotations.ManyToOne;
+import orm.annotations.Table;
+import orm.logging.LoggerObserver;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Mierzy przepustowość executeQuery dla 100 tys. i 1 mln wierszy z relacją @ManyToOne
+ * przy różnej liczbie wątków mapujących. Uruchamiać z dużą stertą, np. {@code -Xmx4g}:
+ * {@code java orm.benchmark.ParallelHydrationBenchmark [wątki...]}.
+ */
+public class ParallelHydrationBenchmark {
+
+    @Table(name = "hydration_benchmark_category")
+    public static class Category {
+        @Id
+        @Column(name = "id")
+        private int id;
+
+        @Column(name = "name")
+        private String name;
+    }
+
+    @Table(name = "hydration_benchmark")
+    public static class Row {
+        @Id
+        @Column(name = "id")
+        private int id;
+
+        @Column(name = "status")
+        private String status;
+
+        @Column(name = "amount")
+        private Double amount;
+
+        @ManyToOne(column = "category_id")
+        private Category category;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int[] threads = args.length > 0
+                ? Arrays.stream(args).mapToInt(Integer::parseInt).toArray()
+                : new int[]{1, 2, 4, 8};
+        EntityManager entityManager = new EntityManager(new LoggerObserver());
+
+        entityManager.executeUpdate("DROP TABLE IF EXISTS hydration_benchmark");
+        entityManager.executeUpdate("DROP TABLE IF EXISTS hydration_benchmark_category");
+        entityManager.executeUpdate("CREATE TABLE hydration_benchmark_category (id INTEGER PRIMARY KEY, name VARCHAR(20))");
+        entityManager.executeUpdate("INSERT INTO hydration_benchmark_category SELECT g, 'category-' || g FROM generate_series(1, 100) g");
+        entityManager.executeUpdate("CREATE TABLE hydration_benchmark (id INTEGER PRIMARY KEY, status VARCHAR(20), "
+                + "amount DOUBLE PRECISION, category_id INTEGER)");
+        entityManager.executeUpdate("INSERT INTO hydration_benchmark SELECT g, (ARRAY['NEW','PAID','SHIPPED','CANCELLED'])[1 + g % 4], "
+                + "g * 0.01, 1 + g % 100 FROM generate_series(1, 1000000) g");
+
+        for (int rows : new int[]{100_000, 1_000_000}) {
+            String query = "SELECT id, status, amount, category_id FROM hydration_benchmark WHERE id <= " + rows;
+            for (int threadCount : threads) {
+                entityManager.setHydrationParallelism(threadCount);
+                entityManager.executeQuery(query, Row.class);
+
+                long start = System.nanoTime();
+                List<Row> result = entityManager.executeQuery(query, Row.class);
+                long elapsed = System.nanoTime() - start;
+                System.out.printf("rows=%d threads=%d: %.0f ms, %.0f rows/s%n",
+                        result.size(), threadCount, elapsed / 1e6, result.size() / (elapsed / 1e9));
+            }
+        }
+
+        entityManager.setHydrationParallelism(1);
+        entityManager.executeUpdate("DROP TABLE hydration_benchmark");
+        entityManager.executeUpdate("DROP TABLE hydration_benchmark_category");
+    }
+}
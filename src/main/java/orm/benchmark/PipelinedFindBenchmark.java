@@ -0,0 +1,158 @@
+package orm.benchmark;
+
+import orm.wire.PgWireClient;
+import orm.wire.WireRow;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Porównuje odczyt po kluczu przy tej samej liczbie połączeń: JDBC (jedno zapytanie na połączenie naraz),
+ * {@link PgWireClient} wywoływany synchronicznie z wielu wątków i {@link PgWireClient} z jednego wątku
+ * z {@code concurrency} zapytaniami w locie. Każdy wynik jest sprawdzany z oczekiwanym wierszem.
+ * {@code java orm.benchmark.PipelinedFindBenchmark url user password [połączenia] [współbieżność] [sekundy]}
+ */
+public class PipelinedFindBenchmark {
+
+    private static final int ROWS = 100_000;
+    private static final String QUERY = "SELECT * FROM wire_benchmark WHERE id = ?";
+
+    public static void main(String[] args) throws Exception {
+        String url = args[0];
+        String user = args[1];
+        String password = args[2];
+        int connections = args.length > 3 ? Integer.parseInt(args[3]) : 4;
+        int concurrency = args.length > 4 ? Integer.parseInt(args[4]) : 256;
+        long seconds = args.length > 5 ? Long.parseLong(args[5]) : 10;
+
+        try (Connection connection = DriverManager.getConnection(url, user, password);
+             Statement statement = connection.createStatement()) {
+            statement.execute("DROP TABLE IF EXISTS wire_benchmark");
+            statement.execute("CREATE TABLE wire_benchmark (id INTEGER PRIMARY KEY, name VARCHAR(40), amount NUMERIC(12, 2))");
+            statement.execute("INSERT INTO wire_benchmark SELECT g, 'name-' || g, g * 0.01 FROM generate_series(1, " + ROWS + ") g");
+            statement.execute("ANALYZE wire_benchmark");
+        }
+
+        System.out.printf("%d połączeń, współbieżność %d, %d s na wariant%n", connections, concurrency, seconds);
+        System.out.printf("%-22s %12s %10s %10s%n", "wariant", "zapytań/s", "p50", "p99");
+        jdbc(url, user, password, connections, concurrency, seconds);
+        try (PgWireClient client = new PgWireClient(url, user, password, connections, concurrency)) {
+            wireThreads(client, concurrency, seconds);
+            wireAsync(client, concurrency, seconds);
+        }
+    }
+
+    private static void jdbc(String url, String user, String password, int connections, int concurrency, long seconds) throws Exception {
+        BlockingQueue<Connection> pool = new ArrayBlockingQueue<>(connections);
+        for (int i = 0; i < connections; i++) {
+            pool.add(DriverManager.getConnection(url, user, password));
+        }
+        runThreads("JDBC", concurrency, seconds, id -> {
+            Connection connection = pool.take();
+            try (PreparedStatement statement = connection.prepareStatement(QUERY)) {
+                statement.setInt(1, id);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    check(id, resultSet.next() ? resultSet.getString("name") : null);
+                }
+            } finally {
+                pool.put(connection);
+            }
+        });
+        for (Connection connection : pool) {
+            connection.close();
+        }
+    }
+
+    private static void wireThreads(PgWireClient client, int concurrency, long seconds) throws Exception {
+        runThreads("wire, wątki", concurrency, seconds, id -> {
+            List<WireRow> rows = client.query(QUERY, id).join();
+            check(id, rows.isEmpty() ? null : (String) rows.get(0).get("name"));
+        });
+    }
+
+    private static void wireAsync(PgWireClient client, int concurrency, long seconds) throws Exception {
+        Semaphore window = new Semaphore(concurrency);
+        ConcurrentLinkedQueue<Long> latencies = new ConcurrentLinkedQueue<>();
+        AtomicLong errors = new AtomicLong();
+        long end = System.nanoTime() + seconds * 1_000_000_000L;
+        long count = 0;
+        while (System.nanoTime() < end) {
+            window.acquire();
+            int id = ThreadLocalRandom.current().nextInt(1, ROWS + 1);
+            long start = System.nanoTime();
+            CompletableFuture<List<WireRow>> future = client.query(QUERY, id);
+            future.whenComplete((rows, error) -> {
+                latencies.add(System.nanoTime() - start);
+                if (error != null || rows.isEmpty() || !("name-" + id).equals(rows.get(0).get("name"))) {
+                    errors.incrementAndGet();
+                }
+                window.release();
+            });
+            count++;
+        }
+        window.acquire(concurrency);
+        report("wire, 1 wątek async", count, seconds, new ArrayList<>(latencies), errors.get());
+    }
+
+    private interface Find {
+        void run(int id) throws Exception;
+    }
+
+    private static void runThreads(String label, int concurrency, long seconds, Find find) throws Exception {
+        ConcurrentLinkedQueue<Long> latencies = new ConcurrentLinkedQueue<>();
+        AtomicLong errors = new AtomicLong();
+        long end = System.nanoTime() + seconds * 1_000_000_000L;
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < concurrency; i++) {
+            Thread thread = new Thread(() -> {
+                while (System.nanoTime() < end) {
+                    int id = ThreadLocalRandom.current().nextInt(1, ROWS + 1);
+                    long start = System.nanoTime();
+                    try {
+                        find.run(id);
+                    } catch (Exception | AssertionError e) {
+                        errors.incrementAndGet();
+                    }
+                    latencies.add(System.nanoTime() - start);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        List<Long> values = new ArrayList<>(latencies);
+        report(label, values.size(), seconds, values, errors.get());
+    }
+
+    private static void check(int id, String name) {
+        if (!("name-" + id).equals(name)) {
+            throw new AssertionError("id " + id + ": " + name);
+        }
+    }
+
+    private static void report(String label, long count, long seconds, List<Long> latencies, long errors) {
+        Collections.sort(latencies);
+        System.out.printf("%-22s %12.0f %8.2fms %8.2fms%s%n", label, count / (double) seconds,
+                percentile(latencies, 0.50) / 1e6, percentile(latencies, 0.99) / 1e6,
+                errors > 0 ? "  BŁĘDY: " + errors : "");
+    }
+
+    private static long percentile(List<Long> sorted, double fraction) {
+        return sorted.isEmpty() ? 0 : sorted.get((int) Math.ceil(sorted.size() * fraction) - 1);
+    }
+}
@@ -0,0 +1,82 @@
+package orm.benchmark;
+
+import orm.DataSourceConfig;
+import orm.StandalonePool;
+
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pokazuje p99 czasu pobrania połączenia przy skokowej zmianie obciążenia (2 -> 24 -> 2 wątki,
+ * każdy trzyma połączenie ok. 5 ms) dla stałej puli 4 połączeń i puli zmieniającej rozmiar w zakresie 2..32.
+ * Co sekundę wypisuje liczbę wątków, rozmiar puli i p99 pobrania z tej sekundy.
+ * {@code java orm.benchmark.PoolSizingBenchmark url user password}
+ */
+public class PoolSizingBenchmark {
+
+    private static final int[][] PHASES = {{2, 5}, {24, 15}, {2, 20}};
+
+    public static void main(String[] args) throws Exception {
+        DataSourceConfig dataSource = new DataSourceConfig(args[0], args[1], args[2]);
+        run("stała", () -> new StandalonePool(dataSource, 4, 4, 4, List.of()));
+        run("adaptacyjna", () -> new StandalonePool(dataSource, 4, 2, 32, 500, 1, 3000,
+                message -> System.out.println("  " + message)));
+    }
+
+    private static void run(String label, Callable<StandalonePool> poolFactory) throws Exception {
+        StandalonePool pool = poolFactory.call();
+        Queue<Long> acquireNanos = new ConcurrentLinkedQueue<>();
+        AtomicInteger activeThreads = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+
+        System.out.printf("%n%s:%n%5s %8s %6s %12s%n", label, "s", "wątki", "pula", "p99 pobrania");
+        int second = 0;
+        for (int[] phase : PHASES) {
+            while (activeThreads.get() < phase[0]) {
+                int id = activeThreads.incrementAndGet();
+                Thread thread = new Thread(() -> work(pool, acquireNanos, activeThreads, id), "benchmark-" + id);
+                threads.add(thread);
+                thread.start();
+            }
+            // nadmiarowe wątki same kończą pracę, gdy ich numer przekroczy liczbę aktywnych
+            activeThreads.set(phase[0]);
+            for (int i = 0; i < phase[1]; i++) {
+                Thread.sleep(1000);
+                List<Long> window = new ArrayList<>();
+                Long value;
+                while ((value = acquireNanos.poll()) != null) {
+                    window.add(value);
+                }
+                Collections.sort(window);
+                long p99 = window.isEmpty() ? 0 : window.get((int) Math.ceil(window.size() * 0.99) - 1);
+                System.out.printf("%5d %8d %6d %10.2fms%n", ++second, phase[0], pool.getSize(), p99 / 1e6);
+            }
+        }
+        activeThreads.set(0);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        pool.close();
+    }
+
+    private static void work(StandalonePool pool, Queue<Long> acquireNanos, AtomicInteger activeThreads, int id) {
+        while (id <= activeThreads.get()) {
+            long start = System.nanoTime();
+            try (Connection connection = pool.getConnection();
+                 Statement statement = connection.createStatement()) {
+                acquireNanos.add(System.nanoTime() - start);
+                statement.execute("SELECT pg_sleep(0.005)");
+            } catch (Exception e) {
+                System.err.println("Błąd: " + e.getMessage());
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package orm.benchmark;
+
+import orm.DataSourceConfig;
+import orm.StandalonePool;
+
+import java.util.List;
+
+/**
+ * Mierzy zimny start kolejki połączeń dla rozmiarów 5, 50 i 200: czas do osiągnięcia minReady
+ * oraz czas do otwarcia wszystkich połączeń w tle.
+ * {@code java orm.benchmark.PoolStartupBenchmark url user password [wątki] [minReady%] [encje do rozgrzania...]}
+ */
+public class PoolStartupBenchmark {
+
+    private static final long FULL_TIMEOUT_NANOS = 60_000_000_000L;
+
+    public static void main(String[] args) throws Exception {
+        DataSourceConfig dataSource = new DataSourceConfig(args[0], args[1], args[2]);
+        int threads = args.length > 3 ? Integer.parseInt(args[3]) : 8;
+        int minReadyPercent = args.length > 4 ? Integer.parseInt(args[4]) : 10;
+        List<String> warmUp = args.length > 5 ? List.of(args).subList(5, args.length) : List.of();
+
+        for (int size : new int[]{5, 50, 200}) {
+            for (int connectThreads : new int[]{1, threads}) {
+                long start = System.nanoTime();
+                StandalonePool pool = new StandalonePool(dataSource, size, Math.max(1, size * minReadyPercent / 100),
+                        connectThreads, warmUp);
+                long ready = System.nanoTime() - start;
+                try {
+                    awaitFull(pool, size);
+                } finally {
+                    pool.close();
+                }
+                long full = System.nanoTime() - start;
+
+                System.out.printf("size=%d threads=%d minReady=%d ready=%.1f ms full=%.1f ms%n",
+                        size, connectThreads, pool.getMinReady(), ready / 1e6, full / 1e6);
+            }
+        }
+    }
+
+    /**
+     * Czeka na otwarcie wszystkich połączeń. Nieudane otwarcie w tle zmniejsza rozmiar kolejki,
+     * więc wtedy (albo po upływie limitu czasu) pomiar kończy się błędem zamiast czekać w nieskończoność.
+     */
+    private static void awaitFull(StandalonePool pool, int size) throws InterruptedException {
+        long deadline = System.nanoTime() + FULL_TIMEOUT_NANOS;
+        while (pool.getAvailable() < size) {
+            if (pool.getSize() < size) {
+                throw new RuntimeException("Pool startup Error: opened " + pool.getSize() + " of " + size
+                        + " connections, background connects failed");
+            }
+            if (System.nanoTime() > deadline) {
+                throw new RuntimeException("Pool startup Error: " + pool.getAvailable() + " of " + size
+                        + " connections ready after " + FULL_TIMEOUT_NANOS / 1_000_000_000L + " s");
+            }
+            Thread.sleep(1);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package orm.benchmark;
+
+import orm.ConnectionPool;
+import orm.EntityManager;
+import orm.annotations.Column;
+import orm.annotations.Id;
+import orm.annotations.Table;
+import orm.logging.LoggerObserver;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Odczyty po kluczu w wielu schematach dzierżawców na wspólnej puli połączeń. Każdy schemat ma własną tabelę
+ * {@code tenant_account} z tymi samymi id, a właściciel wiersza zawiera nazwę schematu, więc każdy wynik
+ * sprawdza izolację (search_path i pamięć podręczna). Wariant "seria" wykonuje po kilkadziesiąt operacji
+ * z rzędu dla jednego dzierżawcy, "losowy" losuje dzierżawcę przy każdej operacji; raportowana jest
+ * przepustowość i liczba przełączeń search_path na operację.
+ * {@code java orm.benchmark.TenantRoutingBenchmark [schematy] [wątki] [sekundy]}
+ */
+public class TenantRoutingBenchmark {
+
+    private static final int ROWS = 1_000;
+    private static final int BURST = 50;
+
+    @Table(name = "tenant_account")
+    public static class Account {
+        @Id
+        @Column(name = "id")
+        private int id;
+
+        @Column(name = "owner")
+        private String owner;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int schemas = args.length > 0 ? Integer.parseInt(args[0]) : 40;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        long seconds = args.length > 2 ? Long.parseLong(args[2]) : 10;
+        EntityManager entityManager = new EntityManager(new LoggerObserver());
+
+        List<String> tenants = new ArrayList<>();
+        for (int i = 0; i < schemas; i++) {
+            String tenant = String.format("tenant_%02d", i);
+            tenants.add(tenant);
+            entityManager.executeUpdate("DROP SCHEMA IF EXISTS " + tenant + " CASCADE");
+            entityManager.executeUpdate("CREATE SCHEMA " + tenant);
+            entityManager.inTenant(tenant, () -> {
+                entityManager.executeUpdate("CREATE TABLE tenant_account (id INTEGER PRIMARY KEY, owner VARCHAR(60))");
+                entityManager.executeUpdate("INSERT INTO tenant_account SELECT g, ? || '-' || g FROM generate_series(1, ?) g",
+                        tenant, ROWS);
+            });
+        }
+
+        System.out.printf("%d schematów, %d wątków, %d s na wariant%n", schemas, threads, seconds);
+        System.out.printf("%-8s %12s %18s%n", "wariant", "operacji/s", "przełączeń/op");
+        run("seria", entityManager, tenants, threads, seconds, BURST);
+        run("losowy", entityManager, tenants, threads, seconds, 1);
+
+        for (String tenant : tenants) {
+            entityManager.executeUpdate("DROP SCHEMA " + tenant + " CASCADE");
+        }
+    }
+
+    private static void run(String label, EntityManager entityManager, List<String> tenants, int threads, long seconds,
+                            int burst) throws Exception {
+        ConnectionPool pool = ConnectionPool.getInstance();
+        long switchesBefore = pool.getTenantSwitchCount();
+        AtomicLong operations = new AtomicLong();
+        AtomicLong errors = new AtomicLong();
+        long end = System.nanoTime() + seconds * 1_000_000_000L;
+
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            Thread worker = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (System.nanoTime() < end) {
+                    String tenant = tenants.get(random.nextInt(tenants.size()));
+                    for (int n = 0; n < burst; n++) {
+                        int id = random.nextInt(1, ROWS + 1);
+                        try {
+                            Account account = entityManager.inTenant(tenant, () -> entityManager.find(Account.class, id));
+                            if (account == null || !(tenant + "-" + id).equals(account.owner)) {
+                                errors.incrementAndGet();
+                            }
+                        } catch (RuntimeException e) {
+                            errors.incrementAndGet();
+                        }
+                        operations.incrementAndGet();
+                    }
+                }
+            });
+            workers.add(worker);
+            worker.start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        long switches = pool.getTenantSwitchCount() - switchesBefore;
+        System.out.printf("%-8s %12.0f %18.3f%s%n", label, operations.get() / (double) seconds,
+                switches / (double) Math.max(1, operations.get()), errors.get() > 0 ? "  BŁĘDY: " + errors.get() : "");
+    }
+}
@@ -0,0 +1,96 @@
+package orm.cache;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Filtr Blooma identyfikatorów encji. Odpowiedź "brak" jest pewna, "może istnieć" - z prawdopodobieństwem
+ * fałszywego trafienia zależnym od zapełnienia. Usunięć nie da się odwrócić, dlatego filtr jest okresowo
+ * przebudowywany (zob. {@link ExistenceIndex}).
+ */
+public class BloomFilter {
+
+    private final AtomicLongArray bits;
+    private final long bitCount;
+    private final int hashCount;
+    private final AtomicLong insertions = new AtomicLong();
+
+    /**
+     * @param expectedInsertions spodziewana liczba identyfikatorów
+     * @param falsePositiveRate  docelowe prawdopodobieństwo fałszywego trafienia przy tej liczbie
+     */
+    public BloomFilter(long expectedInsertions, double falsePositiveRate) {
+        long expected = Math.max(expectedInsertions, 1);
+        long optimalBits = (long) Math.ceil(-expected * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        int words = (int) Math.min(Integer.MAX_VALUE - 8, Math.max(1, (optimalBits + 63) / 64));
+        this.bits = new AtomicLongArray(words);
+        this.bitCount = words * 64L;
+        this.hashCount = Math.max(1, (int) Math.round((double) bitCount / expected * Math.log(2)));
+    }
+
+    public void add(Object id) {
+        long hash = hash(id);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 1; i <= hashCount; i++) {
+            long bit = Math.floorMod(h1 + (long) i * h2, bitCount);
+            int word = (int) (bit >>> 6);
+            long mask = 1L << bit;
+            long current;
+            do {
+                current = bits.get(word);
+                if ((current & mask) != 0) {
+                    break;
+                }
+            } while (!bits.compareAndSet(word, current, current | mask));
+        }
+        insertions.incrementAndGet();
+    }
+
+    public boolean mightContain(Object id) {
+        long hash = hash(id);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 1; i <= hashCount; i++) {
+            long bit = Math.floorMod(h1 + (long) i * h2, bitCount);
+            if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public long getInsertions() {
+        return insertions.get();
+    }
+
+    /**
+     * Teoretyczne prawdopodobieństwo fałszywego trafienia przy bieżącym zapełnieniu: (1 - e^(-kn/m))^k.
+     */
+    public double expectedFalsePositiveRate() {
+        return Math.pow(1 - Math.exp(-hashCount * (double) insertions.get() / bitCount), hashCount);
+    }
+
+    public long memoryBytes() {
+        return bitCount / 8;
+    }
+
+    /**
+     * 64-bitowy skrót identyfikatora: liczby całkowite mieszane jak w SplitMix64, pozostałe wartości jako FNV-1a z tekstu.
+     */
+    private static long hash(Object id) {
+        if (id instanceof Long || id instanceof Integer || id instanceof Short) {
+            long z = ((Number) id).longValue() + 0x9E3779B97F4A7C15L;
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            return z ^ (z >>> 31);
+        }
+        long hash = 0xCBF29CE484222325L;
+        for (byte b : String.valueOf(id).getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b;
+            hash *= 0x100000001B3L;
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,472 @@
+package orm.cache;
+
+import orm.annotations.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Zrzut pamięci podręcznej encji do pliku mapowanego w pamięci, pozwalający wystartować z ciepłą pamięcią.
+ * Przy otwarciu czytany jest tylko katalog tabel; indeks tabeli jest wczytywany przy pierwszym odwołaniu,
+ * a pojedyncza encja dekodowana dopiero przy trafieniu w {@link EntityCache#get}.
+ * Tabela ze zrzutu jest używana tylko wtedy, gdy liczba wierszy i suma kontrolna zawartości tabeli
+ * (liczone w transakcji, więc widać tylko zatwierdzone zmiany) są takie same jak w chwili zapisu,
+ * a lista kolumn encji się nie zmieniła. Nazwa tabeli dzierżawcy ma postać schemat.tabela.
+ * Zrzucane są wyłącznie encje bez relacji (same pola @Column), typowe dla danych słownikowych.
+ *
+ * <pre>
+ * nagłówek:  int MAGIC, int FORMAT, int liczba tabel
+ * katalog:   tabela, klasa, long wiersze, long suma kontrolna, short kolumny, nazwy kolumn, int wpisy,
+ *            long offset indeksu, long offset rekordów
+ * indeks:    wpisy × (id, int offset rekordu względem początku rekordów)
+ * rekordy:   wartości kolumn jako (bajt typu, wartość)
+ * </pre>
+ */
+public class CacheSnapshot {
+
+    private static final int MAGIC = 0x4F524D43;
+    private static final int FORMAT = 2;
+    private static final String VERSION_QUERY = "SELECT count(*), COALESCE(sum(hashtext(t::text)::bigint), 0) FROM %s t";
+
+    private static final byte NULL = 0;
+    private static final byte INT = 1;
+    private static final byte LONG = 2;
+    private static final byte DOUBLE = 3;
+    private static final byte BOOLEAN = 4;
+    private static final byte STRING = 5;
+    private static final byte DECIMAL = 6;
+    private static final byte LOCAL_DATE = 7;
+    private static final byte LOCAL_DATE_TIME = 8;
+    private static final byte TIMESTAMP = 9;
+    private static final byte SQL_DATE = 10;
+    private static final byte BYTES = 11;
+    private static final byte SHORT = 12;
+    private static final byte FLOAT = 13;
+
+    private final MappedByteBuffer buffer;
+    private final Map<String, TableSection> tables = new ConcurrentHashMap<>();
+    private final Set<String> discarded = ConcurrentHashMap.newKeySet();
+
+    private CacheSnapshot(MappedByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    /**
+     * Mapuje plik zrzutu i czyta katalog tabel. Zwraca null, gdy plik nie istnieje albo ma inny format.
+     */
+    public static CacheSnapshot open(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return null;
+        }
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        ByteBuffer reader = buffer.duplicate();
+        if (reader.remaining() < 12 || reader.getInt() != MAGIC || reader.getInt() != FORMAT) {
+            return null;
+        }
+
+        CacheSnapshot snapshot = new CacheSnapshot(buffer);
+        int tableCount = reader.getInt();
+        for (int i = 0; i < tableCount; i++) {
+            TableSection section = new TableSection();
+            section.table = readString(reader);
+            String className = readString(reader);
+            section.rowCount = reader.getLong();
+            section.version = reader.getLong();
+            String[] columns = new String[reader.getShort()];
+            for (int c = 0; c < columns.length; c++) {
+                columns[c] = readString(reader);
+            }
+            section.entryCount = reader.getInt();
+            section.indexOffset = reader.getLong();
+            section.recordsOffset = reader.getLong();
+            try {
+                section.entityClass = Class.forName(className);
+                section.fields = columnFields(section.entityClass);
+                if (section.fields != null && Arrays.equals(columns, columnNames(section.fields))) {
+                    snapshot.tables.put(section.table, section);
+                }
+            } catch (ClassNotFoundException ignored) {
+                // encja usunięta od czasu zapisu - pomijamy tabelę
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * Odrzuca tabele, których liczba wierszy albo suma kontrolna różni się od zapisanej.
+     *
+     * @return nazwy tabel, które pozostały w zrzucie
+     */
+    public Set<String> validate(Connection connection) throws SQLException {
+        for (TableSection section : new ArrayList<>(tables.values())) {
+            long[] current = tableVersion(connection, section.table);
+            if (current[0] != section.rowCount || current[1] != section.version) {
+                tables.remove(section.table);
+            }
+        }
+        return tables.keySet();
+    }
+
+    /**
+     * Dekoduje encję o podanym id albo zwraca null, jeśli nie ma jej w zrzucie.
+     */
+    public Object decode(String table, Object id) {
+        TableSection section = tables.get(table);
+        if (section == null || discarded.contains(EntityCache.key(table, id))) {
+            return null;
+        }
+        Integer offset = section.index(buffer).get(String.valueOf(id));
+        if (offset == null) {
+            return null;
+        }
+        ByteBuffer reader = buffer.duplicate();
+        reader.position((int) (section.recordsOffset + offset));
+        try {
+            Object entity = section.entityClass.getDeclaredConstructor().newInstance();
+            for (Field field : section.fields) {
+                Object value = readValue(reader);
+                if (value != null || !field.getType().isPrimitive()) {
+                    field.set(entity, value);
+                }
+            }
+            return entity;
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Czy encja o podanym id nadal może zostać zdekodowana (tabela ważna, klucz nieunieważniony).
+     */
+    public boolean contains(String table, Object id) {
+        return tables.containsKey(table) && !discarded.contains(EntityCache.key(table, id));
+    }
+
+    /**
+     * Klucze "tabela:id" zrzutu, które nie zostały unieważnione.
+     */
+    public List<String> keys() {
+        List<String> keys = new ArrayList<>();
+        for (TableSection section : tables.values()) {
+            for (String id : section.index(buffer).keySet()) {
+                String key = EntityCache.key(section.table, id);
+                if (!discarded.contains(key)) {
+                    keys.add(key);
+                }
+            }
+        }
+        return keys;
+    }
+
+    public void discard(String key) {
+        discarded.add(key);
+    }
+
+    public void discardTable(String table) {
+        tables.remove(table);
+    }
+
+    /**
+     * Zapisuje encje (klucz "tabela:id") do pliku tymczasowego mapowanego w pamięci i podmienia nim
+     * plik docelowy. Odczytywane już mapowanie starego pliku pozostaje ważne.
+     * Wersja każdej tabeli jest liczona przed pobraniem encji z {@code contents} i ponownie po nim; tabela,
+     * która zmieniła się w tym czasie, jest pomijana, bo zapisane encje mogłyby być starsze niż zapisana wersja.
+     *
+     * @param contents zawartość pamięci podręcznej, pobierana po policzeniu wersji tabel
+     * @return liczba zapisanych encji
+     */
+    public static int write(Path path, Supplier<Map<String, Object>> contents, Connection connection)
+            throws IOException, SQLException {
+        Map<String, long[]> versions = new HashMap<>();
+        for (String table : byTable(contents.get()).keySet()) {
+            versions.put(table, tableVersion(connection, table));
+        }
+        Map<String, Map<String, Object>> byTable = byTable(contents.get());
+        byTable.keySet().retainAll(versions.keySet());
+        for (Iterator<String> tables = byTable.keySet().iterator(); tables.hasNext(); ) {
+            String table = tables.next();
+            if (!Arrays.equals(versions.get(table), tableVersion(connection, table))) {
+                tables.remove();
+            }
+        }
+
+        ByteArrayOutputStream directory = new ByteArrayOutputStream();
+        DataOutputStream directoryOut = new DataOutputStream(directory);
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        List<Integer> offsetPositions = new ArrayList<>();
+        List<long[]> relativeOffsets = new ArrayList<>();
+        int written = 0;
+
+        for (Map.Entry<String, Map<String, Object>> table : byTable.entrySet()) {
+            Class<?> entityClass = table.getValue().values().iterator().next().getClass();
+            List<Field> fields = columnFields(entityClass);
+            long[] version = versions.get(table.getKey());
+
+            ByteArrayOutputStream index = new ByteArrayOutputStream();
+            DataOutputStream indexOut = new DataOutputStream(index);
+            ByteArrayOutputStream records = new ByteArrayOutputStream();
+            DataOutputStream recordsOut = new DataOutputStream(records);
+            int count = 0;
+            for (Map.Entry<String, Object> entry : table.getValue().entrySet()) {
+                if (entry.getValue().getClass() != entityClass) {
+                    continue;
+                }
+                int start = recordsOut.size();
+                if (!writeRecord(recordsOut, fields, entry.getValue())) {
+                    continue;
+                }
+                writeString(indexOut, entry.getKey());
+                indexOut.writeInt(start);
+                count++;
+            }
+            written += count;
+
+            writeString(directoryOut, table.getKey());
+            writeString(directoryOut, entityClass.getName());
+            directoryOut.writeLong(version[0]);
+            directoryOut.writeLong(version[1]);
+            directoryOut.writeShort(fields.size());
+            for (String column : columnNames(fields)) {
+                writeString(directoryOut, column);
+            }
+            directoryOut.writeInt(count);
+            offsetPositions.add(directoryOut.size());
+            directoryOut.writeLong(0);
+            directoryOut.writeLong(0);
+            relativeOffsets.add(new long[]{body.size(), body.size() + index.size()});
+            index.writeTo(body);
+            records.writeTo(body);
+        }
+
+        // offsety w katalogu są względne wobec treści; po poznaniu rozmiaru katalogu przesuwamy je na bezwzględne
+        int headerSize = 12;
+        long bodyStart = headerSize + directory.size();
+        ByteBuffer directoryBytes = ByteBuffer.wrap(directory.toByteArray());
+        for (int i = 0; i < offsetPositions.size(); i++) {
+            directoryBytes.putLong(offsetPositions.get(i), bodyStart + relativeOffsets.get(i)[0]);
+            directoryBytes.putLong(offsetPositions.get(i) + 8, bodyStart + relativeOffsets.get(i)[1]);
+        }
+
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        long size = bodyStart + body.size();
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer out = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            out.putInt(MAGIC).putInt(FORMAT).putInt(byTable.size());
+            out.put(directoryBytes.array());
+            out.put(body.toByteArray());
+            out.force();
+        }
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return written;
+    }
+
+    private static Map<String, Map<String, Object>> byTable(Map<String, Object> entries) {
+        Map<String, Map<String, Object>> byTable = new LinkedHashMap<>();
+        for (Map.Entry<String, Object> entry : entries.entrySet()) {
+            int separator = entry.getKey().indexOf(InvalidationPayload.SEPARATOR);
+            if (separator > 0 && columnFields(entry.getValue().getClass()) != null) {
+                byTable.computeIfAbsent(entry.getKey().substring(0, separator), k -> new LinkedHashMap<>())
+                        .put(entry.getKey().substring(separator + 1), entry.getValue());
+            }
+        }
+        return byTable;
+    }
+
+    private static long[] tableVersion(Connection connection, String table) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(String.format(VERSION_QUERY, table))) {
+            try (ResultSet resultSet = statement.executeQuery()) {
+                resultSet.next();
+                return new long[]{resultSet.getLong(1), resultSet.getLong(2)};
+            }
+        }
+    }
+
+    /**
+     * Pola @Column encji w kolejności deklaracji albo null, gdy encja ma relacje lub pola @Lob i nie nadaje się do zrzutu.
+     */
+    private static List<Field> columnFields(Class<?> clazz) {
+        List<Field> fields = new ArrayList<>();
+        for (Field field : clazz.getDeclaredFields()) {
+            if (field.isAnnotationPresent(OneToOne.class) || field.isAnnotationPresent(OneToMany.class)
+                    || field.isAnnotationPresent(ManyToOne.class) || field.isAnnotationPresent(ManyToMany.class)
+                    || field.isAnnotationPresent(Lob.class)) {
+                return null;
+            }
+            if (field.isAnnotationPresent(Column.class)) {
+                field.setAccessible(true);
+                fields.add(field);
+            }
+        }
+        return fields;
+    }
+
+    private static String[] columnNames(List<Field> fields) {
+        return fields.stream().map(field -> field.getAnnotation(Column.class).name()).toArray(String[]::new);
+    }
+
+    private static boolean writeRecord(DataOutputStream out, List<Field> fields, Object entity) throws IOException {
+        ByteArrayOutputStream record = new ByteArrayOutputStream();
+        DataOutputStream recordOut = new DataOutputStream(record);
+        try {
+            for (Field field : fields) {
+                if (!writeValue(recordOut, field.get(entity))) {
+                    return false;
+                }
+            }
+        } catch (IllegalAccessException e) {
+            return false;
+        }
+        record.writeTo(out);
+        return true;
+    }
+
+    private static boolean writeValue(DataOutputStream out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(NULL);
+        } else if (value instanceof Integer v) {
+            out.writeByte(INT);
+            out.writeInt(v);
+        } else if (value instanceof Long v) {
+            out.writeByte(LONG);
+            out.writeLong(v);
+        } else if (value instanceof Double v) {
+            out.writeByte(DOUBLE);
+            out.writeDouble(v);
+        } else if (value instanceof Boolean v) {
+            out.writeByte(BOOLEAN);
+            out.writeBoolean(v);
+        } else if (value instanceof String v) {
+            out.writeByte(STRING);
+            writeString(out, v);
+        } else if (value instanceof BigDecimal v) {
+            out.writeByte(DECIMAL);
+            writeString(out, v.toString());
+        } else if (value instanceof LocalDate v) {
+            out.writeByte(LOCAL_DATE);
+            out.writeLong(v.toEpochDay());
+        } else if (value instanceof LocalDateTime v) {
+            out.writeByte(LOCAL_DATE_TIME);
+            writeString(out, v.toString());
+        } else if (value instanceof Timestamp v) {
+            out.writeByte(TIMESTAMP);
+            out.writeLong(v.getTime());
+            out.writeInt(v.getNanos());
+        } else if (value instanceof java.sql.Date v) {
+            out.writeByte(SQL_DATE);
+            out.writeLong(v.getTime());
+        } else if (value instanceof byte[] v) {
+            out.writeByte(BYTES);
+            out.writeInt(v.length);
+            out.write(v);
+        } else if (value instanceof Short v) {
+            out.writeByte(SHORT);
+            out.writeShort(v);
+        } else if (value instanceof Float v) {
+            out.writeByte(FLOAT);
+            out.writeFloat(v);
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    private static Object readValue(ByteBuffer in) {
+        byte type = in.get();
+        return switch (type) {
+            case NULL -> null;
+            case INT -> in.getInt();
+            case LONG -> in.getLong();
+            case DOUBLE -> in.getDouble();
+            case BOOLEAN -> in.get() != 0;
+            case STRING -> readString(in);
+            case DECIMAL -> new BigDecimal(readString(in));
+            case LOCAL_DATE -> LocalDate.ofEpochDay(in.getLong());
+            case LOCAL_DATE_TIME -> LocalDateTime.parse(readString(in));
+            case TIMESTAMP -> {
+                Timestamp timestamp = new Timestamp(in.getLong());
+                timestamp.setNanos(in.getInt());
+                yield timestamp;
+            }
+            case SQL_DATE -> new java.sql.Date(in.getLong());
+            case BYTES -> {
+                byte[] bytes = new byte[in.getInt()];
+                in.get(bytes);
+                yield bytes;
+            }
+            case SHORT -> in.getShort();
+            case FLOAT -> in.getFloat();
+            default -> throw new IllegalStateException("Unknown snapshot value type: " + type);
+        };
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Opis jednej tabeli w katalogu zrzutu; indeks id -> offset jest budowany przy pierwszym użyciu.
+     */
+    private static class TableSection {
+        String table;
+        Class<?> entityClass;
+        List<Field> fields;
+        long rowCount;
+        long version;
+        int entryCount;
+        long indexOffset;
+        long recordsOffset;
+        private volatile Map<String, Integer> index;
+
+        Map<String, Integer> index(ByteBuffer buffer) {
+            Map<String, Integer> result = index;
+            if (result == null) {
+                synchronized (this) {
+                    if (index == null) {
+                        Map<String, Integer> built = new HashMap<>(entryCount * 2);
+                        ByteBuffer reader = buffer.duplicate();
+                        reader.position((int) indexOffset);
+                        for (int i = 0; i < entryCount; i++) {
+                            built.put(readString(reader), reader.getInt());
+                        }
+                        index = built;
+                    }
+                    result = index;
+                }
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package orm.cache;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Lokalna pamięć podręczna encji (LRU) indeksowana kluczem "tabela:id".
+ * Spójność między instancjami zapewniają komunikaty unieważniające (zob. {@link InvalidationPayload}).
+ * Chybienia mogą być uzupełniane z dołączonego zrzutu ({@link CacheSnapshot}).
+ */
+public class EntityCache {
+
+    private final Map<String, Object> entries;
+    private volatile CacheSnapshot snapshot;
+
+    public EntityCache(int maxSize) {
+        this.entries = new LinkedHashMap<>(Math.min(maxSize, 1024), 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Object> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    public static String key(String table, Object id) {
+        return table + InvalidationPayload.SEPARATOR + id;
+    }
+
+    public Object get(String table, Object id) {
+        synchronized (this) {
+            Object entity = entries.get(key(table, id));
+            if (entity != null) {
+                return entity;
+            }
+        }
+        CacheSnapshot current = snapshot;
+        if (current == null) {
+            return null;
+        }
+        Object decoded = current.decode(table, id);
+        if (decoded != null) {
+            synchronized (this) {
+                // unieważnienie mogło nadejść w trakcie dekodowania
+                if (snapshot == current && current.contains(table, id)) {
+                    entries.putIfAbsent(key(table, id), decoded);
+                    current.discard(key(table, id));
+                    return entries.get(key(table, id));
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Dołącza zrzut, z którego leniwie dekodowane są encje przy chybieniu.
+     */
+    public void attach(CacheSnapshot snapshot) {
+        this.snapshot = snapshot;
+    }
+
+    /**
+     * Kopia zawartości do zapisu zrzutu: encje w pamięci oraz jeszcze niezdekodowane encje dołączonego zrzutu.
+     */
+    public Map<String, Object> contents() {
+        Map<String, Object> contents;
+        synchronized (this) {
+            contents = new LinkedHashMap<>(entries);
+        }
+        CacheSnapshot current = snapshot;
+        if (current != null) {
+            for (String key : current.keys()) {
+                int separator = key.indexOf(InvalidationPayload.SEPARATOR);
+                Object entity = current.decode(key.substring(0, separator), key.substring(separator + 1));
+                if (entity != null) {
+                    contents.putIfAbsent(key, entity);
+                }
+            }
+        }
+        return contents;
+    }
+
+    public synchronized void put(String table, Object id, Object entity) {
+        entries.put(key(table, id), entity);
+    }
+
+    public synchronized void evict(String key) {
+        entries.remove(key);
+        if (snapshot != null) {
+            snapshot.discard(key);
+        }
+    }
+
+    public synchronized void evictTable(String table) {
+        String prefix = table + InvalidationPayload.SEPARATOR;
+        entries.keySet().removeIf(key -> key.startsWith(prefix));
+        if (snapshot != null) {
+            snapshot.discardTable(table);
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        snapshot = null;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Stosuje komunikat unieważniający: pojedyncze klucze, całe tabele ("tabela:*") albo wszystko ("*").
+     */
+    public void apply(String payload) {
+        for (String key : InvalidationPayload.decode(payload)) {
+            if (key.equals(InvalidationPayload.ALL)) {
+                clear();
+            } else if (key.endsWith(InvalidationPayload.SEPARATOR + InvalidationPayload.ALL)) {
+                evictTable(key.substring(0, key.length() - 2));
+            } else if (!key.endsWith(InvalidationPayload.SEPARATOR + InvalidationPayload.INSERTED)) {
+                // nowe wiersze nie zmieniają encji już zapamiętanych
+                evict(key);
+            }
+        }
+    }
+}
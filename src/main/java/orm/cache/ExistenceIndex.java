@@ -0,0 +1,167 @@
+package orm.cache;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Filtry Blooma znanych identyfikatorów dla wybranych tabel oraz statystyki ich skuteczności.
+ * Tabela bez gotowego filtra (np. w trakcie przebudowy) zawsze odpowiada "może istnieć".
+ * Filtr jest poprawny tylko wtedy, gdy o każdym wstawieniu do tabeli (także z innych instancji) dowiaduje się
+ * przez {@link #add} albo {@link #suspend}; INSERT wykonany przez executeUpdate wymusza przebudowę.
+ */
+public class ExistenceIndex {
+
+    private final double falsePositiveRate;
+    private final double rebuildRatio;
+    private final Map<String, TableFilter> tables = new ConcurrentHashMap<>();
+
+    /**
+     * @param falsePositiveRate docelowe prawdopodobieństwo fałszywego trafienia nowo budowanych filtrów
+     * @param rebuildRatio      udział usunięć (względem wstawień), po którym filtr należy przebudować
+     */
+    public ExistenceIndex(double falsePositiveRate, double rebuildRatio) {
+        this.falsePositiveRate = falsePositiveRate;
+        this.rebuildRatio = rebuildRatio;
+    }
+
+    public boolean covers(String table) {
+        return tables.containsKey(table);
+    }
+
+    /**
+     * Rozpoczyna budowę nowego filtra tabeli. Do czasu {@link #finishBuild} identyfikatory z {@link #add}
+     * trafiają także do budowanego filtra, więc zapis w trakcie strumieniowania nie zostanie zgubiony.
+     */
+    public BloomFilter startBuild(String table, long expectedRows) {
+        BloomFilter next = new BloomFilter(Math.max(1000, expectedRows * 2), falsePositiveRate);
+        TableFilter state = tables.computeIfAbsent(table, k -> new TableFilter());
+        synchronized (state) {
+            state.building = next;
+        }
+        return next;
+    }
+
+    public void finishBuild(String table, BloomFilter filter) {
+        TableFilter state = tables.get(table);
+        synchronized (state) {
+            if (state.building == filter) {
+                state.current = filter;
+                state.building = null;
+                state.deletions.set(0);
+            }
+        }
+    }
+
+    /**
+     * Wyłącza filtr tabeli do czasu przebudowy (np. po wstawieniu wierszy z pominięciem save).
+     */
+    public void suspend(String table) {
+        TableFilter state = tables.get(table);
+        if (state != null) {
+            synchronized (state) {
+                state.current = null;
+            }
+        }
+    }
+
+    /**
+     * Czy identyfikatora na pewno nie ma w tabeli.
+     */
+    public boolean isDefinitelyAbsent(String table, Object id) {
+        TableFilter state = tables.get(table);
+        BloomFilter filter = state == null ? null : state.current;
+        if (filter == null) {
+            return false;
+        }
+        if (filter.mightContain(id)) {
+            return false;
+        }
+        state.rejected.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Zapisuje, że filtr odpowiedział "może istnieć", a baza nie znalazła wiersza.
+     */
+    public void recordFalsePositive(String table) {
+        TableFilter state = tables.get(table);
+        if (state != null) {
+            state.falsePositives.incrementAndGet();
+        }
+    }
+
+    public void add(String table, Object id) {
+        TableFilter state = tables.get(table);
+        if (state == null) {
+            return;
+        }
+        synchronized (state) {
+            if (state.current != null) {
+                state.current.add(id);
+            }
+            if (state.building != null) {
+                state.building.add(id);
+            }
+        }
+    }
+
+    /**
+     * Odnotowuje usunięcie wiersza.
+     *
+     * @return true, jeśli usunięć jest na tyle dużo, że filtr warto przebudować
+     */
+    public boolean recordDeletion(String table) {
+        TableFilter state = tables.get(table);
+        if (state == null || state.current == null || state.building != null) {
+            return false;
+        }
+        long deletions = state.deletions.incrementAndGet();
+        return deletions > Math.max(1, state.current.getInsertions()) * rebuildRatio;
+    }
+
+    /**
+     * Zmierzony odsetek fałszywych trafień: FP / (FP + odrzucone przez filtr) wśród wyszukiwań nieistniejących id.
+     */
+    public double observedFalsePositiveRate(String table) {
+        TableFilter state = tables.get(table);
+        if (state == null) {
+            return 0;
+        }
+        long falsePositives = state.falsePositives.get();
+        long negatives = falsePositives + state.rejected.get();
+        return negatives == 0 ? 0 : (double) falsePositives / negatives;
+    }
+
+    public double expectedFalsePositiveRate(String table) {
+        TableFilter state = tables.get(table);
+        BloomFilter filter = state == null ? null : state.current;
+        return filter == null ? 0 : filter.expectedFalsePositiveRate();
+    }
+
+    /**
+     * Liczba wyszukiwań, na które filtr odpowiedział "brak" bez zapytania do bazy.
+     */
+    public long rejected(String table) {
+        TableFilter state = tables.get(table);
+        return state == null ? 0 : state.rejected.get();
+    }
+
+    public long memoryBytes() {
+        long total = 0;
+        for (TableFilter state : tables.values()) {
+            BloomFilter current = state.current;
+            BloomFilter building = state.building;
+            total += (current == null ? 0 : current.memoryBytes()) + (building == null ? 0 : building.memoryBytes());
+        }
+        return total;
+    }
+
+    private static class TableFilter {
+        volatile BloomFilter current;
+        volatile BloomFilter building;
+        final AtomicLong deletions = new AtomicLong();
+        final AtomicLong rejected = new AtomicLong();
+        final AtomicLong falsePositives = new AtomicLong();
+    }
+}
@@ -0,0 +1,56 @@
+package orm.cache;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Format komunikatów NOTIFY: klucze "tabela:id" rozdzielone znakiem ';'. Zamiast id może wystąpić
+ * {@link #ALL} (zmiana wielu wierszy tabeli) albo {@link #INSERTED} (wstawienie wierszy o nieznanych id).
+ * PostgreSQL ogranicza ładunek NOTIFY do 8000 bajtów, więc dłuższe partie są dzielone.
+ */
+public final class InvalidationPayload {
+
+    public static final String SEPARATOR = ":";
+    public static final String ALL = "*";
+    public static final String INSERTED = "+";
+    private static final String KEY_SEPARATOR = ";";
+    private static final int MAX_PAYLOAD_BYTES = 7900;
+
+    private InvalidationPayload() {
+    }
+
+    public static List<String> encode(Collection<String> keys) {
+        List<String> payloads = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        int currentBytes = 0;
+        for (String key : keys) {
+            int keyBytes = key.getBytes(StandardCharsets.UTF_8).length + 1;
+            if (currentBytes + keyBytes > MAX_PAYLOAD_BYTES && current.length() > 0) {
+                payloads.add(current.toString());
+                current.setLength(0);
+                currentBytes = 0;
+            }
+            if (current.length() > 0) {
+                current.append(KEY_SEPARATOR);
+            }
+            current.append(key);
+            currentBytes += keyBytes;
+        }
+        if (current.length() > 0) {
+            payloads.add(current.toString());
+        }
+        return payloads;
+    }
+
+    public static List<String> decode(String payload) {
+        List<String> keys = new ArrayList<>();
+        for (String key : payload.split(KEY_SEPARATOR)) {
+            if (!key.isEmpty()) {
+                keys.add(key);
+            }
+        }
+        return keys;
+    }
+}
@@ -0,0 +1,83 @@
+package orm.cache;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Krótko żyjąca pamięć chybień find (LRU, klucz "tabela:id"). Wpis wygasa po {@code ttlMillis}
+ * albo wcześniej - przy zapisie encji o tym id lub po komunikacie unieważniającym.
+ */
+public class NegativeCache {
+
+    private final Map<String, Long> entries;
+    private final long ttlNanos;
+    private long hits;
+
+    public NegativeCache(int maxSize, long ttlMillis) {
+        this.ttlNanos = ttlMillis * 1_000_000L;
+        this.entries = new LinkedHashMap<>(Math.min(maxSize, 1024), 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Czy encja o tym id była niedawno szukana i nie istniała.
+     */
+    public synchronized boolean isKnownMissing(String table, Object id) {
+        String key = EntityCache.key(table, id);
+        Long expires = entries.get(key);
+        if (expires == null) {
+            return false;
+        }
+        if (System.nanoTime() - expires > 0) {
+            entries.remove(key);
+            return false;
+        }
+        hits++;
+        return true;
+    }
+
+    public synchronized void put(String table, Object id) {
+        entries.put(EntityCache.key(table, id), System.nanoTime() + ttlNanos);
+    }
+
+    public synchronized void evict(String key) {
+        entries.remove(key);
+    }
+
+    public synchronized void evictTable(String table) {
+        String prefix = table + InvalidationPayload.SEPARATOR;
+        entries.keySet().removeIf(key -> key.startsWith(prefix));
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * Stosuje komunikat unieważniający tak samo jak {@link EntityCache#apply(String)}.
+     */
+    public void apply(String payload) {
+        for (String key : InvalidationPayload.decode(payload)) {
+            if (key.equals(InvalidationPayload.ALL)) {
+                clear();
+            } else if (key.endsWith(InvalidationPayload.SEPARATOR + InvalidationPayload.ALL)
+                    || key.endsWith(InvalidationPayload.SEPARATOR + InvalidationPayload.INSERTED)) {
+                evictTable(key.substring(0, key.length() - 2));
+            } else {
+                evict(key);
+            }
+        }
+    }
+}
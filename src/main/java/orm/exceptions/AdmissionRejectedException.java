@@ -0,0 +1,10 @@
+package orm.exceptions;
+
+public class AdmissionRejectedException extends RuntimeException {
+    public AdmissionRejectedException() {
+    }
+
+    public AdmissionRejectedException(String message) {
+        super("Rejected: " + message);
+    }
+}
@@ -0,0 +1,13 @@
+package orm.exceptions;
+
+/**
+ * Wiersz encji został w międzyczasie zmieniony albo usunięty przez kogoś innego (niezgodna wartość @Version).
+ */
+public class OptimisticLockException extends RuntimeException {
+    public OptimisticLockException() {
+    }
+
+    public OptimisticLockException(String message) {
+        super(message);
+    }
+}
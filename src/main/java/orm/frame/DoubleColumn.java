@@ -0,0 +1,130 @@
+package orm.frame;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.function.DoublePredicate;
+
+/**
+ * Kolumna liczb zmiennoprzecinkowych trzymana w {@code double[]} albo, po przeniesieniu, w buforze poza stertą.
+ * Trafiają tu także NUMERIC/DECIMAL, więc dokładność jest ograniczona do double.
+ */
+public class DoubleColumn extends FrameColumn {
+
+    private double[] values = new double[16];
+    private DoubleBuffer offHeap;
+
+    DoubleColumn(String name) {
+        super(name);
+    }
+
+    void append(double value, boolean isNull) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, grow(size));
+        }
+        values[size] = value;
+        if (isNull) {
+            nulls.set(size);
+        }
+        size++;
+    }
+
+    public double get(int row) {
+        return values != null ? values[row] : offHeap.get(row);
+    }
+
+    @Override
+    public Object getObject(int row) {
+        return isNull(row) ? null : get(row);
+    }
+
+    /**
+     * Zwraca wiersze (spośród {@code selection}, lub wszystkie dla null) spełniające warunek; NULL nie spełnia żadnego.
+     */
+    public BitSet filter(DoublePredicate predicate, BitSet selection) {
+        BitSet result = new BitSet(size);
+        for (int row = 0; row < size; row++) {
+            if ((selection == null || selection.get(row)) && !nulls.get(row) && predicate.test(get(row))) {
+                result.set(row);
+            }
+        }
+        return result;
+    }
+
+    public double sum(BitSet selection) {
+        double sum = 0;
+        if (values != null && selection == null && nulls.isEmpty()) {
+            for (int row = 0; row < size; row++) {
+                sum += values[row];
+            }
+            return sum;
+        }
+        for (int row = 0; row < size; row++) {
+            if ((selection == null || selection.get(row)) && !nulls.get(row)) {
+                sum += get(row);
+            }
+        }
+        return sum;
+    }
+
+    public double average(BitSet selection) {
+        long count = 0;
+        double sum = 0;
+        for (int row = 0; row < size; row++) {
+            if ((selection == null || selection.get(row)) && !nulls.get(row)) {
+                sum += get(row);
+                count++;
+            }
+        }
+        return count == 0 ? Double.NaN : sum / count;
+    }
+
+    public double min(BitSet selection) {
+        double min = Double.POSITIVE_INFINITY;
+        for (int row = 0; row < size; row++) {
+            if ((selection == null || selection.get(row)) && !nulls.get(row)) {
+                min = Math.min(min, get(row));
+            }
+        }
+        return min;
+    }
+
+    public double max(BitSet selection) {
+        double max = Double.NEGATIVE_INFINITY;
+        for (int row = 0; row < size; row++) {
+            if ((selection == null || selection.get(row)) && !nulls.get(row)) {
+                max = Math.max(max, get(row));
+            }
+        }
+        return max;
+    }
+
+    @Override
+    public long heapBytes() {
+        return values == null ? 0 : (long) values.length * Double.BYTES;
+    }
+
+    @Override
+    public long offHeapBytes() {
+        return offHeap == null ? 0 : (long) offHeap.capacity() * Double.BYTES;
+    }
+
+    @Override
+    void spillOffHeap() {
+        if (values == null) {
+            return;
+        }
+        offHeap = ByteBuffer.allocateDirect(size * Double.BYTES).order(ByteOrder.nativeOrder()).asDoubleBuffer();
+        offHeap.put(values, 0, size).flip();
+        values = null;
+    }
+
+    @Override
+    void trim() {
+        if (values != null && values.length != size) {
+            values = Arrays.copyOf(values, size);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package orm.frame;
+
+import java.util.BitSet;
+
+/**
+ * Kolumna ramki wyników. Wartości NULL są zapisywane w osobnej mapie bitowej,
+ * więc kolumny liczbowe mogą trzymać prymitywy bez opakowywania.
+ */
+public abstract class FrameColumn {
+
+    private final String name;
+    protected int size;
+    protected final BitSet nulls = new BitSet();
+
+    protected FrameColumn(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isNull(int row) {
+        return nulls.get(row);
+    }
+
+    /**
+     * Wartość w postaci obiektu - wygodna, ale opakowuje prymitywy; w pętlach używaj metod typowanych.
+     */
+    public abstract Object getObject(int row);
+
+    /**
+     * Przybliżona liczba bajtów zajmowanych na stercie przez dane kolumny.
+     */
+    public abstract long heapBytes();
+
+    /**
+     * Przybliżona liczba bajtów poza stertą (po {@link ResultFrame#spillOffHeap()}).
+     */
+    public long offHeapBytes() {
+        return 0;
+    }
+
+    abstract void spillOffHeap();
+
+    abstract void trim();
+
+    protected static int grow(int length) {
+        return Math.max(16, length + (length >> 1));
+    }
+}
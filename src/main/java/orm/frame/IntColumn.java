@@ -0,0 +1,117 @@
+package orm.frame;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.function.IntPredicate;
+
+/**
+ * Kolumna liczb całkowitych 32-bitowych trzymana w {@code int[]} albo, po przeniesieniu, w buforze poza stertą.
+ */
+public class IntColumn extends FrameColumn {
+
+    private int[] values = new int[16];
+    private IntBuffer offHeap;
+
+    IntColumn(String name) {
+        super(name);
+    }
+
+    void append(int value, boolean isNull) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, grow(size));
+        }
+        values[size] = value;
+        if (isNull) {
+            nulls.set(size);
+        }
+        size++;
+    }
+
+    public int get(int row) {
+        return values != null ? values[row] : offHeap.get(row);
+    }
+
+    @Override
+    public Object getObject(int row) {
+        return isNull(row) ? null : get(row);
+    }
+
+    /**
+     * Zwraca wiersze (spośród {@code selection}, lub wszystkie dla null) spełniające warunek; NULL nie spełnia żadnego.
+     */
+    public BitSet filter(IntPredicate predicate, BitSet selection) {
+        BitSet result = new BitSet(size);
+        for (int row = 0; row < size; row++) {
+            if ((selection == null || selection.get(row)) && !nulls.get(row) && predicate.test(get(row))) {
+                result.set(row);
+            }
+        }
+        return result;
+    }
+
+    public long sum(BitSet selection) {
+        long sum = 0;
+        if (values != null && selection == null && nulls.isEmpty()) {
+            for (int row = 0; row < size; row++) {
+                sum += values[row];
+            }
+            return sum;
+        }
+        for (int row = 0; row < size; row++) {
+            if ((selection == null || selection.get(row)) && !nulls.get(row)) {
+                sum += get(row);
+            }
+        }
+        return sum;
+    }
+
+    public int min(BitSet selection) {
+        int min = Integer.MAX_VALUE;
+        for (int row = 0; row < size; row++) {
+            if ((selection == null || selection.get(row)) && !nulls.get(row)) {
+                min = Math.min(min, get(row));
+            }
+        }
+        return min;
+    }
+
+    public int max(BitSet selection) {
+        int max = Integer.MIN_VALUE;
+        for (int row = 0; row < size; row++) {
+            if ((selection == null || selection.get(row)) && !nulls.get(row)) {
+                max = Math.max(max, get(row));
+            }
+        }
+        return max;
+    }
+
+    @Override
+    public long heapBytes() {
+        return values == null ? 0 : (long) values.length * Integer.BYTES;
+    }
+
+    @Override
+    public long offHeapBytes() {
+        return offHeap == null ? 0 : (long) offHeap.capacity() * Integer.BYTES;
+    }
+
+    @Override
+    void spillOffHeap() {
+        if (values == null) {
+            return;
+        }
+        offHeap = ByteBuffer.allocateDirect(size * Integer.BYTES).order(ByteOrder.nativeOrder()).asIntBuffer();
+        offHeap.put(values, 0, size).flip();
+        values = null;
+    }
+
+    @Override
+    void trim() {
+        if (values != null && values.length != size) {
+            values = Arrays.copyOf(values, size);
+        }
+    }
+}
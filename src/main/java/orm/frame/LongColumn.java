@@ -0,0 +1,117 @@
+package orm.frame;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.function.LongPredicate;
+
+/**
+ * Kolumna liczb całkowitych 32-bitowych trzymana w {@code long[]} albo, po przeniesieniu, w buforze poza stertą.
+ */
+public class LongColumn extends FrameColumn {
+
+    private long[] values = new long[16];
+    private LongBuffer offHeap;
+
+    LongColumn(String name) {
+        super(name);
+    }
+
+    void append(long value, boolean isNull) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, grow(size));
+        }
+        values[size] = value;
+        if (isNull) {
+            nulls.set(size);
+        }
+        size++;
+    }
+
+    public long get(int row) {
+        return values != null ? values[row] : offHeap.get(row);
+    }
+
+    @Override
+    public Object getObject(int row) {
+        return isNull(row) ? null : get(row);
+    }
+
+    /**
+     * Zwraca wiersze (spośród {@code selection}, lub wszystkie dla null) spełniające warunek; NULL nie spełnia żadnego.
+     */
+    public BitSet filter(LongPredicate predicate, BitSet selection) {
+        BitSet result = new BitSet(size);
+        for (int row = 0; row < size; row++) {
+            if ((selection == null || selection.get(row)) && !nulls.get(row) && predicate.test(get(row))) {
+                result.set(row);
+            }
+        }
+        return result;
+    }
+
+    public long sum(BitSet selection) {
+        long sum = 0;
+        if (values != null && selection == null && nulls.isEmpty()) {
+            for (int row = 0; row < size; row++) {
+                sum += values[row];
+            }
+            return sum;
+        }
+        for (int row = 0; row < size; row++) {
+            if ((selection == null || selection.get(row)) && !nulls.get(row)) {
+                sum += get(row);
+            }
+        }
+        return sum;
+    }
+
+    public long min(BitSet selection) {
+        long min = Long.MAX_VALUE;
+        for (int row = 0; row < size; row++) {
+            if ((selection == null || selection.get(row)) && !nulls.get(row)) {
+                min = Math.min(min, get(row));
+            }
+        }
+        return min;
+    }
+
+    public long max(BitSet selection) {
+        long max = Long.MIN_VALUE;
+        for (int row = 0; row < size; row++) {
+            if ((selection == null || selection.get(row)) && !nulls.get(row)) {
+                max = Math.max(max, get(row));
+            }
+        }
+        return max;
+    }
+
+    @Override
+    public long heapBytes() {
+        return values == null ? 0 : (long) values.length * Long.BYTES;
+    }
+
+    @Override
+    public long offHeapBytes() {
+        return offHeap == null ? 0 : (long) offHeap.capacity() * Long.BYTES;
+    }
+
+    @Override
+    void spillOffHeap() {
+        if (values == null) {
+            return;
+        }
+        offHeap = ByteBuffer.allocateDirect(size * Long.BYTES).order(ByteOrder.nativeOrder()).asLongBuffer();
+        offHeap.put(values, 0, size).flip();
+        values = null;
+    }
+
+    @Override
+    void trim() {
+        if (values != null && values.length != size) {
+            values = Arrays.copyOf(values, size);
+        }
+    }
+}
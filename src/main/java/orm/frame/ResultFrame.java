@@ -0,0 +1,146 @@
+package orm.frame;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Kolumnowa ramka wyników zapytania analitycznego - bez tworzenia encji i opakowywania wartości.
+ * Liczby całkowite trafiają do {@link IntColumn}/{@link LongColumn}, liczby rzeczywiste i NUMERIC do
+ * {@link DoubleColumn}, daty jako milisekundy epoki do {@link LongColumn}, a tekst i pozostałe typy
+ * do kodowanej słownikiem {@link StringColumn}.
+ */
+public class ResultFrame {
+
+    private final Map<String, FrameColumn> columns = new LinkedHashMap<>();
+    private int rowCount;
+
+    private ResultFrame() {
+    }
+
+    /**
+     * Dekoduje wszystkie (pozostałe) wiersze z {@code resultSet}.
+     */
+    public static ResultFrame from(ResultSet resultSet) throws SQLException {
+        ResultFrame frame = new ResultFrame();
+        ResultSetMetaData metaData = resultSet.getMetaData();
+        int count = metaData.getColumnCount();
+
+        FrameColumn[] targets = new FrameColumn[count];
+        int[] kinds = new int[count];
+        for (int i = 0; i < count; i++) {
+            String name = metaData.getColumnLabel(i + 1);
+            kinds[i] = metaData.getColumnType(i + 1);
+            targets[i] = switch (kinds[i]) {
+                case Types.INTEGER, Types.SMALLINT, Types.TINYINT, Types.BOOLEAN, Types.BIT -> new IntColumn(name);
+                case Types.BIGINT, Types.DATE, Types.TIMESTAMP, Types.TIMESTAMP_WITH_TIMEZONE -> new LongColumn(name);
+                case Types.DOUBLE, Types.FLOAT, Types.REAL, Types.NUMERIC, Types.DECIMAL -> new DoubleColumn(name);
+                default -> new StringColumn(name);
+            };
+            frame.columns.put(name, targets[i]);
+        }
+
+        while (resultSet.next()) {
+            for (int i = 0; i < count; i++) {
+                int index = i + 1;
+                FrameColumn target = targets[i];
+                switch (kinds[i]) {
+                    case Types.BOOLEAN, Types.BIT -> {
+                        boolean value = resultSet.getBoolean(index);
+                        ((IntColumn) target).append(value ? 1 : 0, resultSet.wasNull());
+                    }
+                    case Types.DATE, Types.TIMESTAMP, Types.TIMESTAMP_WITH_TIMEZONE -> {
+                        Timestamp value = resultSet.getTimestamp(index);
+                        ((LongColumn) target).append(value == null ? 0 : value.getTime(), value == null);
+                    }
+                    default -> {
+                        if (target instanceof IntColumn intColumn) {
+                            int value = resultSet.getInt(index);
+                            intColumn.append(value, resultSet.wasNull());
+                        } else if (target instanceof LongColumn longColumn) {
+                            long value = resultSet.getLong(index);
+                            longColumn.append(value, resultSet.wasNull());
+                        } else if (target instanceof DoubleColumn doubleColumn) {
+                            double value = resultSet.getDouble(index);
+                            doubleColumn.append(value, resultSet.wasNull());
+                        } else {
+                            ((StringColumn) target).append(resultSet.getString(index));
+                        }
+                    }
+                }
+            }
+            frame.rowCount++;
+        }
+
+        for (FrameColumn column : targets) {
+            column.trim();
+        }
+        return frame;
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    public List<String> getColumnNames() {
+        return Collections.unmodifiableList(new ArrayList<>(columns.keySet()));
+    }
+
+    public FrameColumn column(String name) {
+        FrameColumn column = columns.get(name);
+        if (column == null) {
+            throw new IllegalArgumentException("No column " + name + " in frame " + columns.keySet());
+        }
+        return column;
+    }
+
+    public IntColumn intColumn(String name) {
+        return (IntColumn) column(name);
+    }
+
+    public LongColumn longColumn(String name) {
+        return (LongColumn) column(name);
+    }
+
+    public DoubleColumn doubleColumn(String name) {
+        return (DoubleColumn) column(name);
+    }
+
+    public StringColumn stringColumn(String name) {
+        return (StringColumn) column(name);
+    }
+
+    /**
+     * Przenosi dane wszystkich kolumn do buforów poza stertą (ByteBuffer.allocateDirect).
+     * Słowniki tekstów i mapy NULL zostają na stercie.
+     */
+    public ResultFrame spillOffHeap() {
+        for (FrameColumn column : columns.values()) {
+            column.spillOffHeap();
+        }
+        return this;
+    }
+
+    public long heapBytes() {
+        long bytes = 0;
+        for (FrameColumn column : columns.values()) {
+            bytes += column.heapBytes();
+        }
+        return bytes;
+    }
+
+    public long offHeapBytes() {
+        long bytes = 0;
+        for (FrameColumn column : columns.values()) {
+            bytes += column.offHeapBytes();
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,148 @@
+package orm.frame;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Kolumna tekstowa kodowana słownikiem: każdy wiersz to indeks {@code int} do listy unikalnych wartości.
+ * Przy niskiej krotności (statusy, nazwy działów) oszczędza to jeden obiekt String na wiersz.
+ */
+public class StringColumn extends FrameColumn {
+
+    private final List<String> dictionary = new ArrayList<>();
+    private final Map<String, Integer> codes = new HashMap<>();
+    private int[] values = new int[16];
+    private IntBuffer offHeap;
+
+    StringColumn(String name) {
+        super(name);
+    }
+
+    void append(String value) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, grow(size));
+        }
+        if (value == null) {
+            nulls.set(size);
+            values[size] = -1;
+        } else {
+            values[size] = codes.computeIfAbsent(value, v -> {
+                dictionary.add(v);
+                return dictionary.size() - 1;
+            });
+        }
+        size++;
+    }
+
+    public String get(int row) {
+        int code = code(row);
+        return code < 0 ? null : dictionary.get(code);
+    }
+
+    public int code(int row) {
+        return values != null ? values[row] : offHeap.get(row);
+    }
+
+    public List<String> getDictionary() {
+        return dictionary;
+    }
+
+    @Override
+    public Object getObject(int row) {
+        return get(row);
+    }
+
+    /**
+     * Wiersze równe podanej wartości - porównywane są kody słownika, a nie napisy.
+     */
+    public BitSet filterEquals(String value, BitSet selection) {
+        BitSet result = new BitSet(size);
+        Integer code = codes.get(value);
+        if (code == null) {
+            return result;
+        }
+        for (int row = 0; row < size; row++) {
+            if ((selection == null || selection.get(row)) && code(row) == code) {
+                result.set(row);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Liczba wierszy dla każdej wartości (GROUP BY kolumna, COUNT(*)), bez NULL.
+     */
+    public Map<String, Long> countBy(BitSet selection) {
+        long[] counts = new long[dictionary.size()];
+        for (int row = 0; row < size; row++) {
+            int code = code(row);
+            if (code >= 0 && (selection == null || selection.get(row))) {
+                counts[code]++;
+            }
+        }
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (int code = 0; code < counts.length; code++) {
+            if (counts[code] > 0) {
+                result.put(dictionary.get(code), counts[code]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Suma wartości kolumny liczbowej w grupach wyznaczonych przez tę kolumnę.
+     */
+    public Map<String, Double> sumBy(DoubleColumn measure, BitSet selection) {
+        double[] sums = new double[dictionary.size()];
+        for (int row = 0; row < size; row++) {
+            int code = code(row);
+            if (code >= 0 && !measure.isNull(row) && (selection == null || selection.get(row))) {
+                sums[code] += measure.get(row);
+            }
+        }
+        Map<String, Double> result = new LinkedHashMap<>();
+        for (int code = 0; code < sums.length; code++) {
+            result.put(dictionary.get(code), sums[code]);
+        }
+        return result;
+    }
+
+    @Override
+    public long heapBytes() {
+        long bytes = values == null ? 0 : (long) values.length * Integer.BYTES;
+        for (String value : dictionary) {
+            bytes += 40 + value.length();
+        }
+        return bytes;
+    }
+
+    @Override
+    public long offHeapBytes() {
+        return offHeap == null ? 0 : (long) offHeap.capacity() * Integer.BYTES;
+    }
+
+    @Override
+    void spillOffHeap() {
+        if (values == null) {
+            return;
+        }
+        offHeap = ByteBuffer.allocateDirect(size * Integer.BYTES).order(ByteOrder.nativeOrder()).asIntBuffer();
+        offHeap.put(values, 0, size).flip();
+        values = null;
+    }
+
+    @Override
+    void trim() {
+        if (values != null && values.length != size) {
+            values = Arrays.copyOf(values, size);
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package orm.metadata;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Metadane encji wygenerowane w czasie kompilacji przez procesor adnotacji (moduł orm-processor).
+ * Implementacje nazywają się {@code <nazwa binarna encji>_Metadata} i leżą w pakiecie encji.
+ *
+ * @param <T> typ encji
+ */
+public interface EntityMetadata<T> {
+
+    Class<T> entityClass();
+
+    String tableName();
+
+    String idColumn();
+
+    /**
+     * Nazwy kolumn @Column w kolejności deklaracji pól.
+     */
+    List<String> columns();
+
+    String selectByIdSql();
+
+    /**
+     * Tworzy encję i ustawia wszystkie pola @Column z bieżącego wiersza, bez refleksji.
+     */
+    T map(ResultSet resultSet) throws SQLException;
+
+    Object getId(T entity);
+
+    /**
+     * INSERT wszystkich kolumn @Column z parametrami w kolejności {@link #columns()} albo null, gdy encja ma
+     * relacje, @Version lub @PartitionBy i jest zapisywana przez refleksję.
+     */
+    String insertSql();
+
+    void bindInsert(PreparedStatement statement, T entity) throws SQLException;
+
+    /**
+     * UPDATE kolumn poza id (parametry w kolejności {@link #columns()}, na końcu id) albo null jak w {@link #insertSql()}.
+     */
+    String updateSql();
+
+    void bindUpdate(PreparedStatement statement, T entity) throws SQLException;
+}
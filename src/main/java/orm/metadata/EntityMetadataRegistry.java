@@ -0,0 +1,45 @@
+package orm.metadata;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Wyszukuje wygenerowane metadane encji. Brak klasy {@code <Encja>_Metadata} oznacza powrót do refleksji.
+ */
+public final class EntityMetadataRegistry {
+
+    public static final String SUFFIX = "_Metadata";
+
+    private static final Map<Class<?>, Optional<EntityMetadata<?>>> CACHE = new ConcurrentHashMap<>();
+    private static volatile boolean enabled = true;
+
+    private EntityMetadataRegistry() {
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <T> EntityMetadata<T> lookup(Class<T> clazz) {
+        if (!enabled) {
+            return null;
+        }
+        return (EntityMetadata<T>) CACHE.computeIfAbsent(clazz, EntityMetadataRegistry::load).orElse(null);
+    }
+
+    /**
+     * Pozwala wyłączyć wygenerowane metadane, np. aby porównać je ze ścieżką refleksyjną.
+     */
+    public static void setEnabled(boolean enabled) {
+        EntityMetadataRegistry.enabled = enabled;
+    }
+
+    private static Optional<EntityMetadata<?>> load(Class<?> clazz) {
+        try {
+            Class<?> generated = Class.forName(clazz.getName() + SUFFIX, true, clazz.getClassLoader());
+            return Optional.of((EntityMetadata<?>) generated.getDeclaredConstructor().newInstance());
+        } catch (ClassNotFoundException e) {
+            return Optional.empty();
+        } catch (ReflectiveOperationException e) {
+            throw new RuntimeException("Cannot load generated metadata for " + clazz.getName() + ": " + e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,327 @@
+package orm.replay;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.sql.Array;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Binarny dziennik obciążenia zapisywany przez {@link WorkloadRecorder} i odtwarzany przez {@link WorkloadReplayer}.
+ * Powtarzające się napisy (SQL, nazwy wątków i operacji) są zapisywane raz, dalej tylko jako numer.
+ *
+ * <pre>
+ * nagłówek:  int MAGIC, int FORMAT, long start nagrania (µs od epoki)
+ * wpis:      long przesunięcie startu (µs), long czas wykonania (ns), ref wątek, ref operacja, ref klasa encji,
+ *            ref SQL, bool błąd, int zestawy parametrów, zestawy × (short liczba, wartości jako (bajt typu, wartość))
+ * ref:       int numer napisu; -1 i napis przy pierwszym wystąpieniu
+ * </pre>
+ */
+final class WorkloadLog {
+
+    private static final int MAGIC = 0x4F524D57;
+    private static final int FORMAT = 1;
+
+    private static final byte NULL = 0;
+    private static final byte INT = 1;
+    private static final byte LONG = 2;
+    private static final byte DOUBLE = 3;
+    private static final byte BOOLEAN = 4;
+    private static final byte STRING = 5;
+    private static final byte REDACTED = 6;
+    private static final byte ARRAY = 7;
+    private static final byte BYTES = 8;
+    private static final byte OTHER = 9;
+
+    /**
+     * Literał tekstowy w SQL (save/update wstawiają wartości bezpośrednio do zapytania).
+     */
+    private static final Pattern LITERAL = Pattern.compile("'((?:[^']|'')*)'");
+    /**
+     * Literały o kształcie liczby, daty lub czasu: przy redakcji cyfry są zastępowane jedynkami, aby zapytanie
+     * nadal przeszło przy odtwarzaniu, ale wartość nie trafiła do dziennika.
+     */
+    private static final Pattern NUMERIC_LITERAL = Pattern.compile("[-\\d.:T +]*\\d[-\\d.:T +]*");
+
+    private WorkloadLog() {
+    }
+
+    /**
+     * Jedna wykonana instrukcja SQL wraz z kontekstem operacji EntityManagera.
+     */
+    static final class Entry {
+        final long offsetMicros;
+        final long durationNanos;
+        final String thread;
+        final String operation;
+        final String entityClass;
+        final String sql;
+        final boolean failed;
+        final List<Object[]> parameterSets;
+
+        Entry(long offsetMicros, long durationNanos, String thread, String operation, String entityClass,
+              String sql, boolean failed, List<Object[]> parameterSets) {
+            this.offsetMicros = offsetMicros;
+            this.durationNanos = durationNanos;
+            this.thread = thread;
+            this.operation = operation;
+            this.entityClass = entityClass;
+            this.sql = sql;
+            this.failed = failed;
+            this.parameterSets = parameterSets;
+        }
+    }
+
+    /**
+     * Wartość tekstowa lub binarna usunięta z dziennika; przy odtwarzaniu zastępowana napisem tej samej długości.
+     */
+    static final class Redacted {
+        final int length;
+
+        Redacted(int length) {
+            this.length = length;
+        }
+    }
+
+    /**
+     * Parametr typu tablicowego (np. {@code ANY(?)}), zapamiętany jako typ bazowy i elementy.
+     */
+    static final class ArrayValue {
+        final String baseType;
+        final Object[] elements;
+
+        ArrayValue(String baseType, Object[] elements) {
+            this.baseType = baseType;
+            this.elements = elements;
+        }
+
+        static ArrayValue of(Array array) throws SQLException {
+            return new ArrayValue(array.getBaseTypeName(), (Object[]) array.getArray());
+        }
+    }
+
+    /**
+     * Zastępuje każdy literał w cudzysłowach: liczby i daty jedynkami w miejscu cyfr, pozostałe ciągiem 'x'
+     * tej samej długości. Bez zmian zostają tylko tokeny poza cudzysłowami (liczby, true, false, null).
+     */
+    static String redactLiterals(String sql) {
+        Matcher matcher = LITERAL.matcher(sql);
+        StringBuilder result = new StringBuilder();
+        while (matcher.find()) {
+            String literal = matcher.group(1);
+            String replacement = NUMERIC_LITERAL.matcher(literal).matches()
+                    ? "'" + literal.replaceAll("\\d", "1") + "'"
+                    : "'" + "x".repeat(literal.length()) + "'";
+            matcher.appendReplacement(result, Matcher.quoteReplacement(replacement));
+        }
+        matcher.appendTail(result);
+        return result.toString();
+    }
+
+    static class Writer implements Closeable {
+        private final DataOutputStream out;
+        private final boolean redact;
+        private final Map<String, Integer> strings = new HashMap<>();
+
+        Writer(OutputStream stream, long startMicros, boolean redact) throws IOException {
+            this.out = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16));
+            this.redact = redact;
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT);
+            out.writeLong(startMicros);
+        }
+
+        void write(Entry entry) throws IOException {
+            out.writeLong(entry.offsetMicros);
+            out.writeLong(entry.durationNanos);
+            writeRef(entry.thread);
+            writeRef(entry.operation);
+            writeRef(entry.entityClass);
+            writeRef(redact ? redactLiterals(entry.sql) : entry.sql);
+            out.writeBoolean(entry.failed);
+            out.writeInt(entry.parameterSets.size());
+            for (Object[] parameters : entry.parameterSets) {
+                out.writeShort(parameters.length);
+                for (Object value : parameters) {
+                    writeValue(value);
+                }
+            }
+        }
+
+        void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+
+        private void writeRef(String value) throws IOException {
+            Integer id = strings.get(value);
+            if (id != null) {
+                out.writeInt(id);
+                return;
+            }
+            strings.put(value, strings.size());
+            out.writeInt(-1);
+            writeString(value);
+        }
+
+        private void writeString(String value) throws IOException {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+
+        private void writeValue(Object value) throws IOException {
+            if (value == null) {
+                out.writeByte(NULL);
+            } else if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+                out.writeByte(INT);
+                out.writeInt(((Number) value).intValue());
+            } else if (value instanceof Long longValue) {
+                out.writeByte(LONG);
+                out.writeLong(longValue);
+            } else if (value instanceof Double || value instanceof Float) {
+                out.writeByte(DOUBLE);
+                out.writeDouble(((Number) value).doubleValue());
+            } else if (value instanceof Boolean booleanValue) {
+                out.writeByte(BOOLEAN);
+                out.writeBoolean(booleanValue);
+            } else if (value instanceof ArrayValue array) {
+                out.writeByte(ARRAY);
+                writeString(array.baseType);
+                out.writeInt(array.elements.length);
+                for (Object element : array.elements) {
+                    writeValue(element);
+                }
+            } else if (redact && (value instanceof String || value instanceof byte[])) {
+                out.writeByte(REDACTED);
+                out.writeInt(value instanceof byte[] bytes ? bytes.length : ((String) value).length());
+            } else if (value instanceof String string) {
+                out.writeByte(STRING);
+                writeString(string);
+            } else if (value instanceof byte[] bytes) {
+                out.writeByte(BYTES);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            } else {
+                // daty, BigDecimal, UUID... - tekst przekazywany bazie bez typu, aby sama go zinterpretowała
+                out.writeByte(OTHER);
+                writeString(value.toString());
+            }
+        }
+    }
+
+    static class Reader implements Closeable {
+        private final DataInputStream in;
+        private final long startMicros;
+        private final List<String> strings = new ArrayList<>();
+
+        Reader(InputStream stream) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(stream, 1 << 16));
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a workload log");
+            }
+            int format = in.readInt();
+            if (format != FORMAT) {
+                throw new IOException("Unsupported workload log format " + format);
+            }
+            this.startMicros = in.readLong();
+        }
+
+        long getStartMicros() {
+            return startMicros;
+        }
+
+        /**
+         * @return następny wpis albo null na końcu dziennika (także po uciętym ostatnim wpisie)
+         */
+        Entry next() throws IOException {
+            try {
+                long offsetMicros = in.readLong();
+                long durationNanos = in.readLong();
+                String thread = readRef();
+                String operation = readRef();
+                String entityClass = readRef();
+                String sql = readRef();
+                boolean failed = in.readBoolean();
+                int sets = in.readInt();
+                List<Object[]> parameterSets = new ArrayList<>(sets);
+                for (int i = 0; i < sets; i++) {
+                    Object[] parameters = new Object[in.readShort()];
+                    for (int j = 0; j < parameters.length; j++) {
+                        parameters[j] = readValue();
+                    }
+                    parameterSets.add(parameters);
+                }
+                return new Entry(offsetMicros, durationNanos, thread, operation, entityClass, sql, failed, parameterSets);
+            } catch (EOFException e) {
+                return null;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+
+        private String readRef() throws IOException {
+            int id = in.readInt();
+            if (id >= 0) {
+                return strings.get(id);
+            }
+            String value = readString();
+            strings.add(value);
+            return value;
+        }
+
+        private String readString() throws IOException {
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        private Object readValue() throws IOException {
+            byte type = in.readByte();
+            return switch (type) {
+                case NULL -> null;
+                case INT -> in.readInt();
+                case LONG -> in.readLong();
+                case DOUBLE -> in.readDouble();
+                case BOOLEAN -> in.readBoolean();
+                case STRING -> readString();
+                case REDACTED -> new Redacted(in.readInt());
+                case ARRAY -> {
+                    String baseType = readString();
+                    Object[] elements = new Object[in.readInt()];
+                    for (int i = 0; i < elements.length; i++) {
+                        elements[i] = readValue();
+                    }
+                    yield new ArrayValue(baseType, elements);
+                }
+                case BYTES -> {
+                    byte[] bytes = new byte[in.readInt()];
+                    in.readFully(bytes);
+                    yield bytes;
+                }
+                case OTHER -> new Other(readString());
+                default -> throw new IOException("Unknown value type " + type);
+            };
+        }
+    }
+
+    /**
+     * Wartość zapisana jako tekst bez typu (zob. {@link Writer}).
+     */
+    static final class Other {
+        final String text;
+
+        Other(String text) {
+            this.text = text;
+        }
+    }
+}
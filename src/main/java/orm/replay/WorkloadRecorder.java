@@ -0,0 +1,264 @@
+package orm.replay;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.file.Path;
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Nagrywa instrukcje SQL wykonywane przez EntityManager do dziennika {@link WorkloadLog}: operację i klasę encji,
+ * SQL, parametry, czas wykonania i wątek. Wątek aplikacji tylko odkłada wpis do kolejki; zapisem do pliku
+ * zajmuje się wątek w tle, a gdy kolejka jest pełna, wpis jest pomijany (zob. {@link #getDropped()}),
+ * więc nagrywanie nigdy nie spowalnia zapytań.
+ * Przy włączonej redakcji wartości tekstowe i binarne (także literały w SQL) są zastępowane napisami tej samej długości.
+ */
+public class WorkloadRecorder {
+
+    private static final Map<Path, WorkloadRecorder> OPEN = new HashMap<>();
+
+    private final ThreadLocal<Scope> scope = new ThreadLocal<>();
+    private final BlockingQueue<WorkloadLog.Entry> queue;
+    private final WorkloadLog.Writer writer;
+    private final long startNanos = System.nanoTime();
+    private final LongAdder recorded = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final Thread writerThread;
+    private volatile boolean closed;
+
+    private WorkloadRecorder(Path path, boolean redact, int capacity) throws IOException {
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.writer = new WorkloadLog.Writer(new FileOutputStream(path.toFile()),
+                TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis()), redact);
+        this.writerThread = new Thread(this::writeLoop, "orm-workload-recorder");
+        writerThread.setDaemon(true);
+        writerThread.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::close, "orm-workload-recorder-shutdown"));
+    }
+
+    /**
+     * Zwraca rejestrator dla pliku, tworząc go (i nadpisując plik) przy pierwszym wywołaniu.
+     * Kolejne EntityManagery z tą samą konfiguracją piszą do wspólnego dziennika.
+     */
+    public static synchronized WorkloadRecorder open(String path, boolean redact, int capacity) {
+        return OPEN.computeIfAbsent(Path.of(path).toAbsolutePath(), key -> {
+            try {
+                return new WorkloadRecorder(key, redact, capacity);
+            } catch (IOException e) {
+                throw new RuntimeException("Workload recording Error: " + e.getMessage(), e);
+            }
+        });
+    }
+
+    /**
+     * Ustawia operację EntityManagera, do której zostaną przypisane instrukcje wykonane w tym wątku do {@link Scope#close()}.
+     */
+    public Scope enter(String operation, Class<?> entityClass) {
+        Scope entered = new Scope(operation, entityClass == null ? "" : entityClass.getName(), scope.get());
+        scope.set(entered);
+        return entered;
+    }
+
+    /**
+     * Opakowuje połączenie tak, aby wykonywane na nim instrukcje trafiały do dziennika.
+     */
+    public Connection wrap(Connection connection) {
+        return (Connection) Proxy.newProxyInstance(
+                Connection.class.getClassLoader(),
+                new Class<?>[]{Connection.class},
+                (proxy, method, args) -> {
+                    String name = method.getName();
+                    if (name.equals("commit") || (name.equals("rollback") && args == null)) {
+                        long started = System.nanoTime();
+                        boolean failed = true;
+                        try {
+                            Object result = invoke(connection, method, args);
+                            failed = false;
+                            return result;
+                        } finally {
+                            record(name.toUpperCase(), List.of(), started, failed);
+                        }
+                    }
+                    if (name.equals("setAutoCommit") && !(Boolean) args[0] && connection.getAutoCommit()) {
+                        record("BEGIN", List.of(), System.nanoTime(), false);
+                    }
+                    Object result = invoke(connection, method, args);
+                    if (name.equals("prepareStatement") && result instanceof PreparedStatement statement) {
+                        return wrap(statement, PreparedStatement.class, (String) args[0]);
+                    }
+                    if (name.equals("createStatement") && result instanceof Statement statement) {
+                        return wrap(statement, Statement.class, null);
+                    }
+                    return result;
+                });
+    }
+
+    public long getRecorded() {
+        return recorded.sum();
+    }
+
+    /**
+     * Liczba wpisów pominiętych, bo wątek zapisujący nie nadążał.
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * Zapisuje oczekujące wpisy i zamyka dziennik. Instrukcje wykonane później nie są nagrywane.
+     */
+    public void close() {
+        synchronized (WorkloadRecorder.class) {
+            OPEN.values().remove(this);
+        }
+        closed = true;
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private <S extends Statement> S wrap(S statement, Class<S> type, String preparedSql) {
+        List<Object> parameters = new ArrayList<>();
+        List<Object[]> batch = new ArrayList<>();
+        List<String> batchSql = new ArrayList<>();
+        return type.cast(Proxy.newProxyInstance(
+                type.getClassLoader(),
+                new Class<?>[]{type},
+                (proxy, method, args) -> {
+                    String name = method.getName();
+                    if (name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer index) {
+                        // parametry PreparedStatement (setFetchSize, setQueryTimeout itp. mają jeden argument)
+                        while (parameters.size() < index) {
+                            parameters.add(null);
+                        }
+                        Object value = name.equals("setNull") ? null : args[1];
+                        parameters.set(index - 1, value instanceof Array array ? WorkloadLog.ArrayValue.of(array) : value);
+                    } else if (name.equals("clearParameters")) {
+                        parameters.clear();
+                    } else if (name.equals("addBatch")) {
+                        if (args == null) {
+                            batch.add(parameters.toArray());
+                        } else {
+                            batchSql.add((String) args[0]);
+                        }
+                    } else if (name.equals("clearBatch")) {
+                        batch.clear();
+                        batchSql.clear();
+                    } else if (name.startsWith("execute")) {
+                        long started = System.nanoTime();
+                        boolean failed = true;
+                        try {
+                            Object result = invoke(statement, method, args);
+                            failed = false;
+                            return result;
+                        } finally {
+                            if (name.endsWith("Batch")) {
+                                if (preparedSql != null) {
+                                    record(preparedSql, new ArrayList<>(batch), started, failed);
+                                } else {
+                                    for (String sql : batchSql) {
+                                        record(sql, List.of(), started, failed);
+                                    }
+                                }
+                                batch.clear();
+                                batchSql.clear();
+                            } else if (args != null && args.length > 0 && args[0] instanceof String sql) {
+                                record(sql, List.of(), started, failed);
+                            } else {
+                                record(preparedSql, List.<Object[]>of(parameters.toArray()), started, failed);
+                            }
+                        }
+                    }
+                    return invoke(statement, method, args);
+                }));
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private void record(String sql, List<Object[]> parameterSets, long startedNanos, boolean failed) {
+        if (closed) {
+            return;
+        }
+        Scope current = scope.get();
+        WorkloadLog.Entry entry = new WorkloadLog.Entry(
+                TimeUnit.NANOSECONDS.toMicros(startedNanos - startNanos),
+                System.nanoTime() - startedNanos,
+                Thread.currentThread().getName(),
+                current == null ? "" : current.operation,
+                current == null ? "" : current.entityClass,
+                sql, failed, parameterSets);
+        if (queue.offer(entry)) {
+            recorded.increment();
+        } else {
+            dropped.increment();
+        }
+    }
+
+    private void writeLoop() {
+        List<WorkloadLog.Entry> pending = new ArrayList<>();
+        try (writer) {
+            while (!closed || !queue.isEmpty()) {
+                WorkloadLog.Entry first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                pending.add(first);
+                queue.drainTo(pending);
+                for (WorkloadLog.Entry entry : pending) {
+                    writer.write(entry);
+                }
+                pending.clear();
+                if (queue.isEmpty()) {
+                    writer.flush();
+                }
+            }
+        } catch (IOException e) {
+            closed = true;
+            System.err.println("Błąd zapisu dziennika obciążenia: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Bieżąca operacja EntityManagera w wątku; zamknięcie przywraca operację zewnętrzną.
+     */
+    public final class Scope implements AutoCloseable {
+        private final String operation;
+        private final String entityClass;
+        private final Scope outer;
+
+        private Scope(String operation, String entityClass, Scope outer) {
+            this.operation = operation;
+            this.entityClass = entityClass;
+            this.outer = outer;
+        }
+
+        @Override
+        public void close() {
+            if (outer == null) {
+                scope.remove();
+            } else {
+                scope.set(outer);
+            }
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package orm.replay;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Odtwarza dziennik nagrany przez {@link WorkloadRecorder} na wskazanej bazie i porównuje czasy wykonania
+ * z nagranymi, osobno dla każdej operacji EntityManagera. Każdy nagrany wątek dostaje własny wątek i połączenie,
+ * więc kolejność instrukcji w wątku (także transakcje) jest zachowana, a wątki przeplatają się jak w oryginale.
+ * <pre>
+ * java orm.replay.WorkloadReplayer --log workload.bin --url jdbc:postgresql://localhost:5556/postgres \
+ *      --user bookit --password ... [--speed 2.0]
+ * </pre>
+ * {@code --speed 2.0} odtwarza dwa razy szybciej niż nagranie, {@code --speed 0} - bez przerw między instrukcjami.
+ * Baza docelowa powinna zawierać te same dane co źródłowa w chwili rozpoczęcia nagrania.
+ */
+public class WorkloadReplayer {
+
+    private final String url;
+    private final String user;
+    private final String password;
+    private final double speed;
+    private final Map<String, Stats> stats = new ConcurrentHashMap<>();
+    private final AtomicLong maxLagNanos = new AtomicLong();
+
+    public WorkloadReplayer(String url, String user, String password, double speed) {
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.speed = speed;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            options.put(args[i].replaceFirst("^--", ""), args[i + 1]);
+        }
+        if (!options.containsKey("log") || !options.containsKey("url")) {
+            System.err.println("Użycie: WorkloadReplayer --log plik --url jdbc:... [--user u] [--password p] [--speed 1.0]");
+            System.exit(1);
+        }
+        WorkloadReplayer replayer = new WorkloadReplayer(options.get("url"), options.get("user"),
+                options.get("password"), Double.parseDouble(options.getOrDefault("speed", "1.0")));
+        replayer.replay(options.get("log"));
+        System.out.print(replayer.report());
+    }
+
+    /**
+     * Odtwarza cały dziennik i czeka na zakończenie wszystkich wątków.
+     */
+    public void replay(String logPath) throws IOException, InterruptedException {
+        Map<String, List<WorkloadLog.Entry>> byThread = new LinkedHashMap<>();
+        try (WorkloadLog.Reader reader = new WorkloadLog.Reader(new FileInputStream(logPath))) {
+            WorkloadLog.Entry entry;
+            while ((entry = reader.next()) != null) {
+                byThread.computeIfAbsent(entry.thread, k -> new ArrayList<>()).add(entry);
+            }
+        }
+
+        long startNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(200);
+        List<Thread> threads = new ArrayList<>();
+        for (Map.Entry<String, List<WorkloadLog.Entry>> thread : byThread.entrySet()) {
+            Thread replayThread = new Thread(() -> replayThread(thread.getValue(), startNanos), "replay-" + thread.getKey());
+            threads.add(replayThread);
+            replayThread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    /**
+     * Tabela porównawcza: liczba instrukcji, błędy i percentyle czasu wykonania nagranego i odtworzonego.
+     */
+    public String report() {
+        StringBuilder report = new StringBuilder(String.format("%-40s %8s %7s %11s %11s %11s %11s %8s%n",
+                "operacja", "instr.", "błędy", "nagr. p50", "odtw. p50", "nagr. p99", "odtw. p99", "zmiana"));
+        new TreeMap<>(stats).forEach((key, stat) -> {
+            long recordedP50 = stat.percentile(stat.recorded, 50);
+            long replayedP50 = stat.percentile(stat.replayed, 50);
+            report.append(String.format("%-40s %8d %7d %11s %11s %11s %11s %+7.1f%%%n", key, stat.recorded.size(),
+                    stat.errors, millis(recordedP50), millis(replayedP50),
+                    millis(stat.percentile(stat.recorded, 99)), millis(stat.percentile(stat.replayed, 99)),
+                    recordedP50 == 0 ? 0 : 100.0 * (replayedP50 - recordedP50) / recordedP50));
+        });
+        report.append(String.format("największe opóźnienie względem harmonogramu: %s%n", millis(maxLagNanos.get())));
+        return report.toString();
+    }
+
+    private void replayThread(List<WorkloadLog.Entry> entries, long startNanos) {
+        try (Connection connection = DriverManager.getConnection(url, user, password)) {
+            for (WorkloadLog.Entry entry : entries) {
+                if (speed > 0) {
+                    long due = startNanos + (long) (TimeUnit.MICROSECONDS.toNanos(entry.offsetMicros) / speed);
+                    long now = System.nanoTime();
+                    if (due > now) {
+                        LockSupport.parkNanos(due - now);
+                    } else {
+                        maxLagNanos.accumulateAndGet(now - due, Math::max);
+                    }
+                }
+                long started = System.nanoTime();
+                boolean failed = false;
+                try {
+                    execute(connection, entry);
+                } catch (SQLException e) {
+                    failed = true;
+                }
+                stats.computeIfAbsent(key(entry), k -> new Stats())
+                        .add(entry.durationNanos, System.nanoTime() - started, failed && !entry.failed);
+            }
+        } catch (SQLException e) {
+            System.err.println("Replay connection Error: " + e.getMessage());
+        }
+    }
+
+    private static void execute(Connection connection, WorkloadLog.Entry entry) throws SQLException {
+        switch (entry.sql) {
+            case "BEGIN" -> {
+                connection.setAutoCommit(false);
+                return;
+            }
+            case "COMMIT" -> {
+                if (!connection.getAutoCommit()) {
+                    connection.commit();
+                    connection.setAutoCommit(true);
+                }
+                return;
+            }
+            case "ROLLBACK" -> {
+                if (!connection.getAutoCommit()) {
+                    connection.rollback();
+                    connection.setAutoCommit(true);
+                }
+                return;
+            }
+            default -> {
+            }
+        }
+        try (PreparedStatement statement = connection.prepareStatement(entry.sql)) {
+            if (entry.parameterSets.size() > 1) {
+                for (Object[] parameters : entry.parameterSets) {
+                    bind(connection, statement, parameters);
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+            } else {
+                if (!entry.parameterSets.isEmpty()) {
+                    bind(connection, statement, entry.parameterSets.get(0));
+                }
+                statement.execute();
+            }
+        }
+    }
+
+    private static void bind(Connection connection, PreparedStatement statement, Object[] parameters) throws SQLException {
+        for (int i = 0; i < parameters.length; i++) {
+            Object value = parameters[i];
+            int index = i + 1;
+            if (value instanceof WorkloadLog.Redacted redacted) {
+                statement.setString(index, "x".repeat(redacted.length));
+            } else if (value instanceof WorkloadLog.ArrayValue array) {
+                statement.setArray(index, connection.createArrayOf(array.baseType, replayable(array.elements)));
+            } else if (value instanceof WorkloadLog.Other other) {
+                statement.setObject(index, other.text, Types.OTHER);
+            } else {
+                statement.setObject(index, value);
+            }
+        }
+    }
+
+    private static Object[] replayable(Object[] elements) {
+        Object[] result = new Object[elements.length];
+        for (int i = 0; i < elements.length; i++) {
+            Object element = elements[i];
+            result[i] = element instanceof WorkloadLog.Redacted redacted ? "x".repeat(redacted.length)
+                    : element instanceof WorkloadLog.Other other ? other.text : element;
+        }
+        return result;
+    }
+
+    private static String key(WorkloadLog.Entry entry) {
+        if (entry.operation.isEmpty()) {
+            return "(poza operacją)";
+        }
+        String entityClass = entry.entityClass.substring(entry.entityClass.lastIndexOf('.') + 1);
+        return entityClass.isEmpty() ? entry.operation : entry.operation + " " + entityClass;
+    }
+
+    private static String millis(long nanos) {
+        return String.format("%.3fms", nanos / 1e6);
+    }
+
+    /**
+     * Czasy jednej operacji; odtwarzanie jest narzędziem offline, więc wystarczą pełne listy pomiarów.
+     */
+    private static class Stats {
+        final List<Long> recorded = new ArrayList<>();
+        final List<Long> replayed = new ArrayList<>();
+        long errors;
+
+        synchronized void add(long recordedNanos, long replayedNanos, boolean newError) {
+            recorded.add(recordedNanos);
+            replayed.add(replayedNanos);
+            if (newError) {
+                errors++;
+            }
+        }
+
+        synchronized long percentile(List<Long> values, double percentile) {
+            if (values.isEmpty()) {
+                return 0;
+            }
+            List<Long> sorted = new ArrayList<>(values);
+            Collections.sort(sorted);
+            int index = (int) Math.ceil(sorted.size() * percentile / 100) - 1;
+            return sorted.get(Math.max(0, index));
+        }
+    }
+}
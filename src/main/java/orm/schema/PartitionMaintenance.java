@@ -0,0 +1,265 @@
+package orm.schema;
+
+import orm.ConnectionPool;
+import orm.annotations.Column;
+import orm.annotations.PartitionBy;
+import orm.annotations.Table;
+
+import java.lang.reflect.Field;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.Year;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Utrzymanie partycji tabel oznaczonych {@link PartitionBy}: tworzenie partycji z wyprzedzeniem,
+ * odłączanie przeterminowanych (RANGE) oraz partycje stałe dla LIST i HASH.
+ * Nazwy partycji RANGE mają postać {@code tabela_p2024_05} (miesiąc), {@code tabela_p2024_05_17} (dzień)
+ * albo {@code tabela_p2024} (rok).
+ */
+public class PartitionMaintenance {
+
+    private static final String PARTITIONS_QUERY = "SELECT c.relname FROM pg_inherits i "
+            + "JOIN pg_class c ON c.oid = i.inhrelid JOIN pg_class p ON p.oid = i.inhparent WHERE p.relname = ?";
+
+    private final ConnectionPool connectionPool;
+    private final Set<String> ensured = ConcurrentHashMap.newKeySet();
+
+    public PartitionMaintenance(ConnectionPool connectionPool) {
+        this.connectionPool = connectionPool;
+    }
+
+    /**
+     * Tworzy bieżącą i nadchodzące partycje oraz odłącza partycje starsze niż {@link PartitionBy#retain()}.
+     * Przeznaczone do okresowego uruchamiania (np. raz na dobę); jest idempotentne.
+     */
+    public void run(Class<?>... classes) {
+        LocalDate today = LocalDate.now();
+        try (Connection connection = connectionPool.getConnection();
+             Statement statement = connection.createStatement()) {
+            for (Class<?> clazz : classes) {
+                PartitionBy partitionBy = clazz.getAnnotation(PartitionBy.class);
+                if (partitionBy == null) {
+                    continue;
+                }
+                for (String sql : partitions(clazz, today)) {
+                    statement.execute(sql);
+                }
+                if (partitionBy.strategy() == PartitionBy.Strategy.RANGE && partitionBy.retain() > 0) {
+                    detachExpired(connection, clazz, partitionBy, today);
+                }
+            }
+        } catch (SQLException | InterruptedException e) {
+            throw new RuntimeException("Partition maintenance Error: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Zapewnia istnienie partycji RANGE obejmującej podaną wartość klucza, aby INSERT nie trafił na brak partycji.
+     * Każda partycja jest tworzona najwyżej raz na instancję.
+     */
+    public void ensurePartition(Class<?> clazz, Object value) {
+        PartitionBy partitionBy = clazz.getAnnotation(PartitionBy.class);
+        if (partitionBy == null || partitionBy.strategy() != PartitionBy.Strategy.RANGE) {
+            return;
+        }
+        LocalDate start = periodStart(partitionBy, toLocalDate(value));
+        String partition = rangePartitionName(tableName(clazz), partitionBy, start);
+        if (ensured.contains(partition)) {
+            return;
+        }
+        try (Connection connection = connectionPool.getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.execute(rangePartition(tableName(clazz), partitionBy, start));
+            ensured.add(partition);
+        } catch (SQLException | InterruptedException e) {
+            throw new RuntimeException("Partition creation Error: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * DDL partycji encji: dla RANGE bieżący okres i {@link PartitionBy#premake()} kolejnych,
+     * dla LIST partycja na każdą wartość i domyślna, dla HASH {@link PartitionBy#modulus()} partycji.
+     */
+    static List<String> partitions(Class<?> clazz, LocalDate today) {
+        PartitionBy partitionBy = clazz.getAnnotation(PartitionBy.class);
+        String table = tableName(clazz);
+        List<String> statements = new ArrayList<>();
+
+        switch (partitionBy.strategy()) {
+            case RANGE -> {
+                LocalDate start = periodStart(partitionBy, today);
+                for (int i = 0; i <= partitionBy.premake(); i++) {
+                    statements.add(rangePartition(table, partitionBy, start));
+                    start = start.plus(1, unit(partitionBy));
+                }
+            }
+            case LIST -> {
+                for (String value : partitionBy.values()) {
+                    statements.add(String.format("CREATE TABLE IF NOT EXISTS %s_%s PARTITION OF %s FOR VALUES IN ('%s')",
+                            table, value.toLowerCase().replaceAll("[^a-z0-9]", "_"), table, value.replace("'", "''")));
+                }
+                statements.add(String.format("CREATE TABLE IF NOT EXISTS %s_default PARTITION OF %s DEFAULT", table, table));
+            }
+            case HASH -> {
+                for (int i = 0; i < partitionBy.modulus(); i++) {
+                    statements.add(String.format(
+                            "CREATE TABLE IF NOT EXISTS %s_h%d PARTITION OF %s FOR VALUES WITH (MODULUS %d, REMAINDER %d)",
+                            table, i, table, partitionBy.modulus(), i));
+                }
+            }
+        }
+        return statements;
+    }
+
+    private void detachExpired(Connection connection, Class<?> clazz, PartitionBy partitionBy, LocalDate today) throws SQLException {
+        String table = tableName(clazz);
+        LocalDate oldestKept = periodStart(partitionBy, today).minus(partitionBy.retain(), unit(partitionBy));
+        DateTimeFormatter format = DateTimeFormatter.ofPattern(suffixPattern(partitionBy));
+        String prefix = table + "_p";
+
+        List<String> expired = new ArrayList<>();
+        try (PreparedStatement statement = connection.prepareStatement(PARTITIONS_QUERY)) {
+            statement.setString(1, table);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    String partition = resultSet.getString(1);
+                    if (!partition.startsWith(prefix)) {
+                        continue;
+                    }
+                    try {
+                        LocalDate start = parseSuffix(partitionBy, partition.substring(prefix.length()), format);
+                        if (start.isBefore(oldestKept)) {
+                            expired.add(partition);
+                        }
+                    } catch (DateTimeParseException ignored) {
+                        // partycja spoza schematu nazw - nie jest zarządzana przez tę klasę
+                    }
+                }
+            }
+        }
+
+        try (Statement statement = connection.createStatement()) {
+            for (String partition : expired) {
+                statement.execute(String.format("ALTER TABLE %s DETACH PARTITION %s", table, partition));
+                ensured.remove(partition);
+                connectionPool.notifyObservers("Odłączono partycję " + partition + " od tabeli " + table);
+            }
+        }
+    }
+
+    private static String rangePartition(String table, PartitionBy partitionBy, LocalDate start) {
+        return String.format("CREATE TABLE IF NOT EXISTS %s PARTITION OF %s FOR VALUES FROM ('%s') TO ('%s')",
+                rangePartitionName(table, partitionBy, start), table, start, start.plus(1, unit(partitionBy)));
+    }
+
+    private static String rangePartitionName(String table, PartitionBy partitionBy, LocalDate start) {
+        return table + "_p" + start.format(DateTimeFormatter.ofPattern(suffixPattern(partitionBy)));
+    }
+
+    private static LocalDate parseSuffix(PartitionBy partitionBy, String suffix, DateTimeFormatter format) {
+        return switch (unit(partitionBy)) {
+            case DAYS -> LocalDate.parse(suffix, format);
+            case MONTHS -> YearMonth.parse(suffix, format).atDay(1);
+            default -> Year.parse(suffix, format).atDay(1);
+        };
+    }
+
+    private static String suffixPattern(PartitionBy partitionBy) {
+        return switch (unit(partitionBy)) {
+            case DAYS -> "yyyy_MM_dd";
+            case MONTHS -> "yyyy_MM";
+            default -> "yyyy";
+        };
+    }
+
+    private static LocalDate periodStart(PartitionBy partitionBy, LocalDate date) {
+        return switch (unit(partitionBy)) {
+            case DAYS -> date;
+            case MONTHS -> date.withDayOfMonth(1);
+            default -> date.withDayOfYear(1);
+        };
+    }
+
+    private static ChronoUnit unit(PartitionBy partitionBy) {
+        return switch (partitionBy.interval()) {
+            case "day" -> ChronoUnit.DAYS;
+            case "month" -> ChronoUnit.MONTHS;
+            case "year" -> ChronoUnit.YEARS;
+            default -> throw new RuntimeException("Unsupported partition interval: " + partitionBy.interval());
+        };
+    }
+
+    private static LocalDate toLocalDate(Object value) {
+        if (value instanceof LocalDate date) {
+            return date;
+        }
+        if (value instanceof LocalDateTime dateTime) {
+            return dateTime.toLocalDate();
+        }
+        if (value instanceof java.sql.Date date) {
+            return date.toLocalDate();
+        }
+        if (value instanceof java.sql.Timestamp timestamp) {
+            return timestamp.toLocalDateTime().toLocalDate();
+        }
+        if (value instanceof OffsetDateTime dateTime) {
+            return dateTime.toLocalDate();
+        }
+        if (value instanceof ZonedDateTime dateTime) {
+            return dateTime.toLocalDate();
+        }
+        if (value instanceof Instant instant) {
+            return instant.atZone(ZoneId.systemDefault()).toLocalDate();
+        }
+        if (value instanceof Date date) {
+            return date.toInstant().atZone(ZoneId.systemDefault()).toLocalDate();
+        }
+        throw new RuntimeException("Range partition key must be a date or timestamp, got: " + value);
+    }
+
+    /**
+     * Nazwa kolumny partycjonowania encji albo null, gdy tabela nie jest partycjonowana.
+     */
+    public static String partitionColumn(Class<?> clazz) {
+        PartitionBy partitionBy = clazz.getAnnotation(PartitionBy.class);
+        return partitionBy == null ? null : partitionBy.column();
+    }
+
+    /**
+     * Wartość kolumny partycjonowania w encji.
+     */
+    public static Object partitionValue(Object entity) throws IllegalAccessException {
+        String partitionColumn = partitionColumn(entity.getClass());
+        for (Field field : entity.getClass().getDeclaredFields()) {
+            Column column = field.getAnnotation(Column.class);
+            if (column != null && column.name().equals(partitionColumn)) {
+                field.setAccessible(true);
+                return field.get(entity);
+            }
+        }
+        throw new RuntimeException("Partition column " + partitionColumn + " is not mapped in " + entity.getClass().getName());
+    }
+
+    private static String tableName(Class<?> clazz) {
+        Table table = clazz.getAnnotation(Table.class);
+        if (table == null) {
+            throw new RuntimeException("Class " + clazz.getName() + " is not mapped in DB");
+        }
+        return table.name();
+    }
+}
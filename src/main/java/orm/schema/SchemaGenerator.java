@@ -0,0 +1,339 @@
+package orm.schema;
+
+import orm.ConnectionPool;
+import orm.annotations.*;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.ParameterizedType;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.*;
+
+/**
+ * Klasa SchemaGenerator tworząca DDL (tabele, partycje, klucze, tabele łączące, indeksy) na podstawie adnotacji
+ * oraz sprawdzająca, czy kolumny używane przez relacje są zaindeksowane.
+ */
+public class SchemaGenerator {
+
+    private final ConnectionPool connectionPool;
+
+    public SchemaGenerator(ConnectionPool connectionPool) {
+        this.connectionPool = connectionPool;
+    }
+
+    /**
+     * Generuje instrukcje DDL dla podanych encji: najpierw tabele, potem klucze obce, na końcu indeksy.
+     *
+     * @param classes klasy oznaczone @Table
+     * @return lista instrukcji SQL w kolejności wykonania
+     */
+    public List<String> generate(Class<?>... classes) {
+        List<String> tables = new ArrayList<>();
+        List<String> foreignKeys = new ArrayList<>();
+        Set<String> indexes = new LinkedHashSet<>();
+        Set<String> joinTables = new HashSet<>();
+
+        List<String> partitions = new ArrayList<>();
+        List<String> storage = new ArrayList<>();
+
+        for (Class<?> clazz : classes) {
+            String tableName = tableName(clazz);
+            PartitionBy partitionBy = clazz.getAnnotation(PartitionBy.class);
+            List<String> columns = new ArrayList<>();
+
+            for (Field field : clazz.getDeclaredFields()) {
+                Column column = field.getAnnotation(Column.class);
+                if (column != null) {
+                    if (field.isAnnotationPresent(Id.class) && partitionBy != null) {
+                        // klucz główny tabeli partycjonowanej musi zawierać kolumnę partycjonowania
+                        columns.add(column.name() + " " + idType(field.getType()));
+                        columns.add(column.name().equals(partitionBy.column())
+                                ? "PRIMARY KEY (" + column.name() + ")"
+                                : "PRIMARY KEY (" + column.name() + ", " + partitionBy.column() + ")");
+                    } else if (field.isAnnotationPresent(Id.class)) {
+                        columns.add(column.name() + " " + idType(field.getType()) + " PRIMARY KEY");
+                    } else if (field.isAnnotationPresent(Lob.class)) {
+                        boolean largeObject = field.getAnnotation(Lob.class).storage() == Lob.Storage.LARGE_OBJECT;
+                        columns.add(column.name() + (largeObject ? " OID" : " BYTEA"));
+                        if (!largeObject) {
+                            // bez kompresji substring czyta tylko potrzebne fragmenty TOAST, a nie całą wartość
+                            storage.add(String.format("ALTER TABLE %s ALTER COLUMN %s SET STORAGE EXTERNAL", tableName, column.name()));
+                        }
+                    } else {
+                        columns.add(column.name() + " " + sqlType(field.getType()));
+                    }
+                }
+
+                ManyToOne manyToOne = field.getAnnotation(ManyToOne.class);
+                if (manyToOne != null) {
+                    columns.add(manyToOne.column() + " " + sqlType(idField(field.getType()).getType()));
+                    foreignKeys.add(foreignKey(tableName, manyToOne.column(), field.getType(), "SET NULL"));
+                    indexes.add(index(tableName, false, manyToOne.column()));
+                }
+
+                OneToOne oneToOne = field.getAnnotation(OneToOne.class);
+                if (oneToOne != null && oneToOne.foreignKeyInThisTable()) {
+                    columns.add(oneToOne.column() + " " + sqlType(idField(field.getType()).getType()));
+                    foreignKeys.add(foreignKey(tableName, oneToOne.column(), field.getType(), "SET NULL"));
+                    indexes.add(index(tableName, false, oneToOne.column()));
+                }
+
+                ManyToMany manyToMany = field.getAnnotation(ManyToMany.class);
+                if (manyToMany != null && joinTables.add(manyToMany.joinTable())) {
+                    Class<?> related = elementType(field);
+                    String joinTable = manyToMany.joinTable();
+                    tables.add(String.format(
+                            "CREATE TABLE IF NOT EXISTS %s (%s %s NOT NULL, %s %s NOT NULL, PRIMARY KEY (%s, %s))",
+                            joinTable,
+                            manyToMany.joinColumn(), sqlType(idField(clazz).getType()),
+                            manyToMany.inverseJoinColumn(), sqlType(idField(related).getType()),
+                            manyToMany.joinColumn(), manyToMany.inverseJoinColumn()));
+                    foreignKeys.add(foreignKey(joinTable, manyToMany.joinColumn(), clazz, "CASCADE"));
+                    foreignKeys.add(foreignKey(joinTable, manyToMany.inverseJoinColumn(), related, "CASCADE"));
+                    // klucz główny pokrywa wyszukiwanie po pierwszej kolumnie, druga potrzebuje własnego indeksu
+                    indexes.add(index(joinTable, false, manyToMany.inverseJoinColumn()));
+                }
+            }
+
+            for (Index index : clazz.getAnnotationsByType(Index.class)) {
+                indexes.add(index.name().isEmpty()
+                        ? index(tableName, index.unique(), index.columns())
+                        : String.format("CREATE %sINDEX IF NOT EXISTS %s ON %s (%s)",
+                        index.unique() ? "UNIQUE " : "", index.name(), tableName, String.join(", ", index.columns())));
+            }
+
+            if (partitionBy != null) {
+                tables.add(String.format("CREATE TABLE IF NOT EXISTS %s (%s) PARTITION BY %s (%s)",
+                        tableName, String.join(", ", columns), partitionBy.strategy(), partitionBy.column()));
+                partitions.addAll(PartitionMaintenance.partitions(clazz, LocalDate.now()));
+            } else {
+                tables.add(String.format("CREATE TABLE IF NOT EXISTS %s (%s)", tableName, String.join(", ", columns)));
+            }
+        }
+
+        List<String> statements = new ArrayList<>(tables);
+        statements.addAll(partitions);
+        statements.addAll(storage);
+        foreignKeys.stream().filter(Objects::nonNull).forEach(statements::add);
+        statements.addAll(indexes);
+        return statements;
+    }
+
+    /**
+     * Tworzy schemat w bazie danych, a następnie go sprawdza ({@link #validate}). Instrukcje są idempotentne,
+     * więc można je uruchamiać przy każdym starcie.
+     */
+    public void create(Class<?>... classes) {
+        try (Connection connection = connectionPool.getConnection();
+             Statement statement = connection.createStatement()) {
+            for (String sql : generate(classes)) {
+                statement.execute(sql);
+            }
+            connectionPool.notifyObservers("Utworzono schemat dla " + classes.length + " encji");
+        } catch (SQLException | InterruptedException e) {
+            throw new RuntimeException("Schema creation Error: " + e.getMessage(), e);
+        }
+        validate(classes);
+    }
+
+    /**
+     * Sprawdza istniejący schemat: brakujące tabele i kolumny oraz niezaindeksowane kolumny relacji.
+     * Każdy problem jest zgłaszany obserwatorom puli jako ostrzeżenie.
+     *
+     * @return lista wykrytych problemów (pusta, jeśli schemat jest poprawny)
+     */
+    public List<String> validate(Class<?>... classes) {
+        List<String> problems = new ArrayList<>();
+
+        try (Connection connection = connectionPool.getConnection()) {
+            DatabaseMetaData metaData = connection.getMetaData();
+
+            for (Map.Entry<String, Set<String>> entry : expectedColumns(classes).entrySet()) {
+                Set<String> existing = existingColumns(metaData, entry.getKey());
+                if (existing.isEmpty()) {
+                    problems.add("Missing table " + entry.getKey());
+                    continue;
+                }
+                for (String column : entry.getValue()) {
+                    if (!existing.contains(column)) {
+                        problems.add("Missing column " + entry.getKey() + "." + column);
+                    }
+                }
+            }
+
+            for (Map.Entry<String, Set<String>> entry : lookupColumns(classes).entrySet()) {
+                Set<String> indexed = leadingIndexColumns(metaData, entry.getKey());
+                for (String column : entry.getValue()) {
+                    if (!indexed.contains(column)) {
+                        problems.add("Unindexed relation lookup column " + entry.getKey() + "." + column);
+                    }
+                }
+            }
+        } catch (SQLException | InterruptedException e) {
+            throw new RuntimeException("Schema validation Error: " + e.getMessage(), e);
+        }
+
+        for (String problem : problems) {
+            connectionPool.notifyObservers("[WARN] " + problem);
+        }
+        return problems;
+    }
+
+    private Map<String, Set<String>> expectedColumns(Class<?>... classes) {
+        Map<String, Set<String>> result = new LinkedHashMap<>();
+        for (Class<?> clazz : classes) {
+            Set<String> columns = result.computeIfAbsent(tableName(clazz), k -> new LinkedHashSet<>());
+            for (Field field : clazz.getDeclaredFields()) {
+                Column column = field.getAnnotation(Column.class);
+                if (column != null) {
+                    columns.add(column.name());
+                }
+                ManyToMany manyToMany = field.getAnnotation(ManyToMany.class);
+                if (manyToMany != null) {
+                    result.computeIfAbsent(manyToMany.joinTable(), k -> new LinkedHashSet<>())
+                            .addAll(List.of(manyToMany.joinColumn(), manyToMany.inverseJoinColumn()));
+                }
+            }
+            columns.addAll(lookupColumns(clazz).getOrDefault(tableName(clazz), Set.of()));
+        }
+        return result;
+    }
+
+    /**
+     * Kolumny, po których wyszukują findOneToMany, findOneToOne i tabele łączące @ManyToMany, pogrupowane po tabeli.
+     */
+    private Map<String, Set<String>> lookupColumns(Class<?>... classes) {
+        Map<String, Set<String>> result = new LinkedHashMap<>();
+        for (Class<?> clazz : classes) {
+            for (Field field : clazz.getDeclaredFields()) {
+                ManyToOne manyToOne = field.getAnnotation(ManyToOne.class);
+                if (manyToOne != null) {
+                    result.computeIfAbsent(tableName(clazz), k -> new LinkedHashSet<>()).add(manyToOne.column());
+                }
+                OneToOne oneToOne = field.getAnnotation(OneToOne.class);
+                if (oneToOne != null && oneToOne.foreignKeyInThisTable()) {
+                    result.computeIfAbsent(tableName(clazz), k -> new LinkedHashSet<>()).add(oneToOne.column());
+                }
+                ManyToMany manyToMany = field.getAnnotation(ManyToMany.class);
+                if (manyToMany != null) {
+                    result.computeIfAbsent(manyToMany.joinTable(), k -> new LinkedHashSet<>())
+                            .addAll(List.of(manyToMany.joinColumn(), manyToMany.inverseJoinColumn()));
+                }
+            }
+        }
+        return result;
+    }
+
+    private Set<String> existingColumns(DatabaseMetaData metaData, String table) throws SQLException {
+        Set<String> columns = new HashSet<>();
+        try (ResultSet resultSet = metaData.getColumns(null, null, table, null)) {
+            while (resultSet.next()) {
+                columns.add(resultSet.getString("COLUMN_NAME"));
+            }
+        }
+        return columns;
+    }
+
+    private Set<String> leadingIndexColumns(DatabaseMetaData metaData, String table) throws SQLException {
+        Set<String> columns = new HashSet<>();
+        try (ResultSet resultSet = metaData.getIndexInfo(null, null, table, false, true)) {
+            while (resultSet.next()) {
+                if (resultSet.getShort("ORDINAL_POSITION") == 1) {
+                    columns.add(resultSet.getString("COLUMN_NAME"));
+                }
+            }
+        }
+        return columns;
+    }
+
+    private String foreignKey(String table, String column, Class<?> referenced, String onDelete) {
+        if (referenced.isAnnotationPresent(PartitionBy.class)) {
+            // klucz główny tabeli partycjonowanej obejmuje kolumnę partycjonowania, więc samo id nie może być celem FK
+            return null;
+        }
+        String constraint = "fk_" + table + "_" + column;
+        return String.format(
+                "DO $$ BEGIN ALTER TABLE %s ADD CONSTRAINT %s FOREIGN KEY (%s) REFERENCES %s (%s) ON DELETE %s; "
+                        + "EXCEPTION WHEN duplicate_object THEN NULL; END $$",
+                table, constraint, column, tableName(referenced), idColumn(referenced), onDelete);
+    }
+
+    private String index(String table, boolean unique, String... columns) {
+        return String.format("CREATE %sINDEX IF NOT EXISTS idx_%s_%s ON %s (%s)",
+                unique ? "UNIQUE " : "", table, String.join("_", columns), table, String.join(", ", columns));
+    }
+
+    private String tableName(Class<?> clazz) {
+        Table table = clazz.getAnnotation(Table.class);
+        if (table == null) {
+            throw new RuntimeException("Class " + clazz.getName() + " is not mapped in DB");
+        }
+        return table.name();
+    }
+
+    private Field idField(Class<?> clazz) {
+        return Arrays.stream(clazz.getDeclaredFields())
+                .filter(f -> f.isAnnotationPresent(Id.class))
+                .findFirst()
+                .orElseThrow(() -> new RuntimeException("Entity " + clazz.getName() + " must have @Id"));
+    }
+
+    private String idColumn(Class<?> clazz) {
+        Field field = idField(clazz);
+        Column column = field.getAnnotation(Column.class);
+        return column != null ? column.name() : field.getName();
+    }
+
+    private Class<?> elementType(Field field) {
+        ParameterizedType type = (ParameterizedType) field.getGenericType();
+        return (Class<?>) type.getActualTypeArguments()[0];
+    }
+
+    private String idType(Class<?> type) {
+        if (type == long.class || type == Long.class) {
+            return "BIGSERIAL";
+        }
+        if (type == int.class || type == Integer.class) {
+            return "SERIAL";
+        }
+        return sqlType(type);
+    }
+
+    private String sqlType(Class<?> type) {
+        if (type == int.class || type == Integer.class) {
+            return "INTEGER";
+        }
+        if (type == long.class || type == Long.class) {
+            return "BIGINT";
+        }
+        if (type == short.class || type == Short.class) {
+            return "SMALLINT";
+        }
+        if (type == double.class || type == Double.class) {
+            return "DOUBLE PRECISION";
+        }
+        if (type == float.class || type == Float.class) {
+            return "REAL";
+        }
+        if (type == boolean.class || type == Boolean.class) {
+            return "BOOLEAN";
+        }
+        if (type == java.math.BigDecimal.class) {
+            return "NUMERIC";
+        }
+        if (type == java.time.LocalDate.class || type == java.sql.Date.class) {
+            return "DATE";
+        }
+        if (type == java.time.LocalDateTime.class || type == java.sql.Timestamp.class) {
+            return "TIMESTAMP";
+        }
+        if (type == byte[].class) {
+            return "BYTEA";
+        }
+        return "VARCHAR(255)";
+    }
+}
@@ -0,0 +1,260 @@
+package orm.wire;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Asynchroniczny klient PostgreSQL bez JDBC: kilka połączeń obsługiwanych przez jeden wątek we/wy (NIO),
+ * na każdym wiele zapytań w locie naraz (pipelining). {@link #query} zwraca od razu, a przyszłość kończy się,
+ * gdy nadejdzie odpowiedź - kilka połączeń obsłuży tysiące równoczesnych odczytów.
+ * <p>
+ * Przyszłości są kończone w wątku we/wy, więc zależne etapy nie mogą blokować (np. {@code join} innego zapytania
+ * w {@code thenApply}) - do takiej pracy służą warianty {@code *Async}. Gdy w locie jest
+ * {@code connections * maxPipelined} zapytań, {@link #query} czeka na zwolnienie miejsca.
+ * Obsługiwane są uwierzytelnianie hasłem (SCRAM-SHA-256, MD5, jawne), bez SSL.
+ */
+public class PgWireClient implements AutoCloseable {
+
+    private final InetSocketAddress address;
+    private final String database;
+    private final String user;
+    private final String password;
+    private final PgWireConnection[] connections;
+    private final Semaphore capacity;
+    private final Selector selector;
+    private final Queue<PgWireConnection> toRegister = new ConcurrentLinkedQueue<>();
+    private final Queue<PgWireConnection> toFlush = new ConcurrentLinkedQueue<>();
+    private final Thread ioThread;
+    private volatile boolean closed;
+
+    /**
+     * @param url          adres w postaci JDBC, np. {@code jdbc:postgresql://localhost:5555/postgres}
+     * @param connections  liczba połączeń
+     * @param maxPipelined największa liczba zapytań w locie na jednym połączeniu
+     */
+    public PgWireClient(String url, String user, String password, int connections, int maxPipelined) throws IOException {
+        URI uri = URI.create(url.replaceFirst("^jdbc:", ""));
+        this.address = new InetSocketAddress(uri.getHost() == null ? "localhost" : uri.getHost(),
+                uri.getPort() < 0 ? 5432 : uri.getPort());
+        String path = uri.getPath() == null ? "" : uri.getPath().replaceFirst("^/", "");
+        this.database = path.isEmpty() ? user : path;
+        this.user = user;
+        this.password = password;
+        this.connections = new PgWireConnection[connections];
+        this.capacity = new Semaphore(connections * maxPipelined);
+        this.selector = Selector.open();
+        try {
+            for (int i = 0; i < connections; i++) {
+                this.connections[i] = PgWireConnection.open(address, database, user, password);
+                toRegister.add(this.connections[i]);
+            }
+        } catch (IOException e) {
+            for (PgWireConnection connection : this.connections) {
+                if (connection != null) {
+                    connection.close();
+                }
+            }
+            selector.close();
+            throw e;
+        }
+        this.ioThread = new Thread(this::ioLoop, "orm-wire-io");
+        ioThread.setDaemon(true);
+        ioThread.start();
+    }
+
+    /**
+     * Wysyła zapytanie z parametrami {@code ?} (albo {@code $1, $2...}) i zwraca przyszłość z wierszami wyniku.
+     * Błąd bazy kończy przyszłość wyjątkiem {@link SQLException} z kodem SQLSTATE.
+     */
+    public CompletableFuture<List<WireRow>> query(String sql, Object... params) {
+        if (closed) {
+            return CompletableFuture.failedFuture(new SQLException("Wire client closed", "08003"));
+        }
+        try {
+            capacity.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return CompletableFuture.failedFuture(e);
+        }
+        PgWireConnection.Request request = new PgWireConnection.Request(numbered(sql), params);
+        request.future.whenComplete((rows, error) -> capacity.release());
+        PgWireConnection connection;
+        try {
+            connection = pick();
+        } catch (IOException e) {
+            request.future.completeExceptionally(new SQLException("Wire connection Error: " + e.getMessage(), "08001", e));
+            return request.future;
+        }
+        if (connection.submit(request)) {
+            toFlush.add(connection);
+            selector.wakeup();
+        }
+        return request.future;
+    }
+
+    /**
+     * Liczba zapytań wysłanych lub czekających na wysłanie, na które nie przyszła jeszcze odpowiedź.
+     */
+    public int getInFlight() {
+        int total = 0;
+        for (PgWireConnection connection : connections) {
+            total += connection.inFlight();
+        }
+        return total;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        selector.wakeup();
+        try {
+            ioThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (PgWireConnection connection : connections) {
+            connection.close();
+        }
+        try {
+            selector.close();
+        } catch (IOException ignored) {
+            // wątek we/wy już nie działa
+        }
+    }
+
+    /**
+     * Połączenie z najmniejszą liczbą zapytań w locie; gdy wszystkie są zerwane, nawiązuje je ponownie.
+     */
+    private PgWireConnection pick() throws IOException {
+        int best = -1;
+        for (int i = 0; i < connections.length; i++) {
+            PgWireConnection connection = connections[i];
+            if (!connection.isBroken() && (best < 0 || connection.inFlight() < connections[best].inFlight())) {
+                best = i;
+            }
+        }
+        if (best >= 0) {
+            return connections[best];
+        }
+        synchronized (connections) {
+            if (closed) {
+                throw new IOException("Wire client closed");
+            }
+            IOException failure = null;
+            for (int i = 0; i < connections.length && failure == null; i++) {
+                if (connections[i].isBroken()) {
+                    try {
+                        connections[i] = PgWireConnection.open(address, database, user, password);
+                        toRegister.add(connections[i]);
+                    } catch (IOException e) {
+                        failure = e;
+                    }
+                }
+            }
+            selector.wakeup();
+            for (PgWireConnection connection : connections) {
+                if (!connection.isBroken()) {
+                    return connection;
+                }
+            }
+            throw failure;
+        }
+    }
+
+    private void ioLoop() {
+        try {
+            while (!closed) {
+                selector.select();
+                PgWireConnection connection;
+                while ((connection = toRegister.poll()) != null) {
+                    try {
+                        connection.attach(connection.channel().register(selector, SelectionKey.OP_READ, connection));
+                    } catch (IOException e) {
+                        connection.fail(e);
+                    }
+                }
+                while ((connection = toFlush.poll()) != null) {
+                    flush(connection);
+                }
+                for (SelectionKey key : selector.selectedKeys()) {
+                    connection = (PgWireConnection) key.attachment();
+                    try {
+                        if (key.isValid() && key.isReadable()) {
+                            connection.read();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            connection.flush();
+                        }
+                    } catch (IOException | RuntimeException e) {
+                        key.cancel();
+                        connection.fail(e);
+                    }
+                }
+                selector.selectedKeys().clear();
+            }
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Błąd wątku we/wy klienta PostgreSQL: " + e.getMessage());
+            abandon(e);
+        }
+    }
+
+    /**
+     * Po awarii wątku we/wy nikt nie obsłuży już połączeń: klient jest zamykany, a zapytania w locie
+     * kończone wyjątkiem, zamiast czekać w nieskończoność.
+     */
+    private void abandon(Exception cause) {
+        closed = true;
+        synchronized (connections) {
+            for (PgWireConnection connection : connections) {
+                connection.fail(cause);
+            }
+        }
+    }
+
+    private void flush(PgWireConnection connection) {
+        if (connection.isBroken()) {
+            return;
+        }
+        try {
+            connection.flush();
+        } catch (IOException | RuntimeException e) {
+            connection.fail(e);
+        }
+    }
+
+    /**
+     * Zamienia parametry JDBC {@code ?} na numerowane {@code $n} protokołu, pomijając literały i identyfikatory w cudzysłowach.
+     */
+    static String numbered(String sql) {
+        if (sql.indexOf('?') < 0) {
+            return sql;
+        }
+        StringBuilder result = new StringBuilder(sql.length() + 8);
+        int parameter = 0;
+        char quote = 0;
+        for (int i = 0; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '\'' || c == '"') {
+                quote = c;
+            } else if (c == '?') {
+                result.append('$').append(++parameter);
+                continue;
+            }
+            result.append(c);
+        }
+        return result.toString();
+    }
+}
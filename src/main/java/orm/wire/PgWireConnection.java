@@ -0,0 +1,535 @@
+package orm.wire;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Jedno połączenie protokołu PostgreSQL (wersja 3.0, zapytania rozszerzone, format tekstowy).
+ * Wątki wywołujące dopisują komunikaty Parse/Bind/Describe/Execute/Sync do bufora wyjściowego,
+ * a wątek we/wy {@link PgWireClient} wysyła je i rozdziela odpowiedzi: serwer odpowiada w kolejności
+ * wysłania, więc każde ReadyForQuery kończy najstarsze oczekujące zapytanie.
+ */
+final class PgWireConnection {
+
+    private static final int PROTOCOL_VERSION = 196608;
+    private static final int MAX_PREPARED = 256;
+
+    private final SocketChannel channel;
+    private final Object lock = new Object();
+    /**
+     * Komunikaty czekające na wysłanie (tryb zapisu); chronione przez {@link #lock}.
+     */
+    private ByteBuffer out = ByteBuffer.allocate(16 * 1024);
+    /**
+     * Odebrane bajty (tryb zapisu), przetworzone do indeksu {@link #consumed}; używane tylko przez wątek we/wy
+     * (i przez start połączenia).
+     */
+    private ByteBuffer in = ByteBuffer.allocate(64 * 1024);
+    private int consumed;
+    private byte messageType;
+    private int messageStart;
+    private final Deque<Request> pending = new ArrayDeque<>();
+    private final Map<String, String> prepared = new HashMap<>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private boolean flushRequested;
+    private volatile boolean broken;
+    private SelectionKey key;
+
+    private PgWireConnection(SocketChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Nawiązuje połączenie i przechodzi uwierzytelnianie w trybie blokującym, po czym przełącza kanał
+     * w tryb nieblokujący.
+     */
+    static PgWireConnection open(InetSocketAddress address, String database, String user, String password) throws IOException {
+        SocketChannel channel = SocketChannel.open(address);
+        try {
+            channel.socket().setTcpNoDelay(true);
+            PgWireConnection connection = new PgWireConnection(channel);
+            connection.startup(database, user, password);
+            channel.configureBlocking(false);
+            return connection;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    SocketChannel channel() {
+        return channel;
+    }
+
+    /**
+     * Wywoływane przez wątek we/wy po rejestracji kanału; zapytania dopisane wcześniej zostaną wysłane.
+     */
+    void attach(SelectionKey key) {
+        synchronized (lock) {
+            this.key = key;
+            if (flushRequested) {
+                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            }
+        }
+    }
+
+    boolean isBroken() {
+        return broken;
+    }
+
+    int inFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * Dopisuje zapytanie do potoku.
+     *
+     * @return true, gdy bufor trzeba przekazać wątkowi we/wy do wysłania (nie było jeszcze takiej prośby)
+     */
+    boolean submit(Request request) {
+        synchronized (lock) {
+            if (broken) {
+                request.future.completeExceptionally(new SQLException("Wire connection closed", "08006"));
+                return false;
+            }
+            String name = prepared.get(request.sql);
+            if (name == null) {
+                if (prepared.size() < MAX_PREPARED) {
+                    name = "orm_" + prepared.size();
+                    prepared.put(request.sql, name);
+                    request.preparedName = name;
+                } else {
+                    name = "";
+                }
+                writeParse(name, request.sql);
+            }
+            writeBind(name, request.params);
+            begin('D');
+            out.put((byte) 'P');
+            putCString("");
+            end();
+            begin('E');
+            putCString("");
+            out.putInt(0);
+            end();
+            begin('S');
+            end();
+            pending.add(request);
+            inFlight.incrementAndGet();
+            if (flushRequested) {
+                return false;
+            }
+            flushRequested = true;
+            return true;
+        }
+    }
+
+    /**
+     * Wysyła tyle oczekujących bajtów, ile przyjmie gniazdo; resztę dośle po zgłoszeniu gotowości do zapisu.
+     */
+    void flush() throws IOException {
+        synchronized (lock) {
+            if (key == null) {
+                return;
+            }
+            out.flip();
+            try {
+                channel.write(out);
+            } finally {
+                out.compact();
+            }
+            if (out.position() == 0) {
+                flushRequested = false;
+                key.interestOps(SelectionKey.OP_READ);
+            } else {
+                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            }
+        }
+    }
+
+    /**
+     * Czyta dostępne odpowiedzi i kończy zapytania, dla których przyszło ReadyForQuery.
+     */
+    void read() throws IOException {
+        if (channel.read(in) < 0) {
+            throw new IOException("Server closed the connection");
+        }
+        ByteBuffer message;
+        while ((message = nextMessage()) != null) {
+            handle(messageType, message);
+        }
+        compactInput();
+    }
+
+    /**
+     * Zamyka połączenie i kończy błędem wszystkie oczekujące zapytania.
+     */
+    void fail(Exception cause) {
+        List<Request> failed;
+        synchronized (lock) {
+            broken = true;
+            failed = new ArrayList<>(pending);
+            pending.clear();
+        }
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+            // połączenie i tak jest porzucane
+        }
+        for (Request request : failed) {
+            inFlight.decrementAndGet();
+            request.future.completeExceptionally(new SQLException("Wire connection Error: " + cause.getMessage(), "08006", cause));
+        }
+    }
+
+    /**
+     * Wysyła Terminate, jeśli to możliwe, i zamyka gniazdo.
+     */
+    void close() {
+        synchronized (lock) {
+            if (!broken && channel.isOpen()) {
+                try {
+                    channel.write(ByteBuffer.allocate(5).put((byte) 'X').putInt(4).flip());
+                } catch (IOException ignored) {
+                    // serwer i tak zauważy zamknięcie gniazda
+                }
+            }
+        }
+        fail(new IOException("Connection closed"));
+    }
+
+    private void handle(byte type, ByteBuffer message) throws IOException {
+        switch (type) {
+            case 'T' -> current(type, message).describe(message);
+            case 'D' -> {
+                Request request = current(type, message);
+                try {
+                    request.addRow(message);
+                } catch (RuntimeException e) {
+                    // wartości nie dało się odczytać - błąd dotyczy tylko tego zapytania
+                    request.error = new SQLException("Wire decode Error: " + e.getMessage(), "22000", e);
+                }
+            }
+            case 'E' -> current(type, message).error = error(message);
+            case 'Z' -> complete();
+            default -> {
+                // ParseComplete, BindComplete, CommandComplete, NoData, powiadomienia i komunikaty - bez znaczenia
+            }
+        }
+    }
+
+    private Request current(byte type, ByteBuffer message) throws IOException {
+        Request request;
+        synchronized (lock) {
+            request = pending.peek();
+        }
+        if (request == null) {
+            // np. FATAL przy wyłączaniu serwera - połączenie nie nadaje się do dalszego użycia
+            throw new IOException(type == 'E' ? "Server error: " + error(message).getMessage() : "Unexpected message " + (char) type);
+        }
+        return request;
+    }
+
+    private void complete() {
+        Request request;
+        synchronized (lock) {
+            request = pending.poll();
+            if (request == null) {
+                return;
+            }
+            if (request.error != null && request.preparedName != null) {
+                // instrukcja mogła się nie przygotować - następne użycie przygotuje ją ponownie pod nową nazwą
+                prepared.remove(request.sql, request.preparedName);
+            }
+        }
+        inFlight.decrementAndGet();
+        if (request.error != null) {
+            request.future.completeExceptionally(request.error);
+        } else {
+            request.future.complete(request.rows);
+        }
+    }
+
+    private void startup(String database, String user, String password) throws IOException {
+        out.putInt(0).putInt(PROTOCOL_VERSION);
+        putCString("user");
+        putCString(user);
+        putCString("database");
+        putCString(database);
+        putCString("client_encoding");
+        putCString("UTF8");
+        putCString("DateStyle");
+        putCString("ISO");
+        out.put((byte) 0);
+        out.putInt(0, out.position());
+        sendBlocking();
+
+        ScramSha256 scram = null;
+        while (true) {
+            ByteBuffer message = readBlocking();
+            byte type = messageType;
+            if (type == 'E') {
+                throw new IOException(error(message).getMessage());
+            }
+            if (type == 'Z') {
+                return;
+            }
+            if (type != 'R') {
+                continue;
+            }
+            int code = message.getInt();
+            try {
+                switch (code) {
+                    case 0 -> {
+                    }
+                    case 3 -> {
+                        begin('p');
+                        putCString(password);
+                        end();
+                        sendBlocking();
+                    }
+                    case 5 -> {
+                        byte[] salt = new byte[4];
+                        message.get(salt);
+                        begin('p');
+                        putCString(md5Password(user, password, salt));
+                        end();
+                        sendBlocking();
+                    }
+                    case 10 -> {
+                        if (!readCStrings(message).contains(ScramSha256.MECHANISM)) {
+                            throw new IOException("No supported SASL mechanism offered by the server");
+                        }
+                        scram = new ScramSha256(password);
+                        byte[] first = scram.clientFirst().getBytes(StandardCharsets.UTF_8);
+                        begin('p');
+                        putCString(ScramSha256.MECHANISM);
+                        out.putInt(first.length).put(first);
+                        end();
+                        sendBlocking();
+                    }
+                    case 11 -> {
+                        begin('p');
+                        out.put(scram.clientFinal(remainingString(message)).getBytes(StandardCharsets.UTF_8));
+                        end();
+                        sendBlocking();
+                    }
+                    case 12 -> scram.verifyServerFinal(remainingString(message));
+                    default -> throw new IOException("Unsupported authentication method " + code);
+                }
+            } catch (GeneralSecurityException e) {
+                throw new IOException(e.getMessage(), e);
+            }
+        }
+    }
+
+    private void sendBlocking() throws IOException {
+        out.flip();
+        while (out.hasRemaining()) {
+            channel.write(out);
+        }
+        out.clear();
+    }
+
+    private ByteBuffer readBlocking() throws IOException {
+        ByteBuffer message;
+        while ((message = nextMessage()) == null) {
+            compactInput();
+            if (channel.read(in) < 0) {
+                throw new IOException("Server closed the connection during startup");
+            }
+        }
+        return message;
+    }
+
+    /**
+     * Zwraca treść kolejnego kompletnego komunikatu (typ w {@link #messageType}) albo null, gdy trzeba doczytać.
+     * Treść wskazuje na bufor wejściowy i jest ważna do wywołania {@link #compactInput()}.
+     */
+    private ByteBuffer nextMessage() {
+        int available = in.position() - consumed;
+        if (available < 5) {
+            return null;
+        }
+        int length = in.getInt(consumed + 1);
+        if (available < 1 + length) {
+            return null;
+        }
+        messageType = in.get(consumed);
+        ByteBuffer body = in.slice(consumed + 5, length - 4);
+        consumed += 1 + length;
+        return body;
+    }
+
+    /**
+     * Usuwa przetworzone komunikaty z bufora i powiększa go, jeśli następny komunikat się nie mieści.
+     */
+    private void compactInput() {
+        in.limit(in.position()).position(consumed);
+        in.compact();
+        consumed = 0;
+        if (in.position() >= 5) {
+            int needed = 1 + in.getInt(1);
+            if (needed > in.capacity()) {
+                ByteBuffer larger = ByteBuffer.allocate(Integer.highestOneBit(needed) << 1);
+                in.flip();
+                larger.put(in);
+                in = larger;
+            }
+        }
+    }
+
+    private void writeParse(String name, String sql) {
+        begin('P');
+        putCString(name);
+        putCString(sql);
+        out.putShort((short) 0);
+        end();
+    }
+
+    private void writeBind(String name, Object[] params) {
+        begin('B');
+        putCString("");
+        putCString(name);
+        out.putShort((short) 0);
+        out.putShort((short) params.length);
+        for (Object param : params) {
+            if (param == null) {
+                out.putInt(-1);
+            } else {
+                byte[] bytes = WireTypes.encode(param);
+                ensure(4 + bytes.length);
+                out.putInt(bytes.length).put(bytes);
+            }
+        }
+        out.putShort((short) 0);
+        end();
+    }
+
+    private void begin(char type) {
+        ensure(5);
+        messageStart = out.position();
+        out.put((byte) type).putInt(0);
+    }
+
+    private void end() {
+        out.putInt(messageStart + 1, out.position() - messageStart - 1);
+    }
+
+    private void putCString(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        ensure(bytes.length + 1);
+        out.put(bytes).put((byte) 0);
+    }
+
+    private void ensure(int bytes) {
+        if (out.remaining() < bytes + 16) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(out.capacity() * 2, out.position() + bytes + 16));
+            out.flip();
+            larger.put(out);
+            out = larger;
+        }
+    }
+
+    private static SQLException error(ByteBuffer message) {
+        String text = null;
+        String sqlState = null;
+        byte field;
+        while ((field = message.get()) != 0) {
+            String value = readCString(message);
+            if (field == 'M') {
+                text = value;
+            } else if (field == 'C') {
+                sqlState = value;
+            }
+        }
+        return new SQLException(text, sqlState);
+    }
+
+    private static String readCString(ByteBuffer buffer) {
+        int start = buffer.position();
+        int end = start;
+        while (buffer.get(end) != 0) {
+            end++;
+        }
+        String value = new String(buffer.array(), buffer.arrayOffset() + start, end - start, StandardCharsets.UTF_8);
+        buffer.position(end + 1);
+        return value;
+    }
+
+    private static List<String> readCStrings(ByteBuffer buffer) {
+        List<String> values = new ArrayList<>();
+        String value;
+        while (buffer.hasRemaining() && !(value = readCString(buffer)).isEmpty()) {
+            values.add(value);
+        }
+        return values;
+    }
+
+    private static String remainingString(ByteBuffer buffer) {
+        return new String(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining(), StandardCharsets.UTF_8);
+    }
+
+    private static String md5Password(String user, String password, byte[] salt) throws GeneralSecurityException {
+        MessageDigest md5 = MessageDigest.getInstance("MD5");
+        String inner = HexFormat.of().formatHex(md5.digest((password + user).getBytes(StandardCharsets.UTF_8)));
+        md5.update(inner.getBytes(StandardCharsets.UTF_8));
+        md5.update(salt);
+        return "md5" + HexFormat.of().formatHex(md5.digest());
+    }
+
+    /**
+     * Zapytanie w potoku; pola wyniku wypełnia wyłącznie wątek we/wy.
+     */
+    static final class Request {
+        final String sql;
+        final Object[] params;
+        final CompletableFuture<List<WireRow>> future = new CompletableFuture<>();
+        final List<WireRow> rows = new ArrayList<>();
+        String preparedName;
+        SQLException error;
+        private Map<String, Integer> columns = Map.of();
+        private int[] types = new int[0];
+
+        Request(String sql, Object[] params) {
+            this.sql = sql;
+            this.params = params;
+        }
+
+        private void describe(ByteBuffer message) {
+            int count = message.getShort();
+            Map<String, Integer> names = new HashMap<>(count * 2);
+            types = new int[count];
+            for (int i = 0; i < count; i++) {
+                names.putIfAbsent(readCString(message), i);
+                message.position(message.position() + 6);
+                types[i] = message.getInt();
+                message.position(message.position() + 8);
+            }
+            columns = names;
+        }
+
+        private void addRow(ByteBuffer message) {
+            int count = message.getShort();
+            Object[] values = new Object[count];
+            for (int i = 0; i < count; i++) {
+                int length = message.getInt();
+                if (length >= 0) {
+                    values[i] = WireTypes.decode(types[i], message.array(), message.arrayOffset() + message.position(), length);
+                    message.position(message.position() + length);
+                }
+            }
+            rows.add(new WireRow(columns, values));
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package orm.wire;
+
+import javax.crypto.Mac;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Uwierzytelnianie SCRAM-SHA-256 (RFC 7677) bez wiązania kanału - domyślna metoda haseł w PostgreSQL 14+.
+ * Nazwę użytkownika serwer bierze z komunikatu startowego, więc w wiadomościach SCRAM jest pusta.
+ */
+final class ScramSha256 {
+
+    static final String MECHANISM = "SCRAM-SHA-256";
+
+    private final String user;
+    private final String password;
+    private final String clientNonce;
+    private String clientFirstBare;
+    private byte[] expectedServerSignature;
+
+    ScramSha256(String password) {
+        this("", password, randomNonce());
+    }
+
+    ScramSha256(String user, String password, String clientNonce) {
+        this.user = user;
+        this.password = password;
+        this.clientNonce = clientNonce;
+    }
+
+    String clientFirst() {
+        clientFirstBare = "n=" + user + ",r=" + clientNonce;
+        return "n,," + clientFirstBare;
+    }
+
+    String clientFinal(String serverFirst) throws GeneralSecurityException {
+        Map<Character, String> attributes = attributes(serverFirst);
+        String nonce = attributes.get('r');
+        if (nonce == null || !nonce.startsWith(clientNonce)) {
+            throw new GeneralSecurityException("SCRAM server nonce does not extend client nonce");
+        }
+        byte[] salt = Base64.getDecoder().decode(attributes.get('s'));
+        int iterations = Integer.parseInt(attributes.get('i'));
+
+        SecretKeyFactory factory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256");
+        byte[] saltedPassword = factory.generateSecret(
+                new PBEKeySpec(password.toCharArray(), salt, iterations, 256)).getEncoded();
+        byte[] clientKey = hmac(saltedPassword, "Client Key");
+        byte[] storedKey = MessageDigest.getInstance("SHA-256").digest(clientKey);
+
+        String withoutProof = "c=biws,r=" + nonce;
+        String authMessage = clientFirstBare + "," + serverFirst + "," + withoutProof;
+        byte[] proof = hmac(storedKey, authMessage);
+        for (int i = 0; i < proof.length; i++) {
+            proof[i] ^= clientKey[i];
+        }
+        expectedServerSignature = hmac(hmac(saltedPassword, "Server Key"), authMessage);
+        return withoutProof + ",p=" + Base64.getEncoder().encodeToString(proof);
+    }
+
+    void verifyServerFinal(String serverFinal) throws GeneralSecurityException {
+        Map<Character, String> attributes = attributes(serverFinal);
+        if (attributes.containsKey('e')) {
+            throw new GeneralSecurityException("SCRAM authentication failed: " + attributes.get('e'));
+        }
+        String signature = attributes.get('v');
+        if (signature == null || !MessageDigest.isEqual(expectedServerSignature, Base64.getDecoder().decode(signature))) {
+            throw new GeneralSecurityException("SCRAM server signature mismatch");
+        }
+    }
+
+    private static byte[] hmac(byte[] key, String message) throws GeneralSecurityException {
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(key, "HmacSHA256"));
+        return mac.doFinal(message.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static Map<Character, String> attributes(String message) {
+        Map<Character, String> attributes = new HashMap<>();
+        for (String part : message.split(",")) {
+            if (part.length() >= 2 && part.charAt(1) == '=') {
+                attributes.put(part.charAt(0), part.substring(2));
+            }
+        }
+        return attributes;
+    }
+
+    private static String randomNonce() {
+        byte[] bytes = new byte[18];
+        new SecureRandom().nextBytes(bytes);
+        return Base64.getEncoder().encodeToString(bytes);
+    }
+}
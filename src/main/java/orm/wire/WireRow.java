@@ -0,0 +1,38 @@
+package orm.wire;
+
+import java.util.Map;
+
+/**
+ * Wiersz wyniku z {@link PgWireClient}. Wartości mają te same typy, co {@code ResultSet.getObject} sterownika JDBC
+ * (Integer, Long, String, BigDecimal, java.sql.Date, Timestamp...).
+ */
+public final class WireRow {
+
+    private final Map<String, Integer> columns;
+    private final Object[] values;
+
+    WireRow(Map<String, Integer> columns, Object[] values) {
+        this.columns = columns;
+        this.values = values;
+    }
+
+    /**
+     * @return wartość kolumny albo null, także gdy wynik nie ma takiej kolumny
+     */
+    public Object get(String column) {
+        Integer index = columns.get(column);
+        return index == null ? null : values[index];
+    }
+
+    public Object get(int index) {
+        return values[index];
+    }
+
+    public boolean hasColumn(String column) {
+        return columns.containsKey(column);
+    }
+
+    public int size() {
+        return values.length;
+    }
+}
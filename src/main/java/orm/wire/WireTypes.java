@@ -0,0 +1,86 @@
+package orm.wire;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Date;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.temporal.ChronoField;
+import java.util.HexFormat;
+import java.util.UUID;
+
+/**
+ * Konwersja wartości w formacie tekstowym protokołu na typy Javy i z powrotem.
+ * Typy spoza listy OID-ów zostają napisami.
+ */
+final class WireTypes {
+
+    private static final int BOOL = 16;
+    private static final int BYTEA = 17;
+    private static final int INT8 = 20;
+    private static final int INT2 = 21;
+    private static final int INT4 = 23;
+    private static final int OID = 26;
+    private static final int FLOAT4 = 700;
+    private static final int FLOAT8 = 701;
+    private static final int DATE = 1082;
+    private static final int TIME = 1083;
+    private static final int TIMESTAMP = 1114;
+    private static final int TIMESTAMPTZ = 1184;
+    private static final int NUMERIC = 1700;
+    private static final int UUID_OID = 2950;
+
+    /**
+     * Format timestamptz przy DateStyle=ISO, np. {@code 2024-03-01 10:15:00.123+01} albo {@code ...+05:30}.
+     */
+    private static final DateTimeFormatter TIMESTAMPTZ_FORMAT = new DateTimeFormatterBuilder()
+            .appendPattern("yyyy-MM-dd HH:mm:ss")
+            .optionalStart().appendFraction(ChronoField.NANO_OF_SECOND, 0, 9, true).optionalEnd()
+            .appendPattern("X[:XX]")
+            .toFormatter();
+
+    private WireTypes() {
+    }
+
+    static Object decode(int oid, byte[] bytes, int offset, int length) {
+        String text = new String(bytes, offset, length, StandardCharsets.UTF_8);
+        return switch (oid) {
+            case BOOL -> text.equals("t");
+            case INT2, INT4 -> Integer.parseInt(text);
+            case INT8, OID -> Long.parseLong(text);
+            case FLOAT4 -> Float.parseFloat(text);
+            case FLOAT8 -> Double.parseDouble(text);
+            case NUMERIC -> text.equals("NaN") ? Double.NaN : new BigDecimal(text);
+            case DATE -> Date.valueOf(text);
+            case TIME -> Time.valueOf(text.length() > 8 ? text.substring(0, 8) : text);
+            case TIMESTAMP -> Timestamp.valueOf(text);
+            case TIMESTAMPTZ -> Timestamp.from(OffsetDateTime.parse(text, TIMESTAMPTZ_FORMAT).toInstant());
+            case UUID_OID -> UUID.fromString(text);
+            case BYTEA -> HexFormat.of().parseHex(text, 2, text.length());
+            default -> text;
+        };
+    }
+
+    /**
+     * Parametr w formacie tekstowym; typ wyznacza serwer z kontekstu zapytania.
+     */
+    static byte[] encode(Object value) {
+        String text;
+        if (value instanceof Boolean booleanValue) {
+            text = booleanValue ? "t" : "f";
+        } else if (value instanceof byte[] bytes) {
+            text = "\\x" + HexFormat.of().formatHex(bytes);
+        } else if (value instanceof java.util.Date date && !(value instanceof Date) && !(value instanceof Time)
+                && !(value instanceof Timestamp)) {
+            text = new Timestamp(date.getTime()).toString();
+        } else if (value instanceof Enum<?> enumValue) {
+            text = enumValue.name();
+        } else {
+            text = value.toString();
+        }
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,106 @@
+package orm;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import orm.annotations.CascadeType;
+import orm.annotations.Column;
+import orm.annotations.Id;
+import orm.annotations.OneToMany;
+import orm.annotations.Table;
+import orm.logging.LoggerObserver;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * delete z {@code cascade = REMOVE} dla grafu autor - książki - rozdziały, którego dzieci nie są wczytane.
+ * Klucze obce nie mają ON DELETE CASCADE, więc rozdziały muszą zniknąć przed książkami.
+ */
+class CascadeRemoveTest {
+
+    private static EntityManager entityManager;
+
+    @Table(name = "cascade_author")
+    public static class Author {
+        @Id
+        @Column(name = "id")
+        private int id;
+
+        @Column(name = "name")
+        private String name;
+
+        @OneToMany(mappedBy = "author_id", cascade = CascadeType.REMOVE)
+        private List<Book> books = new ArrayList<>();
+    }
+
+    @Table(name = "cascade_book")
+    public static class Book {
+        @Id
+        @Column(name = "id")
+        private int id;
+
+        @Column(name = "title")
+        private String title;
+
+        @OneToMany(mappedBy = "book_id", cascade = CascadeType.ALL)
+        private List<Chapter> chapters = new ArrayList<>();
+    }
+
+    @Table(name = "cascade_chapter")
+    public static class Chapter {
+        @Id
+        @Column(name = "id")
+        private int id;
+
+        @Column(name = "title")
+        private String title;
+    }
+
+    @BeforeAll
+    static void graph() throws Exception {
+        TestDatabase.assumeAvailable();
+        entityManager = new EntityManager(new LoggerObserver());
+        dropTables();
+        entityManager.executeUpdate("CREATE TABLE cascade_author (id INTEGER PRIMARY KEY, name VARCHAR(40))");
+        entityManager.executeUpdate("CREATE TABLE cascade_book (id INTEGER PRIMARY KEY, title VARCHAR(40), "
+                + "author_id INTEGER REFERENCES cascade_author (id))");
+        entityManager.executeUpdate("CREATE TABLE cascade_chapter (id INTEGER PRIMARY KEY, title VARCHAR(40), "
+                + "book_id INTEGER REFERENCES cascade_book (id))");
+        entityManager.executeUpdate("INSERT INTO cascade_author VALUES (1, 'kept'), (2, 'removed')");
+        entityManager.executeUpdate("INSERT INTO cascade_book SELECT g, 'book ' || g, 1 + g % 2 FROM generate_series(1, 6) g");
+        entityManager.executeUpdate("INSERT INTO cascade_chapter SELECT g, 'chapter ' || g, 1 + g % 6 FROM generate_series(1, 30) g");
+    }
+
+    @AfterAll
+    static void drop() {
+        if (entityManager == null) {
+            return;
+        }
+        dropTables();
+        entityManager.close();
+    }
+
+    private static void dropTables() {
+        entityManager.executeUpdate("DROP TABLE IF EXISTS cascade_chapter, cascade_book, cascade_author");
+    }
+
+    @Test
+    void removesUnloadedGrandchildrenBeforeChildren() {
+        Author author = new Author();
+        author.id = 2;
+        entityManager.delete(author);
+
+        assertTrue(entityManager.executeQuery("SELECT * FROM cascade_author WHERE id = 2", Author.class).isEmpty());
+        assertTrue(entityManager.executeQuery("SELECT * FROM cascade_book WHERE author_id = 2", Book.class).isEmpty());
+        assertTrue(entityManager.executeQuery("SELECT c.* FROM cascade_chapter c LEFT JOIN cascade_book b ON b.id = c.book_id "
+                + "WHERE b.id IS NULL", Chapter.class).isEmpty());
+
+        // drzewo drugiego autora zostaje nietknięte
+        assertEquals(3, entityManager.executeQuery("SELECT * FROM cascade_book WHERE author_id = 1", Book.class).size());
+        assertEquals(15, entityManager.executeQuery("SELECT * FROM cascade_chapter", Chapter.class).size());
+    }
+}
@@ -0,0 +1,92 @@
+package orm;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import orm.annotations.Column;
+import orm.annotations.Id;
+import orm.annotations.PartitionBy;
+import orm.annotations.Table;
+import orm.logging.LoggerObserver;
+import orm.schema.SchemaGenerator;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * To samo id w dwóch partycjach (partition-test.yml): pamięć podręczna, unieważnienia i usunięcia wsadowe
+ * zapisu opóźnionego muszą rozróżniać wiersze po wartości kolumny partycjonowania.
+ */
+class PartitionedEntityTest {
+
+    private static EntityManager entityManager;
+
+    @Table(name = "partitioned_reading")
+    @PartitionBy(column = "region", strategy = PartitionBy.Strategy.LIST, values = {"eu", "us"})
+    public static class Reading {
+        @Id
+        @Column(name = "id")
+        private int id;
+
+        @Column(name = "region")
+        private String region;
+
+        @Column(name = "label")
+        private String label;
+
+        Reading() {
+        }
+
+        Reading(int id, String region, String label) {
+            this.id = id;
+            this.region = region;
+            this.label = label;
+        }
+    }
+
+    @BeforeAll
+    static void table() throws Exception {
+        TestDatabase.assumeAvailable();
+        System.setProperty(Config.RESOURCE_PROPERTY, "partition-test.yml");
+        entityManager = new EntityManager(new LoggerObserver());
+        entityManager.executeUpdate("DROP TABLE IF EXISTS partitioned_reading CASCADE");
+        new SchemaGenerator(ConnectionPool.getInstance()).create(Reading.class);
+    }
+
+    @AfterAll
+    static void dropTable() {
+        if (entityManager == null) {
+            return;
+        }
+        entityManager.executeUpdate("DROP TABLE IF EXISTS partitioned_reading CASCADE");
+        entityManager.close();
+    }
+
+    @Test
+    void sameIdInTwoPartitionsStaysSeparate() {
+        Reading eu = new Reading(1, "eu", "eu-1");
+        Reading us = new Reading(1, "us", "us-1");
+        entityManager.save(eu);
+        entityManager.save(us);
+        entityManager.flush();
+
+        assertEquals("eu-1", entityManager.find(Reading.class, 1, "eu").label);
+        assertEquals("us-1", entityManager.find(Reading.class, 1, "us").label);
+
+        eu.label = "eu-2";
+        entityManager.update(eu);
+        entityManager.flush();
+        assertEquals("eu-2", entityManager.find(Reading.class, 1, "eu").label);
+        assertEquals("us-1", entityManager.find(Reading.class, 1, "us").label);
+
+        entityManager.delete(eu);
+        entityManager.flush();
+        assertNull(entityManager.find(Reading.class, 1, "eu"));
+        assertEquals("us-1", entityManager.find(Reading.class, 1, "us").label);
+        List<Reading> left = entityManager.executeQuery("SELECT * FROM partitioned_reading WHERE region = ?",
+                Reading.class, "us");
+        assertEquals(1, left.size());
+    }
+}
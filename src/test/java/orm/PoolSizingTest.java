@@ -0,0 +1,90 @@
+package orm;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.IntPredicate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PoolSizingTest {
+
+    @BeforeAll
+    static void database() {
+        TestDatabase.assumeAvailable();
+    }
+
+    @Test
+    void growsUnderContentionAndShrinksBackWhenIdle() throws Exception {
+        List<String> decisions = new CopyOnWriteArrayList<>();
+        try (StandalonePool pool = new StandalonePool(TestDatabase.PRIMARY, 2, 2, 16, 100, 1, 500, decisions::add)) {
+            assertEquals(2, pool.getSize());
+
+            AtomicBoolean running = new AtomicBoolean(true);
+            List<Thread> workers = new ArrayList<>();
+            for (int i = 0; i < 12; i++) {
+                Thread worker = new Thread(() -> {
+                    while (running.get()) {
+                        try (Connection connection = pool.getConnection();
+                             Statement statement = connection.createStatement()) {
+                            statement.execute("SELECT pg_sleep(0.01)");
+                        } catch (Exception e) {
+                            return;
+                        }
+                    }
+                });
+                workers.add(worker);
+                worker.start();
+            }
+            boolean grew = awaitSize(pool, size -> size > 2, 5_000);
+            int peakSize = pool.getSize();
+            running.set(false);
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            assertTrue(grew, "pula nie urosła pod obciążeniem: " + decisions);
+            assertTrue(peakSize <= 16, "pula przekroczyła maxSize: " + peakSize);
+
+            assertTrue(awaitSize(pool, size -> size == 2, 15_000),
+                    "pula nie wróciła do minSize, rozmiar " + pool.getSize() + ": " + decisions);
+            Thread.sleep(1_000);
+            assertEquals(2, pool.getSize(), "pula zmniejszyła się poniżej minSize");
+            assertTrue(decisions.stream().anyMatch(message -> message.startsWith("[POOL]")), decisions.toString());
+        }
+    }
+
+    @Test
+    void fixedPoolKeepsItsSize() throws Exception {
+        try (StandalonePool pool = new StandalonePool(TestDatabase.PRIMARY, 3, 3, 3, List.of())) {
+            List<Connection> borrowed = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                borrowed.add(pool.getConnection());
+            }
+            assertEquals(0, pool.getAvailable());
+            for (Connection connection : borrowed) {
+                connection.close();
+            }
+            assertEquals(3, pool.getSize());
+            assertEquals(3, pool.getAvailable());
+        }
+    }
+
+    private static boolean awaitSize(StandalonePool pool, IntPredicate condition, long timeoutMillis)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (System.currentTimeMillis() < deadline) {
+            if (condition.test(pool.getSize())) {
+                return true;
+            }
+            Thread.sleep(20);
+        }
+        return condition.test(pool.getSize());
+    }
+}
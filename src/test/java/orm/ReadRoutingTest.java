@@ -0,0 +1,137 @@
+package orm;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.MethodOrderer;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+import orm.annotations.Column;
+import orm.annotations.Id;
+import orm.annotations.Table;
+import orm.logging.LoggerObserver;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Odczyty z replik (replica-test.yml): repliki to osobne bazy na tym samym serwerze, a każda baza ma w wierszu 1
+ * inną wartość owner, więc widać, która obsłużyła odczyt. Replika replica-0 nie działa od startu.
+ */
+@TestMethodOrder(MethodOrderer.OrderAnnotation.class)
+class ReadRoutingTest {
+
+    private static final String[] REPLICAS = {"orm_replica_a", "orm_replica_b"};
+
+    private static EntityManager entityManager;
+
+    @Table(name = "routing_item")
+    public static class Item {
+        @Id
+        @Column(name = "id")
+        private int id;
+
+        @Column(name = "owner")
+        private String owner;
+    }
+
+    @BeforeAll
+    static void databases() throws Exception {
+        TestDatabase.assumeAvailable();
+        try (Connection admin = connect("postgres"); Statement statement = admin.createStatement()) {
+            for (String replica : REPLICAS) {
+                statement.execute("DROP DATABASE IF EXISTS " + replica + " WITH (FORCE)");
+                statement.execute("CREATE DATABASE " + replica);
+            }
+        }
+        createTable("postgres", "primary");
+        createTable(REPLICAS[0], "replica-a");
+        createTable(REPLICAS[1], "replica-b");
+
+        System.setProperty(Config.RESOURCE_PROPERTY, "replica-test.yml");
+        entityManager = new EntityManager(new LoggerObserver());
+    }
+
+    @AfterAll
+    static void dropDatabases() throws Exception {
+        if (entityManager == null) {
+            return;
+        }
+        entityManager.close();
+        try (Connection admin = connect("postgres"); Statement statement = admin.createStatement()) {
+            statement.execute("DROP TABLE IF EXISTS routing_item");
+            for (String replica : REPLICAS) {
+                statement.execute("DROP DATABASE IF EXISTS " + replica + " WITH (FORCE)");
+            }
+        }
+    }
+
+    @Test
+    @Order(1)
+    void replicaDownAtStartupIsSkipped() {
+        assertEquals("replica-a", entityManager.find(Item.class, 1).owner);
+        assertEquals("replica-a", entityManager.executeQuery("SELECT * FROM routing_item", Item.class).get(0).owner);
+    }
+
+    @Test
+    @Order(2)
+    void readsAfterWriteGoToPrimaryUntilTheWindowPasses() throws Exception {
+        Item created = new Item();
+        created.id = 2;
+        created.owner = "written";
+        entityManager.save(created);
+
+        // wiersz istnieje tylko na primary, repliki go nie mają
+        assertEquals("written", entityManager.find(Item.class, 2).owner);
+        assertEquals(2, entityManager.executeQuery("SELECT * FROM routing_item", Item.class).size());
+
+        Thread.sleep(700);
+        assertNull(entityManager.find(Item.class, 2));
+        assertEquals("replica-a", entityManager.find(Item.class, 1).owner);
+    }
+
+    @Test
+    @Order(3)
+    void readFailingOnReplicaIsRetriedOnTheNextReplica() throws Exception {
+        terminate(REPLICAS[0]);
+        assertEquals("replica-b", entityManager.find(Item.class, 1).owner);
+        assertEquals("replica-b", entityManager.executeQuery("SELECT * FROM routing_item", Item.class).get(0).owner);
+    }
+
+    @Test
+    @Order(4)
+    void readFallsBackToPrimaryWhenNoReplicaIsLeft() throws Exception {
+        terminate(REPLICAS[1]);
+        List<Item> items = entityManager.executeQuery("SELECT * FROM routing_item WHERE id = ?", Item.class, 1);
+        assertEquals("primary", items.get(0).owner);
+        assertEquals("primary", entityManager.find(Item.class, 1).owner);
+    }
+
+    private static void createTable(String database, String owner) throws SQLException {
+        try (Connection connection = connect(database); Statement statement = connection.createStatement()) {
+            statement.execute("DROP TABLE IF EXISTS routing_item");
+            statement.execute("CREATE TABLE routing_item (id INTEGER PRIMARY KEY, owner VARCHAR(40))");
+            statement.execute("INSERT INTO routing_item VALUES (1, '" + owner + "')");
+        }
+    }
+
+    /**
+     * Zamyka po stronie serwera wszystkie sesje puli do danej bazy, jak przy awarii repliki.
+     */
+    private static void terminate(String database) throws SQLException {
+        try (Connection admin = connect("postgres"); Statement statement = admin.createStatement()) {
+            statement.execute("SELECT pg_terminate_backend(pid) FROM pg_stat_activity WHERE datname = '" + database + "'");
+        }
+    }
+
+    private static Connection connect(String database) throws SQLException {
+        return DriverManager.getConnection("jdbc:postgresql://localhost:5555/" + database,
+                TestDatabase.PRIMARY.getUser(), TestDatabase.PRIMARY.getPassword());
+    }
+}
@@ -0,0 +1,87 @@
+package orm;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import orm.annotations.Column;
+import orm.annotations.Id;
+import orm.annotations.ManyToOne;
+import orm.annotations.Table;
+import orm.logging.LoggerObserver;
+import orm.schema.SchemaGenerator;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Klucz obcy bez indeksu jest zgłaszany obserwatorom przy tworzeniu EntityManagera (validateSchemaEntities
+ * w schema-validation-test.yml), a po {@link SchemaGenerator#create} indeks już istnieje.
+ */
+class SchemaValidationTest {
+
+    private static final List<String> messages = new CopyOnWriteArrayList<>();
+    private static final LoggerObserver observer = new LoggerObserver() {
+        @Override
+        public void notify(String message) {
+            messages.add(message);
+        }
+    };
+
+    @Table(name = "validation_owner")
+    public static class Owner {
+        @Id
+        @Column(name = "id")
+        private int id;
+    }
+
+    @Table(name = "validation_pet")
+    public static class Pet {
+        @Id
+        @Column(name = "id")
+        private int id;
+
+        @ManyToOne(column = "owner_id")
+        private Owner owner;
+    }
+
+    @BeforeAll
+    static void unindexedForeignKey() throws Exception {
+        TestDatabase.assumeAvailable();
+        try (Connection connection = DriverManager.getConnection(TestDatabase.PRIMARY.getUrl(),
+                TestDatabase.PRIMARY.getUser(), TestDatabase.PRIMARY.getPassword());
+             Statement statement = connection.createStatement()) {
+            statement.execute("DROP TABLE IF EXISTS validation_pet, validation_owner");
+            statement.execute("CREATE TABLE validation_owner (id INTEGER PRIMARY KEY)");
+            statement.execute("CREATE TABLE validation_pet (id INTEGER PRIMARY KEY, "
+                    + "owner_id INTEGER REFERENCES validation_owner (id))");
+        }
+        System.setProperty(Config.RESOURCE_PROPERTY, "schema-validation-test.yml");
+    }
+
+    @AfterAll
+    static void dropTables() throws Exception {
+        try (Connection connection = DriverManager.getConnection(TestDatabase.PRIMARY.getUrl(),
+                TestDatabase.PRIMARY.getUser(), TestDatabase.PRIMARY.getPassword());
+             Statement statement = connection.createStatement()) {
+            statement.execute("DROP TABLE IF EXISTS validation_pet, validation_owner");
+        }
+    }
+
+    @Test
+    void unindexedForeignKeyIsReportedAtStartupAndFixedByCreate() throws Exception {
+        try (EntityManager ignored = new EntityManager(observer)) {
+            assertTrue(messages.contains("[WARN] Unindexed relation lookup column validation_pet.owner_id"),
+                    messages.toString());
+
+            messages.clear();
+            new SchemaGenerator(ConnectionPool.getInstance()).create(Owner.class, Pet.class);
+            assertFalse(messages.stream().anyMatch(message -> message.startsWith("[WARN]")), messages.toString());
+        }
+    }
+}
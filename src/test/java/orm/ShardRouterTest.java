@@ -0,0 +1,33 @@
+package orm;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ShardRouterTest {
+
+    private final ShardRouter router = new ShardRouter(7);
+
+    @Test
+    void sameKeyInDifferentTypesRoutesToTheSameShard() {
+        for (long key = -50; key < 500; key++) {
+            int shard = router.shardFor(key);
+            assertEquals(shard, router.shardFor(String.valueOf(key)), "klucz " + key);
+            assertEquals(shard, router.shardFor(BigInteger.valueOf(key)), "klucz " + key);
+            assertEquals(shard, router.shardFor(new BigDecimal(key).setScale(2)), "klucz " + key);
+            if (key >= Short.MIN_VALUE && key <= Short.MAX_VALUE) {
+                assertEquals(shard, router.shardFor((int) key), "klucz " + key);
+                assertEquals(shard, router.shardFor((short) key), "klucz " + key);
+            }
+        }
+    }
+
+    @Test
+    void nullKeyIsRejected() {
+        assertThrows(RuntimeException.class, () -> router.shardFor(null));
+    }
+}
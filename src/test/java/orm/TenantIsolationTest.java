@@ -0,0 +1,161 @@
+package orm;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import orm.annotations.Column;
+import orm.annotations.Id;
+import orm.annotations.Table;
+import orm.logging.LoggerObserver;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Wiele schematów dzierżawców z tą samą tabelą i tymi samymi id na wspólnej puli połączeń i pamięci podręcznej.
+ * Właściciel każdego wiersza zawiera nazwę schematu, więc odczyt z cudzego schematu jest od razu widoczny.
+ */
+class TenantIsolationTest {
+
+    private static final int SCHEMAS = 30;
+    private static final int ROWS = 50;
+
+    private static EntityManager entityManager;
+    private static final List<String> tenants = new ArrayList<>();
+
+    @Table(name = "tenant_account")
+    public static class Account {
+        @Id
+        @Column(name = "id")
+        private int id;
+
+        @Column(name = "owner")
+        private String owner;
+    }
+
+    @BeforeAll
+    static void schemas() throws Exception {
+        TestDatabase.assumeAvailable();
+        entityManager = new EntityManager(new LoggerObserver());
+        for (int i = 0; i < SCHEMAS; i++) {
+            String tenant = String.format("it_tenant_%02d", i);
+            tenants.add(tenant);
+            entityManager.executeUpdate("DROP SCHEMA IF EXISTS " + tenant + " CASCADE");
+            entityManager.executeUpdate("CREATE SCHEMA " + tenant);
+            entityManager.inTenant(tenant, () -> {
+                entityManager.executeUpdate("CREATE TABLE tenant_account (id INTEGER PRIMARY KEY, owner VARCHAR(60))");
+                entityManager.executeUpdate("INSERT INTO tenant_account SELECT g, ? || '-' || g FROM generate_series(1, ?) g",
+                        tenant, ROWS);
+            });
+        }
+    }
+
+    @AfterAll
+    static void dropSchemas() {
+        if (entityManager == null) {
+            return;
+        }
+        for (String tenant : tenants) {
+            entityManager.executeUpdate("DROP SCHEMA IF EXISTS " + tenant + " CASCADE");
+        }
+        entityManager.close();
+    }
+
+    @Test
+    void concurrentReadsSeeOnlyTheirOwnSchema() throws Exception {
+        Queue<String> mismatches = new ConcurrentLinkedQueue<>();
+        AtomicLong reads = new AtomicLong();
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < 16; t++) {
+            Thread worker = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int n = 0; n < 400; n++) {
+                    String tenant = tenants.get(random.nextInt(tenants.size()));
+                    int id = random.nextInt(1, ROWS + 1);
+                    try {
+                        Account account = entityManager.inTenant(tenant, () -> entityManager.find(Account.class, id));
+                        if (account == null || !(tenant + "-" + id).equals(account.owner)) {
+                            mismatches.add(tenant + "/" + id + " -> " + (account == null ? null : account.owner));
+                        }
+                    } catch (RuntimeException e) {
+                        mismatches.add(tenant + "/" + id + " -> " + e.getMessage());
+                    }
+                    reads.incrementAndGet();
+                }
+            });
+            workers.add(worker);
+            worker.start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        assertEquals(16 * 400, reads.get());
+        assertTrue(mismatches.isEmpty(), mismatches.size() + " odczytów z cudzego schematu, np. " + mismatches.peek());
+    }
+
+    @Test
+    void writesStayInTheirSchema() {
+        String first = tenants.get(0);
+        String second = tenants.get(1);
+
+        Account created = new Account();
+        created.id = ROWS + 1;
+        created.owner = first + "-new";
+        entityManager.inTenant(first, () -> entityManager.save(created));
+
+        // find w drugim schemacie po find w pierwszym: wpis pamięci podręcznej nie może przeciec między schematami
+        assertNotNull(entityManager.inTenant(first, () -> entityManager.find(Account.class, ROWS + 1)));
+        assertNull(entityManager.inTenant(second, () -> entityManager.find(Account.class, ROWS + 1)));
+
+        Account changed = entityManager.inTenant(first, () -> entityManager.find(Account.class, 1));
+        changed.owner = first + "-changed";
+        entityManager.inTenant(first, () -> entityManager.update(changed));
+
+        assertEquals(first + "-changed", entityManager.inTenant(first, () -> entityManager.find(Account.class, 1)).owner);
+        assertEquals(second + "-1", entityManager.inTenant(second, () -> entityManager.find(Account.class, 1)).owner);
+        List<Account> secondRows = entityManager.inTenant(second,
+                () -> entityManager.executeQuery("SELECT * FROM tenant_account WHERE owner LIKE ?", Account.class, "%changed"));
+        assertTrue(secondRows.isEmpty());
+
+        entityManager.inTenant(first, () -> entityManager.delete(created));
+        changed.owner = first + "-1";
+        entityManager.inTenant(first, () -> entityManager.update(changed));
+    }
+
+    @Test
+    void connectionsOutsideTenantUseTheDefaultSearchPath() throws Exception {
+        for (String tenant : tenants) {
+            entityManager.inTenant(tenant, () -> entityManager.find(Account.class, 1));
+        }
+        ConnectionPool pool = ConnectionPool.getInstance();
+        List<Connection> borrowed = new ArrayList<>();
+        try {
+            for (int i = 0; i < 8; i++) {
+                Connection connection = pool.getConnection();
+                borrowed.add(connection);
+                try (Statement statement = connection.createStatement();
+                     ResultSet resultSet = statement.executeQuery("SELECT current_schema()")) {
+                    resultSet.next();
+                    assertEquals("public", resultSet.getString(1));
+                }
+            }
+        } finally {
+            for (Connection connection : borrowed) {
+                connection.close();
+            }
+        }
+        assertTrue(pool.getTenantSwitchCount() > 0);
+    }
+}
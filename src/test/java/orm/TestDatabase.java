@@ -0,0 +1,27 @@
+package orm;
+
+import org.junit.jupiter.api.Assumptions;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+
+/**
+ * Baza primary z docker-compose.yml (port 5555). Testy, które jej potrzebują, są pomijane, gdy nie działa.
+ */
+public final class TestDatabase {
+
+    public static final DataSourceConfig PRIMARY = new DataSourceConfig(
+            "jdbc:postgresql://localhost:5555/postgres", "bookit", "difficult_password");
+
+    private TestDatabase() {
+    }
+
+    public static void assumeAvailable() {
+        try (Connection ignored = DriverManager.getConnection(PRIMARY.getUrl(), PRIMARY.getUser(), PRIMARY.getPassword())) {
+            // baza dostępna
+        } catch (SQLException e) {
+            Assumptions.assumeTrue(false, "Baza z docker-compose niedostępna: " + e.getMessage());
+        }
+    }
+}
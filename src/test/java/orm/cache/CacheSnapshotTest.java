@@ -0,0 +1,112 @@
+package orm.cache;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import orm.TestDatabase;
+import orm.annotations.Column;
+import orm.annotations.Id;
+import orm.annotations.Table;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CacheSnapshotTest {
+
+    private static Connection connection;
+
+    @TempDir
+    Path directory;
+
+    @Table(name = "snapshot_word")
+    public static class Word {
+        @Id
+        @Column(name = "id")
+        private int id;
+
+        @Column(name = "word")
+        private String word;
+
+        public Word() {
+        }
+
+        Word(int id, String word) {
+            this.id = id;
+            this.word = word;
+        }
+    }
+
+    @BeforeAll
+    static void open() throws SQLException {
+        TestDatabase.assumeAvailable();
+        connection = DriverManager.getConnection(TestDatabase.PRIMARY.getUrl(), TestDatabase.PRIMARY.getUser(),
+                TestDatabase.PRIMARY.getPassword());
+    }
+
+    @AfterAll
+    static void close() throws SQLException {
+        if (connection == null) {
+            return;
+        }
+        execute("DROP TABLE IF EXISTS snapshot_word");
+        connection.close();
+    }
+
+    @BeforeEach
+    void table() throws SQLException {
+        execute("DROP TABLE IF EXISTS snapshot_word");
+        execute("CREATE TABLE snapshot_word (id INTEGER PRIMARY KEY, word VARCHAR(40))");
+        execute("INSERT INTO snapshot_word VALUES (1, 'alpha'), (2, 'beta')");
+    }
+
+    @Test
+    void unchangedTableIsWrittenAndValidates() throws Exception {
+        Path path = directory.resolve("cache.snapshot");
+        Map<String, Object> contents = Map.of("snapshot_word:1", new Word(1, "alpha"), "snapshot_word:2", new Word(2, "beta"));
+
+        assertEquals(2, CacheSnapshot.write(path, () -> contents, connection));
+        CacheSnapshot snapshot = CacheSnapshot.open(path);
+        assertTrue(snapshot.validate(connection).contains("snapshot_word"));
+        assertEquals("beta", ((Word) snapshot.decode("snapshot_word", "2")).word);
+    }
+
+    @Test
+    void tableChangedWhileCapturingIsLeftOut() throws Exception {
+        Path path = directory.resolve("cache.snapshot");
+        AtomicInteger calls = new AtomicInteger();
+
+        // zapis zatwierdzony między policzeniem wersji a pobraniem encji: w pamięci jest już stara wartość
+        int written = CacheSnapshot.write(path, () -> {
+            if (calls.incrementAndGet() == 2) {
+                try {
+                    execute("UPDATE snapshot_word SET word = 'changed' WHERE id = 1");
+                } catch (SQLException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            return Map.of("snapshot_word:1", new Word(1, "alpha"));
+        }, connection);
+
+        assertEquals(0, written);
+        CacheSnapshot snapshot = CacheSnapshot.open(path);
+        assertFalse(snapshot.validate(connection).contains("snapshot_word"));
+        assertFalse(snapshot.contains("snapshot_word", "1"));
+    }
+
+    private static void execute(String sql) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute(sql);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package orm.metadata;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import orm.EntityManager;
+import orm.TestDatabase;
+import orm.annotations.Column;
+import orm.annotations.Id;
+import orm.annotations.Table;
+import orm.benchmark.FrameBenchmark;
+import orm.benchmark.ParallelHydrationBenchmark;
+import orm.logging.LoggerObserver;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Klasy {@code _Metadata} z procesora adnotacji; uruchamiany tylko w profilu codegen (mvn -Pcodegen test).
+ */
+class GeneratedMetadataTest {
+
+    private static EntityManager entityManager;
+
+    @Table(name = "generated_note")
+    public static class Note {
+        @Id
+        @Column(name = "id")
+        private int id;
+
+        @Column(name = "title")
+        private String title;
+
+        @Column(name = "pages")
+        private Integer pages;
+    }
+
+    @BeforeAll
+    static void codegen() {
+        Assumptions.assumeTrue(Boolean.getBoolean("orm.codegen"), "tylko z -Pcodegen");
+    }
+
+    @AfterAll
+    static void dropTable() throws Exception {
+        if (entityManager == null) {
+            return;
+        }
+        entityManager.executeUpdate("DROP TABLE IF EXISTS generated_note");
+        entityManager.close();
+    }
+
+    @Test
+    void nestedEntitiesWithTheSameSimpleNameGetTheirOwnMetadata() {
+        EntityMetadata<FrameBenchmark.Row> frame = EntityMetadataRegistry.lookup(FrameBenchmark.Row.class);
+        EntityMetadata<ParallelHydrationBenchmark.Row> parallel =
+                EntityMetadataRegistry.lookup(ParallelHydrationBenchmark.Row.class);
+
+        assertNotNull(frame);
+        assertNotNull(parallel);
+        assertEquals(FrameBenchmark.Row.class, frame.entityClass());
+        assertEquals(ParallelHydrationBenchmark.Row.class, parallel.entityClass());
+        // Row z relacją @ManyToOne zapisuje ścieżka refleksyjna
+        assertNull(parallel.insertSql());
+    }
+
+    @Test
+    void saveAndUpdateUseGeneratedStatements() throws Exception {
+        TestDatabase.assumeAvailable();
+        EntityMetadata<Note> metadata = EntityMetadataRegistry.lookup(Note.class);
+        assertNotNull(metadata);
+        assertEquals("INSERT INTO generated_note (id, title, pages) VALUES (?, ?, ?)", metadata.insertSql());
+        assertEquals("UPDATE generated_note SET title = ?, pages = ? WHERE id = ?", metadata.updateSql());
+
+        entityManager = new EntityManager(new LoggerObserver());
+        entityManager.executeUpdate("DROP TABLE IF EXISTS generated_note");
+        entityManager.executeUpdate("CREATE TABLE generated_note (id INTEGER PRIMARY KEY, title VARCHAR(40), pages INTEGER)");
+
+        Note note = new Note();
+        note.id = 1;
+        note.title = "it's";
+        entityManager.save(note);
+        assertTrue(isNull("pages"), "null zapisany jako NULL, nie jako tekst");
+
+        note.title = null;
+        note.pages = 12;
+        entityManager.update(note);
+        Note found = entityManager.find(Note.class, 1);
+        assertNull(found.title);
+        assertEquals(12, found.pages);
+    }
+
+    private static boolean isNull(String column) throws Exception {
+        try (Connection connection = DriverManager.getConnection(TestDatabase.PRIMARY.getUrl(),
+                TestDatabase.PRIMARY.getUser(), TestDatabase.PRIMARY.getPassword());
+             Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT " + column + " IS NULL FROM generated_note WHERE id = 1")) {
+            resultSet.next();
+            return resultSet.getBoolean(1);
+        }
+    }
+}
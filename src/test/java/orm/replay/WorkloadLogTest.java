@@ -0,0 +1,22 @@
+package orm.replay;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class WorkloadLogTest {
+
+    @Test
+    void everyQuotedLiteralIsRedacted() {
+        assertEquals("INSERT INTO card (id, number, note, valid, joined) VALUES "
+                        + "('11', '1111 1111 1111 1111', 'xxxxxxx', 'xxxx', '1111-11-11 11:11:11')",
+                WorkloadLog.redactLiterals("INSERT INTO card (id, number, note, valid, joined) VALUES "
+                        + "('42', '4111 1111 1111 1234', 'it''s a', 'true', '2024-05-17 09:30:00')"));
+    }
+
+    @Test
+    void unquotedTokensAreKept() {
+        assertEquals("SELECT * FROM card WHERE id = 42 AND valid = true AND note IS NOT null AND name = 'xxx'",
+                WorkloadLog.redactLiterals("SELECT * FROM card WHERE id = 42 AND valid = true AND note IS NOT null AND name = 'Ala'"));
+    }
+}
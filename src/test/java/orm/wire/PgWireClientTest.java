@@ -0,0 +1,83 @@
+package orm.wire;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import orm.TestDatabase;
+
+import java.lang.reflect.Field;
+import java.nio.channels.Selector;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PgWireClientTest {
+
+    private PgWireClient client;
+
+    @BeforeAll
+    static void database() {
+        TestDatabase.assumeAvailable();
+    }
+
+    @BeforeEach
+    void open() throws Exception {
+        client = new PgWireClient(TestDatabase.PRIMARY.getUrl(), TestDatabase.PRIMARY.getUser(),
+                TestDatabase.PRIMARY.getPassword(), 2, 64);
+    }
+
+    @AfterEach
+    void close() {
+        client.close();
+    }
+
+    @Test
+    void pipelinedQueriesReturnTheirOwnRows() throws Exception {
+        List<CompletableFuture<List<WireRow>>> futures = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            futures.add(client.query("SELECT ?::int * 2 AS doubled, 'x?' AS literal", i));
+        }
+        for (int i = 0; i < futures.size(); i++) {
+            List<WireRow> rows = futures.get(i).get(10, TimeUnit.SECONDS);
+            assertEquals(1, rows.size());
+            assertEquals(i * 2, ((Number) rows.get(0).get("doubled")).intValue());
+            assertEquals("x?", rows.get(0).get("literal"));
+        }
+        assertEquals(0, client.getInFlight());
+    }
+
+    @Test
+    void databaseErrorFailsOnlyThatQuery() throws Exception {
+        CompletableFuture<List<WireRow>> failing = client.query("SELECT * FROM no_such_table_for_wire_test");
+        CompletableFuture<List<WireRow>> next = client.query("SELECT 1 AS one");
+
+        ExecutionException error = assertThrows(ExecutionException.class, () -> failing.get(10, TimeUnit.SECONDS));
+        assertTrue(error.getCause() instanceof SQLException, error.getCause().toString());
+        assertEquals("42P01", ((SQLException) error.getCause()).getSQLState());
+        assertEquals(1, ((Number) next.get(10, TimeUnit.SECONDS).get(0).get("one")).intValue());
+    }
+
+    @Test
+    void ioThreadFailureFailsPendingQueriesAndClosesClient() throws Exception {
+        CompletableFuture<List<WireRow>> pending = client.query("SELECT pg_sleep(5)");
+        Thread.sleep(200);
+
+        Field selectorField = PgWireClient.class.getDeclaredField("selector");
+        selectorField.setAccessible(true);
+        ((Selector) selectorField.get(client)).close();
+
+        ExecutionException error = assertThrows(ExecutionException.class, () -> pending.get(2, TimeUnit.SECONDS));
+        assertTrue(error.getCause() instanceof SQLException, error.getCause().toString());
+        ExecutionException rejected = assertThrows(ExecutionException.class,
+                () -> client.query("SELECT 1").get(2, TimeUnit.SECONDS));
+        assertEquals("08003", ((SQLException) rejected.getCause()).getSQLState());
+    }
+}